@@ -25,8 +25,7 @@
 package org.lenskit.api;
 
 import javax.annotation.Nullable;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Interface for recommending items. This interface provides APIs for both basic (recommend for a given user)
@@ -123,4 +122,28 @@ public interface ItemRecommender {
      */
     ResultList recommendWithDetails(long user, int n, @Nullable Set<Long> candidates,
                                     @Nullable Set<Long> exclude);
+
+    /**
+     * Produce recommendations with details for several users, using each user's default candidate
+     * and exclude sets.  The results are the same as calling
+     * {@link #recommendWithDetails(long, int, Set, Set)} for each user, but implementations may
+     * share work across the users in the batch.  Implementations may also compute it in parallel, but
+     * only for the parts of the work that use thread-safe components; recommenders are otherwise used
+     * from one thread at a time.
+     *
+     * The default implementation loops over the users.
+     *
+     * @param users The user IDs.
+     * @param n     The number of recommendations to return for each user. If negative, the
+     *              recommender will return as many recommendations as possible.
+     * @return A map from each user ID to that user's recommendations.
+     * @since 3.0
+     */
+    default Map<Long, ResultList> recommendWithDetails(Collection<Long> users, int n) {
+        Map<Long, ResultList> results = new HashMap<>();
+        for (Long user: users) {
+            results.put(user, recommendWithDetails(user, n, null, null));
+        }
+        return results;
+    }
 }
@@ -28,6 +28,7 @@ import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.auto.service.AutoService;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -51,6 +52,7 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Generate Top-N recommendations for users.
@@ -61,6 +63,10 @@ import java.util.List;
 @AutoService(Command.class)
 public class Recommend implements Command {
     private final Logger logger = LoggerFactory.getLogger(Recommend.class);
+    /**
+     * The number of users to recommend for at a time.  Each batch is written before the next is computed.
+     */
+    private static final int BATCH_SIZE = 64;
 
     @Override
     public String getName() {
@@ -97,9 +103,11 @@ public class Recommend implements Command {
             logger.info("recommending for {} users", users.size());
             Stopwatch timer = Stopwatch.createStarted();
             try (RecOutput output = openOutput(ctx, dao)) {
-                for (long user : users) {
-                    ResultList recs = irec.recommendWithDetails(user, n, null, null);
-                    output.writeUser(user, recs);
+                for (List<Long> batch : Lists.partition(users, BATCH_SIZE)) {
+                    Map<Long, ResultList> recs = irec.recommendWithDetails(batch, n);
+                    for (long user : batch) {
+                        output.writeUser(user, recs.get(user));
+                    }
                 }
             }
             timer.stop();
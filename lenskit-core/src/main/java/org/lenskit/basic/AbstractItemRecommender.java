@@ -24,12 +24,15 @@
  */
 package org.lenskit.basic;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.ResultList;
 import org.lenskit.util.collections.LongUtils;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -96,4 +99,36 @@ public abstract class AbstractItemRecommender implements ItemRecommender {
      * @see #recommendWithDetails(long, int, Set, Set)
      */
     protected abstract ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude);
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation calls {@link #recommendWithDetails(long, int, LongSet, LongSet)} for each user in
+     * turn.  A recommender belongs to a single session, and its session components (such as the DAO) are not
+     * safe to use from multiple threads, so overrides may only parallelize work on components that are
+     * documented as thread-safe, such as shareable models.
+     */
+    @Override
+    public Long2ObjectMap<ResultList> recommendWithDetails(Collection<Long> users, int n) {
+        long[] ids = LongUtils.asLongCollection(users).toLongArray();
+        ResultList[] results = new ResultList[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            results[i] = recommendWithDetails(ids[i], n, null, null);
+        }
+        return collectBatch(ids, results);
+    }
+
+    /**
+     * Assemble the results of a batch recommendation.
+     * @param users The users.
+     * @param results The results, parallel to {@code users}.
+     * @return The map of users to results.
+     */
+    protected static Long2ObjectMap<ResultList> collectBatch(long[] users, ResultList[] results) {
+        Long2ObjectMap<ResultList> map = new Long2ObjectOpenHashMap<>(users.length);
+        for (int i = 0; i < users.length; i++) {
+            map.put(users[i], results[i]);
+        }
+        return map;
+    }
 }
@@ -24,11 +24,13 @@
  */
 package org.lenskit.basic;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ItemBasedItemRecommender;
 import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.entities.CommonAttributes;
@@ -38,6 +40,8 @@ import org.lenskit.util.collections.LongUtils;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.function.LongPredicate;
@@ -130,12 +134,16 @@ public class PopularItemRecommender extends AbstractItemRecommender implements I
                 .collect(Results.listCollector());
     }
 
+    private LongSet getDefaultExcludes(long user) {
+        return data.query(statistics.getEntityType())
+                   .withAttribute(CommonAttributes.USER_ID, user)
+                   .valueSet(CommonAttributes.ITEM_ID);
+    }
+
     @Override
     protected LongList recommend(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
         if (exclude == null) {
-            exclude = data.query(statistics.getEntityType())
-                          .withAttribute(CommonAttributes.USER_ID, user)
-                          .valueSet(CommonAttributes.ITEM_ID);
+            exclude = getDefaultExcludes(user);
         }
         return recommendWithSets(n, candidates, exclude);
     }
@@ -147,4 +155,30 @@ public class PopularItemRecommender extends AbstractItemRecommender implements I
                 .map(i -> Results.create(i, statistics.getInteractionCount(i)))
                 .collect(Results.listCollector());
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation fetches the popularity ranking once and shares it across the batch.
+     */
+    @Override
+    public Long2ObjectMap<ResultList> recommendWithDetails(Collection<Long> users, int n) {
+        long[] ranked = statistics.getItemsByPopularity().toLongArray();
+        long[] ids = LongUtils.asLongCollection(users).toLongArray();
+        ResultList[] results = new ResultList[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            LongSet exclude = getDefaultExcludes(ids[i]);
+            List<Result> recs = new ArrayList<>(n > 0 ? Math.min(n, ranked.length) : ranked.length);
+            for (long item: ranked) {
+                if (n > 0 && recs.size() >= n) {
+                    break;
+                }
+                if (!exclude.contains(item)) {
+                    recs.add(Results.create(item, statistics.getInteractionCount(item)));
+                }
+            }
+            results[i] = Results.newResultList(recs);
+        }
+        return collectBatch(ids, results);
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import org.lenskit.api.ItemScorer;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+
+/**
+ * An item scorer that can push scores to a consumer as it computes them, instead of collecting them
+ * into a map.  Recommenders use this to select the top items from large candidate sets without
+ * building a map of every candidate's score.
+ *
+ * <p>Streaming scores must be the same as those returned by {@link #score(long, Collection)}.
+ *
+ * @since 3.0
+ */
+public interface StreamingItemScorer extends ItemScorer {
+    /**
+     * Score a collection of items for a user, passing each score to a consumer.  Items that cannot
+     * be scored are skipped, and scores may be passed in any order.
+     *
+     * @param user The user ID.
+     * @param items The items to score.
+     * @param consumer The consumer to receive the scores.
+     */
+    void score(long user, @Nonnull Collection<Long> items, @Nonnull ScoreConsumer consumer);
+}
@@ -76,8 +76,10 @@ public class TopNItemRecommender extends AbstractItemRecommender {
 
     /**
      * Implement recommendation by calling {@link ItemScorer#score(long, Collection)} and sorting
-     * the results by score.  This method uses {@link #getDefaultExcludes(long)} to get the default
-     * exclude set for the user, if none is provided.
+     * the results by score.  If the scorer is a {@link StreamingItemScorer}, its scores are streamed
+     * into the top-<i>N</i> accumulator without building a score map.  This method uses
+     * {@link #getDefaultExcludes(long)} to get the default exclude set for the user, if none is
+     * provided.
      */
     @Override
     protected List<Long> recommend(long user, int n, LongSet candidates, LongSet exclude) {
@@ -85,7 +87,6 @@ public class TopNItemRecommender extends AbstractItemRecommender {
         logger.debug("Computing {} recommendations for user {} from {} candidates",
                      n, user, candidates.size());
 
-        Map<Long, Double> scores = scorer.score(user, candidates);
         Long2DoubleAccumulator accum;
         if (n >= 0) {
             accum = new TopNLong2DoubleAccumulator(n);
@@ -93,10 +94,15 @@ public class TopNItemRecommender extends AbstractItemRecommender {
             accum = new UnlimitedLong2DoubleAccumulator();
         }
 
-        Long2DoubleMap map = LongUtils.asLong2DoubleMap(scores);
+        if (scorer instanceof StreamingItemScorer) {
+            ((StreamingItemScorer) scorer).score(user, candidates, accum::put);
+        } else {
+            Map<Long, Double> scores = scorer.score(user, candidates);
+            Long2DoubleMap map = LongUtils.asLong2DoubleMap(scores);
 
-        for (Long2DoubleMap.Entry e: Vectors.fastEntries(map)) {
-            accum.put(e.getLongKey(), e.getDoubleValue());
+            for (Long2DoubleMap.Entry e: Vectors.fastEntries(map)) {
+                accum.put(e.getLongKey(), e.getDoubleValue());
+            }
         }
 
         return accum.finishList();
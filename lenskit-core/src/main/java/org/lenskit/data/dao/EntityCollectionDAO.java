@@ -24,10 +24,13 @@
  */
 package org.lenskit.data.dao;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Ordering;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.longs.LongSets;
 import org.lenskit.data.entities.*;
+import org.lenskit.data.store.CollectionSnapshots;
 import org.lenskit.data.store.EntityCollection;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.describe.Describable;
@@ -35,8 +38,12 @@ import org.lenskit.util.describe.DescriptionWriter;
 import org.lenskit.util.io.AbstractObjectStream;
 import org.lenskit.util.io.ObjectStream;
 import org.lenskit.util.io.ObjectStreams;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -77,6 +84,49 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
         return newBuilder().addEntities(data).build();
     }
 
+    /**
+     * Load a DAO from a snapshot written by {@link #writeSnapshot(Path)}.
+     * @param file The snapshot file.
+     * @return The DAO.
+     * @throws IOException if there is an error reading the snapshot.
+     * @see CollectionSnapshots
+     */
+    public static EntityCollectionDAO readSnapshot(Path file) throws IOException {
+        return fromCollections(CollectionSnapshots.read(file));
+    }
+
+    /**
+     * Open a snapshot written by {@link #writeSnapshot(Path)} with memory-mapping.  The primitive columns
+     * and indexes of packed collections stay in the mapped file instead of the heap, and are shared with
+     * any other process that maps the same snapshot.
+     *
+     * @param file The snapshot file.
+     * @return The DAO.
+     * @throws IOException if there is an error mapping the snapshot.
+     * @see CollectionSnapshots#map(Path)
+     */
+    public static EntityCollectionDAO mapSnapshot(Path file) throws IOException {
+        return fromCollections(CollectionSnapshots.map(file));
+    }
+
+    private static EntityCollectionDAO fromCollections(List<EntityCollection> collections) {
+        ImmutableMap.Builder<EntityType, EntityCollection> mb = ImmutableMap.builder();
+        for (EntityCollection coll: collections) {
+            mb.put(coll.getType(), coll);
+        }
+        return new EntityCollectionDAO(mb.build());
+    }
+
+    /**
+     * Write this DAO's entity collections, with their indexes, to a snapshot file.
+     * @param file The snapshot file.
+     * @throws IOException if there is an error writing the snapshot.
+     * @see CollectionSnapshots
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        CollectionSnapshots.write(storage.values(), file);
+    }
+
 
     @Override
     public Set<EntityType> getEntityTypes() {
@@ -207,6 +257,28 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
         };
     }
 
+    /**
+     * Extract a vector of attribute values directly from storage, without creating entity objects when
+     * the underlying collection supports it.
+     *
+     * @param type The entity type.
+     * @param name The attribute to search.
+     * @param value The attribute value to search for.
+     * @param key The attribute providing the vector keys.
+     * @param val The attribute providing the vector values.
+     * @return The vector.
+     * @see EntityCollection#valueVector(TypedName, long, TypedName, TypedName)
+     */
+    @Nonnull
+    public Long2DoubleMap valueVector(EntityType type, TypedName<Long> name, long value,
+                                      TypedName<Long> key, TypedName<Double> val) {
+        EntityCollection data = storage.get(type);
+        if (data == null) {
+            return Long2DoubleSortedArrayMap.wrapUnsorted(new long[0], new double[0]);
+        }
+        return data.valueVector(name, value, key, val);
+    }
+
     @Override
     public void describeTo(DescriptionWriter writer) {
         for (EntityType etype: Ordering.natural()
@@ -0,0 +1,342 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.dao.file;
+
+import com.google.common.base.Throwables;
+import org.lenskit.data.dao.DataAccessException;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.util.io.AbstractObjectStream;
+import org.lenskit.util.io.CompressionMode;
+import org.lenskit.util.io.ObjectStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel reader for delimited text files.  The file is memory-mapped and split into newline-aligned chunks,
+ * which are parsed on the common fork-join pool with a {@link DelimitedColumnEntityFormat.ByteLineParser}.
+ * Entities are returned in line order, so synthetic IDs match those of a sequential read.
+ *
+ * <p>Compressed files are first decompressed to a temporary file, which is deleted when the stream is
+ * closed.</p>
+ */
+final class ChunkedTextReader {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedTextReader.class);
+    /**
+     * The target size of a chunk.  Chunks are extended to the end of the line containing their last byte.
+     */
+    static final int CHUNK_SIZE = 16 << 20;
+
+    private ChunkedTextReader() {}
+
+    /**
+     * Open a parallel stream over a delimited text file.
+     *
+     * @param file The file to read.
+     * @param format The file's format.
+     * @return The stream of entities, or {@code null} if the format cannot be read with a byte-level parser.
+     * @throws IOException if there is an error reading the file.
+     */
+    @Nullable
+    static ObjectStream<Entity> open(Path file, DelimitedColumnEntityFormat format) throws IOException {
+        return open(file, format, CHUNK_SIZE);
+    }
+
+    @Nullable
+    static ObjectStream<Entity> open(Path file, DelimitedColumnEntityFormat format,
+                                     int chunkSize) throws IOException {
+        CompressionMode comp = CompressionMode.AUTO.getEffectiveCompressionMode(file.getFileName().toString());
+        Path data = file;
+        Path temp = null;
+        if (comp != CompressionMode.NONE) {
+            temp = Files.createTempFile("lenskit", ".txt");
+            logger.debug("decompressing {} to {}", file, temp);
+            try (InputStream in = comp.wrapInput(Files.newInputStream(file))) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            data = temp;
+        }
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(data, StandardOpenOption.READ);
+            long size = channel.size();
+
+            long pos = 0;
+            List<String> header = new ArrayList<>();
+            ByteArrayOutputStream hbuf = new ByteArrayOutputStream();
+            while (header.size() < format.getHeaderLines()) {
+                if (pos >= size) {
+                    throw new IOException(String.format("%s: expected %d header lines, found %d",
+                                                        file, format.getHeaderLines(), header.size()));
+                }
+                long next = findLineEnd(channel, pos, size, hbuf);
+                header.add(trimLine(hbuf));
+                pos = next;
+            }
+
+            if (format.makeByteParser(header) == null) {
+                closeQuietly(channel, temp);
+                return null;
+            }
+
+            List<long[]> chunks = new ArrayList<>();
+            while (pos < size) {
+                long end = Math.min(pos + chunkSize, size);
+                if (end < size) {
+                    end = findLineEnd(channel, end - 1, size, null);
+                }
+                chunks.add(new long[]{pos, end});
+                pos = end;
+            }
+
+            final int n = chunks.size();
+            final MappedByteBuffer[] buffers = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long[] c = chunks.get(i);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, c[0], c[1] - c[0]);
+            }
+
+            // count lines so each chunk knows the number of its first line
+            long[] firstLines = new long[n + 1];
+            long[] counts = new long[n];
+            IntStream.range(0, n).parallel().forEach(i -> counts[i] = countLines(buffers[i]));
+            for (int i = 0; i < n; i++) {
+                firstLines[i + 1] = firstLines[i] + counts[i];
+            }
+            logger.debug("reading {} lines from {} in {} chunks", firstLines[n], file, n);
+
+            return new ChunkStream(format, header, buffers, firstLines, channel, temp);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                closeQuietly(channel, temp);
+            } else if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Find the end of the line containing a position.
+     *
+     * @param channel The channel.
+     * @param pos The position.
+     * @param size The channel's size.
+     * @param out A buffer to receive the bytes of the line (from {@code pos}), or {@code null}.
+     * @return The position just after the newline terminating the line, or the end of the file.
+     */
+    private static long findLineEnd(FileChannel channel, long pos, long size,
+                                    @Nullable ByteArrayOutputStream out) throws IOException {
+        if (out != null) {
+            out.reset();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        while (pos < size) {
+            buf.clear();
+            int nread = channel.read(buf, pos);
+            if (nread <= 0) {
+                break;
+            }
+            for (int i = 0; i < nread; i++) {
+                byte b = buf.get(i);
+                if (b == '\n') {
+                    return pos + i + 1;
+                } else if (out != null) {
+                    out.write(b);
+                }
+            }
+            pos += nread;
+        }
+        return size;
+    }
+
+    private static String trimLine(ByteArrayOutputStream buf) {
+        String line = new String(buf.toByteArray(), StandardCharsets.UTF_8);
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        return line;
+    }
+
+    /**
+     * Count the lines in a chunk, counting a final unterminated line.
+     */
+    private static long countLines(ByteBuffer buf) {
+        final int n = buf.limit();
+        long count = 0;
+        for (int i = 0; i < n; i++) {
+            if (buf.get(i) == '\n') {
+                count++;
+            }
+        }
+        if (n > 0 && buf.get(n - 1) != '\n') {
+            count++;
+        }
+        return count;
+    }
+
+    private static void closeQuietly(FileChannel channel, @Nullable Path temp) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("error closing file", e);
+        }
+        if (temp != null) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                logger.warn("cannot delete temporary file {}", temp, e);
+            }
+        }
+    }
+
+    /**
+     * Parse the lines of a chunk.
+     */
+    private static List<Entity> parseChunk(DelimitedColumnEntityFormat format, List<String> header,
+                                           ByteBuffer chunk, long firstLine) {
+        DelimitedColumnEntityFormat.ByteLineParser parser = format.makeByteParser(header);
+        assert parser != null;
+        ByteBuffer buf = chunk.duplicate();
+        final int n = buf.limit();
+        List<Entity> entities = new ArrayList<>();
+        byte[] line = new byte[256];
+        long lineNo = firstLine;
+        int start = 0;
+        while (start < n) {
+            int end = start;
+            while (end < n && buf.get(end) != '\n') {
+                end++;
+            }
+            int len = end - start;
+            if (len > line.length) {
+                line = new byte[Math.max(len, line.length * 2)];
+            }
+            buf.position(start);
+            buf.get(line, 0, len);
+            if (len > 0 && line[len - 1] == '\r') {
+                len -= 1;
+            }
+            lineNo += 1;
+            entities.add(parser.parse(line, 0, len, lineNo));
+            start = end + 1;
+        }
+        return entities;
+    }
+
+    /**
+     * Stream that returns the parsed chunks in order, keeping a bounded number of chunks in flight.
+     */
+    private static class ChunkStream extends AbstractObjectStream<Entity> {
+        private final DelimitedColumnEntityFormat format;
+        private final List<String> header;
+        private final MappedByteBuffer[] buffers;
+        private final long[] firstLines;
+        private final FileChannel channel;
+        @Nullable
+        private final Path tempFile;
+        private final int window;
+        private final ArrayDeque<CompletableFuture<List<Entity>>> pending = new ArrayDeque<>();
+        private int nextChunk = 0;
+        private Iterator<Entity> current = null;
+
+        ChunkStream(DelimitedColumnEntityFormat fmt, List<String> hdr, MappedByteBuffer[] bufs, long[] lines,
+                    FileChannel chan, @Nullable Path temp) {
+            format = fmt;
+            header = hdr;
+            buffers = bufs;
+            firstLines = lines;
+            channel = chan;
+            tempFile = temp;
+            window = 2 * ForkJoinPool.getCommonPoolParallelism();
+            fill();
+        }
+
+        private void fill() {
+            while (pending.size() < window && nextChunk < buffers.length) {
+                final int i = nextChunk++;
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    List<Entity> result = parseChunk(format, header, buffers[i], firstLines[i]);
+                    // release the chunk's mapping once it has been parsed
+                    buffers[i] = null;
+                    return result;
+                }, ForkJoinPool.commonPool()));
+            }
+        }
+
+        @Nullable
+        @Override
+        public Entity readObject() {
+            while (current == null || !current.hasNext()) {
+                CompletableFuture<List<Entity>> next = pending.poll();
+                if (next == null) {
+                    return null;
+                }
+                try {
+                    current = next.join().iterator();
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause();
+                    Throwables.throwIfUnchecked(cause);
+                    throw new DataAccessException(cause);
+                }
+                fill();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() {
+            for (CompletableFuture<?> f: pending) {
+                f.cancel(false);
+            }
+            pending.clear();
+            closeQuietly(channel, tempFile);
+        }
+    }
+}
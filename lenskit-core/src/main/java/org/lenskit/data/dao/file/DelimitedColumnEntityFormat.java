@@ -41,6 +41,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static org.lenskit.data.dao.file.TextEntitySource.parseAttribute;
@@ -50,6 +51,18 @@ import static org.lenskit.data.dao.file.TextEntitySource.parseAttribute;
  */
 public class DelimitedColumnEntityFormat implements EntityFormat {
     private static final Logger logger = LoggerFactory.getLogger(DelimitedColumnEntityFormat.class);
+    /**
+     * Sentinel returned by {@link #parseLong(byte[], int, int)} when the field is not a plain integer.  Its
+     * 19-digit value is never produced by that method.
+     */
+    private static final long NO_LONG = Long.MIN_VALUE;
+    /**
+     * Powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
     private String delimiter = "\t";
     private int headerLines;
     private boolean readHeader;
@@ -380,6 +393,35 @@ public class DelimitedColumnEntityFormat implements EntityFormat {
 
     @Override
     public LineEntityParser makeParser(List<String> header) {
+        StringTokenizer tok = new StringTokenizer("", delimiter);
+        tok.setQuoteChar('"');
+        return new OrderedParser(resolveColumns(header), tok);
+    }
+
+    /**
+     * Create a parser that parses lines directly from UTF-8 bytes, for parallel ingestion of large files.
+     * A fresh parser must be created for each thread.
+     *
+     * @param header The header lines.
+     * @return The parser, or {@code null} if this format's delimiter is not a single ASCII character.
+     */
+    @Nullable
+    ByteLineParser makeByteParser(List<String> header) {
+        if (delimiter.length() != 1 || delimiter.charAt(0) >= 0x80 || delimiter.charAt(0) == '"') {
+            return null;
+        }
+        List<TypedName<?>> cols = resolveColumns(header);
+        // create the builder factory now, so parsers on several threads do not race to do so
+        newEntityBuilder();
+        StringTokenizer tok = new StringTokenizer("", delimiter);
+        tok.setQuoteChar('"');
+        return new ByteLineParser(cols, (byte) delimiter.charAt(0), tok);
+    }
+
+    /**
+     * Resolve the columns of a file from its header lines.
+     */
+    private List<TypedName<?>> resolveColumns(List<String> header) {
         assert header.size() == getHeaderLines();
 
         if (usesHeader() && labeledColumns != null) {
@@ -391,15 +433,38 @@ public class DelimitedColumnEntityFormat implements EntityFormat {
                 String label = tok.next();
                 cols.add(labeledColumns.get(label));
             }
-            return new OrderedParser(cols, tok);
+            return cols;
         } else {
             Preconditions.checkState(columns != null, "no columns specified");
-            StringTokenizer tok = new StringTokenizer("", delimiter);
-            tok.setQuoteChar('"');
-            return new OrderedParser(columns, tok);
+            return columns;
         }
     }
 
+    /**
+     * Parse a line that has been split by a tokenizer.
+     */
+    private Entity parseTokens(StringTokenizer tokenizer, List<TypedName<?>> fileColumns, long lineNo) {
+        EntityBuilder builder = newEntityBuilder()
+                .setId(lineNo + baseId);
+
+        // since ID is already set, a subsequent ID column will properly override
+
+        for (TypedName column: fileColumns) {
+            String value = tokenizer.nextToken();
+            if (value != null && column != null) {
+                Object parsed;
+                try {
+                     parsed = column.parseString(value);
+                } catch (IllegalArgumentException e) {
+                    throw new DataAccessException("line " + lineNo + ": error parsing column " + column, e);
+                }
+                builder.setAttribute(column, parsed);
+            }
+        }
+
+        return builder.build();
+    }
+
     private class OrderedParser extends LineEntityParser {
         int lineNo = 0;
         StringTokenizer tokenizer;
@@ -414,26 +479,169 @@ public class DelimitedColumnEntityFormat implements EntityFormat {
         public Entity parse(String line) {
             tokenizer.reset(line);
             lineNo += 1;
+            return parseTokens(tokenizer, fileColumns, lineNo);
+        }
+    }
 
-            EntityBuilder builder = newEntityBuilder()
-                    .setId(lineNo + baseId);
-
-            // since ID is already set, a subsequent ID column will properly override
+    /**
+     * Parser for lines of UTF-8 bytes.  It splits fields with a byte-level scan for the delimiter and parses
+     * integer and decimal columns without creating strings.  Lines containing quote characters, and values the
+     * fast number parsers do not handle, go through the same tokenizer and string conversions as
+     * {@link #makeParser(List)}, so both parsers produce the same entities.
+     */
+    class ByteLineParser {
+        private final TypedName<?>[] fileColumns;
+        private final List<TypedName<?>> columnList;
+        private final byte delim;
+        private final StringTokenizer tokenizer;
+        private final int[] starts;
+        private final int[] ends;
+
+        ByteLineParser(List<TypedName<?>> cols, byte delim, StringTokenizer tok) {
+            columnList = cols;
+            fileColumns = cols.toArray(new TypedName<?>[cols.size()]);
+            this.delim = delim;
+            tokenizer = tok;
+            starts = new int[fileColumns.length];
+            ends = new int[fileColumns.length];
+        }
 
-            for (TypedName column: fileColumns) {
-                String value = tokenizer.nextToken();
-                if (value != null && column != null) {
-                    Object parsed;
-                    try {
-                         parsed = column.parseString(value);
-                    } catch (IllegalArgumentException e) {
-                        throw new DataAccessException("line " + lineNo + ": error parsing column " + column, e);
+        /**
+         * Parse a line.
+         * @param buf The buffer containing the line's bytes.
+         * @param off The offset of the line's first byte.
+         * @param len The length of the line, excluding its terminator.
+         * @param lineNo The line number, counting the first line after the header as 1.
+         * @return The parsed entity.
+         */
+        @SuppressWarnings("unchecked")
+        Entity parse(byte[] buf, int off, int len, long lineNo) {
+            final int end = off + len;
+            int ntok = 0;
+            int pos = off;
+            // split into fields; like the tokenizer, skip empty fields
+            while (pos < end && ntok < fileColumns.length) {
+                int fend = pos;
+                while (fend < end && buf[fend] != delim) {
+                    if (buf[fend] == '"') {
+                        return parseQuoted(buf, off, len, lineNo);
                     }
-                    builder.setAttribute(column, parsed);
+                    fend++;
                 }
+                if (fend > pos) {
+                    starts[ntok] = pos;
+                    ends[ntok] = fend;
+                    ntok++;
+                }
+                pos = fend + 1;
             }
 
+            EntityBuilder builder = newEntityBuilder()
+                    .setId(lineNo + baseId);
+            for (int i = 0; i < ntok; i++) {
+                TypedName column = fileColumns[i];
+                if (column == null) {
+                    continue;
+                }
+                Class<?> type = column.getRawType();
+                final int s = starts[i];
+                final int e = ends[i];
+                if (type == Long.class) {
+                    long v = parseLong(buf, s, e);
+                    if (v != NO_LONG) {
+                        builder.setLongAttribute(column, v);
+                        continue;
+                    }
+                } else if (type == Double.class) {
+                    double v = parseDouble(buf, s, e);
+                    if (!Double.isNaN(v)) {
+                        builder.setDoubleAttribute(column, v);
+                        continue;
+                    }
+                } else if (type == String.class) {
+                    builder.setAttribute(column, new String(buf, s, e - s, StandardCharsets.UTF_8));
+                    continue;
+                }
+                String value = new String(buf, s, e - s, StandardCharsets.UTF_8);
+                Object parsed;
+                try {
+                    parsed = column.parseString(value);
+                } catch (IllegalArgumentException ex) {
+                    throw new DataAccessException("line " + lineNo + ": error parsing column " + column, ex);
+                }
+                builder.setAttribute(column, parsed);
+            }
             return builder.build();
         }
+
+        private Entity parseQuoted(byte[] buf, int off, int len, long lineNo) {
+            tokenizer.reset(new String(buf, off, len, StandardCharsets.UTF_8));
+            return parseTokens(tokenizer, columnList, lineNo);
+        }
+    }
+
+    /**
+     * Parse a plain decimal integer ({@code [+-]?[0-9]+}, at most 18 digits) from bytes.
+     * @return The value, or {@link #NO_LONG} if the field is not a plain integer.
+     */
+    static long parseLong(byte[] buf, int start, int end) {
+        int pos = start;
+        boolean neg = false;
+        if (pos < end && (buf[pos] == '-' || buf[pos] == '+')) {
+            neg = buf[pos] == '-';
+            pos++;
+        }
+        if (pos == end || end - pos > 18) {
+            return NO_LONG;
+        }
+        long v = 0;
+        for (; pos < end; pos++) {
+            int d = buf[pos] - '0';
+            if (d < 0 || d > 9) {
+                return NO_LONG;
+            }
+            v = v * 10 + d;
+        }
+        return neg ? -v : v;
+    }
+
+    /**
+     * Parse a plain decimal number ({@code [+-]?[0-9]*(.[0-9]*)?}) from bytes.  Only numbers whose digits fit in
+     * 15 significant digits are parsed, so that dividing by an exact power of ten rounds the same way as
+     * {@link Double#parseDouble(String)}.
+     * @return The value, or {@link Double#NaN} if the field is not a number this method handles.
+     */
+    static double parseDouble(byte[] buf, int start, int end) {
+        int pos = start;
+        boolean neg = false;
+        if (pos < end && (buf[pos] == '-' || buf[pos] == '+')) {
+            neg = buf[pos] == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int ndigits = 0;
+        int scale = -1;
+        for (; pos < end; pos++) {
+            byte b = buf[pos];
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                ndigits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (ndigits == 0 || ndigits > 15) {
+            return Double.NaN;
+        }
+        double v = mantissa;
+        if (scale > 0) {
+            v /= POWERS_OF_TEN[scale];
+        }
+        return neg ? -v : v;
     }
 }
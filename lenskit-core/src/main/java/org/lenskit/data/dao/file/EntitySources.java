@@ -64,6 +64,9 @@ public class EntitySources {
             case "textfile":
                 source = TextEntitySource.fromJSON(name, object, base);
                 break;
+            case "snapshot":
+                source = SnapshotEntitySource.fromJSON(name, object, base);
+                break;
             default:
                 throw new IllegalArgumentException("invalid data source type: " + type);
         }
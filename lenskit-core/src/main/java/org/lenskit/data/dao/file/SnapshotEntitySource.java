@@ -0,0 +1,264 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.dao.file;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.lenskit.data.dao.DataAccessException;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityType;
+import org.lenskit.data.store.CollectionSnapshots;
+import org.lenskit.util.describe.Describable;
+import org.lenskit.util.describe.DescriptionWriter;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.io.ObjectStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Entity source that loads entity collections from a binary snapshot written by
+ * {@link EntityCollectionDAO#writeSnapshot(Path)}.  When a snapshot is the only source of a
+ * {@link StaticDataSource}, its collections are used directly, with their indexes, instead of being
+ * re-ingested.  The source describes itself by the content hashes stored in the snapshot.
+ *
+ * If the source is {@linkplain #setMapped(boolean) mapped}, the snapshot is memory-mapped rather than
+ * loaded into the heap, so large packed collections take little heap space and several processes can
+ * share one copy of the data.
+ *
+ * @since 3.0
+ */
+public class SnapshotEntitySource implements EntitySource, Describable {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotEntitySource.class);
+    private final String name;
+    private Path file;
+    private boolean mapped;
+    private Map<String,Object> metadata = new HashMap<>();
+    private volatile List<CollectionSnapshots.Summary> summaries;
+
+    /**
+     * Construct a new snapshot entity source.
+     * @param name The source's name.
+     */
+    public SnapshotEntitySource(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Construct a new snapshot entity source.
+     * @param name The source's name.
+     * @param file The snapshot file.
+     */
+    public SnapshotEntitySource(String name, Path file) {
+        this(name);
+        setFile(file);
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the snapshot file.
+     * @return The snapshot file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Set the snapshot file.
+     * @param file The snapshot file.
+     */
+    public void setFile(Path file) {
+        this.file = file;
+        summaries = null;
+    }
+
+    /**
+     * Query whether this source memory-maps its snapshot.
+     * @return `true` if the snapshot is mapped instead of being loaded into the heap.
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Set whether this source memory-maps its snapshot.
+     * @param mapped `true` to map the snapshot instead of loading it into the heap.
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    /**
+     * Get the summaries of the collections in the snapshot.
+     * @return The collection summaries.
+     */
+    public List<CollectionSnapshots.Summary> getSummaries() {
+        List<CollectionSnapshots.Summary> sums = summaries;
+        if (sums == null) {
+            try {
+                sums = CollectionSnapshots.readSummaries(file);
+            } catch (IOException e) {
+                throw new DataAccessException("cannot read snapshot " + file, e);
+            }
+            summaries = sums;
+        }
+        return sums;
+    }
+
+    @Nonnull
+    @Override
+    public Set<EntityType> getTypes() {
+        ImmutableSet.Builder<EntityType> types = ImmutableSet.builder();
+        for (CollectionSnapshots.Summary sum: getSummaries()) {
+            types.add(sum.getEntityType());
+        }
+        return types.build();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Snapshots do not have layouts; their collections retain the storage they were built with.
+     */
+    @Nullable
+    @Override
+    public Layout getLayout() {
+        return null;
+    }
+
+    /**
+     * Load the snapshot as a DAO.
+     * @return The DAO containing the snapshot's collections.
+     * @throws IOException if there is an error reading the snapshot.
+     */
+    public EntityCollectionDAO loadDAO() throws IOException {
+        return mapped ? EntityCollectionDAO.mapSnapshot(file) : EntityCollectionDAO.readSnapshot(file);
+    }
+
+    @Nonnull
+    @Override
+    public ObjectStream<Entity> openStream() throws IOException {
+        EntityCollectionDAO dao = loadDAO();
+        List<ObjectStream<Entity>> streams = new ArrayList<>();
+        for (EntityType type: dao.getEntityTypes()) {
+            streams.add(dao.streamEntities(type));
+        }
+        return ObjectStreams.concat(streams);
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Object> getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                .append("name", name)
+                .append("file", file)
+                .append("mapped", mapped)
+                .build();
+    }
+
+    @Override
+    public void describeTo(DescriptionWriter writer) {
+        writer.putField("file", file.getFileName().toString())
+              .putList("collections", getSummaries());
+    }
+
+    /**
+     * Construct a JSON representation of this entity source, suitable for serialization to e.g. YAML.
+     *
+     * @param base The URI of the YAML file that will be generated, to generate relative URLs.
+     * @return The JSON node.
+     */
+    public JsonNode toJSON(@Nullable URI base) {
+        Path path = file;
+        if (base != null) {
+            try {
+                path = Paths.get(base).getParent().relativize(path);
+            } catch (FileSystemNotFoundException ex) {
+                /* this is ok, just means we can't resolve the base URI */
+            }
+        }
+
+        ObjectNode object = JsonNodeFactory.instance.objectNode();
+        object.put("type", "snapshot");
+        object.put("file", path.toString().replace(File.separatorChar, '/'));
+        if (mapped) {
+            object.put("mapped", true);
+        }
+        return object;
+    }
+
+    /**
+     * Create a snapshot source from JSON.
+     * @param name The source name.
+     * @param object The configuring object.
+     * @param base The base URI for source data.
+     * @return The new entity source.
+     */
+    static SnapshotEntitySource fromJSON(String name, JsonNode object, URI base) {
+        String filePath = object.path("file").asText(null);
+        Preconditions.checkArgument(filePath != null, "no file path specified");
+        URI uri = base.resolve(filePath);
+        logger.info("loading snapshot source {} from {}", name, uri);
+        SnapshotEntitySource source = new SnapshotEntitySource(name, Paths.get(uri));
+        source.setMapped(object.path("mapped").asBoolean(false));
+
+        JsonNode metaNode = object.get("metadata");
+        if (metaNode != null) {
+            ObjectMapper mapper = new ObjectMapper();
+            try {
+                source.metadata = mapper.readerFor(Map.class).readValue(metaNode);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot process metadata", e);
+            }
+        }
+        return source;
+    }
+}
@@ -32,6 +32,7 @@ import com.google.common.collect.*;
 import com.google.common.util.concurrent.Monitor;
 import org.lenskit.data.dao.DataAccessException;
 import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.EntityCollectionDAO;
 import org.lenskit.data.dao.EntityCollectionDAOBuilder;
 import org.lenskit.data.entities.*;
 import org.lenskit.data.ratings.PreferenceDomain;
@@ -243,6 +244,12 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
 
     private DataAccessObject makeDAO() throws IOException {
         logger.info("creating DAO for {}", name);
+        if (sources.size() == 1 && sources.get(0) instanceof SnapshotEntitySource) {
+            DataAccessObject dao = loadSnapshot((SnapshotEntitySource) sources.get(0));
+            if (dao != null) {
+                return dao;
+            }
+        }
         Set<EntityType> types = new HashSet<>();
 
         EntityCollectionDAOBuilder builder = new EntityCollectionDAOBuilder();
@@ -298,6 +305,30 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
         return builder.build();
     }
 
+    /**
+     * Use a snapshot's collections directly as the DAO, if the snapshot provides everything this data
+     * source is configured to build.
+     *
+     * @return The DAO, or `null` if the snapshot must be re-ingested.
+     */
+    @Nullable
+    private DataAccessObject loadSnapshot(SnapshotEntitySource source) throws IOException {
+        if (!indexedAttributes.isEmpty()) {
+            logger.info("{}: extra indexes configured, re-ingesting snapshot {}", name, source.getFile());
+            return null;
+        }
+        EntityCollectionDAO dao = source.loadDAO();
+        for (EntityDerivation deriv: derivations) {
+            if (!dao.getEntityTypes().contains(deriv.getType())) {
+                logger.info("{}: snapshot {} lacks derived type {}, re-ingesting",
+                            name, source.getFile(), deriv.getType());
+                return null;
+            }
+        }
+        logger.info("{}: using collections from snapshot {}", name, source.getFile());
+        return dao;
+    }
+
     @Override
     public String toString() {
         return String.format("%s: static file DAO with %d sources", name, sources.size());
@@ -71,6 +71,7 @@ public class TextEntitySource implements EntitySource, Describable {
     private CharSource source;
     private URL sourceURL;
     private EntityFormat format;
+    private boolean parallel;
     private Map<String,Object> metadata = new HashMap<>();
 
     /**
@@ -183,6 +184,27 @@ public class TextEntitySource implements EntitySource, Describable {
         return format;
     }
 
+    /**
+     * Query whether this source reads its file in parallel.
+     * @return `true` if parallel ingestion is enabled.
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Set whether to read the source file in parallel.  Parallel ingestion memory-maps the file (decompressing
+     * it to a temporary file first, if necessary), splits it into chunks of lines and parses them on the common
+     * fork-join pool.  Entities are still returned in line order.  It only applies to local files in a
+     * {@linkplain DelimitedColumnEntityFormat delimited format} with a single-character delimiter; other sources
+     * are read sequentially.
+     *
+     * @param par `true` to enable parallel ingestion.
+     */
+    public void setParallel(boolean par) {
+        parallel = par;
+    }
+
     @Override
     public Map<String, Object> getMetadata() {
         return metadata;
@@ -194,6 +216,15 @@ public class TextEntitySource implements EntitySource, Describable {
      */
     @Override
     public ObjectStream<Entity> openStream() throws IOException {
+        if (parallel && format instanceof DelimitedColumnEntityFormat
+                && sourceURL != null && sourceURL.getProtocol().equals("file")) {
+            ObjectStream<Entity> stream = ChunkedTextReader.open(getFile(), (DelimitedColumnEntityFormat) format);
+            if (stream != null) {
+                return stream;
+            }
+            logger.debug("{}: format {} cannot be read in parallel", name, format);
+        }
+
         BufferedReader reader = source.openBufferedStream();
         ObjectStream<String> lines = new LineStream(reader);
         int headerLines = format.getHeaderLines();
@@ -272,6 +303,9 @@ public class TextEntitySource implements EntitySource, Describable {
         object.put("file", path.toString().replace(File.separatorChar, '/'));
 
         object.setAll(format.toJSON());
+        if (parallel) {
+            object.put("parallel", true);
+        }
 
         return object;
     }
@@ -336,6 +370,7 @@ public class TextEntitySource implements EntitySource, Describable {
         }
 
         source.setFormat(format);
+        source.setParallel(object.path("parallel").asBoolean(false));
         return source;
     }
 
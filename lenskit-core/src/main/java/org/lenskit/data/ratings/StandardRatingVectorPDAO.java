@@ -26,6 +26,7 @@ package org.lenskit.data.ratings;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.EntityCollectionDAO;
 import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.io.ObjectStream;
@@ -63,12 +64,19 @@ public class StandardRatingVectorPDAO implements RatingVectorPDAO {
 
         Long2DoubleMap map;
 
-        try (ObjectStream<Rating> stream = dao.query(Rating.class)
-                                              .withAttribute(CommonAttributes.USER_ID, user)
-                                              .stream()) {
-            map = Ratings.userRatingVector(stream);
+        if (dao instanceof EntityCollectionDAO) {
+            // read the rating columns directly instead of building rating entities
+            map = ((EntityCollectionDAO) dao).valueVector(Rating.ENTITY_TYPE, CommonAttributes.USER_ID, user,
+                                                          CommonAttributes.ITEM_ID, CommonAttributes.RATING);
+        } else {
+            try (ObjectStream<Rating> stream = dao.query(Rating.class)
+                                                  .withAttribute(CommonAttributes.USER_ID, user)
+                                                  .stream()) {
+                map = Ratings.userRatingVector(stream);
+            }
         }
 
+        cachedValue = IdBox.create(user, map);
         return map;
     }
 
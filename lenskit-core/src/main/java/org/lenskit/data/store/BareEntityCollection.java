@@ -143,6 +143,10 @@ class BareEntityCollection extends EntityCollection implements Describable {
               .putField("hash", contentHash.toString());
     }
 
+    HashCode getContentHash() {
+        return contentHash;
+    }
+
     static class EntityIterator implements Iterator<Entity> {
         private final EntityType type;
         private final LongIterator idIter;
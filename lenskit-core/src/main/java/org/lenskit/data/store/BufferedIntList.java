@@ -0,0 +1,67 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntList;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only list of ints stored in the chunks of a memory-mapped section.
+ *
+ * @see SnapshotInput#mapSection(long)
+ */
+class BufferedIntList extends AbstractIntList {
+    private static final long CHUNK_MASK = (1L << SnapshotInput.WINDOW_SHIFT) - 1;
+    private final ByteBuffer[] chunks;
+    private final long start;
+    private final int size;
+
+    /**
+     * Create a list.
+     * @param chunks The mapped chunks.
+     * @param start The index of the first int of the list in the section.
+     * @param size The list size.
+     */
+    BufferedIntList(ByteBuffer[] chunks, long start, int size) {
+        this.chunks = chunks;
+        this.start = start;
+        this.size = size;
+    }
+
+    @Override
+    public int getInt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for size " + size);
+        }
+        long off = (start + index) << 2;
+        return chunks[(int) (off >>> SnapshotInput.WINDOW_SHIFT)].getInt((int) (off & CHUNK_MASK));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,997 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.grouplens.grapht.util.ClassLoaders;
+import org.lenskit.data.entities.*;
+import org.lenskit.util.TypeUtils;
+import org.lenskit.util.describe.Describable;
+import org.lenskit.util.describe.DescriptionWriter;
+import org.lenskit.util.io.StagedWrite;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Read and write binary snapshots of entity collections.  A snapshot stores each collection column by
+ * column, along with its indexes and content hash, so that a data set parsed once from text files can
+ * be reloaded with bulk array reads instead of being re-parsed and re-indexed.  Reloaded collections
+ * describe themselves identically to the originals, so model caches keyed on their descriptions
+ * remain valid.
+ *
+ * <p>All values are in little-endian byte order.  Strings are written as a 4-byte length followed by
+ * their UTF-8 bytes.  The file consists of:</p>
+ *
+ * 1. The magic number (4 bytes), format version (4 bytes), and collection count (4 bytes).
+ * 2. A summary of each collection: its entity type name, storage kind (1 byte), entity count (4 bytes),
+ *    and content hash (as a hexadecimal string).
+ * 3. The data for each collection, in the same order.  Bare collections store their entity IDs;
+ *    packed collections store their entity builder class, attribute names and types, one column per
+ *    attribute, and the index (if any) for each attribute; other collections store the union of their
+ *    entities' attributes, one column per attribute, and the names of their indexed attributes.
+ *
+ * Each column starts with an encoding code (1 byte) and a null flag (1 byte).  If the null flag is set,
+ * it is followed by a bitmap of the non-null positions, as 8-byte words.  The values follow as an array of
+ * 8-byte longs, 4-byte ints, 8-byte doubles, strings, or tagged values, depending on the encoding.  A
+ * tagged value is a type code (1 byte) followed by the value: a number, boolean, string, enum constant
+ * (class and constant name), list (length and tagged elements), or JSON node (as JSON text).  Values of
+ * other types cannot be stored; snapshots never contain Java-serialized objects, so loading one cannot
+ * instantiate arbitrary classes.  Indexes are stored in compressed sparse row layout: the index keys
+ * (as longs or tagged values), the <var>k+1</var> 4-byte offsets of each key's positions, and the
+ * positions themselves.  Bitmaps and primitive arrays start at multiples of 8 bytes in the file.
+ *
+ * <p>Snapshots can be loaded into the heap with {@link #read(Path)}, or used in place with
+ * {@link #map(Path)}.  Mapped collections keep their primitive columns and index positions in the
+ * operating system's page cache rather than the Java heap, so several processes opening the same
+ * snapshot share one copy of the data.</p>
+ *
+ * @since 3.0
+ */
+public final class CollectionSnapshots {
+    private static final Logger logger = LoggerFactory.getLogger(CollectionSnapshots.class);
+
+    /**
+     * The magic number identifying collection snapshot files ('LKCS').
+     */
+    static final int MAGIC = 0x4C4B4353;
+    /**
+     * The current format version.
+     */
+    static final int VERSION = 1;
+
+    static final int KIND_BARE = 1;
+    static final int KIND_PACKED = 2;
+    static final int KIND_MAP = 3;
+
+    static final int COL_LONG = 1;
+    static final int COL_INT = 2;
+    static final int COL_DOUBLE = 3;
+    static final int COL_STRING = 4;
+    static final int COL_OBJECT = 5;
+
+    static final int VAL_NULL = 0;
+    static final int VAL_LONG = 1;
+    static final int VAL_INT = 2;
+    static final int VAL_DOUBLE = 3;
+    static final int VAL_STRING = 4;
+    static final int VAL_BOOLEAN = 5;
+    static final int VAL_FLOAT = 6;
+    static final int VAL_ENUM = 7;
+    static final int VAL_LIST = 8;
+    static final int VAL_JSON = 9;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private CollectionSnapshots() {}
+
+    /**
+     * Write entity collections to a snapshot file.  The file is written with a {@link StagedWrite}, so an
+     * existing file is replaced atomically.
+     *
+     * @param collections The collections to write.
+     * @param file The output file.
+     * @throws IOException if there is an error writing the file.
+     * @throws NotSerializableException if an attribute value has a type snapshots cannot store.
+     */
+    public static void write(Collection<? extends EntityCollection> collections, Path file) throws IOException {
+        logger.info("writing {} entity collections to {}", collections.size(), file);
+        try (StagedWrite stage = StagedWrite.begin(file)) {
+            try (OutputStream stream = stage.openOutputStream();
+                 WritableByteChannel chan = Channels.newChannel(stream);
+                 SnapshotOutput out = new SnapshotOutput(chan)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(collections.size());
+                for (EntityCollection coll: collections) {
+                    out.writeString(coll.getType().getName());
+                    out.writeByte(kindOf(coll));
+                    out.writeInt(coll.size());
+                    out.writeString(contentHash(coll).toString());
+                }
+
+                for (EntityCollection coll: collections) {
+                    logger.debug("writing {} entities of type {}", coll.size(), coll.getType());
+                    if (coll instanceof BareEntityCollection) {
+                        writeBare(out, coll);
+                    } else if (coll instanceof PackedEntityCollection) {
+                        writePacked(out, (PackedEntityCollection) coll);
+                    } else {
+                        writeMap(out, (MapEntityCollection) coll);
+                    }
+                }
+            }
+            stage.commit();
+        }
+    }
+
+    /**
+     * Read entity collections from a snapshot file.
+     *
+     * @param file The snapshot file.
+     * @return The collections stored in the file.
+     * @throws IOException if there is an error reading the file, or it is not a valid snapshot.
+     */
+    public static List<EntityCollection> read(Path file) throws IOException {
+        return read(file, ClassLoaders.inferDefault(CollectionSnapshots.class));
+    }
+
+    /**
+     * Read entity collections from a snapshot file.
+     *
+     * @param file The snapshot file.
+     * @param loader The class loader for entity builders and enum-valued attributes.
+     * @return The collections stored in the file.
+     * @throws IOException if there is an error reading the file, or it is not a valid snapshot.
+     */
+    public static List<EntityCollection> read(Path file, ClassLoader loader) throws IOException {
+        logger.info("reading entity collections from {}", file);
+        return load(file, loader, false);
+    }
+
+    /**
+     * Open a snapshot file with memory-mapping.  The primitive columns and index positions of packed
+     * collections are read directly from the mapped file; other data is loaded into the heap.
+     *
+     * @param file The snapshot file.
+     * @return The collections stored in the file.
+     * @throws IOException if there is an error mapping the file, or it is not a valid snapshot.
+     */
+    public static List<EntityCollection> map(Path file) throws IOException {
+        return map(file, ClassLoaders.inferDefault(CollectionSnapshots.class));
+    }
+
+    /**
+     * Open a snapshot file with memory-mapping.
+     *
+     * @param file The snapshot file.
+     * @param loader The class loader for entity builders and enum-valued attributes.
+     * @return The collections stored in the file.
+     * @throws IOException if there is an error mapping the file, or it is not a valid snapshot.
+     * @see #map(Path)
+     */
+    public static List<EntityCollection> map(Path file, ClassLoader loader) throws IOException {
+        logger.info("mapping entity collections from {}", file);
+        return load(file, loader, true);
+    }
+
+    private static List<EntityCollection> load(Path file, ClassLoader loader, boolean mapped) throws IOException {
+        // mappings remain valid after the channel is closed
+        try (FileChannel chan = FileChannel.open(file, StandardOpenOption.READ)) {
+            SnapshotInput in = new SnapshotInput(chan);
+            List<Summary> summaries = readHeader(in, file);
+            ImmutableList.Builder<EntityCollection> colls = ImmutableList.builder();
+            for (Summary sum: summaries) {
+                logger.debug("reading {} entities of type {}", sum.size, sum.entityType);
+                HashCode hash = HashCode.fromString(sum.contentHash);
+                switch (sum.kind) {
+                case KIND_BARE:
+                    colls.add(readBare(in, sum));
+                    break;
+                case KIND_PACKED:
+                    colls.add(readPacked(in, sum, hash, loader, mapped));
+                    break;
+                case KIND_MAP:
+                    colls.add(readMap(in, sum, hash, loader));
+                    break;
+                default:
+                    throw new IOException(file + ": invalid collection kind " + sum.kind);
+                }
+            }
+            return colls.build();
+        }
+    }
+
+    /**
+     * Read the collection summaries from a snapshot file without loading its data.
+     *
+     * @param file The snapshot file.
+     * @return The summaries of the collections stored in the file.
+     * @throws IOException if there is an error reading the file, or it is not a valid snapshot.
+     */
+    public static List<Summary> readSummaries(Path file) throws IOException {
+        try (FileChannel chan = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(new SnapshotInput(chan), file);
+        }
+    }
+
+    private static List<Summary> readHeader(SnapshotInput in, Path file) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException(file + ": not an entity collection snapshot");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException(file + ": unsupported snapshot version " + version);
+        }
+        int n = in.readLength();
+        ImmutableList.Builder<Summary> summaries = ImmutableList.builder();
+        for (int i = 0; i < n; i++) {
+            EntityType type = EntityType.forName(in.readString());
+            int kind = in.readByte();
+            int size = in.readLength();
+            String hash = in.readString();
+            summaries.add(new Summary(type, kind, size, hash));
+        }
+        return summaries.build();
+    }
+
+    private static int kindOf(EntityCollection coll) {
+        if (coll instanceof BareEntityCollection) {
+            return KIND_BARE;
+        } else if (coll instanceof PackedEntityCollection) {
+            return KIND_PACKED;
+        } else if (coll instanceof MapEntityCollection) {
+            return KIND_MAP;
+        } else {
+            throw new IllegalArgumentException("cannot snapshot collection " + coll);
+        }
+    }
+
+    private static HashCode contentHash(EntityCollection coll) {
+        if (coll instanceof BareEntityCollection) {
+            return ((BareEntityCollection) coll).getContentHash();
+        } else if (coll instanceof PackedEntityCollection) {
+            return ((PackedEntityCollection) coll).getContentHash();
+        } else {
+            return ((MapEntityCollection) coll).getContentHash();
+        }
+    }
+
+    //region Collection data
+
+    private static void writeBare(SnapshotOutput out, EntityCollection coll) throws IOException {
+        long[] ids = coll.idSet().toLongArray();
+        Arrays.sort(ids);
+        out.align(8);
+        for (long id: ids) {
+            out.writeLong(id);
+        }
+    }
+
+    private static EntityCollection readBare(SnapshotInput in, Summary sum) throws IOException {
+        long[] ids = new long[sum.size];
+        in.align(8);
+        in.readLongs(ids, 0, ids.length);
+        EntityCollectionBuilder ecb = EntityCollection.newBareBuilder(sum.entityType);
+        for (long id: ids) {
+            ecb.add(Entities.create(sum.entityType, id));
+        }
+        return ecb.build();
+    }
+
+    private static void writePacked(SnapshotOutput out, PackedEntityCollection coll) throws IOException {
+        Class<? extends EntityBuilder> ebc = coll.getEntityBuilderClass();
+        out.writeString(ebc != null ? ebc.getName() : "");
+        AttributeSet attrs = coll.getAttributeSet();
+        writeAttributes(out, attrs);
+        int n = coll.size();
+        for (int i = 0; i < attrs.size(); i++) {
+            writeColumn(out, attrs.getAttribute(i), n, coll.getAttrStore(i)::get);
+        }
+        for (int i = 0; i < attrs.size(); i++) {
+            PackIndex idx = coll.getIndex(i);
+            out.writeByte(idx != null ? 1 : 0);
+            if (idx != null) {
+                writeIndex(out, attrs.getAttribute(i), idx);
+            }
+        }
+    }
+
+    private static EntityCollection readPacked(SnapshotInput in, Summary sum, HashCode hash,
+                                               ClassLoader loader, boolean mapped) throws IOException {
+        String ebName = in.readString();
+        Class<? extends EntityBuilder> ebc = null;
+        if (!ebName.isEmpty()) {
+            try {
+                ebc = ClassUtils.getClass(loader, ebName).asSubclass(EntityBuilder.class);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("cannot load entity builder " + ebName, e);
+            }
+        }
+        AttributeSet attrs = AttributeSet.create(readAttributes(in));
+        if (attrs.getAttribute(0) != CommonAttributes.ENTITY_ID) {
+            throw new IOException("corrupt snapshot: attributes of " + sum.entityType + " do not start with entity ID");
+        }
+        AttrStore[] stores = new AttrStore[attrs.size()];
+        for (int i = 0; i < stores.length; i++) {
+            stores[i] = readColumn(in, sum.size, loader, mapped).toStore();
+        }
+        PackIndex[] indexes = new PackIndex[attrs.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            if (in.readByte() != 0) {
+                indexes[i] = readIndex(in, loader, mapped);
+            }
+        }
+        return new PackedEntityCollection(sum.entityType, attrs, stores, indexes, ebc, hash);
+    }
+
+    private static void writeMap(SnapshotOutput out, MapEntityCollection coll) throws IOException {
+        Map<String, TypedName<?>> attrMap = new LinkedHashMap<>();
+        attrMap.put(CommonAttributes.ENTITY_ID.getName(), CommonAttributes.ENTITY_ID);
+        for (Entity e: coll) {
+            for (TypedName<?> tn: e.getTypedAttributeNames()) {
+                TypedName<?> old = attrMap.putIfAbsent(tn.getName(), tn);
+                if (old != null && old != tn) {
+                    throw new IllegalArgumentException("attribute " + tn.getName() + " has inconsistent types");
+                }
+            }
+        }
+        List<TypedName<?>> attrs = new ArrayList<>(attrMap.values());
+        writeAttributes(out, attrs);
+        Entity[] entities = coll.toArray(new Entity[coll.size()]);
+        for (TypedName<?> attr: attrs) {
+            writeColumn(out, attr, entities.length, i -> entities[i].maybeGet(attr));
+        }
+        Set<String> indexed = coll.getIndexedAttributeNames();
+        out.writeInt(indexed.size());
+        for (String name: indexed) {
+            out.writeString(name);
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static EntityCollection readMap(SnapshotInput in, Summary sum, HashCode hash,
+                                            ClassLoader loader) throws IOException {
+        List<TypedName<?>> attrs = readAttributes(in);
+        Column[] columns = new Column[attrs.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = readColumn(in, sum.size, loader, false);
+        }
+        MapEntityCollectionBuilder ecb = new MapEntityCollectionBuilder(sum.entityType);
+        int nidx = in.readLength();
+        for (int i = 0; i < nidx; i++) {
+            String name = in.readString();
+            TypedName<?> attr = attrs.stream()
+                                     .filter(tn -> tn.getName().equals(name))
+                                     .findFirst()
+                                     .orElse((TypedName) TypedName.create(name, Object.class));
+            ecb.addIndex(attr);
+        }
+        for (int i = 0; i < sum.size; i++) {
+            EntityBuilder eb = Entities.newBuilder(sum.entityType);
+            for (int j = 0; j < columns.length; j++) {
+                Object val = columns[j].get(i);
+                if (val != null) {
+                    eb.setAttribute((TypedName) attrs.get(j), val);
+                }
+            }
+            ecb.add(eb.build());
+        }
+        return ecb.build(hash);
+    }
+
+    private static void writeAttributes(SnapshotOutput out, Collection<? extends TypedName<?>> attrs) throws IOException {
+        out.writeInt(attrs.size());
+        for (TypedName<?> attr: attrs) {
+            out.writeString(attr.getName());
+            out.writeString(TypeUtils.makeTypeName(attr.getType()));
+        }
+    }
+
+    private static List<TypedName<?>> readAttributes(SnapshotInput in) throws IOException {
+        int n = in.readLength();
+        List<TypedName<?>> attrs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String name = in.readString();
+            String type = in.readString();
+            attrs.add(TypedName.create(name, type));
+        }
+        return attrs;
+    }
+
+    //endregion
+
+    //region Columns
+
+    private static int encodingOf(TypedName<?> attr) {
+        Class<?> type = attr.getRawType();
+        if (type.equals(Long.class)) {
+            return COL_LONG;
+        } else if (type.equals(Integer.class)) {
+            return COL_INT;
+        } else if (type.equals(Double.class)) {
+            return COL_DOUBLE;
+        } else if (type.equals(String.class)) {
+            return COL_STRING;
+        } else {
+            return COL_OBJECT;
+        }
+    }
+
+    private static void writeColumn(SnapshotOutput out, TypedName<?> attr, int n, IntFunction<Object> values) throws IOException {
+        int enc = encodingOf(attr);
+        long[] present = null;
+        for (int i = 0; i < n; i++) {
+            if (values.apply(i) == null) {
+                if (present == null) {
+                    present = new long[(n + 63) >>> 6];
+                    Arrays.fill(present, -1L);
+                }
+                present[i >>> 6] &= ~(1L << i);
+            }
+        }
+        out.writeByte(enc);
+        out.writeByte(present != null ? 1 : 0);
+        if (present != null) {
+            out.align(8);
+            for (long w: present) {
+                out.writeLong(w);
+            }
+        }
+
+        if (enc == COL_LONG || enc == COL_INT || enc == COL_DOUBLE) {
+            out.align(8);
+        }
+        switch (enc) {
+        case COL_LONG:
+            for (int i = 0; i < n; i++) {
+                Object v = values.apply(i);
+                out.writeLong(v != null ? (Long) v : 0);
+            }
+            break;
+        case COL_INT:
+            for (int i = 0; i < n; i++) {
+                Object v = values.apply(i);
+                out.writeInt(v != null ? (Integer) v : 0);
+            }
+            break;
+        case COL_DOUBLE:
+            for (int i = 0; i < n; i++) {
+                Object v = values.apply(i);
+                out.writeDouble(v != null ? (Double) v : 0);
+            }
+            break;
+        case COL_STRING:
+            for (int i = 0; i < n; i++) {
+                Object v = values.apply(i);
+                out.writeString(v != null ? (String) v : "");
+            }
+            break;
+        default:
+            for (int i = 0; i < n; i++) {
+                writeValue(out, values.apply(i));
+            }
+        }
+    }
+
+    private static Column readColumn(SnapshotInput in, int n, ClassLoader loader, boolean mapped) throws IOException {
+        int enc = in.readByte();
+        boolean hasNulls = in.readByte() != 0;
+        mapped &= enc == COL_LONG || enc == COL_INT || enc == COL_DOUBLE;
+        int nwords = (n + 63) >>> 6;
+        long[] present = null;
+        ByteBuffer[] maskChunks = null;
+        if (hasNulls) {
+            in.align(8);
+            if (mapped) {
+                maskChunks = in.mapSection(8L * nwords);
+            } else {
+                present = new long[nwords];
+                in.readLongs(present, 0, nwords);
+            }
+        }
+        Column col = new Column(enc, n, present);
+        if (mapped) {
+            in.align(8);
+            int width = enc == COL_INT ? 4 : 8;
+            col.maskChunks = maskChunks;
+            col.dataChunks = in.mapSection((long) width * n);
+            return col;
+        } else if (enc == COL_LONG || enc == COL_INT || enc == COL_DOUBLE) {
+            in.align(8);
+        }
+        switch (enc) {
+        case COL_LONG:
+            col.longs = new long[n];
+            in.readLongs(col.longs, 0, n);
+            break;
+        case COL_INT:
+            col.ints = new int[n];
+            in.readInts(col.ints, 0, n);
+            break;
+        case COL_DOUBLE:
+            col.doubles = new double[n];
+            in.readDoubles(col.doubles, 0, n);
+            break;
+        case COL_STRING:
+            col.objects = new Object[n];
+            for (int i = 0; i < n; i++) {
+                String str = in.readString();
+                if (col.isPresent(i)) {
+                    col.objects[i] = str;
+                }
+            }
+            break;
+        case COL_OBJECT:
+            col.objects = new Object[n];
+            for (int i = 0; i < n; i++) {
+                col.objects[i] = readValue(in, loader);
+            }
+            break;
+        default:
+            throw new IOException("corrupt snapshot: invalid column encoding " + enc);
+        }
+        return col;
+    }
+
+    /**
+     * A column read from a snapshot, before it is converted into entity storage.
+     */
+    private static class Column {
+        final int encoding;
+        final int size;
+        final long[] present;
+        long[] longs;
+        int[] ints;
+        double[] doubles;
+        Object[] objects;
+        ByteBuffer[] dataChunks;
+        ByteBuffer[] maskChunks;
+
+        Column(int enc, int n, long[] bits) {
+            encoding = enc;
+            size = n;
+            present = bits;
+        }
+
+        boolean isPresent(int i) {
+            return present == null || (present[i >>> 6] & (1L << i)) != 0;
+        }
+
+        Object get(int i) {
+            if (!isPresent(i)) {
+                return null;
+            }
+            switch (encoding) {
+            case COL_LONG:
+                return longs[i];
+            case COL_INT:
+                return ints[i];
+            case COL_DOUBLE:
+                return doubles[i];
+            default:
+                return objects[i];
+            }
+        }
+
+        /**
+         * Convert this column to an attribute store.  Shards are chosen and encoded the same way the packed
+         * collection builder chooses them, by adapting each shard to the extreme values it must hold.
+         */
+        AttrStore toStore() {
+            List<Shard> shards = new ArrayList<>();
+            for (int start = 0; start < size; start += Shard.SHARD_SIZE) {
+                int end = Math.min(size, start + Shard.SHARD_SIZE);
+                if (dataChunks != null) {
+                    shards.add(makeBufferedShard(start, end));
+                    continue;
+                }
+                switch (encoding) {
+                case COL_LONG:
+                    shards.add(LongShard.encode(makeLongShard(start, end)));
+                    break;
+                case COL_INT:
+                    shards.add(makeIntShard(start, end));
+                    break;
+                case COL_DOUBLE:
+                    shards.add(DoubleShard.encode(makeDoubleShard(start, end)));
+                    break;
+                default:
+                    ObjectShard shard = new ObjectShard();
+                    for (int i = start; i < end; i++) {
+                        shard.put(i - start, objects[i]);
+                    }
+                    shards.add(shard);
+                }
+            }
+            if (!shards.isEmpty()) {
+                shards.get(shards.size() - 1).compact();
+            }
+            if (dataChunks == null && (encoding == COL_STRING || encoding == COL_OBJECT)) {
+                shards = DictionaryShard.encode(shards);
+            }
+
+            switch (encoding) {
+            case COL_LONG:
+                return new LongAttrStore(shards, size);
+            case COL_DOUBLE:
+                return new DoubleAttrStore(shards, size);
+            default:
+                return new AttrStore(shards, size);
+            }
+        }
+
+        /**
+         * Make a shard that reads directly from the mapped column.  Shard boundaries never span chunks,
+         * since the chunk size is a multiple of the shard size in bytes.
+         */
+        private Shard makeBufferedShard(int start, int end) {
+            int n = end - start;
+            ByteBuffer mask = null;
+            if (maskChunks != null) {
+                mask = SnapshotInput.slice(maskChunks, (long) (start >>> 6) << 3, ((n + 63) >>> 6) << 3);
+            }
+            switch (encoding) {
+            case COL_LONG:
+                return LongShard.wrap(SnapshotInput.slice(dataChunks, (long) start << 3, n << 3), mask, n);
+            case COL_INT:
+                return IntShard.wrap(SnapshotInput.slice(dataChunks, (long) start << 2, n << 2), mask, n);
+            case COL_DOUBLE:
+                return DoubleShard.wrap(SnapshotInput.slice(dataChunks, (long) start << 3, n << 3), mask, n);
+            default:
+                throw new IllegalStateException("column encoding " + encoding + " cannot be mapped");
+            }
+        }
+
+        private LongShard makeLongShard(int start, int end) {
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (int i = start; i < end; i++) {
+                if (isPresent(i)) {
+                    min = Math.min(min, longs[i]);
+                    max = Math.max(max, longs[i]);
+                }
+            }
+            LongShard shard = LongShard.create();
+            if (min <= max) {
+                shard = (LongShard) shard.adapt(min).adapt(max);
+            }
+            for (int i = start; i < end; i++) {
+                if (isPresent(i)) {
+                    shard.put(i - start, longs[i]);
+                } else {
+                    shard.clear(i - start);
+                }
+            }
+            return shard;
+        }
+
+        private IntShard makeIntShard(int start, int end) {
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int i = start; i < end; i++) {
+                if (isPresent(i)) {
+                    min = Math.min(min, ints[i]);
+                    max = Math.max(max, ints[i]);
+                }
+            }
+            IntShard shard = IntShard.create();
+            if (min <= max) {
+                shard = (IntShard) shard.adapt(min).adapt(max);
+            }
+            for (int i = start; i < end; i++) {
+                if (isPresent(i)) {
+                    shard.put(i - start, ints[i]);
+                } else {
+                    shard.clear(i - start);
+                }
+            }
+            return shard;
+        }
+
+        private DoubleShard makeDoubleShard(int start, int end) {
+            DoubleShard shard = DoubleShard.create();
+            for (int i = start; i < end; i++) {
+                if (isPresent(i) && !DoubleShard.Compact.isStorable(doubles[i])) {
+                    shard = shard.adapt(doubles[i]);
+                    break;
+                }
+            }
+            for (int i = start; i < end; i++) {
+                if (isPresent(i)) {
+                    shard.put(i - start, doubles[i]);
+                } else {
+                    shard.clear(i - start);
+                }
+            }
+            return shard;
+        }
+    }
+
+    //endregion
+
+    //region Indexes
+
+    private static void writeIndex(SnapshotOutput out, TypedName<?> attr, PackIndex index) throws IOException {
+        List<?> keys = new ArrayList<>(index.getValues());
+        boolean longKeys = attr.getRawType().equals(Long.class);
+        out.writeByte(longKeys ? COL_LONG : COL_OBJECT);
+        out.writeInt(keys.size());
+        if (longKeys) {
+            out.align(8);
+            for (Object k: keys) {
+                out.writeLong((Long) k);
+            }
+        } else {
+            for (Object k: keys) {
+                writeValue(out, k);
+            }
+        }
+
+        out.align(8);
+        int offset = 0;
+        out.writeInt(offset);
+        for (Object k: keys) {
+            offset += index.getPositions(k).size();
+            out.writeInt(offset);
+        }
+        out.align(8);
+        for (Object k: keys) {
+            IntList positions = index.getPositions(k);
+            for (int i = 0; i < positions.size(); i++) {
+                out.writeInt(positions.getInt(i));
+            }
+        }
+    }
+
+    private static PackIndex readIndex(SnapshotInput in, ClassLoader loader, boolean mapped) throws IOException {
+        int enc = in.readByte();
+        int n = in.readLength();
+        long[] longKeys = null;
+        Object[] keys = null;
+        if (enc == COL_LONG) {
+            longKeys = new long[n];
+            in.align(8);
+            in.readLongs(longKeys, 0, n);
+        } else if (enc == COL_OBJECT) {
+            keys = new Object[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = readValue(in, loader);
+            }
+        } else {
+            throw new IOException("corrupt snapshot: invalid index encoding " + enc);
+        }
+
+        int[] offsets = new int[n + 1];
+        in.align(8);
+        in.readInts(offsets, 0, n + 1);
+        int total = offsets[n];
+        in.align(8);
+        IntList[] lists = new IntList[n];
+        if (mapped) {
+            ByteBuffer[] chunks = in.mapSection(4L * total);
+            for (int i = 0; i < n; i++) {
+                lists[i] = new BufferedIntList(chunks, offsets[i], offsets[i + 1] - offsets[i]);
+            }
+        } else {
+            int[] positions = new int[total];
+            in.readInts(positions, 0, total);
+            for (int i = 0; i < n; i++) {
+                lists[i] = IntArrayList.wrap(Arrays.copyOfRange(positions, offsets[i], offsets[i + 1]));
+            }
+        }
+
+        if (longKeys != null) {
+            Long2ObjectOpenHashMap<IntList> map = new Long2ObjectOpenHashMap<>(n);
+            for (int i = 0; i < n; i++) {
+                map.put(longKeys[i], lists[i]);
+            }
+            return new PackIndex(map);
+        } else {
+            Map<Object, IntList> map = new HashMap<>(n);
+            for (int i = 0; i < n; i++) {
+                map.put(keys[i], lists[i]);
+            }
+            return new PackIndex(map);
+        }
+    }
+
+    //endregion
+
+    //region Values
+
+    /**
+     * Write a tagged value.
+     * @throws NotSerializableException if the value's type cannot be stored.
+     */
+    private static void writeValue(SnapshotOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VAL_NULL);
+        } else if (value instanceof Long) {
+            out.writeByte(VAL_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(VAL_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            out.writeByte(VAL_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(VAL_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(VAL_BOOLEAN);
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof Float) {
+            out.writeByte(VAL_FLOAT);
+            out.writeInt(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Enum) {
+            Enum<?> e = (Enum<?>) value;
+            out.writeByte(VAL_ENUM);
+            out.writeString(e.getDeclaringClass().getName());
+            out.writeString(e.name());
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(VAL_LIST);
+            out.writeInt(list.size());
+            for (Object v: list) {
+                writeValue(out, v);
+            }
+        } else if (value instanceof JsonNode) {
+            out.writeByte(VAL_JSON);
+            out.writeString(JSON.writeValueAsString(value));
+        } else {
+            throw new NotSerializableException("snapshots cannot store values of " + value.getClass());
+        }
+    }
+
+    /**
+     * Read a tagged value.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static Object readValue(SnapshotInput in, ClassLoader loader) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+        case VAL_NULL:
+            return null;
+        case VAL_LONG:
+            return in.readLong();
+        case VAL_INT:
+            return in.readInt();
+        case VAL_DOUBLE:
+            return in.readDouble();
+        case VAL_STRING:
+            return in.readString();
+        case VAL_BOOLEAN:
+            return in.readByte() != 0;
+        case VAL_FLOAT:
+            return Float.intBitsToFloat(in.readInt());
+        case VAL_ENUM: {
+            String className = in.readString();
+            String name = in.readString();
+            Class<?> cls;
+            try {
+                cls = ClassUtils.getClass(loader, className, false);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("cannot load enum class " + className, e);
+            }
+            if (!cls.isEnum()) {
+                throw new IOException("corrupt snapshot: " + className + " is not an enum");
+            }
+            try {
+                return Enum.valueOf((Class) cls, name);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt snapshot: " + className + " has no constant " + name, e);
+            }
+        }
+        case VAL_LIST: {
+            int n = in.readLength();
+            List<Object> list = new ArrayList<>(Math.min(n, 1024));
+            for (int i = 0; i < n; i++) {
+                list.add(readValue(in, loader));
+            }
+            return Collections.unmodifiableList(list);
+        }
+        case VAL_JSON:
+            return JSON.readTree(in.readString());
+        default:
+            throw new IOException("corrupt snapshot: invalid value type " + tag);
+        }
+    }
+
+    //endregion
+
+    /**
+     * Summary of a collection stored in a snapshot file.
+     */
+    public static final class Summary implements Describable {
+        private final EntityType entityType;
+        private final int kind;
+        private final int size;
+        private final String contentHash;
+
+        Summary(EntityType type, int kind, int size, String hash) {
+            entityType = type;
+            this.kind = kind;
+            this.size = size;
+            contentHash = hash;
+        }
+
+        /**
+         * Get the type of entity in the collection.
+         * @return The collection's entity type.
+         */
+        public EntityType getEntityType() {
+            return entityType;
+        }
+
+        /**
+         * Get the number of entities in the collection.
+         * @return The collection size.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Get the content hash of the collection.
+         * @return The hash of the collection's contents, as a hexadecimal string.
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        @Override
+        public void describeTo(DescriptionWriter writer) {
+            writer.putField("type", entityType.getName())
+                  .putField("size", size)
+                  .putField("content_hash", contentHash);
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                    .append("type", entityType)
+                    .append("size", size)
+                    .build();
+        }
+    }
+}
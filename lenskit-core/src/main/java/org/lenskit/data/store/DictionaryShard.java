@@ -0,0 +1,128 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only shard of dictionary-encoded objects.  Each value is stored as an int code into a
+ * dictionary of distinct values shared by all shards of an attribute store.
+ */
+class DictionaryShard extends Shard {
+    private final Object[] dictionary;
+    private final IntShard codes;
+
+    private DictionaryShard(Object[] dict, IntShard codes) {
+        dictionary = dict;
+        this.codes = codes;
+    }
+
+    /**
+     * Dictionary-encode the shards of a finished attribute store, if it has few enough distinct values
+     * to benefit (at most one distinct value per four non-null values).
+     *
+     * @param shards The shards to encode.  They must not be modified afterwards.
+     * @return The encoded shards, or `shards` if the column is not worth encoding.
+     */
+    static List<Shard> encode(List<Shard> shards) {
+        Object2IntMap<Object> dict = new Object2IntOpenHashMap<>();
+        int nonNull = 0;
+        for (Shard shard: shards) {
+            int n = shard.size();
+            for (int i = 0; i < n; i++) {
+                Object v = shard.get(i);
+                if (v != null) {
+                    nonNull += 1;
+                    if (!dict.containsKey(v)) {
+                        dict.put(v, dict.size());
+                    }
+                }
+            }
+        }
+        if (dict.isEmpty() || dict.size() > nonNull / 4) {
+            return shards;
+        }
+
+        Object[] values = new Object[dict.size()];
+        for (Object2IntMap.Entry<Object> e: dict.object2IntEntrySet()) {
+            values[e.getIntValue()] = e.getKey();
+        }
+
+        List<Shard> encoded = new ArrayList<>(shards.size());
+        for (Shard shard: shards) {
+            IntShard codes = values.length <= Short.MAX_VALUE ? IntShard.create() : IntShard.createFull();
+            int n = shard.size();
+            for (int i = 0; i < n; i++) {
+                Object v = shard.get(i);
+                if (v == null) {
+                    codes.clear(i);
+                } else {
+                    codes.put(i, dict.getInt(v));
+                }
+            }
+            codes.compact();
+            encoded.add(new DictionaryShard(values, codes));
+        }
+        return encoded;
+    }
+
+    @Override
+    Object get(int idx) {
+        if (codes.isNull(idx)) {
+            return null;
+        } else {
+            return dictionary[codes.getInt(idx)];
+        }
+    }
+
+    @Override
+    void put(int idx, Object value) {
+        throw new UnsupportedOperationException("encoded shards are read-only");
+    }
+
+    @Override
+    boolean isNull(int idx) {
+        return codes.isNull(idx);
+    }
+
+    @Override
+    Shard adapt(Object obj) {
+        throw new UnsupportedOperationException("encoded shards are read-only");
+    }
+
+    @Override
+    int size() {
+        return codes.size();
+    }
+
+    @Override
+    void compact() {
+        codes.compact();
+    }
+}
@@ -24,6 +24,9 @@
  */
 package org.lenskit.data.store;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Long attribute store specialization.
  */
@@ -43,7 +46,11 @@ class DoubleAttrStoreBuilder extends AttrStoreBuilder {
         if (!shards.isEmpty()) {
             shards.get(shards.size() - 1).compact();
         }
-        return new DoubleAttrStore(shards, size);
+        List<Shard> encoded = new ArrayList<>(shards.size());
+        for (Shard shard: shards) {
+            encoded.add(DoubleShard.encode((DoubleShard) shard));
+        }
+        return new DoubleAttrStore(encoded, size);
     }
 
     @Override
@@ -24,6 +24,8 @@
  */
 package org.lenskit.data.store;
 
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
 
@@ -40,6 +42,38 @@ abstract class DoubleShard extends Shard {
         return new Compact();
     }
 
+    /**
+     * Create a read-only shard over buffered storage, such as off-heap or memory-mapped memory.
+     * @param data The values, as 8-byte doubles.
+     * @param mask The null mask (see {@link Shard#isMaskedNull(ByteBuffer, int)}).
+     * @param size The number of values.
+     * @return The shard.
+     */
+    static DoubleShard wrap(ByteBuffer data, @Nullable ByteBuffer mask, int size) {
+        return new Buffered(data, mask, size);
+    }
+
+    /**
+     * Re-encode a finished shard in the most compact form for its values.  If every value is exactly
+     * a short integer divided by one of a few scale factors, as ratings on a fixed-precision scale are,
+     * the values are stored as 2-byte scaled integers.
+     *
+     * @param shard The shard to encode.  It must not be modified afterwards.
+     * @return A read-only encoded shard, or `shard` if it cannot be stored more compactly.
+     */
+    static DoubleShard encode(DoubleShard shard) {
+        if (!(shard instanceof Full)) {
+            return shard;
+        }
+        Full full = (Full) shard;
+        for (double scale: Scaled.SCALES) {
+            if (full.isScalable(scale)) {
+                return new Scaled(full, scale);
+            }
+        }
+        return shard;
+    }
+
     @Override
     Double get(int idx) {
         assert idx >= 0 && idx < size;
@@ -129,6 +163,25 @@ abstract class DoubleShard extends Shard {
             return data.length;
         }
 
+        /**
+         * Check whether the values in this shard can be stored exactly as scaled shorts.
+         */
+        boolean isScalable(double scale) {
+            for (int i = 0; i < size; i++) {
+                if (mask != null && !mask.get(i)) {
+                    continue;
+                }
+                double v = data[i];
+                double code = Math.rint(v * scale);
+                // negated comparison rejects NaN
+                if (!(Math.abs(code) <= Short.MAX_VALUE)
+                        || Double.doubleToLongBits(code / scale) != Double.doubleToLongBits(v)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         @Override
         DoubleShard adapt(Object obj) {
             if (obj instanceof Double || obj == null) {
@@ -211,4 +264,120 @@ abstract class DoubleShard extends Shard {
             }
         }
     }
+
+    /**
+     * Read-only storage in a byte buffer.  The inherited mask is unused; nulls come from the buffered mask.
+     */
+    private static class Buffered extends DoubleShard {
+        private final ByteBuffer data;
+        private final ByteBuffer nullMask;
+
+        Buffered(ByteBuffer data, ByteBuffer mask, int size) {
+            this.data = data;
+            nullMask = mask;
+            this.size = size;
+        }
+
+        @Override
+        Double get(int idx) {
+            return isNull(idx) ? null : getDouble(idx);
+        }
+
+        @Override
+        boolean isNull(int idx) {
+            assert idx >= 0 && idx < size;
+            return isMaskedNull(nullMask, idx);
+        }
+
+        @Override
+        double getDouble(int idx) {
+            assert idx >= 0 && idx < size;
+            return data.getDouble(idx << 3);
+        }
+
+        @Override
+        void clear(int idx) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+
+        @Override
+        void put(int idx, double value) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+
+        @Override
+        void putDouble(int idx, double v) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+
+        @Override
+        int capacity() {
+            return size;
+        }
+
+        @Override
+        void compact() {
+            /* buffered storage is already compact */
+        }
+
+        @Override
+        DoubleShard adapt(Object obj) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+    }
+
+    /**
+     * Scaled fixed-point storage, used for encoding finished shards.
+     */
+    private static class Scaled extends DoubleShard {
+        static final double[] SCALES = {1, 2, 4, 10, 20, 100};
+        private final short[] data;
+        private final double scale;
+
+        Scaled(Full full, double scale) {
+            this.scale = scale;
+            size = full.size;
+            mask = full.mask != null ? (BitSet) full.mask.clone() : null;
+            data = new short[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = (short) Math.rint(full.data[i] * scale);
+            }
+        }
+
+        @Override
+        double getDouble(int idx) {
+            assert idx >= 0 && idx < size;
+            return data[idx] / scale;
+        }
+
+        @Override
+        void clear(int idx) {
+            throw new UnsupportedOperationException("encoded shards are read-only");
+        }
+
+        @Override
+        void put(int idx, double value) {
+            throw new UnsupportedOperationException("encoded shards are read-only");
+        }
+
+        @Override
+        void putDouble(int idx, double v) {
+            throw new UnsupportedOperationException("encoded shards are read-only");
+        }
+
+        @Override
+        int capacity() {
+            return data.length;
+        }
+
+        @Override
+        void compact() {
+            /* already compact */
+        }
+
+        @Override
+        DoubleShard adapt(Object obj) {
+            throw new UnsupportedOperationException("encoded shards are read-only");
+        }
+    }
 }
@@ -26,13 +26,16 @@ package org.lenskit.data.store;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.data.dao.SortKey;
 import org.lenskit.data.entities.*;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.AbstractCollection;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -144,6 +147,39 @@ public abstract class EntityCollection extends AbstractCollection<Entity> {
      */
     public abstract Map<Long,List<Entity>> grouped(TypedName<Long> attr);
 
+    /**
+     * Extract a vector of attribute values for the entities with a particular attribute value.  For example,
+     * a user's rating vector maps the item IDs of the ratings with that user ID to their rating values.
+     * Collections with columnar storage override this to read the values without creating entities.
+     *
+     * @param name The attribute to search.
+     * @param value The attribute value to search for.
+     * @param key The attribute providing the vector keys.
+     * @param val The attribute providing the vector values.
+     * @return A vector mapping the `key` of each entity whose `name` is `value` to its `val`.  Entities
+     * missing the key or value are skipped.
+     * @throws IllegalArgumentException if two matching entities have the same key.
+     */
+    @Nonnull
+    public Long2DoubleMap valueVector(TypedName<Long> name, long value, TypedName<Long> key, TypedName<Double> val) {
+        List<Entity> found = find(name, value);
+        long[] keys = new long[found.size()];
+        double[] values = new double[found.size()];
+        int n = 0;
+        for (Entity e: found) {
+            if (e.hasAttribute(key) && e.hasAttribute(val)) {
+                keys[n] = e.getLong(key);
+                values[n] = e.getDouble(val);
+                n++;
+            }
+        }
+        if (n < keys.length) {
+            keys = Arrays.copyOf(keys, n);
+            values = Arrays.copyOf(values, n);
+        }
+        return Long2DoubleSortedArrayMap.wrapUnsorted(keys, values);
+    }
+
     /**
      * Get the sort keys, if this collection stores attributes in sorted order.
      * @return The sort keys.
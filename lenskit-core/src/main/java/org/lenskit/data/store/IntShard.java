@@ -24,6 +24,8 @@
  */
 package org.lenskit.data.store;
 
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
 
@@ -49,6 +51,17 @@ abstract class IntShard extends Shard {
         return new Impl();
     }
 
+    /**
+     * Create a read-only shard over buffered storage, such as off-heap or memory-mapped memory.
+     * @param data The values, as 4-byte ints.
+     * @param mask The null mask (see {@link Shard#isMaskedNull(ByteBuffer, int)}).
+     * @param size The number of values.
+     * @return The shard.
+     */
+    static IntShard wrap(ByteBuffer data, @Nullable ByteBuffer mask, int size) {
+        return new Buffered(data, mask, size);
+    }
+
     @Override
     Integer get(int idx) {
         if (isNull(idx)) {
@@ -201,4 +214,53 @@ abstract class IntShard extends Shard {
             delegate.compact();
         }
     }
+
+    private static class Buffered extends IntShard {
+        private final ByteBuffer data;
+        private final ByteBuffer mask;
+        private final int size;
+
+        Buffered(ByteBuffer data, ByteBuffer mask, int size) {
+            this.data = data;
+            this.mask = mask;
+            this.size = size;
+        }
+
+        @Override
+        int getInt(int idx) {
+            assert idx >= 0 && idx < size;
+            return data.getInt(idx << 2);
+        }
+
+        @Override
+        boolean isNull(int idx) {
+            assert idx >= 0 && idx < size;
+            return isMaskedNull(mask, idx);
+        }
+
+        @Override
+        Shard adapt(Object obj) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+
+        @Override
+        void clear(int idx) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+
+        @Override
+        void put(int idx, int value) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        void compact() {
+            /* buffered storage is already compact */
+        }
+    }
 }
@@ -24,6 +24,8 @@
  */
 package org.lenskit.data.store;
 
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
 
@@ -50,6 +52,65 @@ abstract class LongShard extends Shard {
         return new Impl();
     }
 
+    /**
+     * Create a read-only shard over buffered storage, such as off-heap or memory-mapped memory.
+     * @param data The values, as 8-byte longs.
+     * @param mask The null mask (see {@link Shard#isMaskedNull(ByteBuffer, int)}).
+     * @param size The number of values.
+     * @return The shard.
+     */
+    static LongShard wrap(ByteBuffer data, @Nullable ByteBuffer mask, int size) {
+        return new Buffered(data, mask, size);
+    }
+
+    /**
+     * Re-encode a finished shard in the most compact form for its values.  If the values span a narrow
+     * range, as sorted IDs and timestamps often do, they are stored as 2- or 4-byte offsets from a base
+     * value (frame-of-reference encoding).
+     *
+     * @param shard The shard to encode.  It must not be modified afterwards.
+     * @return A read-only encoded shard, or `shard` if it cannot be stored more compactly.
+     */
+    static LongShard encode(LongShard shard) {
+        if (!(shard instanceof Impl || shard instanceof WrapInt)) {
+            return shard;
+        }
+        int n = shard.size();
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            if (!shard.isNull(i)) {
+                long v = shard.getLong(i);
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        long range = max - min;
+        IntShard offsets;
+        long base;
+        if (min > max || range < 0) {
+            // no values, or the range overflows
+            return shard;
+        } else if (range <= 0xFFFFL) {
+            offsets = IntShard.create();
+            base = min - Short.MIN_VALUE;
+        } else if (range <= 0xFFFFFFFFL && shard instanceof Impl) {
+            offsets = IntShard.createFull();
+            base = min - Integer.MIN_VALUE;
+        } else {
+            return shard;
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (shard.isNull(i)) {
+                offsets.clear(i);
+            } else {
+                offsets.put(i, (int) (shard.getLong(i) - base));
+            }
+        }
+        offsets.compact();
+        return new FrameOfReference(base, offsets);
+    }
+
     @Override
     Long get(int idx) {
         if (isNull(idx)) {
@@ -263,4 +324,101 @@ abstract class LongShard extends Shard {
             delegate.compact();
         }
     }
+
+    private static class Buffered extends LongShard {
+        private final ByteBuffer data;
+        private final ByteBuffer mask;
+        private final int size;
+
+        Buffered(ByteBuffer data, ByteBuffer mask, int size) {
+            this.data = data;
+            this.mask = mask;
+            this.size = size;
+        }
+
+        @Override
+        long getLong(int idx) {
+            assert idx >= 0 && idx < size;
+            return data.getLong(idx << 3);
+        }
+
+        @Override
+        boolean isNull(int idx) {
+            assert idx >= 0 && idx < size;
+            return isMaskedNull(mask, idx);
+        }
+
+        @Override
+        Shard adapt(Object obj) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+
+        @Override
+        void clear(int idx) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+
+        @Override
+        void put(int idx, long value) {
+            throw new UnsupportedOperationException("buffered shards are read-only");
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        void compact() {
+            /* buffered storage is already compact */
+        }
+    }
+
+    /**
+     * Frame-of-reference storage: values are stored as int offsets from a base.
+     */
+    private static class FrameOfReference extends LongShard {
+        private final long base;
+        private final IntShard offsets;
+
+        FrameOfReference(long base, IntShard offsets) {
+            this.base = base;
+            this.offsets = offsets;
+        }
+
+        @Override
+        long getLong(int idx) {
+            return base + offsets.getInt(idx);
+        }
+
+        @Override
+        boolean isNull(int idx) {
+            return offsets.isNull(idx);
+        }
+
+        @Override
+        Shard adapt(Object obj) {
+            throw new UnsupportedOperationException("encoded shards are read-only");
+        }
+
+        @Override
+        void clear(int idx) {
+            throw new UnsupportedOperationException("encoded shards are read-only");
+        }
+
+        @Override
+        void put(int idx, long value) {
+            throw new UnsupportedOperationException("encoded shards are read-only");
+        }
+
+        @Override
+        int size() {
+            return offsets.size();
+        }
+
+        @Override
+        void compact() {
+            offsets.compact();
+        }
+    }
 }
@@ -39,6 +39,7 @@ import java.io.Serializable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 class MapEntityCollection extends EntityCollection implements Serializable, Describable {
@@ -138,4 +139,16 @@ class MapEntityCollection extends EntityCollection implements Serializable, Desc
         writer.putField("size", store.size());
         writer.putField("contentHash", contentHash);
     }
+
+    HashCode getContentHash() {
+        return HashCode.fromString(contentHash);
+    }
+
+    /**
+     * Get the names of the attributes indexed by this collection.
+     * @return The indexed attribute names.
+     */
+    Set<String> getIndexedAttributeNames() {
+        return indexes.keySet();
+    }
 }
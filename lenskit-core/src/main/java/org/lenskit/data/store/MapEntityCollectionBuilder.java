@@ -26,6 +26,7 @@ package org.lenskit.data.store;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import org.lenskit.data.entities.Entities;
@@ -103,6 +104,18 @@ class MapEntityCollectionBuilder extends EntityCollectionBuilder {
 
     @Override
     public MapEntityCollection build() {
+        Preconditions.checkState(store != null, "build() already called");
+        return build(hasher.hash());
+    }
+
+    /**
+     * Build the collection with a known content hash, used when reloading a collection whose hash was
+     * computed when it was first built.
+     *
+     * @param hash The content hash.
+     * @return The collection.
+     */
+    MapEntityCollection build(HashCode hash) {
         Preconditions.checkState(store != null, "build() already called");
         ImmutableMap.Builder<String,EntityIndex> indexes = ImmutableMap.builder();
         for (Map.Entry<String,EntityIndexBuilder> e: indexBuilders.entrySet()) {
@@ -114,6 +127,6 @@ class MapEntityCollectionBuilder extends EntityCollectionBuilder {
                      map.size(), type, idxMap.size());
         store = null;
         indexBuilders = null;
-        return new MapEntityCollection(type, map, idxMap, hasher.hash());
+        return new MapEntityCollection(type, map, idxMap, hash);
     }
 }
@@ -22,40 +22,21 @@
  * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
  * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
-package org.lenskit.pf;
+package org.lenskit.data.store;
 
-import java.util.EnumSet;
-import java.util.Set;
-import java.util.function.BiConsumer;
-import java.util.function.BinaryOperator;
-import java.util.function.Function;
-import java.util.function.Supplier;
-import java.util.stream.Collector;
-
-
-class PMFModelCollector implements Collector<PMFModel.ModelEntry, PMFModel, PMFModel> {
-    @Override
-    public Supplier<PMFModel> supplier() {
-        return PMFModel::new;
-    }
-
-    @Override
-    public BiConsumer<PMFModel, PMFModel.ModelEntry> accumulator() {
-        return (PMFModel::addEntry);
-    }
-
-    @Override
-    public BinaryOperator<PMFModel> combiner() {
-        return (PMFModel::addAll);
-    }
-
-    @Override
-    public Function<PMFModel, PMFModel> finisher() {
-        return Function.identity();
+/**
+ * Object attribute store specialization.  Low-cardinality columns are dictionary-encoded when built.
+ */
+class ObjectAttrStoreBuilder extends AttrStoreBuilder {
+    ObjectAttrStoreBuilder() {
+        super(ObjectShard::new);
     }
 
     @Override
-    public Set<Characteristics> characteristics() {
-        return EnumSet.of(Characteristics.UNORDERED, Characteristics.IDENTITY_FINISH);
+    AttrStore build() {
+        if (!shards.isEmpty()) {
+            shards.get(shards.size() - 1).compact();
+        }
+        return new AttrStore(DictionaryShard.encode(shards), size);
     }
 }
@@ -32,6 +32,7 @@ import com.google.common.hash.Hashing;
 import com.google.common.primitives.Longs;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.longs.AbstractLongSet;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -41,6 +42,7 @@ import org.lenskit.data.entities.*;
 import org.lenskit.util.BinarySearch;
 import org.lenskit.util.describe.Describable;
 import org.lenskit.util.describe.DescriptionWriter;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.lenskit.util.reflect.InstanceFactory;
 
 import javax.annotation.Nonnull;
@@ -63,11 +65,21 @@ class PackedEntityCollection extends EntityCollection implements Describable {
     private final AttrStore[] attrStores;
     private final AttrSetter[] storeSetters;
     private final PackIndex[] indexes;
+    private final Class<? extends EntityBuilder> entityBuilderClass;
     private final int size;
     private transient HashCode contentHash;
     private ConcurrentHashMap<Integer,AttributeSet> attrSets = new ConcurrentHashMap<>();
 
     PackedEntityCollection(EntityType et, AttributeSet attrs, AttrStore[] stores, PackIndex[] idxes, Class<? extends EntityBuilder> ebc) {
+        this(et, attrs, stores, idxes, ebc, null);
+    }
+
+    /**
+     * Construct a packed entity collection with a known content hash.
+     * @param hash The content hash, or `null` to compute it when first needed.
+     */
+    PackedEntityCollection(EntityType et, AttributeSet attrs, AttrStore[] stores, PackIndex[] idxes,
+                           Class<? extends EntityBuilder> ebc, @Nullable HashCode hash) {
         entityType = et;
         attributes = attrs;
         attrStores = stores;
@@ -88,6 +100,8 @@ class PackedEntityCollection extends EntityCollection implements Describable {
             }
         }
 
+        entityBuilderClass = ebc;
+        contentHash = hash;
         if (ebc == null || ebc.equals(BasicEntityBuilder.class)) {
             entityBuilder = IndirectEntity::new;
         } else {
@@ -179,6 +193,45 @@ class PackedEntityCollection extends EntityCollection implements Describable {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * If the search attribute is indexed, this reads the key and value columns directly at the index positions.
+     */
+    @Nonnull
+    @Override
+    public Long2DoubleMap valueVector(TypedName<Long> name, long value, TypedName<Long> key, TypedName<Double> val) {
+        int idx = attributes.lookup(name);
+        int kidx = attributes.lookup(key);
+        int vidx = attributes.lookup(val);
+        if (idx < 0 || indexes[idx] == null
+                || kidx < 0 || !(attrStores[kidx] instanceof LongAttrStore)
+                || vidx < 0 || !(attrStores[vidx] instanceof DoubleAttrStore)) {
+            return super.valueVector(name, value, key, val);
+        }
+
+        LongAttrStore keyStore = (LongAttrStore) attrStores[kidx];
+        DoubleAttrStore valStore = (DoubleAttrStore) attrStores[vidx];
+        IntList positions = indexes[idx].getPositions(value);
+        int n = positions.size();
+        long[] keys = new long[n];
+        double[] values = new double[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int pos = positions.getInt(i);
+            if (!keyStore.isNull(pos) && !valStore.isNull(pos)) {
+                keys[m] = keyStore.getLong(pos);
+                values[m] = valStore.getDouble(pos);
+                m++;
+            }
+        }
+        if (m < n) {
+            keys = Arrays.copyOf(keys, m);
+            values = Arrays.copyOf(values, m);
+        }
+        return Long2DoubleSortedArrayMap.wrapUnsorted(keys, values);
+    }
+
     @Override
     public List<SortKey> getSortKeys() {
         return ImmutableList.of(SortKey.create(CommonAttributes.ENTITY_ID));
@@ -211,6 +264,32 @@ class PackedEntityCollection extends EntityCollection implements Describable {
     public void describeTo(DescriptionWriter writer) {
         writer.putField("entity_count", size);
         writer.putList("attributes", attributes);
+        writer.putField("content_hash", getContentHash());
+    }
+
+    AttributeSet getAttributeSet() {
+        return attributes;
+    }
+
+    AttrStore getAttrStore(int aidx) {
+        return attrStores[aidx];
+    }
+
+    @Nullable
+    PackIndex getIndex(int aidx) {
+        return indexes[aidx];
+    }
+
+    @Nullable
+    Class<? extends EntityBuilder> getEntityBuilderClass() {
+        return entityBuilderClass;
+    }
+
+    /**
+     * Get the hash of this collection's contents, computing it if necessary.
+     * @return The content hash.
+     */
+    HashCode getContentHash() {
         if (contentHash == null) {
             Hasher hash = Hashing.md5().newHasher();
             for (int i = 0; i < size; i++) {
@@ -221,7 +300,7 @@ class PackedEntityCollection extends EntityCollection implements Describable {
             }
             contentHash = hash.hash();
         }
-        writer.putField("content_hash", contentHash);
+        return contentHash;
     }
 
     private class IndirectEntity extends AbstractEntity {
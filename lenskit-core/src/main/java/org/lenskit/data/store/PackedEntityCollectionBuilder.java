@@ -78,7 +78,7 @@ class PackedEntityCollectionBuilder extends EntityCollectionBuilder {
                 asb = new DoubleAttrStoreBuilder();
             } else {
                 logger.debug("{}: storing object column {}", et, attr);
-                asb = new AttrStoreBuilder(ObjectShard::new);
+                asb = new ObjectAttrStoreBuilder();
             }
             storeBuilders[i] = asb;
         }
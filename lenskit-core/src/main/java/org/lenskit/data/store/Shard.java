@@ -24,6 +24,8 @@
  */
 package org.lenskit.data.store;
 
+import java.nio.ByteBuffer;
+
 /**
  * A chunk of data for an attribute store.
  */
@@ -44,6 +46,16 @@ abstract class Shard {
         return idx & SHARD_MASK;
     }
 
+    /**
+     * Query a buffered null mask, as used by shards over off-heap or memory-mapped storage.
+     * @param mask The mask, as 8-byte words with a bit set for each non-null value; `null` if no value is null.
+     * @param idx The index within the shard.
+     * @return `true` if the mask marks the value at `idx` as null.
+     */
+    static boolean isMaskedNull(ByteBuffer mask, int idx) {
+        return mask != null && (mask.getLong((idx >>> 6) << 3) & (1L << idx)) == 0;
+    }
+
     /**
      * Get the value at an index in the shard.
      * @param idx The index.
@@ -0,0 +1,237 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sequential little-endian reader for collection snapshot files.  The file is memory-mapped in windows
+ * of up to 1GB, and primitive arrays are copied out of the mapping with bulk buffer reads.
+ *
+ * @see CollectionSnapshots
+ */
+class SnapshotInput {
+    /**
+     * Log2 of the maximum window size.  Java buffers cannot exceed 2GB, so the file is mapped piecewise.
+     */
+    static final int WINDOW_SHIFT = 30;
+    private static final long WINDOW_MASK = (1L << WINDOW_SHIFT) - 1;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private ByteBuffer window;
+    private long windowStart;
+
+    SnapshotInput(FileChannel chan) throws IOException {
+        channel = chan;
+        fileSize = chan.size();
+        window = ByteBuffer.allocate(0);
+        windowStart = 0;
+    }
+
+    /**
+     * Get the current position in the file.
+     * @return The file position of the next byte to be read.
+     */
+    long position() {
+        return windowStart + window.position();
+    }
+
+    int readByte() throws IOException {
+        require(1);
+        return window.get();
+    }
+
+    int readInt() throws IOException {
+        require(4);
+        return window.getInt();
+    }
+
+    long readLong() throws IOException {
+        require(8);
+        return window.getLong();
+    }
+
+    double readDouble() throws IOException {
+        require(8);
+        return window.getDouble();
+    }
+
+    byte[] readBytes() throws IOException {
+        int n = readLength();
+        byte[] bytes = new byte[n];
+        int pos = 0;
+        while (pos < n) {
+            require(1);
+            int k = Math.min(window.remaining(), n - pos);
+            window.get(bytes, pos, k);
+            pos += k;
+        }
+        return bytes;
+    }
+
+    String readString() throws IOException {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a non-negative length or count.
+     * @return The length.
+     * @throws IOException if the value read is negative.
+     */
+    int readLength() throws IOException {
+        int n = readInt();
+        if (n < 0) {
+            throw new IOException("corrupt snapshot: negative length at " + (position() - 4));
+        }
+        return n;
+    }
+
+    void readLongs(long[] dst, int off, int n) throws IOException {
+        while (n > 0) {
+            require(8);
+            int k = Math.min(n, window.remaining() / 8);
+            window.asLongBuffer().get(dst, off, k);
+            window.position(window.position() + k * 8);
+            off += k;
+            n -= k;
+        }
+    }
+
+    void readInts(int[] dst, int off, int n) throws IOException {
+        while (n > 0) {
+            require(4);
+            int k = Math.min(n, window.remaining() / 4);
+            window.asIntBuffer().get(dst, off, k);
+            window.position(window.position() + k * 4);
+            off += k;
+            n -= k;
+        }
+    }
+
+    void readDoubles(double[] dst, int off, int n) throws IOException {
+        while (n > 0) {
+            require(8);
+            int k = Math.min(n, window.remaining() / 8);
+            window.asDoubleBuffer().get(dst, off, k);
+            window.position(window.position() + k * 8);
+            off += k;
+            n -= k;
+        }
+    }
+
+    /**
+     * Skip to the next multiple of a block size.
+     * @param block The block size.
+     * @see SnapshotOutput#align(int)
+     */
+    void align(int block) throws IOException {
+        long pos = position();
+        long rem = pos % block;
+        if (rem != 0) {
+            skip(block - rem);
+        }
+    }
+
+    /**
+     * Skip bytes in the file.
+     * @param n The number of bytes to skip.
+     */
+    void skip(long n) throws IOException {
+        long target = position() + n;
+        if (target > fileSize) {
+            throw new EOFException("unexpected end of snapshot file");
+        }
+        if (target <= windowStart + window.limit()) {
+            window.position((int) (target - windowStart));
+        } else {
+            window = ByteBuffer.allocate(0);
+            windowStart = target;
+        }
+    }
+
+    /**
+     * Map a section of the file, starting at the current position, and skip past it.  The section is
+     * mapped in chunks of 2<sup>{@link #WINDOW_SHIFT}</sup> bytes (the last may be shorter).
+     *
+     * @param len The section length in bytes.
+     * @return The mapped chunks, in little-endian order.
+     */
+    ByteBuffer[] mapSection(long len) throws IOException {
+        long start = position();
+        if (start + len > fileSize) {
+            throw new EOFException("unexpected end of snapshot file");
+        }
+        int nchunks = (int) ((len + WINDOW_MASK) >>> WINDOW_SHIFT);
+        ByteBuffer[] chunks = new ByteBuffer[nchunks];
+        for (int i = 0; i < nchunks; i++) {
+            long cstart = start + ((long) i << WINDOW_SHIFT);
+            long clen = Math.min(1L << WINDOW_SHIFT, start + len - cstart);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, cstart, clen)
+                               .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        skip(len);
+        return chunks;
+    }
+
+    /**
+     * Get a slice of a mapped section.  The slice must not span two chunks.
+     *
+     * @param chunks The chunks from {@link #mapSection(long)}.
+     * @param off The offset of the slice within the section.
+     * @param len The slice length.
+     * @return The slice, in little-endian order.
+     */
+    static ByteBuffer slice(ByteBuffer[] chunks, long off, int len) {
+        ByteBuffer chunk = chunks[(int) (off >>> WINDOW_SHIFT)].duplicate();
+        int start = (int) (off & WINDOW_MASK);
+        assert start + len <= chunk.capacity();
+        chunk.position(start);
+        chunk.limit(start + len);
+        return chunk.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Make sure at least `n` bytes are available in the current window, re-mapping it if necessary.
+     */
+    private void require(int n) throws IOException {
+        if (window.remaining() >= n) {
+            return;
+        }
+        long pos = position();
+        if (pos + n > fileSize) {
+            throw new EOFException("unexpected end of snapshot file");
+        }
+        long len = Math.min(1L << WINDOW_SHIFT, fileSize - pos);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, pos, len)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = pos;
+    }
+}
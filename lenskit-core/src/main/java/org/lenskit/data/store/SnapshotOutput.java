@@ -0,0 +1,118 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered little-endian writer for collection snapshot files.
+ *
+ * @see CollectionSnapshots
+ */
+class SnapshotOutput implements Closeable {
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private long flushed;
+
+    SnapshotOutput(WritableByteChannel chan) {
+        channel = chan;
+        buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void writeByte(int b) throws IOException {
+        ensureSpace(1);
+        buffer.put((byte) b);
+    }
+
+    void writeInt(int v) throws IOException {
+        ensureSpace(4);
+        buffer.putInt(v);
+    }
+
+    void writeLong(long v) throws IOException {
+        ensureSpace(8);
+        buffer.putLong(v);
+    }
+
+    void writeDouble(double v) throws IOException {
+        ensureSpace(8);
+        buffer.putDouble(v);
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+        writeInt(bytes.length);
+        int pos = 0;
+        while (pos < bytes.length) {
+            ensureSpace(1);
+            int n = Math.min(buffer.remaining(), bytes.length - pos);
+            buffer.put(bytes, pos, n);
+            pos += n;
+        }
+    }
+
+    void writeString(String str) throws IOException {
+        writeBytes(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write zero bytes until the file position is a multiple of a block size.  Arrays are aligned so
+     * they can be read efficiently when the file is memory-mapped.
+     *
+     * @param block The block size.
+     */
+    void align(int block) throws IOException {
+        while ((flushed + buffer.position()) % block != 0) {
+            writeByte(0);
+        }
+    }
+
+    private void ensureSpace(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        flushed += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flush buffered data to the channel.  The channel itself is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
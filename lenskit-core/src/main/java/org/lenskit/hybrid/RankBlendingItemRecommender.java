@@ -98,6 +98,9 @@ public class RankBlendingItemRecommender extends AbstractItemRecommender {
             double s1 = rankToScore(rl, nl);
             double s2 = rankToScore(rr, nr);
             double score = weight * s1 + (1.0-weight) * s2;
+            if (score <= accum.threshold()) {
+                continue;
+            }
             accum.add(new RankBlendResult(item, score,
                                           rl >= 0 ? left.get(rl) : null, rl,
                                           rr >= 0 ? right.get(rr) : null, rl));
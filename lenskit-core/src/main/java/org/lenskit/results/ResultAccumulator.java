@@ -27,17 +27,25 @@ package org.lenskit.results;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
 import org.lenskit.api.ResultMap;
+import org.lenskit.util.collections.ScoredIdHeap;
 import org.lenskit.util.collections.SortedListAccumulator;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Accumulator for sorted lists of results.  This class will return result lists, with the highest-scored result first.
  *
+ * <p>When the number of results is bounded, results are selected with a {@link ScoredIdHeap}.  Basic
+ * results added with {@link #add(long, double)} are only materialized if they make the final list,
+ * and callers building expensive results can check {@link #threshold()} before constructing them.
+ *
  * Create one with {@link #create(int)}.
  */
 public class ResultAccumulator {
     private final SortedListAccumulator<Result> accum;
+    private final ScoredIdHeap<Result> heap;
 
     /**
      * Create a new result accumulator.
@@ -45,11 +53,24 @@ public class ResultAccumulator {
      * @return A result accumulator.
      */
     public static ResultAccumulator create(int n) {
-        return new ResultAccumulator(SortedListAccumulator.decreasing(n, Results.scoreOrder()));
+        if (n < 0) {
+            return new ResultAccumulator(SortedListAccumulator.decreasing(n, Results.scoreOrder()), null);
+        } else {
+            return new ResultAccumulator(null, new ScoredIdHeap<>(n));
+        }
     }
 
-    private ResultAccumulator(SortedListAccumulator<Result> acc) {
+    private ResultAccumulator(SortedListAccumulator<Result> acc, ScoredIdHeap<Result> heap) {
         accum = acc;
+        this.heap = heap;
+    }
+
+    /**
+     * Get the score a result must exceed to be retained.
+     * @return The score threshold; negative infinity if every result is currently retained.
+     */
+    public double threshold() {
+        return heap != null ? heap.threshold() : Double.NEGATIVE_INFINITY;
     }
 
     /**
@@ -57,7 +78,11 @@ public class ResultAccumulator {
      * @param r The result to add.
      */
     public void add(@Nonnull Result r) {
-        accum.add(r);
+        if (heap != null) {
+            heap.offer(r.getId(), r.getScore(), r);
+        } else {
+            accum.add(r);
+        }
     }
 
     /**
@@ -66,7 +91,11 @@ public class ResultAccumulator {
      * @param score The score to add.
      */
     public void add(long item, double score) {
-        add(Results.create(item, score));
+        if (heap != null) {
+            heap.offer(item, score);
+        } else {
+            add(Results.create(item, score));
+        }
     }
 
     /**
@@ -77,10 +106,28 @@ public class ResultAccumulator {
      * @return The accumulated results, in nonincreasing order of score.
      */
     public ResultList finish() {
-        return Results.newResultList(accum.finish());
+        return Results.newResultList(finishResults());
     }
 
     public ResultMap finishMap() {
-        return Results.newResultMap(accum.finish());
+        return Results.newResultMap(finishResults());
+    }
+
+    private List<Result> finishResults() {
+        if (heap == null) {
+            return accum.finish();
+        }
+
+        heap.sortDescending();
+        List<Result> results = new ArrayList<>(heap.size());
+        for (int i = 0; i < heap.size(); i++) {
+            Result r = heap.getPayload(i);
+            if (r == null) {
+                r = Results.create(heap.getId(i), heap.getScore(i));
+            }
+            results.add(r);
+        }
+        heap.clear();
+        return results;
     }
 }
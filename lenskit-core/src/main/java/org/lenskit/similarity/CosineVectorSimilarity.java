@@ -41,7 +41,7 @@ import java.io.Serializable;
  */
 @Shareable
 @ThreadSafe
-public class CosineVectorSimilarity implements VectorSimilarity, Serializable {
+public class CosineVectorSimilarity implements PackedVectorSimilarity, Serializable {
     private static final long serialVersionUID = 1L;
 
     private final double dampingFactor;
@@ -65,6 +65,14 @@ public class CosineVectorSimilarity implements VectorSimilarity, Serializable {
         dampingFactor = damping;
     }
 
+    /**
+     * Get the damping factor for this similarity function.
+     * @return The damping term added to the denominator.
+     */
+    public double getDampingFactor() {
+        return dampingFactor;
+    }
+
     @Override
     public double similarity(Long2DoubleMap vec1, Long2DoubleMap vec2) {
         final double dot = Vectors.dotProduct(vec1, vec2);
@@ -76,6 +84,17 @@ public class CosineVectorSimilarity implements VectorSimilarity, Serializable {
         }
     }
 
+    @Override
+    public double similarity(PackedVector vec1, PackedVector vec2) {
+        final double dot = VectorPairStatistics.compute(vec1, vec2).getDotProduct();
+        final double denom = vec1.getNorm() * vec2.getNorm() + dampingFactor;
+        if (Scalars.isZero(denom)) {
+            return 0;
+        } else {
+            return dot / denom;
+        }
+    }
+
     @Override
     public boolean isSparse() {
         return true;
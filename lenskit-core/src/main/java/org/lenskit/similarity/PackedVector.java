@@ -0,0 +1,226 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.similarity;
+
+import com.google.common.primitives.Doubles;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.Scalars;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A sparse vector packed into parallel sorted key and value arrays, for use by {@link PackedVectorSimilarity}
+ * kernels.  The vector's sum and sum of squares are computed when it is packed, so similarity functions can use
+ * its norm and mean without another pass over the values.
+ *
+ * <p>Packed vectors are immutable.  Build contexts and snapshots that compare the same vector many times should
+ * pack it once and keep the packed vector.</p>
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public final class PackedVector {
+    private static final PackedVector EMPTY = new PackedVector(new long[0], new double[0]);
+
+    private final long[] keys;
+    private final double[] values;
+    private final double sum;
+    private final double sumOfSquares;
+    /**
+     * The rank vector, computed on first use.  Racy initialization is benign, as the rank vector is immutable.
+     */
+    private PackedVector ranks;
+
+    private PackedVector(long[] ks, double[] vs) {
+        assert ks.length == vs.length;
+        keys = ks;
+        values = vs;
+        double s = 0;
+        double ssq = 0;
+        for (double v: vs) {
+            s += v;
+            ssq += v * v;
+        }
+        sum = s;
+        sumOfSquares = ssq;
+    }
+
+    /**
+     * Pack a vector.
+     * @param vec The vector to pack.
+     * @return The packed vector.
+     */
+    @Nonnull
+    public static PackedVector pack(Long2DoubleMap vec) {
+        final int n = vec.size();
+        if (n == 0) {
+            return EMPTY;
+        }
+        long[] keys = new long[n];
+        double[] values = new double[n];
+        if (vec instanceof Long2DoubleSortedArrayMap) {
+            Long2DoubleSortedArrayMap sorted = (Long2DoubleSortedArrayMap) vec;
+            for (int i = 0; i < n; i++) {
+                keys[i] = sorted.getKeyByIndex(i);
+                values[i] = sorted.getValueByIndex(i);
+            }
+        } else {
+            SortedKeyIndex idx = SortedKeyIndex.fromCollection(vec.keySet());
+            for (int i = 0; i < n; i++) {
+                long k = idx.getKey(idx.getLowerBound() + i);
+                keys[i] = k;
+                values[i] = vec.get(k);
+            }
+        }
+        return new PackedVector(keys, values);
+    }
+
+    /**
+     * Get the number of entries in the vector.
+     * @return The vector's size.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get the key at a position.
+     * @param i The position.
+     * @return The {@code i}th smallest key.
+     */
+    public long getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Get the value at a position.
+     * @param i The position.
+     * @return The value associated with the {@code i}th smallest key.
+     */
+    public double getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Get the sum of the vector's values.
+     * @return The sum of the values.
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the sum of the squares of the vector's values.
+     * @return The sum of squares.
+     */
+    public double getSumOfSquares() {
+        return sumOfSquares;
+    }
+
+    /**
+     * Get the Euclidean norm of the vector.
+     * @return The vector's Euclidean norm.
+     */
+    public double getNorm() {
+        return Math.sqrt(sumOfSquares);
+    }
+
+    /**
+     * Get the mean of the vector's values.
+     * @return The mean value, or {@link Double#NaN} if the vector is empty.
+     */
+    public double getMean() {
+        return sum / keys.length;
+    }
+
+    /**
+     * Get the raw key array.  It must not be modified.
+     */
+    long[] keyArray() {
+        return keys;
+    }
+
+    /**
+     * Get the raw value array.  It must not be modified.
+     */
+    double[] valueArray() {
+        return values;
+    }
+
+    /**
+     * Get the rank vector of this vector, as used by {@link SpearmanRankCorrelation}.  It is computed on first use
+     * and cached.
+     * @return A vector with the same keys, whose values are the ranks of this vector's values (decreasing).
+     */
+    PackedVector ranks() {
+        PackedVector r = ranks;
+        if (r == null) {
+            r = computeRanks();
+            ranks = r;
+        }
+        return r;
+    }
+
+    private PackedVector computeRanks() {
+        final int n = keys.length;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        // sort positions by value (decreasing)
+        IntArrays.quickSort(order, (i1, i2) -> Doubles.compare(values[i2], values[i1]));
+
+        double[] rank = new double[n];
+        // assign ranks to each item
+        for (int i = 0; i < n; i++) {
+            rank[order[i]] = i + 1;
+        }
+
+        // average ranks for items with same values
+        int i = 0;
+        while (i < n) {
+            int j;
+            for (j = i + 1; j < n; j++) {
+                // compare difference to 0 with tolerance - more robust
+                if (!Scalars.isZero(values[order[j]] - values[order[i]])) {
+                    break;
+                }
+            }
+            if (j - i > 1) {
+                double r2 = (rank[order[i]] + rank[order[j - 1]]) / (j - i);
+                for (int k = i; k < j; k++) {
+                    rank[order[k]] = r2;
+                }
+            }
+            i = j;
+        }
+
+        return new PackedVector(keys, rank);
+    }
+}
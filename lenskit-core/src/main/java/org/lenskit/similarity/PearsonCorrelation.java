@@ -53,7 +53,7 @@ import static java.lang.Math.sqrt;
  */
 @Shareable
 @ThreadSafe
-public class PearsonCorrelation implements VectorSimilarity, Serializable {
+public class PearsonCorrelation implements PackedVectorSimilarity, Serializable {
     private static final long serialVersionUID = 1L;
 
     private final double shrinkage;
@@ -125,6 +125,30 @@ public class PearsonCorrelation implements VectorSimilarity, Serializable {
         }
     }
 
+    @Override
+    public double similarity(PackedVector vec1, PackedVector vec2) {
+        if (vec1.size() == 0 || vec2.size() == 0) {
+            return 0;
+        }
+
+        /*
+         * Walk in parallel across the two vectors, accumulating the dot product, sums and
+         * sums of squares of the items contained in both vectors.  Pearson correlation only
+         * considers items shared by both vectors; other items are discarded for the purpose
+         * of similarity computation.  Values are shifted by each vector's mean first; this
+         * does not change the correlation, but keeps the one-pass variance accurate.
+         */
+        VectorPairStatistics stats = VectorPairStatistics.compute(vec1, vec1.getMean(),
+                                                                  vec2, vec2.getMean());
+        if (stats.getCount() == 0) {
+            return 0;
+        }
+
+        double var1 = stats.getCenteredSumOfSquares1();
+        double var2 = stats.getCenteredSumOfSquares2();
+        return stats.getCenteredDotProduct() / (sqrt(var1 * var2) + shrinkage);
+    }
+
     @Override
     public boolean isSparse() {
         return true;
@@ -39,11 +39,15 @@ import java.io.Serializable;
 /**
  * Similarity function using Spearman rank correlation.
  *
+ * <p>This is Pearson correlation over the rank vectors of the two vectors.  Packed vectors cache their rank vectors,
+ * so a build that compares the same packed vectors many times only ranks each once; map vectors are ranked
+ * on each call.</p>
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 @Shareable
 @ThreadSafe
-public class SpearmanRankCorrelation implements VectorSimilarity, Serializable {
+public class SpearmanRankCorrelation implements PackedVectorSimilarity, Serializable {
     private static final long serialVersionUID = 3023239202579332883L;
 
     private final PearsonCorrelation pearson;
@@ -100,6 +104,11 @@ public class SpearmanRankCorrelation implements VectorSimilarity, Serializable {
         return pearson.similarity(rank(vec1), rank(vec2));
     }
 
+    @Override
+    public double similarity(PackedVector vec1, PackedVector vec2) {
+        return pearson.similarity(vec1.ranks(), vec2.ranks());
+    }
+
     @Override
     public boolean isSparse() {
         return true;
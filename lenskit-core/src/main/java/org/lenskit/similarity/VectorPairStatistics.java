@@ -0,0 +1,183 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.similarity;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Statistics over the common keys of two packed vectors, computed in a single sorted-merge pass.  This is the
+ * kernel underlying the {@link PackedVectorSimilarity} implementations: it computes the dot product, co-count,
+ * co-sums and co-sums of squares at once, so each similarity function only needs to combine them.
+ *
+ * <p>Values can be shifted by a per-vector offset as they are read, so that correlations can be computed from
+ * values centered on the vectors' (cached) means without the cancellation error of the raw one-pass formulas.</p>
+ *
+ * @since 3.0
+ */
+@Immutable
+public final class VectorPairStatistics {
+    private final int count;
+    private final double dot;
+    private final double sum1;
+    private final double sum2;
+    private final double sumSquares1;
+    private final double sumSquares2;
+
+    private VectorPairStatistics(int n, double dp, double s1, double s2, double ss1, double ss2) {
+        count = n;
+        dot = dp;
+        sum1 = s1;
+        sum2 = s2;
+        sumSquares1 = ss1;
+        sumSquares2 = ss2;
+    }
+
+    /**
+     * Compute the statistics of the common keys of two vectors.
+     * @param v1 The first vector.
+     * @param v2 The second vector.
+     * @return The co-occurrence statistics.
+     */
+    public static VectorPairStatistics compute(PackedVector v1, PackedVector v2) {
+        return compute(v1, 0, v2, 0);
+    }
+
+    /**
+     * Compute the statistics of the common keys of two vectors, shifting each vector's values by an offset.
+     * @param v1 The first vector.
+     * @param off1 The offset to subtract from values of {@code v1}.
+     * @param v2 The second vector.
+     * @param off2 The offset to subtract from values of {@code v2}.
+     * @return The co-occurrence statistics of the shifted values.
+     */
+    public static VectorPairStatistics compute(PackedVector v1, double off1, PackedVector v2, double off2) {
+        final long[] k1 = v1.keyArray();
+        final long[] k2 = v2.keyArray();
+        final double[] x1 = v1.valueArray();
+        final double[] x2 = v2.valueArray();
+        final int n1 = k1.length;
+        final int n2 = k2.length;
+
+        int n = 0;
+        double dp = 0, s1 = 0, s2 = 0, ss1 = 0, ss2 = 0;
+        // skip the merge if the key ranges do not overlap
+        if (n1 > 0 && n2 > 0 && k1[0] <= k2[n2 - 1] && k2[0] <= k1[n1 - 1]) {
+            int i1 = 0, i2 = 0;
+            while (i1 < n1 && i2 < n2) {
+                final long a = k1[i1];
+                final long b = k2[i2];
+                if (a < b) {
+                    i1++;
+                } else if (b < a) {
+                    i2++;
+                } else {
+                    final double y1 = x1[i1] - off1;
+                    final double y2 = x2[i2] - off2;
+                    n += 1;
+                    dp += y1 * y2;
+                    s1 += y1;
+                    s2 += y2;
+                    ss1 += y1 * y1;
+                    ss2 += y2 * y2;
+                    i1++;
+                    i2++;
+                }
+            }
+        }
+        return new VectorPairStatistics(n, dp, s1, s2, ss1, ss2);
+    }
+
+    /**
+     * Get the number of keys the vectors have in common.
+     * @return The co-count.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the dot product of the vectors over their common keys.
+     * @return The dot product.
+     */
+    public double getDotProduct() {
+        return dot;
+    }
+
+    /**
+     * Get the sum of the first vector's values on the common keys.
+     * @return The first vector's co-sum.
+     */
+    public double getSum1() {
+        return sum1;
+    }
+
+    /**
+     * Get the sum of the second vector's values on the common keys.
+     * @return The second vector's co-sum.
+     */
+    public double getSum2() {
+        return sum2;
+    }
+
+    /**
+     * Get the sum of squares of the first vector's values on the common keys.
+     * @return The first vector's co-sum of squares.
+     */
+    public double getSumOfSquares1() {
+        return sumSquares1;
+    }
+
+    /**
+     * Get the sum of squares of the second vector's values on the common keys.
+     * @return The second vector's co-sum of squares.
+     */
+    public double getSumOfSquares2() {
+        return sumSquares2;
+    }
+
+    /**
+     * Get the covariance-style cross product of the vectors on their common keys, centered on their co-means.
+     * @return The centered dot product \\(\\sum (x_i - \\bar{x})(y_i - \\bar{y})\\).
+     */
+    public double getCenteredDotProduct() {
+        return count == 0 ? 0 : dot - sum1 * sum2 / count;
+    }
+
+    /**
+     * Get the first vector's sum of squared deviations from its co-mean.
+     * @return The centered sum of squares of the first vector (never negative).
+     */
+    public double getCenteredSumOfSquares1() {
+        return count == 0 ? 0 : Math.max(sumSquares1 - sum1 * sum1 / count, 0);
+    }
+
+    /**
+     * Get the second vector's sum of squared deviations from its co-mean.
+     * @return The centered sum of squares of the second vector (never negative).
+     */
+    public double getCenteredSumOfSquares2() {
+        return count == 0 ? 0 : Math.max(sumSquares2 - sum2 * sum2 / count, 0);
+    }
+}
@@ -49,6 +49,24 @@ public final class MoreArrays {
         return true;
     }
 
+    /**
+     * Check that the array is sorted. Duplicates are not allowed in a sorted array, by this
+     * method's definition.
+     *
+     * @param data  The data to test for sortedness.
+     * @param start The beginning of the range to test (inclusive)
+     * @param end   The end of the range to test (exclusive).
+     * @return {@code true} iff the array is sorted.
+     */
+    public static boolean isSorted(final int[] data, final int start, final int end) {
+        for (int i = start; i < end - 1; i++) {
+            if (data[i] >= data[i + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Remove duplicate elements in the backing store. The array should be
      * sorted.
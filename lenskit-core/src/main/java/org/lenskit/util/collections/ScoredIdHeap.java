@@ -0,0 +1,286 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.collections;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Bounded min-heap for selecting the top <i>N</i> scored IDs.  IDs and scores are kept in parallel
+ * primitive arrays, so offering an entry that does not make the cut costs one comparison and no
+ * allocation.  Entries may carry an optional payload, such as a detailed result object.
+ *
+ * <p>Typical use is to offer entries, call {@link #sortDescending()}, read the entries with
+ * {@link #getId(int)} and friends, and then {@link #clear()} the heap to reuse its storage for
+ * another selection.  Heaps are not thread-safe; use one per thread.
+ *
+ * <p>Scores are ordered as by {@link Double#compare(double, double)}, so NaN scores rank above all others.
+ *
+ * @param <T> The type of payload.
+ * @since 3.0
+ */
+public final class ScoredIdHeap<T> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int capacity;
+    private long[] ids;
+    private double[] scores;
+    private Object[] payloads;
+    private int size;
+    private boolean sorted;
+
+    /**
+     * Create a new heap.
+     * @param n The number of entries to retain.
+     */
+    public ScoredIdHeap(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative heap capacity");
+        }
+        capacity = n;
+        int init = Math.min(n, INITIAL_CAPACITY);
+        ids = new long[init];
+        scores = new double[init];
+    }
+
+    /**
+     * Get the maximum number of entries the heap retains.
+     * @return The heap capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of entries in the heap.
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Query whether the heap is empty.
+     * @return {@code true} if the heap has no entries.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the score a new entry must exceed to enter the heap.
+     * @return The lowest retained score if the heap is full, and negative infinity otherwise.
+     */
+    public double threshold() {
+        return size < capacity ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * Offer an entry to the heap.
+     * @param id The ID.
+     * @param score The score.
+     * @return {@code true} if the entry was retained.
+     */
+    public boolean offer(long id, double score) {
+        return offer(id, score, null);
+    }
+
+    /**
+     * Offer an entry with a payload to the heap.  Once the heap is full, an entry replaces the
+     * lowest-scored entry only if its score is strictly greater.
+     *
+     * @param id The ID.
+     * @param score The score.
+     * @param payload The payload to store with the entry.
+     * @return {@code true} if the entry was retained.
+     */
+    public boolean offer(long id, double score, @Nullable T payload) {
+        if (sorted) {
+            throw new IllegalStateException("heap has been sorted");
+        }
+        if (size < capacity) {
+            if (size == ids.length) {
+                grow();
+            }
+            if (payload != null && payloads == null) {
+                payloads = new Object[ids.length];
+            }
+            int pos = size++;
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (Double.compare(scores[parent], score) <= 0) {
+                    break;
+                }
+                move(parent, pos);
+                pos = parent;
+            }
+            set(pos, id, score, payload);
+            return true;
+        } else if (capacity > 0 && Double.compare(score, scores[0]) > 0) {
+            if (payload != null && payloads == null) {
+                payloads = new Object[ids.length];
+            }
+            siftDown(id, score, payload, size);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void grow() {
+        int cap = (int) Math.min(capacity, Math.max(INITIAL_CAPACITY, ids.length * 2L));
+        ids = Arrays.copyOf(ids, cap);
+        scores = Arrays.copyOf(scores, cap);
+        if (payloads != null) {
+            payloads = Arrays.copyOf(payloads, cap);
+        }
+    }
+
+    private void move(int from, int to) {
+        ids[to] = ids[from];
+        scores[to] = scores[from];
+        if (payloads != null) {
+            payloads[to] = payloads[from];
+        }
+    }
+
+    private void set(int pos, long id, double score, Object payload) {
+        ids[pos] = id;
+        scores[pos] = score;
+        if (payloads != null) {
+            payloads[pos] = payload;
+        }
+    }
+
+    /**
+     * Replace the root with an entry and restore the heap property over the first {@code n} slots.
+     */
+    private void siftDown(long id, double score, Object payload, int n) {
+        int pos = 0;
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && Double.compare(scores[child + 1], scores[child]) < 0) {
+                child += 1;
+            }
+            if (Double.compare(scores[child], score) >= 0) {
+                break;
+            }
+            move(child, pos);
+            pos = child;
+        }
+        set(pos, id, score, payload);
+    }
+
+    /**
+     * Sort the entries in place in decreasing order of score.  After this method is called, entries
+     * can be read by position, but no more can be offered until the heap is cleared.
+     */
+    public void sortDescending() {
+        if (sorted) {
+            return;
+        }
+        for (int n = size - 1; n > 0; n--) {
+            long id = ids[n];
+            double score = scores[n];
+            Object payload = payloads != null ? payloads[n] : null;
+            move(0, n);
+            siftDown(id, score, payload, n);
+        }
+        sorted = true;
+    }
+
+    /**
+     * Get the ID at a position.  Positions are in decreasing order of score after
+     * {@link #sortDescending()}, and in heap order otherwise.
+     * @param i The position.
+     * @return The ID.
+     */
+    public long getId(int i) {
+        checkPosition(i);
+        return ids[i];
+    }
+
+    /**
+     * Get the score at a position.
+     * @param i The position.
+     * @return The score.
+     * @see #getId(int)
+     */
+    public double getScore(int i) {
+        checkPosition(i);
+        return scores[i];
+    }
+
+    /**
+     * Get the payload at a position.
+     * @param i The position.
+     * @return The payload, or {@code null} if the entry was offered without one.
+     * @see #getId(int)
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T getPayload(int i) {
+        checkPosition(i);
+        return payloads != null ? (T) payloads[i] : null;
+    }
+
+    private void checkPosition(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("position " + i + " out of bounds for size " + size);
+        }
+    }
+
+    /**
+     * Sort the heap and copy its IDs, in decreasing order of score, into a new array.
+     * @return The IDs.
+     */
+    public long[] sortedIds() {
+        sortDescending();
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * Sort the heap and copy its scores, in decreasing order, into a new array.
+     * @return The scores.
+     */
+    public double[] sortedScores() {
+        sortDescending();
+        return Arrays.copyOf(scores, size);
+    }
+
+    /**
+     * Remove all entries, keeping the allocated storage for reuse.
+     */
+    public void clear() {
+        if (payloads != null) {
+            Arrays.fill(payloads, 0, size, null);
+        }
+        size = 0;
+        sorted = false;
+    }
+}
@@ -57,6 +57,23 @@ public abstract class SortedKeyIndex implements KeyIndex, Serializable {
         return new FullSortedKeyIndex(keys, 0, size);
     }
 
+    /**
+     * Create a key set whose keys are a subset of another key set, identified by their positions.
+     * @param domain The key domain.
+     * @param positions The positions in {@code domain} of the keys to include.  The range {@code [lb,ub)} of
+     *                  this array must be sorted and must not contain duplicates.  As with {@link #wrap(long[], int)},
+     *                  this is only checked when assertions are enabled.
+     * @param lb The lower bound (inclusive) of the range of {@code positions} to use.
+     * @param ub The upper bound (exclusive) of the range of {@code positions} to use.
+     * @return The key set.  Its indexes are indexes into {@code positions}, not {@code domain}.
+     */
+    public static SortedKeyIndex indirect(SortedKeyIndex domain, int[] positions, int lb, int ub) {
+        Preconditions.checkArgument(lb >= 0 && lb <= ub, "invalid position range");
+        Preconditions.checkArgument(ub <= positions.length, "upper bound too large");
+        assert MoreArrays.isSorted(positions, lb, ub);
+        return new IndirectSortedKeyIndex(domain, positions, lb, ub);
+    }
+
     /**
      * Create a key set from a collection of keys.
      *
@@ -35,8 +35,10 @@ import org.lenskit.data.ratings.InteractionStatistics;
 import org.lenskit.data.ratings.Rating;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.junit.Assert.assertThat;
 
 public class PopularItemRecommenderTest {
@@ -120,4 +122,12 @@ public class PopularItemRecommenderTest {
         List<Long> results = recommender.recommend(100, 1);
         assertThat(results, contains(1L));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRecommendBatch() {
+        Map<Long, ResultList> results = recommender.recommendWithDetails(ImmutableList.of(39L, 17L, 42L), -1);
+        assertThat(results.get(39L).idList(), contains(2L));
+        assertThat(results.get(17L).idList(), contains(1L, 2L));
+        assertThat(results.get(42L).idList(), empty());
+    }
+}
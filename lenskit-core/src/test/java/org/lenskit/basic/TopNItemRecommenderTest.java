@@ -29,14 +29,19 @@ import it.unimi.dsi.fastutil.longs.LongSets;
 import org.junit.Test;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.ItemScorer;
+import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
+import org.lenskit.api.ResultMap;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.Entities;
 import org.lenskit.results.Results;
 
+import javax.annotation.Nonnull;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -116,4 +121,52 @@ public class TopNItemRecommenderTest {
         assertThat(details, hasSize(2));
         assertThat(details.idList(), contains(3L, 2L));
     }
+
+    @Test
+    public void testStreamingScorer() {
+        StaticDataSource source = new StaticDataSource();
+        source.addSource(ImmutableList.of(Entities.create(CommonTypes.ITEM, 3),
+                                          Entities.create(CommonTypes.ITEM, 2),
+                                          Entities.create(CommonTypes.ITEM, 7)));
+        DataAccessObject dao = source.get();
+        ItemScorer scorer = new StreamingScorer(PrecomputedItemScorer.newBuilder()
+                                                                     .addScore(42, 2, 3.0)
+                                                                     .addScore(42, 7, 1.0)
+                                                                     .addScore(42, 3, 3.5)
+                                                                     .build());
+        ItemRecommender rec = new TopNItemRecommender(dao, scorer);
+
+        List<Long> recs = rec.recommend(42, 2, null, null);
+        assertThat(recs, contains(3L, 2L));
+    }
+
+    /**
+     * Streaming scorer that refuses to build score maps.
+     */
+    private static class StreamingScorer extends AbstractItemScorer implements StreamingItemScorer {
+        private final ItemScorer delegate;
+
+        StreamingScorer(ItemScorer delegate) {
+            this.delegate = delegate;
+        }
+
+        @Nonnull
+        @Override
+        public Map<Long, Double> score(long user, @Nonnull Collection<Long> items) {
+            throw new UnsupportedOperationException("score map requested");
+        }
+
+        @Nonnull
+        @Override
+        public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
+            return delegate.scoreWithDetails(user, items);
+        }
+
+        @Override
+        public void score(long user, @Nonnull Collection<Long> items, @Nonnull ScoreConsumer consumer) {
+            for (Result r: delegate.scoreWithDetails(user, items)) {
+                consumer.accept(r.getId(), r.getScore());
+            }
+        }
+    }
 }
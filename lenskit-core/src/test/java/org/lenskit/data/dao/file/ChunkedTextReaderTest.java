@@ -0,0 +1,179 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.dao.file;
+
+import com.google.common.base.Charsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.util.io.CompressionMode;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.io.ObjectStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ChunkedTextReaderTest {
+    @Rule
+    public TemporaryFolder tmpdir = new TemporaryFolder();
+
+    private static DelimitedColumnEntityFormat csvFormat() {
+        DelimitedColumnEntityFormat format = new DelimitedColumnEntityFormat();
+        format.setDelimiter(",");
+        format.setHeader(true);
+        format.addColumn("user", CommonAttributes.USER_ID);
+        format.addColumn("item", CommonAttributes.ITEM_ID);
+        format.addColumn("rating", CommonAttributes.RATING);
+        format.addColumn("timestamp", CommonAttributes.TIMESTAMP);
+        return format;
+    }
+
+    private static String makeRatings(int n) {
+        Random rng = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        sb.append("user,item,timestamp,rating\n");
+        for (int i = 0; i < n; i++) {
+            sb.append(rng.nextInt(100))
+              .append(',')
+              .append(rng.nextInt(1000))
+              .append(',')
+              .append(1400000000L + rng.nextInt(1000000))
+              .append(',');
+            switch (i % 5) {
+            case 0:
+                sb.append(rng.nextInt(5) + 1);
+                break;
+            case 1:
+                sb.append(String.format(Locale.ROOT, "%.1f", rng.nextDouble() * 5));
+                break;
+            case 2:
+                sb.append(rng.nextDouble() * 5);
+                break;
+            case 3:
+                sb.append("3.5e0");
+                break;
+            default:
+                sb.append("-.25");
+            }
+            sb.append(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        return sb.toString();
+    }
+
+    private List<Entity> readSequential(File file) throws IOException {
+        TextEntitySource source = new TextEntitySource("test");
+        source.setFile(file.toPath());
+        source.setFormat(csvFormat());
+        try (ObjectStream<Entity> stream = source.openStream()) {
+            return ObjectStreams.makeList(stream);
+        }
+    }
+
+    private List<Entity> readChunked(File file, int chunkSize) throws IOException {
+        try (ObjectStream<Entity> stream = ChunkedTextReader.open(file.toPath(), csvFormat(), chunkSize)) {
+            assertThat(stream, notNullValue());
+            return ObjectStreams.makeList(stream);
+        }
+    }
+
+    @Test
+    public void testMatchesSequentialRead() throws IOException {
+        File file = tmpdir.newFile("ratings.csv");
+        Files.write(file.toPath(), makeRatings(5000).getBytes(Charsets.UTF_8));
+
+        List<Entity> expected = readSequential(file);
+        assertThat(expected, hasSize(5000));
+        assertThat(readChunked(file, 1024), equalTo(expected));
+        assertThat(readChunked(file, 7), equalTo(expected));
+        assertThat(readChunked(file, ChunkedTextReader.CHUNK_SIZE), equalTo(expected));
+    }
+
+    @Test
+    public void testCompressedFile() throws IOException {
+        File file = tmpdir.newFile("ratings.csv.gz");
+        try (OutputStream out = CompressionMode.GZIP.wrapOutput(Files.newOutputStream(file.toPath()));
+             Writer w = new OutputStreamWriter(out, Charsets.UTF_8)) {
+            w.write(makeRatings(500));
+        }
+
+        List<Entity> expected = readSequential(file);
+        assertThat(expected, hasSize(500));
+        assertThat(readChunked(file, 512), equalTo(expected));
+    }
+
+    @Test
+    public void testEdgeCases() throws IOException {
+        File file = tmpdir.newFile("ratings.csv");
+        String text = "user,item,rating,timestamp\n"
+                + "1,2,3.5\n"
+                + "\"4\",5,2,100\n"
+                + "6,7,+4.5,200\r\n"
+                + "8,9,3.14159265358979323,250\n"
+                + "9,10,4,300";
+        Files.write(file.toPath(), text.getBytes(Charsets.UTF_8));
+
+        List<Entity> expected = readSequential(file);
+        assertThat(expected, hasSize(5));
+        assertThat(readChunked(file, 3), equalTo(expected));
+    }
+
+    @Test
+    public void testSourceReadsInParallel() throws IOException {
+        File file = tmpdir.newFile("ratings.csv");
+        Files.write(file.toPath(), makeRatings(100).getBytes(Charsets.UTF_8));
+
+        TextEntitySource source = new TextEntitySource("test");
+        source.setFile(file.toPath());
+        source.setFormat(csvFormat());
+        source.setParallel(true);
+        List<Entity> entities;
+        try (ObjectStream<Entity> stream = source.openStream()) {
+            entities = ObjectStreams.makeList(stream);
+        }
+        assertThat(entities, equalTo(readSequential(file)));
+    }
+
+    @Test
+    public void testMultiCharacterDelimiter() throws IOException {
+        File file = tmpdir.newFile("ratings.dat");
+        Files.write(file.toPath(), "1::2::3.5\n".getBytes(Charsets.UTF_8));
+        DelimitedColumnEntityFormat format = new DelimitedColumnEntityFormat();
+        format.setDelimiter("::");
+        format.addColumns(CommonAttributes.USER_ID, CommonAttributes.ITEM_ID, CommonAttributes.RATING);
+        assertThat(ChunkedTextReader.open(file.toPath(), format), nullValue());
+    }
+}
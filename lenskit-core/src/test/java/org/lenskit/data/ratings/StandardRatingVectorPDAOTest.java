@@ -27,6 +27,8 @@ package org.lenskit.data.ratings;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.junit.Test;
 import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.EntityFactory;
 
 import static org.hamcrest.Matchers.*;
@@ -65,4 +67,23 @@ public class StandardRatingVectorPDAOTest {
         assertThat(vec, hasEntry(39L, 2.5));
         assertThat(vec, hasEntry(20L, 3.5));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetPackedRatings() {
+        EntityCollectionDAO dao = EntityCollectionDAO.newBuilder()
+                                                     .addEntityLayout(CommonTypes.RATING, Rating.ATTRIBUTES)
+                                                     .addIndex(CommonTypes.RATING, CommonAttributes.USER_ID)
+                                                     .addEntities(factory.rating(42, 39, 2.5),
+                                                                  factory.rating(17, 39, 1.5),
+                                                                  factory.rating(42, 20, 3.5))
+                                                     .build();
+        RatingVectorPDAO source = new StandardRatingVectorPDAO(dao);
+
+        Long2DoubleMap vec = source.userRatingVector(42);
+        assertThat(vec.entrySet(), hasSize(2));
+        assertThat(vec, hasEntry(39L, 2.5));
+        assertThat(vec, hasEntry(20L, 3.5));
+        assertThat(source.userRatingVector(17).entrySet(), hasSize(1));
+        assertThat(source.userRatingVector(10).entrySet(), hasSize(0));
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.dao.EntityCollectionDAOBuilder;
+import org.lenskit.data.entities.*;
+import org.lenskit.util.describe.Descriptions;
+import org.lenskit.util.describe.HashDescriptionWriter;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CollectionSnapshotsTest {
+    private static final TypedName<String> TAG = TypedName.create("tag", String.class);
+    private static final AttributeSet RATING_ATTRS =
+            AttributeSet.create(CommonAttributes.ENTITY_ID, CommonAttributes.USER_ID, CommonAttributes.ITEM_ID,
+                                CommonAttributes.RATING, CommonAttributes.TIMESTAMP, TAG);
+
+    @Rule
+    public TemporaryFolder tmpdir = new TemporaryFolder();
+
+    private static List<Entity> makeRatings(int n) {
+        Random rng = new Random(42);
+        List<Entity> ratings = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            EntityBuilder eb = Entities.newBuilder(CommonTypes.RATING)
+                                       .setId(i * 3)
+                                       .setAttribute(CommonAttributes.ITEM_ID, (long) rng.nextInt(500));
+            // the second shard needs wide user IDs
+            long user = rng.nextInt(100);
+            eb.setAttribute(CommonAttributes.USER_ID, i >= 4096 && i < 8192 ? user + 10000000000L : user);
+            // the third shard needs full-precision ratings
+            double rating = rng.nextInt(10) * 0.5;
+            eb.setAttribute(CommonAttributes.RATING, i >= 8192 && i % 3 == 0 ? rating + 0.1 : rating);
+            if (i % 7 != 0) {
+                eb.setAttribute(CommonAttributes.TIMESTAMP, 1000000L + rng.nextInt(1000000));
+            }
+            if (i % 5 == 0) {
+                eb.setAttribute(TAG, "tag" + rng.nextInt(20));
+            }
+            ratings.add(eb.build());
+        }
+        Collections.shuffle(ratings, rng);
+        return ratings;
+    }
+
+    private Path writeSnapshot(EntityCollectionDAO dao) throws IOException {
+        Path file = tmpdir.getRoot().toPath().resolve("data.lks");
+        dao.writeSnapshot(file);
+        return file;
+    }
+
+    private static String describe(EntityCollectionDAO dao) {
+        HashDescriptionWriter writer = Descriptions.sha1Writer();
+        dao.describeTo(writer);
+        return writer.finish().toString();
+    }
+
+    @Test
+    public void testEmptyDAO() throws IOException {
+        EntityCollectionDAO dao = EntityCollectionDAO.create();
+        EntityCollectionDAO loaded = EntityCollectionDAO.readSnapshot(writeSnapshot(dao));
+        assertThat(loaded.getEntityTypes(), hasSize(0));
+    }
+
+    @Test
+    public void testPackedCollection() throws IOException {
+        List<Entity> ratings = makeRatings(10000);
+        EntityCollectionDAOBuilder builder = EntityCollectionDAO.newBuilder();
+        builder.addEntityLayout(CommonTypes.RATING, RATING_ATTRS);
+        builder.addDefaultIndex(CommonAttributes.USER_ID);
+        builder.addDefaultIndex(CommonAttributes.ITEM_ID);
+        builder.addEntities(ratings);
+        EntityCollectionDAO dao = builder.build();
+
+        Path file = writeSnapshot(dao);
+        EntityCollectionDAO loaded = EntityCollectionDAO.readSnapshot(file);
+
+        assertThat(loaded.getEntityTypes(), contains(CommonTypes.RATING));
+        assertThat(Lists.newArrayList(loaded.streamEntities(CommonTypes.RATING)),
+                   equalTo(Lists.newArrayList(dao.streamEntities(CommonTypes.RATING))));
+        for (long user: new long[]{5, 10000000005L, 42}) {
+            assertThat(loaded.query(CommonTypes.RATING)
+                             .withAttribute(CommonAttributes.USER_ID, user)
+                             .get(),
+                       containsInAnyOrder(dao.query(CommonTypes.RATING)
+                                             .withAttribute(CommonAttributes.USER_ID, user)
+                                             .get()
+                                             .toArray()));
+        }
+        assertThat(describe(loaded), equalTo(describe(dao)));
+
+        List<CollectionSnapshots.Summary> sums = CollectionSnapshots.readSummaries(file);
+        assertThat(sums, hasSize(1));
+        assertThat(sums.get(0).getEntityType(), equalTo(CommonTypes.RATING));
+        assertThat(sums.get(0).getSize(), equalTo(10000));
+    }
+
+    @Test
+    public void testMappedPackedCollection() throws IOException {
+        List<Entity> ratings = makeRatings(10000);
+        EntityCollectionDAOBuilder builder = EntityCollectionDAO.newBuilder();
+        builder.addEntityLayout(CommonTypes.RATING, RATING_ATTRS);
+        builder.addDefaultIndex(CommonAttributes.USER_ID);
+        builder.addEntities(ratings);
+        builder.deriveEntities(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+        EntityCollectionDAO dao = builder.build();
+
+        EntityCollectionDAO mapped = EntityCollectionDAO.mapSnapshot(writeSnapshot(dao));
+
+        assertThat(Lists.newArrayList(mapped.streamEntities(CommonTypes.RATING)),
+                   equalTo(Lists.newArrayList(dao.streamEntities(CommonTypes.RATING))));
+        assertThat(mapped.getEntityIds(CommonTypes.USER),
+                   equalTo(dao.getEntityIds(CommonTypes.USER)));
+        for (long user: new long[]{5, 10000000005L, 42}) {
+            assertThat(mapped.query(CommonTypes.RATING)
+                             .withAttribute(CommonAttributes.USER_ID, user)
+                             .get(),
+                       containsInAnyOrder(dao.query(CommonTypes.RATING)
+                                             .withAttribute(CommonAttributes.USER_ID, user)
+                                             .get()
+                                             .toArray()));
+        }
+        Entity first = mapped.lookupEntity(CommonTypes.RATING, 0);
+        assertThat(first, notNullValue());
+        assertThat(first.hasAttribute(CommonAttributes.TIMESTAMP), equalTo(false));
+        assertThat(describe(mapped), equalTo(describe(dao)));
+    }
+
+    @Test
+    public void testMapAndBareCollections() throws IOException {
+        List<Entity> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            EntityBuilder eb = Entities.newBuilder(CommonTypes.ITEM, i);
+            if (i % 2 == 0) {
+                eb.setAttribute(CommonAttributes.NAME, "item " + i);
+            }
+            items.add(eb.build());
+        }
+        EntityCollectionDAOBuilder builder = EntityCollectionDAO.newBuilder();
+        builder.addDefaultIndex(CommonAttributes.USER_ID);
+        builder.addEntities(items);
+        builder.addEntities(makeRatings(200));
+        builder.deriveEntities(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+        EntityCollectionDAO dao = builder.build();
+
+        EntityCollectionDAO loaded = EntityCollectionDAO.readSnapshot(writeSnapshot(dao));
+
+        assertThat(loaded.getEntityTypes(), equalTo(dao.getEntityTypes()));
+        for (EntityType type: dao.getEntityTypes()) {
+            assertThat(Lists.newArrayList(loaded.streamEntities(type)),
+                       equalTo(Lists.newArrayList(dao.streamEntities(type))));
+        }
+        assertThat(loaded.lookupEntity(CommonTypes.ITEM, 42).maybeGet(CommonAttributes.NAME),
+                   equalTo("item 42"));
+        assertThat(loaded.lookupEntity(CommonTypes.ITEM, 43).hasAttribute(CommonAttributes.NAME),
+                   equalTo(false));
+        assertThat(loaded.getEntityIds(CommonTypes.USER),
+                   equalTo(dao.getEntityIds(CommonTypes.USER)));
+        assertThat(describe(loaded), equalTo(describe(dao)));
+    }
+
+    @Test
+    public void testTaggedValues() throws IOException {
+        TypedName<Boolean> flag = TypedName.create("flag", Boolean.class);
+        TypedName<Object> extra = TypedName.create("extra", Object.class);
+        TypedName<JsonNode> json = TypedName.create("json", JsonNode.class);
+        List<Entity> items = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            EntityBuilder eb = Entities.newBuilder(CommonTypes.ITEM, i)
+                                       .setAttribute(flag, i % 2 == 0);
+            switch (i % 4) {
+            case 0:
+                eb.setAttribute(extra, Arrays.asList("a" + i, null, (long) i));
+                break;
+            case 1:
+                eb.setAttribute(extra, TimeUnit.SECONDS);
+                break;
+            case 2:
+                eb.setAttribute(extra, 1.5f);
+                break;
+            default:
+                break;
+            }
+            eb.setAttribute(json, JsonNodeFactory.instance.objectNode().put("n", i));
+            items.add(eb.build());
+        }
+        EntityCollectionDAOBuilder builder = EntityCollectionDAO.newBuilder();
+        builder.addDefaultIndex(flag);
+        builder.addEntities(items);
+        EntityCollectionDAO dao = builder.build();
+
+        EntityCollectionDAO loaded = EntityCollectionDAO.readSnapshot(writeSnapshot(dao));
+
+        assertThat(Lists.newArrayList(loaded.streamEntities(CommonTypes.ITEM)),
+                   equalTo(Lists.newArrayList(dao.streamEntities(CommonTypes.ITEM))));
+        assertThat(loaded.lookupEntity(CommonTypes.ITEM, 5).maybeGet(extra),
+                   equalTo((Object) TimeUnit.SECONDS));
+        assertThat(loaded.query(CommonTypes.ITEM).withAttribute(flag, true).get(), hasSize(10));
+    }
+
+    @Test(expected = NotSerializableException.class)
+    public void testRejectsUnknownValueTypes() throws IOException {
+        TypedName<Object> extra = TypedName.create("extra", Object.class);
+        EntityCollectionDAOBuilder builder = EntityCollectionDAO.newBuilder();
+        builder.addEntity(Entities.newBuilder(CommonTypes.ITEM, 1)
+                                  .setAttribute(extra, new StringBuilder("value"))
+                                  .build());
+        writeSnapshot(builder.build());
+    }
+}
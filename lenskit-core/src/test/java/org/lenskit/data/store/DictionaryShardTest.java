@@ -0,0 +1,64 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class DictionaryShardTest {
+    @Test
+    public void testEncodeLowCardinality() {
+        ObjectShard shard = new ObjectShard();
+        for (int i = 0; i < 100; i++) {
+            shard.put(i, i % 3 == 0 ? null : "tag" + (i % 5));
+        }
+        shard.compact();
+        List<Shard> encoded = DictionaryShard.encode(Collections.singletonList(shard));
+        assertThat(encoded, hasSize(1));
+        Shard es = encoded.get(0);
+        assertThat(es, instanceOf(DictionaryShard.class));
+        assertThat(es.size(), equalTo(100));
+        for (int i = 0; i < 100; i++) {
+            assertThat(es.isNull(i), equalTo(shard.isNull(i)));
+            assertThat(es.get(i), equalTo(shard.get(i)));
+        }
+    }
+
+    @Test
+    public void testSkipHighCardinality() {
+        ObjectShard shard = new ObjectShard();
+        for (int i = 0; i < 100; i++) {
+            shard.put(i, "item" + i);
+        }
+        shard.compact();
+        List<Shard> shards = Collections.singletonList(shard);
+        assertThat(DictionaryShard.encode(shards), sameInstance(shards));
+    }
+}
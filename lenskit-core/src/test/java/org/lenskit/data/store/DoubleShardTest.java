@@ -31,7 +31,9 @@ import static net.java.quickcheck.generator.PrimitiveGenerators.doubles;
 import static net.java.quickcheck.generator.PrimitiveGenerators.integers;
 import static net.java.quickcheck.generator.iterable.Iterables.toIterable;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 public class DoubleShardTest {
@@ -125,4 +127,32 @@ public class DoubleShardTest {
                        equalTo(d > -64 && d < 64 && Scalars.isZero(Math.IEEEremainder(d, 0.5))));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncodeScaled() {
+        DoubleShard shard = DoubleShard.create();
+        shard = shard.adapt(4.3);
+        shard.put(0, 4.3);
+        shard.put(2, 1.0);
+        shard.put(3, 250.1);
+        shard.compact();
+        DoubleShard encoded = DoubleShard.encode(shard);
+        assertThat(encoded, not(sameInstance(shard)));
+        assertThat(encoded.size(), equalTo(4));
+        assertThat(encoded.get(0), equalTo(4.3));
+        assertThat(encoded.isNull(1), equalTo(true));
+        assertThat(encoded.get(1), nullValue());
+        assertThat(encoded.getDouble(2), equalTo(1.0));
+        assertThat(encoded.getDouble(3), equalTo(250.1));
+    }
+
+    @Test
+    public void testEncodeUnscalable() {
+        DoubleShard shard = DoubleShard.create();
+        shard = shard.adapt(Math.PI);
+        shard.put(0, Math.PI);
+        shard.put(1, 2.0);
+        shard.compact();
+        assertThat(DoubleShard.encode(shard), sameInstance(shard));
+    }
+}
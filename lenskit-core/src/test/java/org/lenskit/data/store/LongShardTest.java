@@ -26,8 +26,13 @@ package org.lenskit.data.store;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 public class LongShardTest {
@@ -178,4 +183,50 @@ public class LongShardTest {
         assertThat(shard.get(2), equalTo(Integer.MAX_VALUE + 10L));
         assertThat(shard.isNull(2), equalTo(false));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWrapBuffer() {
+        ByteBuffer data = ByteBuffer.allocateDirect(3 * 8).order(ByteOrder.LITTLE_ENDIAN);
+        data.putLong(0, 42L).putLong(8, 0).putLong(16, 10000000000L);
+        ByteBuffer mask = ByteBuffer.allocateDirect(8).order(ByteOrder.LITTLE_ENDIAN);
+        mask.putLong(0, 0b101L);
+        LongShard shard = LongShard.wrap(data, mask, 3);
+        assertThat(shard.size(), equalTo(3));
+        assertThat(shard.get(0), equalTo(42L));
+        assertThat(shard.isNull(1), equalTo(true));
+        assertThat(shard.get(1), nullValue());
+        assertThat(shard.getLong(2), equalTo(10000000000L));
+
+        shard = LongShard.wrap(data, null, 3);
+        assertThat(shard.isNull(1), equalTo(false));
+        assertThat(shard.get(1), equalTo(0L));
+    }
+
+    @Test
+    public void testEncodeFrameOfReference() {
+        LongShard shard = LongShard.create();
+        shard = (LongShard) shard.adapt(10000000000L);
+        shard.put(0, 10000000000L);
+        shard.put(2, 10000050000L);
+        shard.put(3, 10000000042L);
+        shard.compact();
+        LongShard encoded = LongShard.encode(shard);
+        assertThat(encoded, not(sameInstance(shard)));
+        assertThat(encoded.size(), equalTo(4));
+        assertThat(encoded.getLong(0), equalTo(10000000000L));
+        assertThat(encoded.isNull(1), equalTo(true));
+        assertThat(encoded.get(1), nullValue());
+        assertThat(encoded.getLong(2), equalTo(10000050000L));
+        assertThat(encoded.get(3), equalTo(10000000042L));
+    }
+
+    @Test
+    public void testEncodeWideRange() {
+        LongShard shard = LongShard.create();
+        shard = (LongShard) shard.adapt(Long.MIN_VALUE).adapt(Long.MAX_VALUE);
+        shard.put(0, Long.MIN_VALUE);
+        shard.put(1, Long.MAX_VALUE);
+        shard.compact();
+        assertThat(LongShard.encode(shard), sameInstance(shard));
+    }
+}
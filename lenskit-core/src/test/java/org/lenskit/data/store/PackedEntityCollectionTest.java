@@ -25,6 +25,7 @@
 package org.lenskit.data.store;
 
 import com.google.common.collect.Lists;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.junit.Test;
 import org.lenskit.data.entities.*;
 import org.lenskit.data.ratings.Rating;
@@ -194,4 +195,36 @@ public class PackedEntityCollectionTest {
                                               .build();
         assertThat(ec, contains(r));
     }
+
+    @Test
+    public void testValueVector() {
+        EntityFactory factory = new EntityFactory();
+        EntityCollection ec = EntityCollection.newBuilder(CommonTypes.RATING,
+                                                          AttributeSet.create(CommonAttributes.ENTITY_ID,
+                                                                              CommonAttributes.USER_ID,
+                                                                              CommonAttributes.ITEM_ID,
+                                                                              CommonAttributes.RATING))
+                                              .addIndex(CommonAttributes.USER_ID)
+                                              .add(factory.rating(10, 203, 3.5))
+                                              .add(factory.rating(12, 203, 2.0))
+                                              .add(factory.rating(10, 101, 4.0))
+                                              .add(Entities.newBuilder(CommonTypes.RATING)
+                                                           .setId(1000)
+                                                           .setAttribute(CommonAttributes.USER_ID, 10L)
+                                                           .setAttribute(CommonAttributes.ITEM_ID, 150L)
+                                                           .build())
+                                              .build();
+        Long2DoubleMap vec = ec.valueVector(CommonAttributes.USER_ID, 10L,
+                                            CommonAttributes.ITEM_ID, CommonAttributes.RATING);
+        assertThat(vec.keySet(), contains(101L, 203L));
+        assertThat(vec.get(101L), equalTo(4.0));
+        assertThat(vec.get(203L), equalTo(3.5));
+        assertThat(ec.valueVector(CommonAttributes.USER_ID, 11L,
+                                  CommonAttributes.ITEM_ID, CommonAttributes.RATING).entrySet(),
+                   hasSize(0));
+        // unindexed search falls back to scanning entities
+        assertThat(ec.valueVector(CommonAttributes.ITEM_ID, 203L,
+                                  CommonAttributes.USER_ID, CommonAttributes.RATING).keySet(),
+                   contains(10L, 12L));
+    }
 }
@@ -25,6 +25,7 @@
 package org.lenskit.results;
 
 import org.junit.Test;
+import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
 
 import static org.hamcrest.Matchers.*;
@@ -111,4 +112,18 @@ public class ResultAccumulatorTest {
         assertThat(Results.basicCopy(res.get(2)),
                    equalTo(Results.create(2, 2.0)));
     }
+
+    @Test
+    public void testLimitedKeepsDetailedResults() {
+        ResultAccumulator acc = ResultAccumulator.create(2);
+        Result detailed = Results.rescore(Results.create(4, 1.0), 4.0);
+        acc.add(1, 3.0);
+        acc.add(detailed);
+        acc.add(2, 2.0);
+        assertThat(acc.threshold(), equalTo(3.0));
+        ResultList res = acc.finish();
+        assertThat(res.idList(), contains(4L, 1L));
+        assertThat(res.get(0), sameInstance(detailed));
+        assertThat(acc.threshold(), equalTo(Double.NEGATIVE_INFINITY));
+    }
 }
@@ -104,4 +104,19 @@ public class CosineSimilarityTest {
         assertEquals(1, similarity.similarity(v2, v2), EPSILON);
         assertEquals(0.29049645, similarity.similarity(v1, v2), EPSILON);
     }
+
+    @Test
+    public void testPackedSimilarity() {
+        long k1[] = {1, 5, 7, 8};
+        double val1[] = {1.5, 2.5, 2, 3.5};
+        long k2[] = {1, 5, 7, 9};
+        double val2[] = {2, 2.5, 1.7, 0.8};
+        Long2DoubleMap v1 = Long2DoubleSortedArrayMap.wrapUnsorted(k1, val1);
+        Long2DoubleMap v2 = Long2DoubleSortedArrayMap.wrapUnsorted(k2, val2);
+        PackedVector p1 = PackedVector.pack(v1);
+        PackedVector p2 = PackedVector.pack(v2);
+        assertEquals(similarity.similarity(v1, v2), similarity.similarity(p1, p2), EPSILON);
+        assertEquals(dampedSimilarity.similarity(v1, v2), dampedSimilarity.similarity(p1, p2), EPSILON);
+        assertEquals(1, similarity.similarity(p1, p1), EPSILON);
+    }
 }
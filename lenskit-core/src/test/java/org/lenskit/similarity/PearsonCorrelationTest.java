@@ -92,4 +92,16 @@ public class PearsonCorrelationTest {
         Long2DoubleMap v2 = Long2DoubleSortedArrayMap.wrapUnsorted(k2, val2);
         assertThat(sim.similarity(v1, v2), closeTo(0.6185896, EPSILON));
     }
+
+    @Test
+    public void testPackedSimilarity() {
+        long k1[] = {1, 5, 7, 8};
+        double val1[] = {1.5, 2.5, 2, 3.5};
+        long k2[] = {1, 5, 7, 9};
+        double val2[] = {2, 2.5, 1.7, 0.8};
+        PackedVector v1 = PackedVector.pack(Long2DoubleSortedArrayMap.wrapUnsorted(k1, val1));
+        PackedVector v2 = PackedVector.pack(Long2DoubleSortedArrayMap.wrapUnsorted(k2, val2));
+        assertThat(((PearsonCorrelation) sim).similarity(v1, v2), closeTo(0.6185896, EPSILON));
+        assertThat(((PearsonCorrelation) sim).similarity(v1, v1), closeTo(1, EPSILON));
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.similarity;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Test;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class VectorPairStatisticsTest {
+    private static final double EPSILON = 1.0e-6;
+
+    @Test
+    public void testPackVector() {
+        Long2DoubleMap map = new Long2DoubleOpenHashMap();
+        map.put(5, 2.0);
+        map.put(1, 1.0);
+        map.put(3, 3.0);
+        PackedVector vec = PackedVector.pack(map);
+        assertThat(vec.size(), equalTo(3));
+        assertThat(vec.getKey(0), equalTo(1L));
+        assertThat(vec.getKey(1), equalTo(3L));
+        assertThat(vec.getKey(2), equalTo(5L));
+        assertThat(vec.getValue(1), equalTo(3.0));
+        assertThat(vec.getSum(), closeTo(6, EPSILON));
+        assertThat(vec.getSumOfSquares(), closeTo(14, EPSILON));
+        assertThat(vec.getMean(), closeTo(2, EPSILON));
+        assertThat(vec.getNorm(), closeTo(Math.sqrt(14), EPSILON));
+    }
+
+    @Test
+    public void testEmpty() {
+        PackedVector empty = PackedVector.pack(Long2DoubleMaps.EMPTY_MAP);
+        PackedVector vec = PackedVector.pack(Long2DoubleSortedArrayMap.wrapUnsorted(new long[]{1, 2},
+                                                                                   new double[]{1, 2}));
+        VectorPairStatistics stats = VectorPairStatistics.compute(empty, vec);
+        assertThat(stats.getCount(), equalTo(0));
+        assertThat(stats.getDotProduct(), equalTo(0.0));
+        assertThat(stats.getCenteredDotProduct(), equalTo(0.0));
+    }
+
+    @Test
+    public void testCommonKeys() {
+        PackedVector v1 = PackedVector.pack(Long2DoubleSortedArrayMap.wrapUnsorted(new long[]{1, 3, 5, 7},
+                                                                                  new double[]{1, 2, 3, 4}));
+        PackedVector v2 = PackedVector.pack(Long2DoubleSortedArrayMap.wrapUnsorted(new long[]{2, 3, 7, 9},
+                                                                                  new double[]{5, 6, 7, 8}));
+        VectorPairStatistics stats = VectorPairStatistics.compute(v1, v2);
+        assertThat(stats.getCount(), equalTo(2));
+        assertThat(stats.getDotProduct(), closeTo(2 * 6 + 4 * 7, EPSILON));
+        assertThat(stats.getSum1(), closeTo(6, EPSILON));
+        assertThat(stats.getSum2(), closeTo(13, EPSILON));
+        assertThat(stats.getSumOfSquares1(), closeTo(20, EPSILON));
+        assertThat(stats.getSumOfSquares2(), closeTo(85, EPSILON));
+        // co-means are 3 and 6.5
+        assertThat(stats.getCenteredDotProduct(), closeTo(1, EPSILON));
+        assertThat(stats.getCenteredSumOfSquares1(), closeTo(2, EPSILON));
+        assertThat(stats.getCenteredSumOfSquares2(), closeTo(0.5, EPSILON));
+    }
+
+    @Test
+    public void testShiftedStatistics() {
+        PackedVector v1 = PackedVector.pack(Long2DoubleSortedArrayMap.wrapUnsorted(new long[]{1, 3, 5, 7},
+                                                                                  new double[]{1, 2, 3, 4}));
+        PackedVector v2 = PackedVector.pack(Long2DoubleSortedArrayMap.wrapUnsorted(new long[]{2, 3, 7, 9},
+                                                                                  new double[]{5, 6, 7, 8}));
+        VectorPairStatistics stats = VectorPairStatistics.compute(v1, 1, v2, 6);
+        assertThat(stats.getCount(), equalTo(2));
+        assertThat(stats.getDotProduct(), closeTo(1 * 0 + 3 * 1, EPSILON));
+        // centering is unaffected by the shift
+        assertThat(stats.getCenteredDotProduct(), closeTo(1, EPSILON));
+        assertThat(stats.getCenteredSumOfSquares1(), closeTo(2, EPSILON));
+        assertThat(stats.getCenteredSumOfSquares2(), closeTo(0.5, EPSILON));
+    }
+}
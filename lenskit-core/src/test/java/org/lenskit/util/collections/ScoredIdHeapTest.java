@@ -0,0 +1,120 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.collections;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ScoredIdHeapTest {
+    @Test
+    public void testEmpty() {
+        ScoredIdHeap<String> heap = new ScoredIdHeap<>(5);
+        assertThat(heap.isEmpty(), equalTo(true));
+        assertThat(heap.threshold(), equalTo(Double.NEGATIVE_INFINITY));
+        assertThat(heap.sortedIds().length, equalTo(0));
+    }
+
+    @Test
+    public void testZeroCapacity() {
+        ScoredIdHeap<String> heap = new ScoredIdHeap<>(0);
+        assertThat(heap.offer(1, 5.0), equalTo(false));
+        assertThat(heap.size(), equalTo(0));
+    }
+
+    @Test
+    public void testKeepsTopN() {
+        ScoredIdHeap<String> heap = new ScoredIdHeap<>(3);
+        heap.offer(7, 1.0);
+        heap.offer(5, 4.2);
+        heap.offer(3, 2.9);
+        assertThat(heap.threshold(), equalTo(1.0));
+        assertThat(heap.offer(2, 9.8), equalTo(true));
+        assertThat(heap.offer(8, 2.1), equalTo(false));
+        assertThat(heap.offer(9, 2.9), equalTo(false));
+        long[] ids = heap.sortedIds();
+        assertThat(ids.length, equalTo(3));
+        assertThat(ids[0], equalTo(2L));
+        assertThat(ids[1], equalTo(5L));
+        assertThat(ids[2], equalTo(3L));
+        assertThat(heap.getScore(0), equalTo(9.8));
+    }
+
+    @Test
+    public void testNaNDoesNotBlockAdmission() {
+        ScoredIdHeap<String> heap = new ScoredIdHeap<>(3);
+        heap.offer(1, 1.0);
+        heap.offer(2, 2.0);
+        heap.offer(3, Double.NaN);
+        assertThat(heap.offer(4, 3.0), equalTo(true));
+        assertThat(heap.offer(5, 5.0), equalTo(true));
+        assertThat(heap.offer(6, 4.0), equalTo(true));
+        assertThat(heap.offer(7, 0.5), equalTo(false));
+        assertThat(heap.threshold(), equalTo(4.0));
+        assertThat(heap.sortedIds(), equalTo(new long[]{3, 5, 6}));
+    }
+
+    @Test
+    public void testPayloads() {
+        ScoredIdHeap<String> heap = new ScoredIdHeap<>(2);
+        heap.offer(1, 1.0);
+        heap.offer(2, 3.0, "two");
+        heap.offer(3, 2.0, "three");
+        heap.sortDescending();
+        assertThat(heap.getPayload(0), equalTo("two"));
+        assertThat(heap.getPayload(1), equalTo("three"));
+        heap.clear();
+        heap.offer(4, 1.0);
+        heap.sortDescending();
+        assertThat(heap.getPayload(0), nullValue());
+    }
+
+    @Test
+    public void testReuseMatchesSort() {
+        Random rng = new Random(42);
+        ScoredIdHeap<Void> heap = new ScoredIdHeap<>(25);
+        for (int round = 0; round < 10; round++) {
+            int n = rng.nextInt(1000);
+            double[] scores = new double[n];
+            for (int i = 0; i < n; i++) {
+                scores[i] = rng.nextGaussian();
+                heap.offer(i, scores[i]);
+            }
+            double[] expected = scores.clone();
+            Arrays.sort(expected);
+            double[] actual = heap.sortedScores();
+            assertThat(actual.length, equalTo(Math.min(n, 25)));
+            for (int i = 0; i < actual.length; i++) {
+                assertThat(actual[i], equalTo(expected[n - i - 1]));
+                assertThat(scores[(int) heap.getId(i)], equalTo(actual[i]));
+            }
+            heap.clear();
+        }
+    }
+}
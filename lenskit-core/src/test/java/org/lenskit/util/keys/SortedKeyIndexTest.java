@@ -124,4 +124,27 @@ public class SortedKeyIndexTest {
         assertThat(subk.findUpperBound(5), equalTo(5));
         assertThat(subk.findUpperBound(4), equalTo(5));
     }
+
+    @Test
+    public void testIndirect() {
+        SortedKeyIndex domain = SortedKeyIndex.create(2, 4, 6, 8, 10, 12);
+        int[] positions = {0, 3, 1, 2, 5};
+        SortedKeyIndex keys = SortedKeyIndex.indirect(domain, positions, 2, 5);
+        assertThat(keys.size(), equalTo(3));
+        assertThat(keys.getLowerBound(), equalTo(2));
+        assertThat(keys.getUpperBound(), equalTo(5));
+        assertThat(keys.getKeyList(), contains(4L, 6L, 12L));
+        assertThat(keys.tryGetIndex(4), equalTo(2));
+        assertThat(keys.tryGetIndex(6), equalTo(3));
+        assertThat(keys.tryGetIndex(12), equalTo(4));
+        assertThat(keys.tryGetIndex(2), lessThan(0));
+        assertThat(keys.tryGetIndex(8), lessThan(0));
+        assertThat(keys.findLowerBound(1L), equalTo(2));
+        assertThat(keys.findLowerBound(5L), equalTo(3));
+        assertThat(keys.findLowerBound(8L), equalTo(4));
+        assertThat(keys.findLowerBound(11L), equalTo(4));
+        assertThat(keys.findUpperBound(12L), equalTo(5));
+        assertThat(keys.findUpperBound(20L), equalTo(5));
+        assertThat(keys.subIndex(3, 5).getKeyList(), contains(6L, 12L));
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import org.lenskit.util.table.Row;
+import org.lenskit.util.table.Table;
+import org.lenskit.util.table.TableBuilder;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Accuracy-regression report comparing algorithms' metrics against a baseline algorithm.  This is
+ * useful for checking that an approximation of an algorithm, such as a matrix factorization model
+ * compacted to single or 8-bit precision, loses little accuracy relative to the original.
+ *
+ * <p>For each data set, algorithm, and metric, the report averages the metric over the partitions
+ * in which both the algorithm and the baseline were evaluated, and reports the baseline value,
+ * the algorithm's value, and their difference.  The input is the global result table from
+ * {@link TrainTestExperiment#execute()}.
+ */
+public class RegressionReport {
+    public static final String DATA_SET_COLUMN = "DataSet";
+    public static final String PARTITION_COLUMN = "Partition";
+    public static final String ALGORITHM_COLUMN = "Algorithm";
+
+    private static final List<String> COLUMNS =
+            ImmutableList.of("DataSet", "Algorithm", "Metric", "Baseline", "Value", "Delta", "RelativeDelta");
+
+    private final String baseline;
+    private final List<String> metrics;
+
+    /**
+     * Create a new regression report.
+     * @param baseline The name of the baseline algorithm.
+     * @param metrics The names of the metric columns to compare.
+     */
+    public RegressionReport(String baseline, List<String> metrics) {
+        Preconditions.checkNotNull(baseline, "baseline algorithm");
+        this.baseline = baseline;
+        this.metrics = ImmutableList.copyOf(metrics);
+    }
+
+    /**
+     * Create a new regression report.
+     * @param baseline The name of the baseline algorithm.
+     * @param metrics The names of the metric columns to compare.
+     */
+    public RegressionReport(String baseline, String... metrics) {
+        this(baseline, Arrays.asList(metrics));
+    }
+
+    /**
+     * Compute the report.
+     * @param results The experiment's global results.
+     * @return A table with columns DataSet, Algorithm, Metric, Baseline, Value, Delta and
+     *         RelativeDelta, with one row per data set, non-baseline algorithm, and metric.
+     * @throws IllegalArgumentException if the table lacks an algorithm or metric column, or has more than one row
+     *         for the same data set, partition, and algorithm name (for example, if algorithms are only
+     *         distinguished by attribute columns; give them distinct names to compare them).
+     */
+    public Table compute(Table results) {
+        List<String> columns = results.getLayout().getColumns();
+        Preconditions.checkArgument(columns.contains(ALGORITHM_COLUMN), "results have no algorithm column");
+        for (String m: metrics) {
+            Preconditions.checkArgument(columns.contains(m), "results have no column %s", m);
+        }
+        boolean hasDataSet = columns.contains(DATA_SET_COLUMN);
+        boolean hasPartition = columns.contains(PARTITION_COLUMN);
+
+        // data set -> partition -> algorithm -> row
+        Map<Object, Map<Object, Map<Object, Row>>> byCondition = new LinkedHashMap<>();
+        for (Row row: results) {
+            Object ds = hasDataSet ? row.value(DATA_SET_COLUMN) : null;
+            Object part = hasPartition ? row.value(PARTITION_COLUMN) : null;
+            Object algo = row.value(ALGORITHM_COLUMN);
+            Row prev = byCondition.computeIfAbsent(ds, k -> new LinkedHashMap<>())
+                                  .computeIfAbsent(part, k -> new LinkedHashMap<>())
+                                  .put(algo, row);
+            if (prev != null) {
+                throw new IllegalArgumentException(
+                        String.format("multiple results for algorithm %s on data set %s, partition %s",
+                                      algo, ds, part));
+            }
+        }
+
+        TableBuilder report = new TableBuilder(COLUMNS);
+        for (Map.Entry<Object, Map<Object, Map<Object, Row>>> dse: byCondition.entrySet()) {
+            Set<Object> algorithms = new LinkedHashSet<>();
+            for (Map<Object, Row> algos: dse.getValue().values()) {
+                algorithms.addAll(algos.keySet());
+            }
+            algorithms.remove(baseline);
+
+            for (Object algo: algorithms) {
+                for (String metric: metrics) {
+                    double baseSum = 0, valueSum = 0;
+                    int n = 0;
+                    for (Map<Object, Row> algos: dse.getValue().values()) {
+                        Row base = algos.get(baseline);
+                        Row row = algos.get(algo);
+                        Double bv = base != null ? number(base.value(metric)) : null;
+                        Double v = row != null ? number(row.value(metric)) : null;
+                        if (bv != null && v != null) {
+                            baseSum += bv;
+                            valueSum += v;
+                            n += 1;
+                        }
+                    }
+                    if (n == 0) {
+                        continue;
+                    }
+                    double bmean = baseSum / n;
+                    double vmean = valueSum / n;
+                    double delta = vmean - bmean;
+                    report.addRow(dse.getKey(), algo, metric, bmean, vmean, delta,
+                                  bmean != 0 ? delta / Math.abs(bmean) : null);
+                }
+            }
+        }
+        return report.build();
+    }
+
+    @Nullable
+    private static Double number(@Nullable Object value) {
+        if (value instanceof Number) {
+            double v = ((Number) value).doubleValue();
+            return Double.isNaN(v) ? null : v;
+        } else if (value != null) {
+            try {
+                double v = Double.parseDouble(value.toString());
+                return Double.isNaN(v) ? null : v;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import org.junit.Test;
+import org.lenskit.util.table.Row;
+import org.lenskit.util.table.Table;
+import org.lenskit.util.table.TableBuilder;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RegressionReportTest {
+    private Table results() {
+        TableBuilder tb = new TableBuilder(Arrays.asList("DataSet", "Partition", "Algorithm", "RMSE", "nDCG"));
+        tb.addRow("ML", 1, "double", 0.90, 0.50);
+        tb.addRow("ML", 1, "float", 0.90, 0.50);
+        tb.addRow("ML", 1, "int8", 0.92, 0.48);
+        tb.addRow("ML", 2, "double", 0.94, 0.52);
+        tb.addRow("ML", 2, "float", 0.94, 0.52);
+        tb.addRow("ML", 2, "int8", 0.98, 0.50);
+        return tb.build();
+    }
+
+    private static Row find(Table report, String algo, String metric) {
+        for (Row row: report) {
+            if (row.value("Algorithm").equals(algo) && row.value("Metric").equals(metric)) {
+                return row;
+            }
+        }
+        throw new AssertionError("no row for " + algo + "/" + metric);
+    }
+
+    @Test
+    public void testDeltas() {
+        Table report = new RegressionReport("double", "RMSE", "nDCG").compute(results());
+        assertThat(report, hasSize(4));
+        assertThat(report.getLayout().getColumns(),
+                   contains("DataSet", "Algorithm", "Metric", "Baseline", "Value", "Delta", "RelativeDelta"));
+
+        Row floatRmse = find(report, "float", "RMSE");
+        assertThat(floatRmse.value("DataSet"), equalTo((Object) "ML"));
+        assertThat((Double) floatRmse.value("Delta"), closeTo(0, 1.0e-10));
+
+        Row int8Rmse = find(report, "int8", "RMSE");
+        assertThat((Double) int8Rmse.value("Baseline"), closeTo(0.92, 1.0e-10));
+        assertThat((Double) int8Rmse.value("Value"), closeTo(0.95, 1.0e-10));
+        assertThat((Double) int8Rmse.value("Delta"), closeTo(0.03, 1.0e-10));
+
+        Row int8Ndcg = find(report, "int8", "nDCG");
+        assertThat((Double) int8Ndcg.value("Delta"), closeTo(-0.02, 1.0e-10));
+        assertThat((Double) int8Ndcg.value("RelativeDelta"), closeTo(-0.02 / 0.51, 1.0e-10));
+    }
+
+    @Test
+    public void testSkipsMissingBaseline() {
+        TableBuilder tb = new TableBuilder(Arrays.asList("Partition", "Algorithm", "RMSE"));
+        tb.addRow(1, "double", 0.9);
+        tb.addRow(1, "float", 0.91);
+        tb.addRow(2, "float", 0.5);
+        tb.addRow(3, "double", null);
+        tb.addRow(3, "float", 0.7);
+        Table report = new RegressionReport("double", "RMSE").compute(tb.build());
+        assertThat(report, hasSize(1));
+        Row row = report.get(0);
+        assertThat(row.value("DataSet"), nullValue());
+        assertThat((Double) row.value("Delta"), closeTo(0.01, 1.0e-10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateAlgorithmNames() {
+        TableBuilder tb = new TableBuilder(Arrays.asList("Partition", "Algorithm", "Precision", "RMSE"));
+        tb.addRow(1, "double", null, 0.9);
+        tb.addRow(1, "compact", "FLOAT", 0.91);
+        tb.addRow(1, "compact", "INT8", 0.95);
+        new RegressionReport("double", "RMSE").compute(tb.build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingMetric() {
+        new RegressionReport("double", "MAE").compute(results());
+    }
+}
@@ -24,11 +24,16 @@
  */
 package org.lenskit.knn.item;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.basic.ScoreConsumer;
 import org.lenskit.results.Results;
 import org.lenskit.util.InvertibleFunction;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.math.Vectors;
 
 import java.util.List;
 
@@ -74,6 +79,16 @@ public abstract class ItemItemScoreAccumulator {
         return new DetailedAccumulator(receiver);
     }
 
+    /**
+     * Construct an accumulator that will pass de-normalized scores to a consumer.  Scores are buffered
+     * in primitive arrays and passed on when the reverse transform is applied.
+     * @param consumer The consumer to receive the results.
+     * @return The accumulator.
+     */
+    static ItemItemScoreAccumulator streaming(ScoreConsumer consumer) {
+        return new StreamingAccumulator(consumer);
+    }
+
     private static class BasicAccumulator extends ItemItemScoreAccumulator {
         private final Long2DoubleMap receiver;
 
@@ -121,4 +136,32 @@ public abstract class ItemItemScoreAccumulator {
             }
         }
     }
+
+    private static class StreamingAccumulator extends ItemItemScoreAccumulator {
+        private final ScoreConsumer consumer;
+        private final LongArrayList items = new LongArrayList();
+        private final DoubleArrayList scores = new DoubleArrayList();
+
+        StreamingAccumulator(ScoreConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void add(long item, double score, int nnbrs, double weight) {
+            items.add(item);
+            scores.add(score);
+        }
+
+        @Override
+        public void applyReversedTransform(InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform) {
+            Long2DoubleMap raw = Long2DoubleSortedArrayMap.wrapUnsorted(items.toLongArray(),
+                                                                         scores.toDoubleArray());
+            Long2DoubleMap unapplied = transform.unapply(raw);
+            for (Long2DoubleMap.Entry e: Vectors.fastEntries(unapplied)) {
+                consumer.accept(e.getLongKey(), e.getDoubleValue());
+            }
+            items.clear();
+            scores.clear();
+        }
+    }
 }
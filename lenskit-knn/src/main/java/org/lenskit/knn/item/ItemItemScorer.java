@@ -30,6 +30,8 @@ import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.ScoreConsumer;
+import org.lenskit.basic.StreamingItemScorer;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.MinNeighbors;
 import org.lenskit.knn.NeighborhoodSize;
@@ -38,6 +40,7 @@ import org.lenskit.results.Results;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
 import org.lenskit.util.InvertibleFunction;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
+import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.slf4j.Logger;
@@ -54,7 +57,7 @@ import java.util.Map;
  * Score items using an item-item CF model. User ratings are <b>not</b> supplied
  * as default preferences.
  */
-public class ItemItemScorer extends AbstractItemScorer {
+public class ItemItemScorer extends AbstractItemScorer implements StreamingItemScorer {
     private static final Logger logger = LoggerFactory.getLogger(ItemItemScorer.class);
     protected final ItemItemModel model;
 
@@ -108,6 +111,13 @@ public class ItemItemScorer extends AbstractItemScorer {
         return results;
     }
 
+    @Override
+    public void score(long user, @Nonnull Collection<Long> items, @Nonnull ScoreConsumer consumer) {
+        logger.debug("streaming scores for {} items for user {}", items.size(), user);
+        // the streaming accumulator needs each item once
+        scoreItems(user, LongUtils.packedSet(items), ItemItemScoreAccumulator.streaming(consumer));
+    }
+
     /**
      * Score items by computing predicted ratings.
      */
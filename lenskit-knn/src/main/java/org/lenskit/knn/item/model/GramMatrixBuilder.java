@@ -0,0 +1,216 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.lenskit.transform.threshold.Threshold;
+import org.lenskit.util.ProgressLogger;
+import org.lenskit.util.collections.Long2DoubleAccumulator;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.Scalars;
+import org.lenskit.util.math.Vectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Compute cosine similarity matrices as a sparse Gram matrix <em>X<sup>T</sup>X</em> of the user-item rating
+ * matrix, instead of comparing each pair of candidate items with a separate similarity call.
+ *
+ * <p>The item vectors from the build context are packed into compressed item-major and user-major arrays. Each row
+ * of the similarity matrix is then computed by walking the item's users and, for each user, the other items that
+ * user rated, accumulating dot products and co-rating counts in dense per-thread scratch arrays.  Finished rows are
+ * thresholded and truncated immediately, so the full product is never materialized.  Blocks of rows are computed in
+ * parallel.</p>
+ *
+ * @see ItemItemModelProvider
+ */
+class GramMatrixBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(GramMatrixBuilder.class);
+    /**
+     * The number of item rows to compute in a single block (the unit of parallel work).
+     */
+    static final int BLOCK_SIZE = 256;
+
+    private final SortedKeyIndex items;
+    private final int[] itemOffsets;
+    private final int[] itemUsers;
+    private final double[] itemValues;
+    private final double[] itemNorms;
+    private final int[] userOffsets;
+    private final int[] userItems;
+    private final double[] userValues;
+
+    /**
+     * Pack the rating matrix from a build context.
+     * @param context The build context.
+     */
+    GramMatrixBuilder(ItemItemBuildContext context) {
+        LongSortedSet itemSet = context.getItems();
+        items = SortedKeyIndex.fromCollection(itemSet);
+        final int nitems = items.size();
+
+        LongSet userIds = new LongOpenHashSet();
+        int nnz = 0;
+        for (long item: itemSet) {
+            Long2DoubleSortedMap vec = context.itemVector(item);
+            userIds.addAll(vec.keySet());
+            nnz += vec.size();
+        }
+        long[] userArray = userIds.toLongArray();
+        Arrays.sort(userArray);
+        SortedKeyIndex users = SortedKeyIndex.wrap(userArray, userArray.length);
+        final int nusers = users.size();
+        logger.debug("packing {} ratings from {} users for {} items", nnz, nusers, nitems);
+
+        itemOffsets = new int[nitems + 1];
+        itemUsers = new int[nnz];
+        itemValues = new double[nnz];
+        itemNorms = new double[nitems];
+        int[] userCounts = new int[nusers];
+        int pos = 0;
+        for (int i = 0; i < nitems; i++) {
+            itemOffsets[i] = pos;
+            Long2DoubleSortedMap vec = context.itemVector(items.getKey(i + items.getLowerBound()));
+            itemNorms[i] = Vectors.euclideanNorm(vec);
+            Iterator<Long2DoubleMap.Entry> iter = Vectors.fastEntryIterator(vec);
+            while (iter.hasNext()) {
+                Long2DoubleMap.Entry e = iter.next();
+                int u = users.getIndex(e.getLongKey());
+                itemUsers[pos] = u;
+                itemValues[pos] = e.getDoubleValue();
+                userCounts[u] += 1;
+                pos += 1;
+            }
+        }
+        itemOffsets[nitems] = pos;
+
+        // transpose; since we scan items in order, each user's items are in index order
+        userOffsets = new int[nusers + 1];
+        for (int u = 0; u < nusers; u++) {
+            userOffsets[u + 1] = userOffsets[u] + userCounts[u];
+        }
+        userItems = new int[nnz];
+        userValues = new double[nnz];
+        int[] fill = Arrays.copyOf(userOffsets, nusers);
+        for (int i = 0; i < nitems; i++) {
+            for (int p = itemOffsets[i]; p < itemOffsets[i + 1]; p++) {
+                int u = itemUsers[p];
+                int q = fill[u]++;
+                userItems[q] = i;
+                userValues[q] = itemValues[p];
+            }
+        }
+    }
+
+    /**
+     * Compute the cosine similarity matrix.
+     *
+     * @param damping The cosine damping term (added to the denominator).
+     * @param threshold The threshold for retaining similarities.
+     * @param minCommonUsers The minimum number of users two items must have in common.
+     * @param accumulators Supplier of accumulators to truncate each row.
+     * @param progress A progress logger to advance as rows are finished.
+     * @return The rows of the similarity matrix.  Items with no neighbors are omitted.
+     */
+    Long2ObjectMap<Long2DoubleMap> computeCosine(double damping, Threshold threshold, int minCommonUsers,
+                                                 Supplier<Long2DoubleAccumulator> accumulators,
+                                                 ProgressLogger progress) {
+        final int nitems = items.size();
+        final int nblocks = (nitems + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final Long2DoubleMap[] rows = new Long2DoubleMap[nitems];
+        final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(nitems));
+
+        IntStream.range(0, nblocks).parallel().forEach(b -> {
+            Scratch s = scratch.get();
+            double[] dots = s.dots;
+            int[] counts = s.counts;
+            int[] touched = s.touched;
+
+            int end = Math.min(nitems, (b + 1) * BLOCK_SIZE);
+            for (int i = b * BLOCK_SIZE; i < end; i++) {
+                int ntouched = 0;
+                for (int p = itemOffsets[i]; p < itemOffsets[i + 1]; p++) {
+                    int u = itemUsers[p];
+                    double x = itemValues[p];
+                    for (int q = userOffsets[u]; q < userOffsets[u + 1]; q++) {
+                        int j = userItems[q];
+                        if (j == i) {
+                            continue;
+                        }
+                        if (counts[j] == 0) {
+                            touched[ntouched++] = j;
+                        }
+                        counts[j] += 1;
+                        dots[j] += x * userValues[q];
+                    }
+                }
+
+                Long2DoubleAccumulator acc = accumulators.get();
+                for (int t = 0; t < ntouched; t++) {
+                    int j = touched[t];
+                    if (counts[j] >= minCommonUsers) {
+                        double denom = itemNorms[i] * itemNorms[j] + damping;
+                        double sim = Scalars.isZero(denom) ? 0 : dots[j] / denom;
+                        if (threshold.retain(sim)) {
+                            acc.put(items.getKey(j + items.getLowerBound()), sim);
+                        }
+                    }
+                    dots[j] = 0;
+                    counts[j] = 0;
+                }
+                rows[i] = acc.finishMap();
+                progress.advance();
+            }
+        });
+
+        Long2ObjectMap<Long2DoubleMap> result = new Long2ObjectOpenHashMap<>(nitems);
+        for (int i = 0; i < nitems; i++) {
+            if (!rows[i].isEmpty()) {
+                result.put(items.getKey(i + items.getLowerBound()), rows[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Per-thread dense accumulators for a row of the Gram matrix.  They are reset to zero after each row.
+     */
+    private static class Scratch {
+        final double[] dots;
+        final int[] counts;
+        final int[] touched;
+
+        Scratch(int n) {
+            dots = new double[n];
+            counts = new int[n];
+            touched = new int[n];
+        }
+    }
+}
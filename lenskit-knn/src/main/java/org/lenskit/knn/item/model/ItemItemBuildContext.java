@@ -27,16 +27,22 @@ package org.lenskit.knn.item.model;
 import com.google.common.base.Preconditions;
 import it.unimi.dsi.fastutil.longs.Long2DoubleSortedMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import it.unimi.dsi.fastutil.longs.LongSortedSets;
 import net.jcip.annotations.Immutable;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
 import org.lenskit.inject.Transient;
+import org.lenskit.similarity.PackedVector;
+import org.lenskit.similarity.PackedVectorSimilarity;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Encapsulation of data needed during an item-item model build.  This class
@@ -53,7 +59,7 @@ import java.io.Serializable;
 @Shareable
 @Immutable
 public class ItemItemBuildContext implements Serializable {
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
 
     @Nonnull
     private
@@ -65,6 +71,21 @@ public class ItemItemBuildContext implements Serializable {
     @Nonnull
     private Long2ObjectMap<LongSortedSet> userItems;
 
+    /**
+     * Vectors for items that were excluded from the universe for having too few ratings.  These are kept so that
+     * {@linkplain ItemItemBuildContextProvider#update(ItemItemBuildContext, LongSet) incremental updates} can bring
+     * them into the universe once they have enough ratings.
+     */
+    @Nonnull
+    private Long2ObjectMap<Long2DoubleSortedMap> prunedVectors;
+
+    /**
+     * Packed copies of the item vectors, created on first use.  The array is published through a volatile field and
+     * its slots through {@link AtomicReferenceArray}, so builder threads sharing the context see fully-built vectors.
+     */
+    @Nullable
+    private transient volatile AtomicReferenceArray<PackedVector> packedVectors;
+
     /**
      * Set up a new item build context.
      *  @param universe The set of items for the model.
@@ -74,9 +95,24 @@ public class ItemItemBuildContext implements Serializable {
     ItemItemBuildContext(@Nonnull SortedKeyIndex universe,
                          @Nonnull Long2DoubleSortedMap[] vectors,
                          @Nonnull Long2ObjectMap<LongSortedSet> userItems) {
+        this(universe, vectors, userItems, Long2ObjectMaps.emptyMap());
+    }
+
+    /**
+     * Set up a new item build context.
+     * @param universe The set of items for the model.
+     * @param vectors  Map of item IDs to item rating vectors.
+     * @param userItems Map of user IDs to candidate items
+     * @param pruned Vectors of items excluded from the universe.
+     */
+    ItemItemBuildContext(@Nonnull SortedKeyIndex universe,
+                         @Nonnull Long2DoubleSortedMap[] vectors,
+                         @Nonnull Long2ObjectMap<LongSortedSet> userItems,
+                         @Nonnull Long2ObjectMap<Long2DoubleSortedMap> pruned) {
         this.userItems = userItems;
         items = universe;
         itemVectors = vectors;
+        prunedVectors = pruned;
     }
 
     /**
@@ -104,6 +140,37 @@ public class ItemItemBuildContext implements Serializable {
         return itemVectors[idx];
     }
 
+    /**
+     * Get the packed rating vector for an item, for use with {@link PackedVectorSimilarity}.  Packed vectors (with
+     * their norms and means) are cached, so each item's vector is only packed once per context.
+     *
+     * @param item The item to query.
+     * @return The packed rating vector for {@code item}.
+     * @throws IllegalArgumentException if {@code item} is not a valid item.
+     */
+    @Nonnull
+    public PackedVector packedItemVector(long item) {
+        int idx = items.tryGetIndex(item);
+        Preconditions.checkArgument(idx >= 0, "unknown item");
+        AtomicReferenceArray<PackedVector> cache = packedVectors;
+        if (cache == null) {
+            synchronized (this) {
+                cache = packedVectors;
+                if (cache == null) {
+                    cache = new AtomicReferenceArray<>(itemVectors.length);
+                    packedVectors = cache;
+                }
+            }
+        }
+        PackedVector vec = cache.get(idx);
+        if (vec == null) {
+            // packing is deterministic, so if another thread got there first we just use its copy
+            cache.compareAndSet(idx, null, PackedVector.pack(itemVectors[idx]));
+            vec = cache.get(idx);
+        }
+        return vec;
+    }
+
     /**
      * Get the items rated by a particular user.
      * 
@@ -118,4 +185,35 @@ public class ItemItemBuildContext implements Serializable {
         }
         return items;
     }
+
+    /**
+     * Get the vector of an item, whether or not it is in the item universe.
+     * @param item The item ID.
+     * @return The item's rating vector, or {@code null} if the context has no ratings for the item.
+     */
+    @Nullable
+    Long2DoubleSortedMap anyItemVector(long item) {
+        int idx = items.tryGetIndex(item);
+        if (idx >= 0) {
+            return itemVectors[idx];
+        } else {
+            return prunedVectors.get(item);
+        }
+    }
+
+    /**
+     * Get the map of user candidate sets.  Used to derive updated contexts.
+     */
+    @Nonnull
+    Long2ObjectMap<LongSortedSet> getUserItemMap() {
+        return userItems;
+    }
+
+    /**
+     * Get the vectors of items that are not in the universe.  Used to derive updated contexts.
+     */
+    @Nonnull
+    Long2ObjectMap<Long2DoubleSortedMap> getPrunedVectors() {
+        return prunedVectors;
+    }
 }
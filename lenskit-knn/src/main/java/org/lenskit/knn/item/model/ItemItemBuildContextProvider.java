@@ -89,7 +89,7 @@ public class ItemItemBuildContextProvider implements Provider<ItemItemBuildConte
         Long2ObjectMap<LongSortedSet> userItems = new Long2ObjectOpenHashMap<>(1000);
         buildItemRatings(itemRatingData, userItems);
         int oldN = itemRatingData.size();
-        pruneItems(itemRatingData, userItems);
+        Long2ObjectMap<Long2DoubleSortedMap> pruned = pruneItems(itemRatingData, userItems);
         logger.info("retaining data for {} of {} items", itemRatingData.size(), oldN);
 
         SortedKeyIndex items = SortedKeyIndex.fromCollection(itemRatingData.keySet());
@@ -107,7 +107,135 @@ public class ItemItemBuildContextProvider implements Provider<ItemItemBuildConte
         }
 
         logger.debug("item data completed");
-        return new ItemItemBuildContext(items, itemRatings, userItems);
+        return new ItemItemBuildContext(items, itemRatings, userItems, pruned);
+    }
+
+    /**
+     * Derive a new build context from a previous one by re-reading the ratings of some users.  The rating vector
+     * DAO must contain the current ratings; the previous context is used for everyone else.  Only the vectors of
+     * items the users rated, before or after the change, are rebuilt; other item vectors are shared with the
+     * previous context.
+     *
+     * <p>This supports new and changed ratings.  A deleted rating is only detected if the item was in the previous
+     * context's universe and the user had more than one rating.</p>
+     *
+     * @param previous The previous build context.
+     * @param users The users whose ratings have changed.
+     * @return The updated build context.
+     * @see ItemItemModelProvider#update(SimilarityMatrixModel, ItemItemBuildContext)
+     */
+    public ItemItemBuildContext update(ItemItemBuildContext previous, LongSet users) {
+        logger.info("updating build context for {} users", users.size());
+
+        // load the changed users' current vectors
+        Long2ObjectMap<Long2DoubleMap> userVectors = new Long2ObjectOpenHashMap<>(users.size());
+        LongSet affected = new LongOpenHashSet();
+        for (long user: users) {
+            Long2DoubleMap ratings = rvDAO.userRatingVector(user);
+            Long2DoubleMap normed = normalizer.makeTransformation(user, ratings).apply(ratings);
+            userVectors.put(user, normed);
+            affected.addAll(previous.getUserItems(user));
+            affected.addAll(normed.keySet());
+        }
+
+        // rebuild the affected item vectors
+        Long2ObjectMap<Long2DoubleMap> updated = new Long2ObjectOpenHashMap<>(affected.size());
+        for (long item: affected) {
+            Long2DoubleSortedMap old = previous.anyItemVector(item);
+            Long2DoubleMap vec = old != null ? new Long2DoubleOpenHashMap(old) : new Long2DoubleOpenHashMap();
+            for (long user: users) {
+                vec.remove(user);
+            }
+            updated.put(item, vec);
+        }
+        for (Long2ObjectMap.Entry<Long2DoubleMap> e: userVectors.long2ObjectEntrySet()) {
+            long user = e.getLongKey();
+            for (Long2DoubleMap.Entry r: Vectors.fastEntries(e.getValue())) {
+                updated.get(r.getLongKey()).put(user, r.getDoubleValue());
+            }
+        }
+
+        // sort the affected items into retained and pruned
+        LongSet retained = new LongOpenHashSet(previous.getItems());
+        Long2ObjectMap<Long2DoubleSortedMap> pruned = new Long2ObjectOpenHashMap<>(previous.getPrunedVectors());
+        LongSet added = new LongOpenHashSet();
+        LongSet removed = new LongOpenHashSet();
+        for (Long2ObjectMap.Entry<Long2DoubleMap> e: updated.long2ObjectEntrySet()) {
+            long item = e.getLongKey();
+            Long2DoubleMap vec = e.getValue();
+            boolean keep = !vec.isEmpty() && vec.size() >= minCommonUsers;
+            if (keep) {
+                pruned.remove(item);
+                if (retained.add(item)) {
+                    added.add(item);
+                }
+            } else {
+                if (retained.remove(item)) {
+                    removed.add(item);
+                }
+                if (vec.isEmpty()) {
+                    pruned.remove(item);
+                } else {
+                    pruned.put(item, LongUtils.frozenMap(vec));
+                }
+            }
+        }
+
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(retained);
+        final int n = items.size();
+        Long2DoubleSortedMap[] itemRatings = new Long2DoubleSortedMap[n];
+        for (int i = 0; i < n; i++) {
+            final long item = items.getKey(i);
+            Long2DoubleMap vec = updated.get(item);
+            if (vec != null) {
+                itemRatings[i] = LongUtils.frozenMap(vec);
+            } else {
+                itemRatings[i] = previous.itemVector(item);
+            }
+        }
+
+        // fix up candidate sets of the users whose sets changed
+        Long2ObjectMap<LongSortedSet> userItems = new Long2ObjectOpenHashMap<>(previous.getUserItemMap());
+        LongSet itemsChanged = new LongOpenHashSet(added);
+        itemsChanged.addAll(removed);
+        LongSet otherUsers = new LongOpenHashSet();
+        for (long item: itemsChanged) {
+            Long2DoubleMap vec = updated.get(item);
+            otherUsers.addAll(vec.keySet());
+            Long2DoubleSortedMap old = previous.anyItemVector(item);
+            if (old != null) {
+                otherUsers.addAll(old.keySet());
+            }
+        }
+        otherUsers.removeAll(users);
+        for (long user: otherUsers) {
+            LongSortedSet uis = userItems.get(user);
+            LongSet nis = uis != null ? new LongOpenHashSet(uis) : new LongOpenHashSet();
+            for (long item: itemsChanged) {
+                if (retained.contains(item) && updated.get(item).containsKey(user)) {
+                    nis.add(item);
+                } else {
+                    nis.remove(item);
+                }
+            }
+            if (nis.isEmpty()) {
+                userItems.remove(user);
+            } else {
+                userItems.put(user, LongUtils.packedSet(nis));
+            }
+        }
+        for (Long2ObjectMap.Entry<Long2DoubleMap> e: userVectors.long2ObjectEntrySet()) {
+            Long2DoubleMap normed = e.getValue();
+            if (normed.size() > 1) {
+                userItems.put(e.getLongKey(), LongUtils.setIntersect(normed.keySet(), retained));
+            } else {
+                userItems.remove(e.getLongKey());
+            }
+        }
+
+        logger.info("updated {} item vectors ({} added to universe, {} removed)",
+                    updated.size(), added.size(), removed.size());
+        return new ItemItemBuildContext(items, itemRatings, userItems, pruned);
     }
 
     /**
@@ -148,9 +276,11 @@ public class ItemItemBuildContextProvider implements Provider<ItemItemBuildConte
         }
     }
 
-    private void pruneItems(Long2ObjectMap<Long2DoubleMap> itemRatingData, Long2ObjectMap<LongSortedSet> userItems) {
+    private Long2ObjectMap<Long2DoubleSortedMap> pruneItems(Long2ObjectMap<Long2DoubleMap> itemRatingData,
+                                                            Long2ObjectMap<LongSortedSet> userItems) {
+        Long2ObjectMap<Long2DoubleSortedMap> pruned = new Long2ObjectOpenHashMap<>();
         if (minCommonUsers <= 0) {
-            return;
+            return pruned;
         }
 
         // copy items to array to all
@@ -159,11 +289,13 @@ public class ItemItemBuildContextProvider implements Provider<ItemItemBuildConte
             Long2DoubleMap iv = itemRatingData.get(item);
             if (iv.size() < minCommonUsers) {
                 itemRatingData.remove(item);
+                pruned.put(item, LongUtils.frozenMap(iv));
             }
         }
 
         for (Long2ObjectMap.Entry<LongSortedSet> e: userItems.long2ObjectEntrySet()) {
             e.setValue(LongUtils.setIntersect(e.getValue(), itemRatingData.keySet()));
         }
+        return pruned;
     }
 }
@@ -31,21 +31,29 @@ import org.grouplens.lenskit.transform.threshold.Threshold;
 import org.lenskit.inject.Transient;
 import org.lenskit.knn.item.ItemSimilarity;
 import org.lenskit.knn.item.ItemSimilarityThreshold;
+import org.lenskit.knn.item.ItemVectorSimilarity;
 import org.lenskit.knn.item.MinCommonUsers;
 import org.lenskit.knn.item.ModelSize;
+import org.lenskit.similarity.CosineVectorSimilarity;
+import org.lenskit.similarity.PackedVector;
+import org.lenskit.similarity.PackedVectorSimilarity;
+import org.lenskit.similarity.VectorSimilarity;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.ProgressLogger;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
 import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
 import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.lenskit.util.reflect.ClassQueries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -54,6 +62,7 @@ import java.util.function.BinaryOperator;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collector;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -66,6 +75,10 @@ import java.util.stream.Stream;
 @NotThreadSafe
 public class ItemItemModelProvider implements Provider<ItemItemModel> {
     private static final Logger logger = LoggerFactory.getLogger(ItemItemModelProvider.class);
+    /**
+     * The number of locks used to guard rows when accumulating symmetric similarities.  Must be a power of 2.
+     */
+    private static final int LOCK_STRIPES = 256;
 
     private final ItemSimilarity itemSimilarity;
     private final ItemItemBuildContext buildContext;
@@ -73,6 +86,11 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
     private final NeighborIterationStrategy neighborStrategy;
     private final int minCommonUsers;
     private final int modelSize;
+    /**
+     * The similarity function's packed-vector kernel, or {@code null} if it does not have one.
+     */
+    @Nullable
+    private final PackedVectorSimilarity packedSimilarity;
 
     @Inject
     public ItemItemModelProvider(@Transient ItemSimilarity similarity,
@@ -87,6 +105,26 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         neighborStrategy = nbrStrat;
         minCommonUsers = minCU;
         modelSize = size;
+        packedSimilarity = packedDelegate(similarity);
+    }
+
+    /**
+     * Get the packed-vector kernel of an item similarity, if it has one.  Only plain vector similarities are
+     * considered, as other item similarities may use the item IDs as well as the vectors.  Subclasses may
+     * override the map-based similarity, so the wrapper must be exactly {@link ItemVectorSimilarity} and the
+     * delegate's own class must declare {@link PackedVectorSimilarity}.
+     */
+    @Nullable
+    private static PackedVectorSimilarity packedDelegate(ItemSimilarity sim) {
+        if (!sim.getClass().equals(ItemVectorSimilarity.class)) {
+            return null;
+        }
+        VectorSimilarity vsim = ((ItemVectorSimilarity) sim).getDelegate();
+        if (Arrays.asList(vsim.getClass().getInterfaces()).contains(PackedVectorSimilarity.class)) {
+            return (PackedVectorSimilarity) vsim;
+        } else {
+            return null;
+        }
     }
 
     @Override
@@ -97,6 +135,9 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
                      itemSimilarity.isSparse() ? "sparse" : "non-sparse");
         logger.debug("similarity function is {}",
                      itemSimilarity.isSymmetric() ? "symmetric" : "non-symmetric");
+        if (packedSimilarity != null) {
+            logger.debug("using packed-vector similarity kernel");
+        }
 
         LongSortedSet allItems = buildContext.getItems();
 
@@ -107,7 +148,191 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
                                                 .setLabel("item-item model build")
                                                 .setWindow(50)
                                                 .start();
-        int ndone = 0;
+        Long2ObjectMap<Long2DoubleMap> sims;
+        double damping = gramCosineDamping();
+        if (!Double.isNaN(damping)) {
+            logger.info("using sparse Gram matrix build for {}", itemSimilarity);
+            GramMatrixBuilder gram = new GramMatrixBuilder(buildContext);
+            sims = gram.computeCosine(damping, threshold, minCommonUsers,
+                                      this::newAccumulator, progress);
+        } else {
+            sims = buildPairwise(allItems, progress);
+        }
+
+        progress.finish();
+        logger.info("built model for {} items in {}",
+                    sims.size(), progress.elapsedTime());
+
+        return new SimilarityMatrixModel(sims);
+    }
+
+    /**
+     * Update a model after some ratings have changed, recomputing only the rows that the change affects.
+     *
+     * <p>This provider's build context must have been derived from {@code previousContext} with
+     * {@link ItemItemBuildContextProvider#update(ItemItemBuildContext, LongSet)}; items whose vectors are shared
+     * between the two contexts are considered unchanged.  Rows for changed items are recomputed in full.  Rows of
+     * their candidate neighbors (in either context) are patched by replacing the similarities with changed items;
+     * if a truncated row might have lost a neighbor it could not see, it is recomputed in full as well.  All other
+     * rows are copied from the previous model.  The result is the same model that a full build would produce, up
+     * to ties.</p>
+     *
+     * <p>This assumes that the neighbor iteration strategy is symmetric (if <em>j</em> is a candidate neighbor of
+     * <em>i</em>, then <em>i</em> is a candidate neighbor of <em>j</em>), as the built-in strategies are.</p>
+     *
+     * @param previous The model built from {@code previousContext} with the same settings as this provider.
+     * @param previousContext The build context of the previous model.
+     * @return The updated model.
+     */
+    public SimilarityMatrixModel update(SimilarityMatrixModel previous, ItemItemBuildContext previousContext) {
+        LongSortedSet allItems = buildContext.getItems();
+        LongSet changed = new LongOpenHashSet();
+        for (long item: allItems) {
+            if (buildContext.itemVector(item) != previousContext.anyItemVector(item)) {
+                changed.add(item);
+            }
+        }
+        LongSet removed = LongUtils.setDifference(previousContext.getItems(), allItems);
+        logger.info("updating item-item model: {} of {} items changed, {} removed",
+                    changed.size(), allItems.size(), removed.size());
+        changed.addAll(removed);
+
+        // compute full rows for the changed items
+        Long2ObjectMap<Long2DoubleMap> changedRows = new Long2ObjectOpenHashMap<>(changed.size());
+        Stream<Long> idStream = ClassQueries.isThreadSafe(itemSimilarity)
+                ? changed.parallelStream()
+                : changed.stream();
+        idStream.filter(allItems::contains)
+                .map(i -> IdBox.create(i, buildContext.itemVector(i)))
+                .filter(iv -> iv.getValue().size() >= minCommonUsers)
+                .map(iv -> makeSimilarityRow(iv, false))
+                .collect(Collectors.toList())
+                .forEach(r -> changedRows.put(r.getId(), r.getValue()));
+
+        // find the partners whose rows may include changed items
+        Long2ObjectMap<LongList> partnerSources = new Long2ObjectOpenHashMap<>();
+        LongSet partners = new LongOpenHashSet();
+        LongSortedSet oldItems = previousContext.getItems();
+        for (long item: changed) {
+            if (oldItems.contains(item)) {
+                LongIterator iter = neighborStrategy.neighborIterator(previousContext, item, false);
+                while (iter.hasNext()) {
+                    partners.add(iter.nextLong());
+                }
+            }
+            if (allItems.contains(item)) {
+                LongIterator iter = neighborStrategy.neighborIterator(buildContext, item, false);
+                while (iter.hasNext()) {
+                    long nbr = iter.nextLong();
+                    partners.add(nbr);
+                    partnerSources.computeIfAbsent(nbr, k -> new LongArrayList()).add(item);
+                }
+            }
+        }
+        partners.removeAll(changed);
+        logger.debug("patching rows for {} partner items", partners.size());
+
+        Long2ObjectMap<Long2DoubleMap> rows = new Long2ObjectOpenHashMap<>(allItems.size());
+        for (Long2ObjectMap.Entry<Long2DoubleMap> e: changedRows.long2ObjectEntrySet()) {
+            Long2DoubleAccumulator acc = newAccumulator();
+            acc.putAll(e.getValue());
+            rows.put(e.getLongKey(), acc.finishMap());
+        }
+        int nrecomputed = 0;
+        for (long item: partners) {
+            if (!allItems.contains(item)) {
+                continue;
+            }
+            Long2DoubleSortedMap vec = buildContext.itemVector(item);
+            if (vec.size() < minCommonUsers) {
+                continue;
+            }
+            Long2DoubleMap row = patchRow(item, vec, previous.getNeighbors(item), changed, changedRows,
+                                          partnerSources.getOrDefault(item, LongLists.EMPTY_LIST));
+            if (row == null) {
+                nrecomputed += 1;
+                Long2DoubleAccumulator acc = newAccumulator();
+                acc.putAll(makeSimilarityRow(IdBox.create(item, vec), false).getValue());
+                row = acc.finishMap();
+            }
+            rows.put(item, row);
+        }
+        logger.debug("recomputed {} partner rows in full", nrecomputed);
+
+        // everything else is unchanged
+        for (long item: previous.getItemUniverse()) {
+            if (!changed.contains(item) && !partners.contains(item)) {
+                rows.put(item, previous.getNeighbors(item));
+            }
+        }
+
+        if (itemSimilarity.isSymmetric()) {
+            // the symmetric build omits items with no neighbors
+            rows.values().removeIf(Long2DoubleMap::isEmpty);
+        }
+        return new SimilarityMatrixModel(rows);
+    }
+
+    /**
+     * Patch a row of the similarity matrix with updated similarities.
+     *
+     * @param item The row's item.
+     * @param vec The row's item vector.
+     * @param old The item's row in the previous model.
+     * @param changed The set of changed items.
+     * @param changedRows The full rows of the changed items.
+     * @param sources The changed items that have {@code item} as a candidate neighbor.
+     * @return The patched row, or {@code null} if the row cannot be patched and must be recomputed.
+     */
+    private Long2DoubleMap patchRow(long item, Long2DoubleSortedMap vec, Long2DoubleMap old, LongSet changed,
+                                    Long2ObjectMap<Long2DoubleMap> changedRows, LongList sources) {
+        Long2DoubleAccumulator acc = newAccumulator();
+        double cutoff = Double.POSITIVE_INFINITY;
+        for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(old)) {
+            cutoff = Math.min(cutoff, e.getDoubleValue());
+            if (!changed.contains(e.getLongKey())) {
+                acc.put(e.getLongKey(), e.getDoubleValue());
+            }
+        }
+        LongIterator iter = sources.iterator();
+        while (iter.hasNext()) {
+            long other = iter.nextLong();
+            if (itemSimilarity.isSymmetric()) {
+                Long2DoubleMap orow = changedRows.get(other);
+                if (orow != null && orow.containsKey(item)) {
+                    acc.put(other, orow.get(item));
+                }
+            } else {
+                Long2DoubleSortedMap ovec = buildContext.itemVector(other);
+                if (LongUtils.hasNCommonItems(vec.keySet(), ovec.keySet(), minCommonUsers)) {
+                    double sim = computeSimilarity(item, vec, other, ovec);
+                    if (threshold.retain(sim)) {
+                        acc.put(other, sim);
+                    }
+                }
+            }
+        }
+        Long2DoubleMap row = acc.finishMap();
+
+        if (modelSize > 0 && old.size() >= modelSize) {
+            // the old row was truncated; items below its cutoff were not retained, so the
+            // patched row is only correct if it is still full and nothing in it fell below the cutoff.
+            if (row.size() < modelSize) {
+                return null;
+            }
+            for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(row)) {
+                if (e.getDoubleValue() < cutoff) {
+                    return null;
+                }
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Build the similarity matrix by computing the similarity of each item with each of its candidate neighbors.
+     */
+    private Long2ObjectMap<Long2DoubleMap> buildPairwise(LongSortedSet allItems, ProgressLogger progress) {
         Stream<Long> idStream;
         if (ClassQueries.isThreadSafe(itemSimilarity)) {
             idStream = allItems.parallelStream();
@@ -123,29 +348,51 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
                             }
                         })
                         .filter(iv -> iv.getValue().size() >= minCommonUsers)
-                        .map(this::makeSimilarityRow)
+                        .map(iv -> makeSimilarityRow(iv, itemSimilarity.isSymmetric()))
                         .peek(iv -> progress.advance());
-        Long2ObjectMap<Long2DoubleMap> sims;
         if (itemSimilarity.isSymmetric()) {
             logger.info("using symmetric similarity collector");
-            sims = rowStream.collect(new SymmetricCollector());
+            return rowStream.collect(new SymmetricCollector());
         } else {
             logger.info("using asymmteric similarity collector");
-            sims = rowStream.collect(new BasicCollector());
+            return rowStream.collect(new BasicCollector());
         }
+    }
 
-        progress.finish();
-        logger.info("built model for {} items in {}",
-                    ndone, progress.elapsedTime());
-
-        return new SimilarityMatrixModel(sims);
+    /**
+     * Check whether the similarity matrix can be computed as a sparse Gram matrix.  This is possible when the item
+     * similarity is plain cosine similarity over item vectors and neighbors are drawn from co-rating items, as they are
+     * with {@link SparseNeighborIterationStrategy}.
+     *
+     * @return The cosine damping factor, or {@link Double#NaN} if the Gram matrix build is not applicable.
+     */
+    private double gramCosineDamping() {
+        if (!(neighborStrategy instanceof SparseNeighborIterationStrategy)) {
+            return Double.NaN;
+        }
+        // subclasses may compute something else, so only use the exact classes
+        if (!itemSimilarity.getClass().equals(ItemVectorSimilarity.class)) {
+            return Double.NaN;
+        }
+        VectorSimilarity vsim = ((ItemVectorSimilarity) itemSimilarity).getDelegate();
+        if (vsim.getClass().equals(CosineVectorSimilarity.class)) {
+            return ((CosineVectorSimilarity) vsim).getDampingFactor();
+        } else {
+            return Double.NaN;
+        }
     }
 
-    private IdBox<Long2DoubleMap> makeSimilarityRow(IdBox<Long2DoubleSortedMap> item) {
+    /**
+     * Compute a row of similarities.
+     * @param item The item and its rating vector.
+     * @param onlyAfter Whether to only compute similarities with items after {@code item}.
+     * @return The row of (untruncated) similarities.
+     */
+    private IdBox<Long2DoubleMap> makeSimilarityRow(IdBox<Long2DoubleSortedMap> item, boolean onlyAfter) {
         long itemId1 = item.getId();
-        LongIterator itemIter = neighborStrategy.neighborIterator(buildContext, itemId1,
-                                                                  itemSimilarity.isSymmetric());
+        LongIterator itemIter = neighborStrategy.neighborIterator(buildContext, itemId1, onlyAfter);
         Long2DoubleSortedMap vec1 = item.getValue();
+        PackedVector packed1 = packedSimilarity != null ? buildContext.packedItemVector(itemId1) : null;
         Long2DoubleMap row = new Long2DoubleOpenHashMap();
 
         while (itemIter.hasNext()) {
@@ -157,7 +404,12 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
                     continue;
                 }
 
-                double sim = itemSimilarity.similarity(itemId1, vec1, itemId2, vec2);
+                double sim;
+                if (packed1 != null) {
+                    sim = packedSimilarity.similarity(packed1, buildContext.packedItemVector(itemId2));
+                } else {
+                    sim = itemSimilarity.similarity(itemId1, vec1, itemId2, vec2);
+                }
                 if (threshold.retain(sim)) {
                     row.put(itemId2, sim);
                 }
@@ -167,6 +419,18 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         return IdBox.create(itemId1, row);
     }
 
+    /**
+     * Compute the similarity of two items, using the packed-vector kernel if one is available.
+     */
+    private double computeSimilarity(long i1, Long2DoubleSortedMap v1, long i2, Long2DoubleSortedMap v2) {
+        if (packedSimilarity != null) {
+            return packedSimilarity.similarity(buildContext.packedItemVector(i1),
+                                               buildContext.packedItemVector(i2));
+        } else {
+            return itemSimilarity.similarity(i1, v1, i2, v2);
+        }
+    }
+
     @Nonnull
     private Long2DoubleAccumulator newAccumulator() {
         Long2DoubleAccumulator accum;
@@ -178,14 +442,6 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         return accum;
     }
 
-    private Long2ObjectMap<Long2DoubleMap> finishRows(Long2ObjectMap<Long2DoubleAccumulator> rows) {
-        Long2ObjectMap<Long2DoubleMap> results = new Long2ObjectOpenHashMap<>(rows.size());
-        for (Long2ObjectMap.Entry<Long2DoubleAccumulator> e: rows.long2ObjectEntrySet()) {
-            results.put(e.getLongKey(), e.getValue().finishMap());
-        }
-        return results;
-    }
-
     private class BasicCollector implements Collector<IdBox<Long2DoubleMap>, Map<Long,Long2DoubleMap>, Long2ObjectMap<Long2DoubleMap>> {
         @Override
         public Supplier<Map<Long, Long2DoubleMap>> supplier() {
@@ -194,7 +450,7 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
 
         @Override
         public Function<Map<Long, Long2DoubleMap>, Long2ObjectMap<Long2DoubleMap>> finisher() {
-            return Long2ObjectArrayMap::new;
+            return Long2ObjectOpenHashMap::new;
         }
 
         @Override
@@ -230,54 +486,127 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         }
     }
 
-    private class SymmetricCollector implements Collector<IdBox<Long2DoubleMap>, Long2ObjectMap<Long2DoubleAccumulator>, Long2ObjectMap<Long2DoubleMap>> {
+    /**
+     * Collector for symmetric similarity functions.  This collector is concurrent: all threads share a single
+     * {@link SymmetricRowSet}, and each similarity is added to the (bounded) accumulators of both of its items as soon
+     * as it is computed, so the model size limit is enforced incrementally and there is no merge step.
+     */
+    private class SymmetricCollector implements Collector<IdBox<Long2DoubleMap>, SymmetricRowSet, Long2ObjectMap<Long2DoubleMap>> {
         @Override
-        public Supplier<Long2ObjectMap<Long2DoubleAccumulator>> supplier() {
-            return Long2ObjectArrayMap::new;
+        public Supplier<SymmetricRowSet> supplier() {
+            return SymmetricRowSet::new;
         }
 
         @Override
-        public BiConsumer<Long2ObjectMap<Long2DoubleAccumulator>, IdBox<Long2DoubleMap>> accumulator() {
-            return (acc, row) -> {
-                long i1 = row.getId();
-                for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(row.getValue())) {
-                    long i2 = e.getLongKey();
-                    double sim = e.getDoubleValue();
-                    acc.computeIfAbsent(i1, i -> newAccumulator())
-                       .put(i2, sim);
-                    acc.computeIfAbsent(i2, i -> newAccumulator())
-                       .put(i1, sim);
-                }
-            };
+        public BiConsumer<SymmetricRowSet, IdBox<Long2DoubleMap>> accumulator() {
+            return (acc, row) -> acc.putRow(row.getId(), row.getValue());
         }
 
         @Override
-        public BinaryOperator<Long2ObjectMap<Long2DoubleAccumulator>> combiner() {
-            return (am1, am2) -> {
-                for (Long2ObjectMap.Entry<Long2DoubleAccumulator> e: Long2ObjectMaps.fastIterable(am2)) {
-                    long item = e.getLongKey();
-                    Long2DoubleAccumulator a2 = e.getValue();
-                    Long2DoubleAccumulator a1 = am1.get(item);
-                    if (a1 == null) {
-                        am1.put(item, a2);
-                    } else {
-                        for (Long2DoubleMap.Entry ae: Long2DoubleMaps.fastIterable(a2.finishMap())) {
-                            a1.put(ae.getLongKey(), ae.getDoubleValue());
-                        }
-                    }
-                }
-                return am1;
+        public BinaryOperator<SymmetricRowSet> combiner() {
+            return (a1, a2) -> {
+                a1.putAll(a2);
+                return a1;
             };
         }
 
         @Override
-        public Function<Long2ObjectMap<Long2DoubleAccumulator>, Long2ObjectMap<Long2DoubleMap>> finisher() {
-            return ItemItemModelProvider.this::finishRows;
+        public Function<SymmetricRowSet, Long2ObjectMap<Long2DoubleMap>> finisher() {
+            return SymmetricRowSet::finish;
         }
 
         @Override
         public Set<Characteristics> characteristics() {
-            return ImmutableSet.of(Characteristics.UNORDERED);
+            return ImmutableSet.of(Characteristics.UNORDERED, Characteristics.CONCURRENT);
+        }
+    }
+
+    /**
+     * Thread-safe set of row accumulators for a symmetric similarity matrix.  Rows are indexed by the build
+     * context's item index, and guarded by a fixed number of lock stripes.  With a positive model size, each row
+     * holds at most {@code modelSize + 1} entries, so memory use is bounded by the number of items rather than the
+     * number of retained pairs.
+     */
+    private class SymmetricRowSet {
+        private final SortedKeyIndex items;
+        private final Long2DoubleAccumulator[] rows;
+        private final Object[] locks;
+
+        SymmetricRowSet() {
+            items = SortedKeyIndex.fromCollection(buildContext.getItems());
+            rows = new Long2DoubleAccumulator[items.size()];
+            locks = new Object[LOCK_STRIPES];
+            for (int i = 0; i < LOCK_STRIPES; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        /**
+         * Add a row of similarities, along with their symmetric counterparts.
+         * @param item The row's item.
+         * @param row The similarities between {@code item} and other items.
+         */
+        void putRow(long item, Long2DoubleMap row) {
+            if (row.isEmpty()) {
+                return;
+            }
+            int idx = rowIndex(item);
+            synchronized (locks[idx & (LOCK_STRIPES - 1)]) {
+                Long2DoubleAccumulator acc = getRow(idx);
+                for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(row)) {
+                    acc.put(e.getLongKey(), e.getDoubleValue());
+                }
+            }
+            for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(row)) {
+                int idx2 = rowIndex(e.getLongKey());
+                synchronized (locks[idx2 & (LOCK_STRIPES - 1)]) {
+                    getRow(idx2).put(item, e.getDoubleValue());
+                }
+            }
+        }
+
+        /**
+         * Merge another row set into this one.  Only used if the stream is not run concurrently.
+         * @param other The other row set.
+         */
+        void putAll(SymmetricRowSet other) {
+            for (int i = 0; i < other.rows.length; i++) {
+                Long2DoubleAccumulator acc = other.rows[i];
+                if (acc != null) {
+                    Long2DoubleMap row = acc.finishMap();
+                    synchronized (locks[i & (LOCK_STRIPES - 1)]) {
+                        getRow(i).putAll(row);
+                    }
+                }
+            }
+        }
+
+        Long2ObjectMap<Long2DoubleMap> finish() {
+            Long2ObjectMap<Long2DoubleMap> results = new Long2ObjectOpenHashMap<>(rows.length);
+            for (int i = 0; i < rows.length; i++) {
+                Long2DoubleAccumulator acc = rows[i];
+                if (acc != null) {
+                    results.put(items.getKey(i + items.getLowerBound()), acc.finishMap());
+                    rows[i] = null;
+                }
+            }
+            return results;
+        }
+
+        private int rowIndex(long item) {
+            return items.getIndex(item) - items.getLowerBound();
+        }
+
+        /**
+         * Get the accumulator for a row, creating it if needed.  The caller must hold the row's lock.
+         */
+        private Long2DoubleAccumulator getRow(int idx) {
+            Long2DoubleAccumulator acc = rows[idx];
+            if (acc == null) {
+                acc = newAccumulator();
+                rows[idx] = acc;
+            }
+            return acc;
         }
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2DoubleSortedMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongIterators;
+import org.lenskit.util.MoreArrays;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Neighbor iteration strategy that uses a locality-sensitive hashing (LSH) index to propose candidate
+ * neighbors.  Each item's rating vector is hashed into {@link LSHBandCount} band keys, each of which combines
+ * {@link LSHRowsPerBand} hash values; two items are candidates for each other if they agree on at least one
+ * band key.  If a single hash value agrees with probability <em>p</em> for a pair of items, the pair becomes
+ * a candidate with probability 1 - (1 - <em>p</em><sup>r</sup>)<sup>b</sup>, so adding bands raises recall
+ * and adding rows per band makes the candidate sets smaller.
+ *
+ * <p>Unlike {@link SparseNeighborIterationStrategy}, the cost of finding candidates does not grow with
+ * the popularity of the item's raters, so this strategy is suited to catalogues too large for an exact
+ * all-pairs build.  It is approximate: similar items that never share a bucket are not considered.
+ *
+ * <p>The index is built the first time a build context is queried and reused until a different context
+ * is presented.  The hash functions are seeded from the injected {@link java.util.Random}; bind a seeded
+ * random number generator to get reproducible candidate sets.
+ *
+ * @see MinHashNeighborIterationStrategy
+ * @see SimHashNeighborIterationStrategy
+ */
+@ThreadSafe
+public abstract class LSHNeighborIterationStrategy implements NeighborIterationStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(LSHNeighborIterationStrategy.class);
+
+    protected final int bandCount;
+    protected final int rowsPerBand;
+    protected final long seed;
+
+    private volatile Index index;
+
+    /**
+     * Construct a new LSH strategy.
+     * @param bands The number of bands.
+     * @param rows The number of hash values per band.
+     * @param seed The seed for the hash functions.
+     */
+    protected LSHNeighborIterationStrategy(int bands, int rows, long seed) {
+        Preconditions.checkArgument(bands > 0, "band count must be positive");
+        Preconditions.checkArgument(rows > 0, "rows per band must be positive");
+        bandCount = bands;
+        rowsPerBand = rows;
+        this.seed = seed;
+    }
+
+    /**
+     * Compute the band keys for an item's rating vector.
+     *
+     * @param vector The item's rating vector.
+     * @param keys The array in which to store the keys.
+     * @param offset The position in {@code keys} of the first band key; the method must store
+     *               {@link #bandCount} keys starting there.
+     */
+    protected abstract void computeBandKeys(Long2DoubleSortedMap vector, long[] keys, int offset);
+
+    @Override
+    public LongIterator neighborIterator(ItemItemBuildContext context, long item, boolean onlyAfter) {
+        return getIndex(context).candidates(item, onlyAfter);
+    }
+
+    /**
+     * Get the LSH index for a build context, building it if necessary.
+     * @param context The build context.
+     * @return The index.
+     */
+    Index getIndex(ItemItemBuildContext context) {
+        Index idx = index;
+        if (idx == null || idx.context != context) {
+            synchronized (this) {
+                idx = index;
+                if (idx == null || idx.context != context) {
+                    idx = new Index(context);
+                    index = idx;
+                }
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Hash a key with one of this strategy's hash functions.
+     * @param function The hash function number.
+     * @param key The key to hash.
+     * @return The hash value.
+     */
+    protected long hash(long function, long key) {
+        return mix(mix(seed + function * 0x9E3779B97F4A7C15L) ^ key);
+    }
+
+    /**
+     * The SplitMix64 finalizer, a fast 64-bit mixing function.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Banded hash index over the items of a build context.
+     */
+    class Index {
+        private final ItemItemBuildContext context;
+        private final SortedKeyIndex items;
+        /**
+         * Band keys of each item, item-major.
+         */
+        private final long[] itemKeys;
+        /**
+         * For each band, the item band keys in sorted order.
+         */
+        private final long[][] bandKeys;
+        /**
+         * For each band, the item indexes corresponding to {@link #bandKeys}.
+         */
+        private final int[][] bandItems;
+
+        Index(ItemItemBuildContext ctx) {
+            Stopwatch timer = Stopwatch.createStarted();
+            context = ctx;
+            items = SortedKeyIndex.fromCollection(ctx.getItems());
+            final int n = items.size();
+            final int lb = items.getLowerBound();
+            itemKeys = new long[n * bandCount];
+            IntStream.range(0, n).parallel().forEach(i -> {
+                Long2DoubleSortedMap vec = ctx.itemVector(items.getKey(lb + i));
+                computeBandKeys(vec, itemKeys, i * bandCount);
+            });
+
+            bandKeys = new long[bandCount][];
+            bandItems = new int[bandCount][];
+            IntStream.range(0, bandCount).parallel().forEach(b -> {
+                int[] perm = new int[n];
+                for (int i = 0; i < n; i++) {
+                    perm[i] = i;
+                }
+                IntArrays.quickSort(perm, (i1, i2) -> {
+                    int cmp = Long.compare(itemKeys[i1 * bandCount + b], itemKeys[i2 * bandCount + b]);
+                    return cmp != 0 ? cmp : Integer.compare(i1, i2);
+                });
+                long[] keys = new long[n];
+                for (int p = 0; p < n; p++) {
+                    keys[p] = itemKeys[perm[p] * bandCount + b];
+                }
+                bandKeys[b] = keys;
+                bandItems[b] = perm;
+            });
+            logger.debug("built {}x{} LSH index over {} items in {}", bandCount, rowsPerBand, n, timer);
+        }
+
+        /**
+         * Get the candidate neighbors of an item.
+         * @param item The item.
+         * @param onlyAfter Whether to only return candidates with IDs greater than {@code item}.
+         * @return An iterator over the candidates, in increasing order of ID.
+         */
+        LongIterator candidates(long item, boolean onlyAfter) {
+            int lb = items.getLowerBound();
+            int self = items.tryGetIndex(item);
+            if (self < 0) {
+                return LongIterators.EMPTY_ITERATOR;
+            }
+            self -= lb;
+
+            int[] found = new int[16];
+            int nfound = 0;
+            for (int b = 0; b < bandCount; b++) {
+                long[] keys = bandKeys[b];
+                int[] members = bandItems[b];
+                long key = itemKeys[self * bandCount + b];
+                for (int p = lowerBound(keys, key); p < keys.length && keys[p] == key; p++) {
+                    int j = members[p];
+                    if (j != self && (!onlyAfter || j > self)) {
+                        if (nfound == found.length) {
+                            found = Arrays.copyOf(found, found.length * 2);
+                        }
+                        found[nfound++] = j;
+                    }
+                }
+            }
+
+            Arrays.sort(found, 0, nfound);
+            nfound = MoreArrays.deduplicate(found, 0, nfound);
+            long[] ids = new long[nfound];
+            for (int k = 0; k < nfound; k++) {
+                ids[k] = items.getKey(lb + found[k]);
+            }
+            return LongIterators.wrap(ids);
+        }
+    }
+
+    /**
+     * Find the first position in a sorted array whose value is not less than a key.
+     */
+    private static int lowerBound(long[] keys, long key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
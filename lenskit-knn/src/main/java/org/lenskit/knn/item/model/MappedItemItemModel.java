@@ -0,0 +1,346 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.*;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.util.io.StagedWrite;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Item-item model backed by a memory-mapped binary file.  The similarity matrix is not read into the heap; it is
+ * read directly from the file via the operating system's page cache, so the model is usable as soon as it is opened
+ * and several processes opening the same file share a single copy of its data.
+ *
+ * <p>Files are written with {@link #write(ItemItemModel, Path)}, and opened with {@link #open(Path)}.  The resulting
+ * model can be used in a configuration by binding it as an instance:</p>
+ *
+ * ```java
+ * config.bind(ItemItemModel.class).toInstance(MappedItemItemModel.open(modelFile));
+ * ```
+ *
+ * <p>The file is in compressed sparse row layout, with all values in little-endian byte order:</p>
+ *
+ * 1. A 32-byte header: the magic number (4 bytes), format version (4 bytes), item count <var>n</var> (4 bytes),
+ *    neighbor domain size <var>m</var> (4 bytes), similarity count <var>s</var> (8 bytes), and 8 reserved bytes.
+ * 2. The <var>n</var> item IDs, in ascending order (8 bytes each).
+ * 3. The <var>m</var> neighbor IDs, in ascending order (8 bytes each).
+ * 4. The <var>n+1</var> row offsets (4 bytes each), padded to a multiple of 8 bytes.
+ * 5. The <var>s</var> neighbor positions in the neighbor domain (4 bytes each), padded to a multiple of 8 bytes.
+ * 6. The <var>s</var> similarity values (8 bytes each).
+ *
+ * Item IDs, neighbor IDs, and row offsets are loaded into the heap when the file is opened; the neighbor positions
+ * and similarities remain mapped.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public final class MappedItemItemModel implements ItemItemModel {
+    private static final Logger logger = LoggerFactory.getLogger(MappedItemItemModel.class);
+
+    /**
+     * The magic number identifying item-item model files ('LKII').
+     */
+    static final int MAGIC = 0x4C4B4949;
+    /**
+     * The current format version.
+     */
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * Log2 of the maximum number of bytes in a single mapped chunk.  Java buffers cannot exceed 2GB, so large
+     * sections of the file are mapped as several chunks.
+     */
+    private static final int CHUNK_SHIFT = 30;
+
+    private final SortedKeyIndex itemDomain;
+    private final SortedKeyIndex neighborDomain;
+    private final int[] rowOffsets;
+    private final ByteBuffer[] positionChunks;
+    private final ByteBuffer[] similarityChunks;
+    private final String description;
+
+    private MappedItemItemModel(SortedKeyIndex items, SortedKeyIndex nbrs, int[] offsets,
+                                ByteBuffer[] posChunks, ByteBuffer[] simChunks, String desc) {
+        itemDomain = items;
+        neighborDomain = nbrs;
+        rowOffsets = offsets;
+        positionChunks = posChunks;
+        similarityChunks = simChunks;
+        description = desc;
+    }
+
+    /**
+     * Open a model file.
+     * @param file The file to open.
+     * @return The model, backed by a memory map of the file.
+     * @throws IOException if there is an error opening or mapping the file, or if the file is not a valid model file.
+     */
+    public static MappedItemItemModel open(Path file) throws IOException {
+        logger.info("opening item-item model file {}", file);
+        try (FileChannel chan = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = chan.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(file + ": file too short for item-item model");
+            }
+            ByteBuffer header = chan.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+            int magic = header.getInt();
+            if (magic != MAGIC) {
+                throw new IOException(file + ": not an item-item model file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported model file version " + version);
+            }
+            int nitems = header.getInt();
+            int ndomain = header.getInt();
+            long nsims = header.getLong();
+            if (nitems < 0 || ndomain < 0 || nsims < 0 || nsims > Integer.MAX_VALUE) {
+                throw new IOException(file + ": corrupt model file header");
+            }
+
+            long itemStart = HEADER_SIZE;
+            long domainStart = itemStart + 8L * nitems;
+            long offsetStart = domainStart + 8L * ndomain;
+            long posStart = offsetStart + align8(4L * (nitems + 1));
+            long simStart = posStart + align8(4L * nsims);
+            long end = simStart + 8L * nsims;
+            if (size < end) {
+                throw new IOException(file + ": model file truncated (expected " + end + " bytes, found " + size + ")");
+            }
+
+            long[] items = new long[nitems];
+            readArray(chan, itemStart, 8L * nitems).asLongBuffer().get(items);
+            long[] domain = new long[ndomain];
+            readArray(chan, domainStart, 8L * ndomain).asLongBuffer().get(domain);
+            int[] offsets = new int[nitems + 1];
+            readArray(chan, offsetStart, 4L * (nitems + 1)).asIntBuffer().get(offsets);
+            if (offsets[0] != 0 || offsets[nitems] != nsims) {
+                throw new IOException(file + ": corrupt row offsets");
+            }
+
+            ByteBuffer[] posChunks = mapChunks(chan, posStart, 4L * nsims);
+            ByteBuffer[] simChunks = mapChunks(chan, simStart, 8L * nsims);
+
+            String desc = String.format("mapped matrix of %d similarities for %d items from %s",
+                                        nsims, nitems, file);
+            logger.debug("opened {}", desc);
+            return new MappedItemItemModel(SortedKeyIndex.wrap(items, nitems),
+                                           SortedKeyIndex.wrap(domain, ndomain),
+                                           offsets, posChunks, simChunks, desc);
+        }
+    }
+
+    /**
+     * Write an item-item model to a file in the format read by {@link #open(Path)}.  The file is written with a
+     * {@link StagedWrite}, so an existing file is replaced atomically.
+     *
+     * @param model The model to write.  This can be any item-item model, such as a {@link SimilarityMatrixModel}.
+     * @param file The output file.
+     * @throws IOException if there is an error writing the file.
+     */
+    public static void write(ItemItemModel model, Path file) throws IOException {
+        long[] items = model.getItemUniverse().toLongArray();
+        int nitems = items.length;
+
+        // first pass: compute the neighbor domain and similarity count
+        LongSet nbrIds = new LongOpenHashSet(items);
+        long nsims = 0;
+        for (long item: items) {
+            Long2DoubleMap row = model.getNeighbors(item);
+            nsims += row.size();
+            nbrIds.addAll(row.keySet());
+        }
+        if (nsims > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many similarities for model file: " + nsims);
+        }
+        long[] nbrArray = nbrIds.toLongArray();
+        Arrays.sort(nbrArray);
+        SortedKeyIndex domain = SortedKeyIndex.wrap(nbrArray, nbrArray.length);
+        int ndomain = domain.size();
+
+        logger.info("writing {} similarities for {} items to {}", nsims, nitems, file);
+        try (StagedWrite stage = StagedWrite.begin(file)) {
+            try (OutputStream stream = stage.openOutputStream();
+                 WritableByteChannel chan = Channels.newChannel(stream)) {
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+                buf.putInt(MAGIC)
+                   .putInt(VERSION)
+                   .putInt(nitems)
+                   .putInt(ndomain)
+                   .putLong(nsims)
+                   .putLong(0);
+
+                for (long item: items) {
+                    ensureSpace(chan, buf, 8);
+                    buf.putLong(item);
+                }
+                for (int i = 0; i < ndomain; i++) {
+                    ensureSpace(chan, buf, 8);
+                    buf.putLong(domain.getKey(i));
+                }
+
+                int offset = 0;
+                for (long item: items) {
+                    ensureSpace(chan, buf, 4);
+                    buf.putInt(offset);
+                    offset += model.getNeighbors(item).size();
+                }
+                ensureSpace(chan, buf, 4);
+                buf.putInt(offset);
+                pad8(chan, buf, 4L * (nitems + 1));
+
+                for (long item: items) {
+                    Long2DoubleSortedArrayMap row = Long2DoubleSortedArrayMap.create(model.getNeighbors(item));
+                    int n = row.size();
+                    for (int j = 0; j < n; j++) {
+                        ensureSpace(chan, buf, 4);
+                        buf.putInt(domain.getIndex(row.getKeyByIndex(j)));
+                    }
+                }
+                pad8(chan, buf, 4L * nsims);
+
+                for (long item: items) {
+                    Long2DoubleSortedArrayMap row = Long2DoubleSortedArrayMap.create(model.getNeighbors(item));
+                    int n = row.size();
+                    for (int j = 0; j < n; j++) {
+                        ensureSpace(chan, buf, 8);
+                        buf.putDouble(row.getValueByIndex(j));
+                    }
+                }
+
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    chan.write(buf);
+                }
+            }
+            stage.commit();
+        }
+    }
+
+    @Override
+    public LongSortedSet getItemUniverse() {
+        return itemDomain.keySet();
+    }
+
+    @Nonnull
+    @Override
+    public Long2DoubleSortedArrayMap getNeighbors(long item) {
+        int idx = itemDomain.tryGetIndex(item);
+        if (idx < 0) {
+            return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.empty(), new double[0]);
+        }
+
+        int start = rowOffsets[idx];
+        int n = rowOffsets[idx + 1] - start;
+        long[] keys = new long[n];
+        double[] values = new double[n];
+        for (int j = 0; j < n; j++) {
+            long pos = start + j;
+            keys[j] = neighborDomain.getKey(getInt(positionChunks, pos));
+            values[j] = getDouble(similarityChunks, pos);
+        }
+        return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values);
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    private static int getInt(ByteBuffer[] chunks, long idx) {
+        long off = idx * 4;
+        return chunks[(int) (off >>> CHUNK_SHIFT)].getInt((int) (off & ((1L << CHUNK_SHIFT) - 1)));
+    }
+
+    private static double getDouble(ByteBuffer[] chunks, long idx) {
+        long off = idx * 8;
+        return chunks[(int) (off >>> CHUNK_SHIFT)].getDouble((int) (off & ((1L << CHUNK_SHIFT) - 1)));
+    }
+
+    private static long align8(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    private static ByteBuffer readArray(FileChannel chan, long start, long len) throws IOException {
+        if (len > Integer.MAX_VALUE) {
+            throw new IOException("array section too large to load");
+        }
+        return chan.map(FileChannel.MapMode.READ_ONLY, start, len)
+                   .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Map a section of the file as a sequence of chunks.  Each chunk but the last is exactly 2^{@link #CHUNK_SHIFT}
+     * bytes long; since all element sizes divide the chunk size, no element spans two chunks.
+     */
+    private static ByteBuffer[] mapChunks(FileChannel chan, long start, long len) throws IOException {
+        long chunkSize = 1L << CHUNK_SHIFT;
+        int nchunks = (int) ((len + chunkSize - 1) >>> CHUNK_SHIFT);
+        ByteBuffer[] chunks = new ByteBuffer[nchunks];
+        for (int i = 0; i < nchunks; i++) {
+            long cstart = start + i * chunkSize;
+            long clen = Math.min(chunkSize, len - i * chunkSize);
+            chunks[i] = chan.map(FileChannel.MapMode.READ_ONLY, cstart, clen)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    private static void ensureSpace(WritableByteChannel chan, ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() < n) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                chan.write(buf);
+            }
+            buf.clear();
+        }
+    }
+
+    private static void pad8(WritableByteChannel chan, ByteBuffer buf, long written) throws IOException {
+        long padding = align8(written) - written;
+        for (long i = 0; i < padding; i++) {
+            ensureSpace(chan, buf, 1);
+            buf.put((byte) 0);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleSortedMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * LSH neighbor iteration strategy using MinHash signatures of the sets of users who rated each item.  Two
+ * items agree on a hash value with probability equal to the Jaccard similarity of their user sets, so this
+ * strategy is a good fit for set-based similarity functions and for co-occurrence data.  Rating values are
+ * ignored.
+ */
+@ThreadSafe
+public class MinHashNeighborIterationStrategy extends LSHNeighborIterationStrategy {
+    /**
+     * Construct a new MinHash strategy.
+     * @param bands The number of bands.
+     * @param rows The number of MinHash values per band.
+     * @param rng A random number generator to seed the hash functions.
+     */
+    @Inject
+    public MinHashNeighborIterationStrategy(@LSHBandCount int bands,
+                                            @LSHRowsPerBand int rows,
+                                            Random rng) {
+        this(bands, rows, rng.nextLong());
+    }
+
+    /**
+     * Construct a new MinHash strategy with a fixed seed.
+     * @param bands The number of bands.
+     * @param rows The number of MinHash values per band.
+     * @param seed The seed for the hash functions.
+     */
+    public MinHashNeighborIterationStrategy(int bands, int rows, long seed) {
+        super(bands, rows, seed);
+    }
+
+    @Override
+    protected void computeBandKeys(Long2DoubleSortedMap vector, long[] keys, int offset) {
+        int nhashes = bandCount * rowsPerBand;
+        long[] mins = new long[nhashes];
+        Arrays.fill(mins, Long.MAX_VALUE);
+        LongIterator iter = vector.keySet().iterator();
+        while (iter.hasNext()) {
+            long user = iter.nextLong();
+            for (int h = 0; h < nhashes; h++) {
+                long v = hash(h, user);
+                if (v < mins[h]) {
+                    mins[h] = v;
+                }
+            }
+        }
+
+        for (int b = 0; b < bandCount; b++) {
+            long key = b;
+            for (int r = 0; r < rowsPerBand; r++) {
+                key = mix(key * 31 + mins[b * rowsPerBand + r]);
+            }
+            keys[offset + b] = key;
+        }
+    }
+}
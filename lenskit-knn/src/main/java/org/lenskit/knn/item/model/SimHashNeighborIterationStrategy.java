@@ -0,0 +1,101 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleSortedMap;
+import org.lenskit.util.math.Vectors;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import java.util.Random;
+
+/**
+ * LSH neighbor iteration strategy using SimHash (signed random projection) signatures of the item rating
+ * vectors.  Each hash bit is the sign of the vector's projection on a random &plusmn;1 hyperplane, so two items
+ * agree on a bit with probability 1 - &theta;/&pi;, where &theta; is the angle between their vectors.  This
+ * makes it a good fit for cosine similarity over normalized ratings.
+ *
+ * <p>The projection for each band is derived from one 64-bit hash of each user, so a band can have at most
+ * 64 rows.
+ */
+@ThreadSafe
+public class SimHashNeighborIterationStrategy extends LSHNeighborIterationStrategy {
+    /**
+     * Construct a new SimHash strategy.
+     * @param bands The number of bands.
+     * @param rows The number of projection bits per band (at most 64).
+     * @param rng A random number generator to seed the projections.
+     */
+    @Inject
+    public SimHashNeighborIterationStrategy(@LSHBandCount int bands,
+                                            @LSHRowsPerBand int rows,
+                                            Random rng) {
+        this(bands, rows, rng.nextLong());
+    }
+
+    /**
+     * Construct a new SimHash strategy with a fixed seed.
+     * @param bands The number of bands.
+     * @param rows The number of projection bits per band (at most 64).
+     * @param seed The seed for the projections.
+     */
+    public SimHashNeighborIterationStrategy(int bands, int rows, long seed) {
+        super(bands, rows, seed);
+        Preconditions.checkArgument(rows <= 64, "SimHash supports at most 64 rows per band");
+    }
+
+    @Override
+    protected void computeBandKeys(Long2DoubleSortedMap vector, long[] keys, int offset) {
+        double[] proj = new double[bandCount * rowsPerBand];
+        for (Long2DoubleMap.Entry e: Vectors.fastEntries(vector)) {
+            long user = e.getLongKey();
+            double v = e.getDoubleValue();
+            for (int b = 0; b < bandCount; b++) {
+                long signs = hash(b, user);
+                int base = b * rowsPerBand;
+                for (int r = 0; r < rowsPerBand; r++) {
+                    if (((signs >>> r) & 1) == 0) {
+                        proj[base + r] += v;
+                    } else {
+                        proj[base + r] -= v;
+                    }
+                }
+            }
+        }
+
+        for (int b = 0; b < bandCount; b++) {
+            long key = 0;
+            int base = b * rowsPerBand;
+            for (int r = 0; r < rowsPerBand; r++) {
+                if (proj[base + r] > 0) {
+                    key |= 1L << r;
+                }
+            }
+            keys[offset + b] = key;
+        }
+    }
+}
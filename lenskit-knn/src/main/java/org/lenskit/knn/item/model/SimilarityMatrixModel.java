@@ -24,18 +24,16 @@
  */
 package org.lenskit.knn.item.model;
 
-import com.google.common.collect.ImmutableList;
-import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
-import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
-import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import it.unimi.dsi.fastutil.longs.*;
 import org.grouplens.grapht.annotation.DefaultProvider;
-import org.lenskit.api.ResultList;
 import org.lenskit.inject.Shareable;
-import org.lenskit.results.Results;
-import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +46,11 @@ import java.util.Map;
  * should use the same normalizations used by the builder to make use of the
  * similarity scores.
  *
+ * <p>
+ * The matrix is stored in compressed sparse row form: a row offset array, an array of neighbor
+ * positions in the item domain, and a parallel array of similarity values.  Neighborhoods returned
+ * by {@link #getNeighbors(long)} are views of these arrays, so they do not copy any data.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  * @since 0.10
  */
@@ -57,8 +60,15 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
     private static final long serialVersionUID = 3L;
 
     private final SortedKeyIndex itemDomain;
-    private final ImmutableList<Long2DoubleMap> neighborhoods;
+    private final SortedKeyIndex neighborDomain;
+    private final int[] rowOffsets;
+    private final int[] neighborPositions;
+    private final double[] similarities;
     private transient volatile String stringValue;
+    /**
+     * The model to use in place of this one after deserialization.
+     */
+    private transient SimilarityMatrixModel deserialized;
 
     /**
      * Construct a new item-item model.
@@ -69,24 +79,86 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
      */
     @Deprecated
     public SimilarityMatrixModel(SortedKeyIndex items, List<Long2DoubleMap> nbrs) {
-        itemDomain = items;
-        neighborhoods = ImmutableList.copyOf(nbrs);
+        this(items, (i, item) -> nbrs.get(i));
     }
 
     /**
      * Construct a new item-item model.
      *
-     * @param nbrs  The item neighborhoods.  The item neighborhood lists are not copied.
+     * @param nbrs  The item neighborhoods.  The item neighborhood lists are not retained.
      */
     public SimilarityMatrixModel(Map<Long,Long2DoubleMap> nbrs) {
-        itemDomain = SortedKeyIndex.fromCollection(nbrs.keySet());
-        int n = itemDomain.size();
-        assert n == nbrs.size();
-        ImmutableList.Builder<Long2DoubleMap> neighbors = ImmutableList.builder();
+        this(SortedKeyIndex.fromCollection(nbrs.keySet()), (i, item) -> nbrs.get(item));
+        assert itemDomain.size() == nbrs.size();
+    }
+
+    /**
+     * Pack neighborhoods into the compressed arrays.
+     * @param items The item domain.
+     * @param rows A function returning the neighborhood for each item.
+     */
+    private SimilarityMatrixModel(SortedKeyIndex items, RowSource rows) {
+        itemDomain = items;
+        int n = items.size();
+        int lb = items.getLowerBound();
+        LongSortedSet itemSet = items.keySet();
+
+        Long2DoubleSortedArrayMap[] packed = new Long2DoubleSortedArrayMap[n];
+        long nsims = 0;
+        boolean closed = true;
         for (int i = 0; i < n; i++) {
-            neighbors.add(LongUtils.frozenMap(nbrs.get(itemDomain.getKey(i))));
+            Long2DoubleMap nbrs = rows.getRow(i, items.getKey(i + lb));
+            Long2DoubleSortedArrayMap row = Long2DoubleSortedArrayMap.create(nbrs != null ? nbrs : Long2DoubleMaps.EMPTY_MAP);
+            packed[i] = row;
+            nsims += row.size();
+            if (closed && !itemSet.containsAll(row.keySet())) {
+                closed = false;
+            }
+        }
+
+        if (closed) {
+            neighborDomain = items;
+        } else {
+            // some neighbors do not have rows, so index neighbors by the union of all keys
+            LongSortedSet allKeys = new LongAVLTreeSet(items.keySet());
+            for (Long2DoubleSortedArrayMap row: packed) {
+                allKeys.addAll(row.keySet());
+            }
+            neighborDomain = SortedKeyIndex.fromCollection(allKeys);
+        }
+
+        if (nsims > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many similarities for a single matrix: " + nsims);
+        }
+        rowOffsets = new int[n + 1];
+        neighborPositions = new int[(int) nsims];
+        similarities = new double[(int) nsims];
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            rowOffsets[i] = pos;
+            Long2DoubleSortedArrayMap row = packed[i];
+            packed[i] = null;
+            int rn = row.size();
+            for (int j = 0; j < rn; j++) {
+                // keys are in ascending order, so their domain positions are too
+                neighborPositions[pos] = neighborDomain.getIndex(row.getKeyByIndex(j));
+                similarities[pos] = row.getValueByIndex(j);
+                pos += 1;
+            }
         }
-        neighborhoods = neighbors.build();
+        rowOffsets[n] = pos;
+    }
+
+    /**
+     * Construct a model from its compressed arrays.
+     */
+    private SimilarityMatrixModel(SortedKeyIndex items, SortedKeyIndex nbrDomain,
+                                  int[] offsets, int[] positions, double[] sims) {
+        itemDomain = items;
+        neighborDomain = nbrDomain;
+        rowOffsets = offsets;
+        neighborPositions = positions;
+        similarities = sims;
     }
 
     @Override
@@ -96,26 +168,83 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
 
     @Override
     @Nonnull
-    public Long2DoubleMap getNeighbors(long item) {
+    public Long2DoubleSortedArrayMap getNeighbors(long item) {
         int idx = itemDomain.tryGetIndex(item);
         if (idx < 0) {
-            return Long2DoubleMaps.EMPTY_MAP;
+            return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.empty(), similarities);
         } else {
-            return neighborhoods.get(idx);
+            int row = idx - itemDomain.getLowerBound();
+            SortedKeyIndex nbrs = SortedKeyIndex.indirect(neighborDomain, neighborPositions,
+                                                          rowOffsets[row], rowOffsets[row + 1]);
+            return Long2DoubleSortedArrayMap.wrap(nbrs, similarities);
         }
     }
 
+    /**
+     * Get the total number of similarities stored in the matrix.
+     * @return The number of non-zero entries in the matrix.
+     */
+    public int getSimilarityCount() {
+        return similarities.length;
+    }
+
     @Override
     public String toString() {
         String val = stringValue;
         if (val == null) {
-            int nsims = 0;
-            for (Long2DoubleMap nbrs: neighborhoods) {
-                nsims += nbrs.size();
-            }
-            val = String.format("matrix of %d similarities for %d items", nsims, neighborhoods.size());
+            val = String.format("matrix of %d similarities for %d items",
+                                similarities.length, itemDomain.size());
             stringValue = val;
         }
         return val;
     }
+
+    /**
+     * Read the model.  Models serialized before the matrix was compressed store a list of neighborhood maps
+     * instead of the row arrays; these are packed into the compressed form.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        SortedKeyIndex items = (SortedKeyIndex) fields.get("itemDomain", null);
+        if (items == null) {
+            throw new InvalidObjectException("missing item domain");
+        }
+        if (fields.defaulted("rowOffsets")) {
+            List<Long2DoubleMap> nbrs = (List<Long2DoubleMap>) fields.get("neighborhoods", null);
+            if (nbrs == null || nbrs.size() != items.size()) {
+                throw new InvalidObjectException("invalid neighborhood list");
+            }
+            deserialized = new SimilarityMatrixModel(items, (i, item) -> nbrs.get(i));
+        } else {
+            SortedKeyIndex nbrDomain = (SortedKeyIndex) fields.get("neighborDomain", null);
+            int[] offsets = (int[]) fields.get("rowOffsets", null);
+            int[] positions = (int[]) fields.get("neighborPositions", null);
+            double[] sims = (double[]) fields.get("similarities", null);
+            if (nbrDomain == null || offsets == null || positions == null || sims == null
+                    || offsets.length != items.size() + 1 || positions.length != sims.length
+                    || offsets[items.size()] != sims.length) {
+                throw new InvalidObjectException("invalid similarity matrix arrays");
+            }
+            deserialized = new SimilarityMatrixModel(items, nbrDomain, offsets, positions, sims);
+        }
+    }
+
+    private Object readResolve() {
+        return deserialized;
+    }
+
+    /**
+     * Interface for looking up rows while packing.
+     */
+    @FunctionalInterface
+    private interface RowSource {
+        /**
+         * Get a row.
+         * @param i The row's position (0-based) in the item domain.
+         * @param item The row's item ID.
+         * @return The row, or {@code null} if the item has no neighbors.
+         */
+        Long2DoubleMap getRow(int i, long item);
+    }
 }
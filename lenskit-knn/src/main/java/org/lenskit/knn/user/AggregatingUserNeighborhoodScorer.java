@@ -0,0 +1,50 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.user;
+
+import javax.annotation.Nullable;
+
+/**
+ * A user neighborhood scorer whose score depends only on aggregate statistics of the neighborhood.  The user-user
+ * item scorer uses this to score all items in a single pass over the neighbors, without materializing per-item
+ * neighbor lists.
+ *
+ * @since 3.0
+ */
+public interface AggregatingUserNeighborhoodScorer extends UserNeighborhoodScorer {
+    /**
+     * Compute the score for an item from accumulated neighborhood statistics.
+     *
+     * @param item The item to score.
+     * @param weightedSum The sum, over the item's neighbors, of the neighbor's similarity times its
+     *                    (normalized) rating of the item.
+     * @param totalWeight The sum of the absolute values of the neighbor similarities.
+     * @param count The number of neighbors.
+     * @return The result, or {@code null}.  This must be the same result {@link #score(long, java.util.List)}
+     * would compute for the same neighborhood.
+     */
+    @Nullable
+    UserUserResult score(long item, double weightedSum, double totalWeight, int count);
+}
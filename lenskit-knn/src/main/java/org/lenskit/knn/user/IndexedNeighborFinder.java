@@ -0,0 +1,84 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.user;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.jcip.annotations.ThreadSafe;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Neighbor finder that serves each user's neighbors from a precomputed {@link UserNeighborIndex}, so no
+ * similarities are computed at request time.  Users who are not in the index (for example, because they
+ * joined after the model was built) are handled by a {@link LiveNeighborFinder}.
+ *
+ * <p>Only the {@link UserNeighborIndexSize} most similar users of each user are available as neighbors,
+ * so the neighborhood for an item rated by few of them may be smaller than with an exhaustive search.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class IndexedNeighborFinder implements NeighborFinder {
+    private static final Logger logger = LoggerFactory.getLogger(IndexedNeighborFinder.class);
+
+    private final UserNeighborIndex index;
+    private final UserSnapshot snapshot;
+    private final NeighborFinder fallback;
+
+    /**
+     * Construct a new indexed neighbor finder.
+     *
+     * @param idx The neighbor index.
+     * @param snap The user snapshot, used for neighbor rating vectors.
+     * @param live The neighbor finder for users who are not indexed.
+     */
+    @Inject
+    public IndexedNeighborFinder(UserNeighborIndex idx, UserSnapshot snap, LiveNeighborFinder live) {
+        index = idx;
+        snapshot = snap;
+        fallback = live;
+    }
+
+    @Override
+    public Iterable<Neighbor> getCandidateNeighbors(long user, LongSet items) {
+        if (!index.containsUser(user)) {
+            logger.debug("user {} not indexed, searching for neighbors", user);
+            return fallback.getCandidateNeighbors(user, items);
+        }
+
+        int n = index.getNeighborCount(user);
+        List<Neighbor> neighbors = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long nbr = index.getNeighbor(user, i);
+            neighbors.add(new Neighbor(nbr, snapshot.getUserVector(nbr), index.getSimilarity(user, i)));
+        }
+        logger.debug("found {} indexed neighbors for {}", n, user);
+        return neighbors;
+    }
+}
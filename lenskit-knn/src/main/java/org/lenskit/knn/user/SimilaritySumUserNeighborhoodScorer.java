@@ -38,7 +38,7 @@ import java.util.List;
  */
 @Immutable
 @Shareable
-public class SimilaritySumUserNeighborhoodScorer implements UserNeighborhoodScorer, Serializable {
+public class SimilaritySumUserNeighborhoodScorer implements AggregatingUserNeighborhoodScorer, Serializable {
     private static final long serialVersionUID = 1L;
 
     private final int minimumNeighbors;
@@ -63,12 +63,21 @@ public class SimilaritySumUserNeighborhoodScorer implements UserNeighborhoodScor
             assert n.vector.get(item) > 0;
             weight += Math.abs(n.similarity);
         }
-        if (weight > 0) {
+        return score(item, Double.NaN, weight, neighbors.size());
+    }
+
+    @Override
+    @Nullable
+    public UserUserResult score(long item, double weightedSum, double totalWeight, int count) {
+        if (count < minimumNeighbors) {
+            return null;
+        }
+        if (totalWeight > 0) {
             return UserUserResult.newBuilder()
                                  .setItemId(item)
-                                 .setScore(weight)
-                                 .setTotalWeight(weight)
-                                 .setNeighborhoodSize(neighbors.size())
+                                 .setScore(totalWeight)
+                                 .setTotalWeight(totalWeight)
+                                 .setNeighborhoodSize(count)
                                  .build();
         } else {
             return null;
@@ -29,11 +29,14 @@ import it.unimi.dsi.fastutil.longs.*;
 import org.grouplens.lenskit.transform.threshold.Threshold;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.SimilarityNormalizer;
+import org.lenskit.similarity.PackedVector;
+import org.lenskit.similarity.PackedVectorSimilarity;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.jcip.annotations.ThreadSafe;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.Collections;
 import java.util.Iterator;
@@ -52,6 +55,8 @@ public class SnapshotNeighborFinder implements NeighborFinder {
     private final RatingVectorPDAO rvDAO;
     private final UserVectorNormalizer similarityNormalizer;
     private final Threshold threshold;
+    @Nullable
+    private final PackedVectorSimilarity packedSimilarity;
 
     @Inject
     public SnapshotNeighborFinder(UserSnapshot snap,
@@ -64,6 +69,7 @@ public class SnapshotNeighborFinder implements NeighborFinder {
         rvDAO = rvd;
         similarityNormalizer = simNorm;
         threshold = thresh;
+        packedSimilarity = UserVectorSimilarity.packedDelegate(sim);
     }
 
     @Override
@@ -113,11 +119,13 @@ public class SnapshotNeighborFinder implements NeighborFinder {
     private class NeighborIterator extends AbstractIterator<Neighbor> {
         private final long user;
         private final Long2DoubleMap userVector;
+        private final PackedVector packedVector;
         private final LongIterator neighborIter;
 
         NeighborIterator(long uid, Long2DoubleMap uvec, LongSet nbrs) {
             user = uid;
             userVector = uvec;
+            packedVector = packedSimilarity != null ? PackedVector.pack(uvec) : null;
             neighborIter = nbrs.iterator();
         }
 
@@ -125,8 +133,13 @@ public class SnapshotNeighborFinder implements NeighborFinder {
         protected Neighbor computeNext() {
             while (neighborIter.hasNext()) {
                 final long neighbor = neighborIter.nextLong();
-                Long2DoubleMap vector = snapshot.getNormalizedUserVector(neighbor);
-                double sim = similarity.similarity(user, userVector, neighbor, vector);
+                double sim;
+                if (packedVector != null) {
+                    sim = packedSimilarity.similarity(packedVector, snapshot.getPackedUserVector(neighbor));
+                } else {
+                    Long2DoubleMap vector = snapshot.getNormalizedUserVector(neighbor);
+                    sim = similarity.similarity(user, userVector, neighbor, vector);
+                }
                 if (acceptSimilarity(sim)) {
                     return new Neighbor(neighbor, snapshot.getUserVector(neighbor), sim);
                 }
@@ -0,0 +1,300 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.user;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.grouplens.lenskit.transform.threshold.Threshold;
+import org.lenskit.inject.Shareable;
+import org.lenskit.inject.Transient;
+import org.lenskit.similarity.PackedVector;
+import org.lenskit.similarity.PackedVectorSimilarity;
+import org.lenskit.util.ProgressLogger;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.jcip.annotations.ThreadSafe;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed index of each user's most similar users, used by {@link IndexedNeighborFinder}.  The neighbors
+ * are stored in compressed sparse row form: for each user, a run of neighbor positions and similarities,
+ * in decreasing order of similarity.
+ *
+ * @since 3.0
+ */
+@Shareable
+@ThreadSafe
+@DefaultProvider(UserNeighborIndex.Builder.class)
+public class UserNeighborIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final SortedKeyIndex users;
+    private final int[] offsets;
+    private final int[] neighbors;
+    private final double[] similarities;
+
+    /**
+     * Construct a user neighbor index.
+     * @param users The users.
+     * @param offsets The offsets of each user's neighbors (of length {@code users.size() + 1}).
+     * @param neighbors The positions of the neighbors in {@code users}.
+     * @param sims The neighbor similarities.
+     */
+    UserNeighborIndex(SortedKeyIndex users, int[] offsets, int[] neighbors, double[] sims) {
+        Preconditions.checkArgument(offsets.length == users.size() + 1, "incorrectly sized offset array");
+        Preconditions.checkArgument(neighbors.length == sims.length, "neighbor and similarity arrays differ");
+        Preconditions.checkArgument(offsets[users.size()] == neighbors.length, "offsets do not cover neighbors");
+        this.users = users;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        similarities = sims;
+    }
+
+    /**
+     * Query whether the index has neighbors for a user.
+     * @param user The user ID.
+     * @return {@code true} if the user was indexed.
+     */
+    public boolean containsUser(long user) {
+        return users.containsKey(user);
+    }
+
+    /**
+     * Get the number of stored neighbors for a user.
+     * @param user The user ID.
+     * @return The number of neighbors stored for the user, or 0 if the user is not indexed.
+     */
+    public int getNeighborCount(long user) {
+        int idx = users.tryGetIndex(user);
+        if (idx < 0) {
+            return 0;
+        }
+        idx -= users.getLowerBound();
+        return offsets[idx + 1] - offsets[idx];
+    }
+
+    /**
+     * Get the ID of one of a user's neighbors.
+     * @param user The user ID.
+     * @param i The neighbor rank (0 is the most similar).
+     * @return The neighbor's user ID.
+     */
+    public long getNeighbor(long user, int i) {
+        return users.getKey(users.getLowerBound() + neighbors[position(user, i)]);
+    }
+
+    /**
+     * Get the similarity of one of a user's neighbors.
+     * @param user The user ID.
+     * @param i The neighbor rank (0 is the most similar).
+     * @return The neighbor's similarity to {@code user}.
+     */
+    public double getSimilarity(long user, int i) {
+        return similarities[position(user, i)];
+    }
+
+    /**
+     * Get a user's neighbors as a map.
+     * @param user The user ID.
+     * @return The map of neighbor IDs to similarities (empty if the user is not indexed).
+     */
+    public Long2DoubleMap getNeighbors(long user) {
+        int n = getNeighborCount(user);
+        Long2DoubleMap map = new Long2DoubleOpenHashMap(n);
+        for (int i = 0; i < n; i++) {
+            map.put(getNeighbor(user, i), getSimilarity(user, i));
+        }
+        return map;
+    }
+
+    private int position(long user, int i) {
+        int idx = users.tryGetIndex(user);
+        Preconditions.checkArgument(idx >= 0, "unindexed user " + user);
+        idx -= users.getLowerBound();
+        int pos = offsets[idx] + i;
+        Preconditions.checkElementIndex(pos, offsets[idx + 1], "neighbor");
+        return pos;
+    }
+
+    /**
+     * Build a user neighbor index from a user snapshot.
+     */
+    public static class Builder implements Provider<UserNeighborIndex> {
+        private static final Logger logger = LoggerFactory.getLogger(Builder.class);
+        private final UserSnapshot snapshot;
+        private final UserSimilarity similarity;
+        private final Threshold threshold;
+        private final int indexSize;
+        @Nullable
+        private final PackedVectorSimilarity packedSimilarity;
+
+        @Inject
+        public Builder(@Transient UserSnapshot snap,
+                       @Transient UserSimilarity sim,
+                       @Transient @UserSimilarityThreshold Threshold thresh,
+                       @UserNeighborIndexSize int size) {
+            Preconditions.checkArgument(size > 0, "index size must be positive");
+            snapshot = snap;
+            similarity = sim;
+            threshold = thresh;
+            indexSize = size;
+            packedSimilarity = UserVectorSimilarity.packedDelegate(sim);
+        }
+
+        @Override
+        public UserNeighborIndex get() {
+            final SortedKeyIndex users = SortedKeyIndex.fromCollection(snapshot.getUserIds());
+            final int n = users.size();
+            final int lb = users.getLowerBound();
+            final int[][] rowNeighbors = new int[n][];
+            final double[][] rowSims = new double[n][];
+            final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+
+            ProgressLogger progress = ProgressLogger.create(logger)
+                                                    .setCount(n)
+                                                    .setLabel("user neighbor index")
+                                                    .setWindow(50)
+                                                    .start();
+            IntStream.range(0, n).parallel().forEach(i -> {
+                Scratch s = scratch.get();
+                findNeighbors(users, lb + i, s);
+                rowNeighbors[i] = s.result;
+                rowSims[i] = s.resultSims;
+                progress.advance();
+            });
+            progress.finish();
+
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                offsets[i + 1] = offsets[i] + rowNeighbors[i].length;
+            }
+            int[] nbrs = new int[offsets[n]];
+            double[] sims = new double[offsets[n]];
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(rowNeighbors[i], 0, nbrs, offsets[i], rowNeighbors[i].length);
+                System.arraycopy(rowSims[i], 0, sims, offsets[i], rowSims[i].length);
+            }
+            logger.info("indexed {} neighbors for {} users in {}", nbrs.length, n, progress.elapsedTime());
+            return new UserNeighborIndex(users, offsets, nbrs, sims);
+        }
+
+        /**
+         * Find the top neighbors of one user and store them in the scratch space's result arrays.
+         */
+        private void findNeighbors(SortedKeyIndex users, int uidx, Scratch s) {
+            final int lb = users.getLowerBound();
+            final long user = users.getKey(uidx);
+            final int self = uidx - lb;
+            Long2DoubleMap uvec = snapshot.getNormalizedUserVector(user);
+            PackedVector upacked = packedSimilarity != null ? snapshot.getPackedUserVector(user) : null;
+
+            s.ncands = 0;
+            if (similarity.isSparse()) {
+                for (LongIterator iter = snapshot.getUserVector(user).keySet().iterator(); iter.hasNext();) {
+                    LongSet itemUsers = snapshot.getItemUsers(iter.nextLong());
+                    if (itemUsers == null) {
+                        continue;
+                    }
+                    for (LongIterator uiter = itemUsers.iterator(); uiter.hasNext();) {
+                        int j = users.tryGetIndex(uiter.nextLong()) - lb;
+                        if (j >= 0 && j != self) {
+                            s.mark(j);
+                        }
+                    }
+                }
+            } else {
+                for (int j = 0; j < users.size(); j++) {
+                    if (j != self) {
+                        s.mark(j);
+                    }
+                }
+            }
+
+            int count = 0;
+            for (int k = 0; k < s.ncands; k++) {
+                int j = s.candidates[k];
+                s.marked[j] = false;
+                long nbr = users.getKey(lb + j);
+                double sim;
+                if (upacked != null) {
+                    sim = packedSimilarity.similarity(upacked, snapshot.getPackedUserVector(nbr));
+                } else {
+                    sim = similarity.similarity(user, uvec, nbr, snapshot.getNormalizedUserVector(nbr));
+                }
+                if (!Double.isNaN(sim) && !Double.isInfinite(sim) && threshold.retain(sim)) {
+                    s.candidates[count] = j;
+                    s.sims[j] = sim;
+                    count++;
+                }
+            }
+
+            final double[] sims = s.sims;
+            IntArrays.quickSort(s.candidates, 0, count, (j1, j2) -> {
+                int cmp = Double.compare(sims[j2], sims[j1]);
+                return cmp != 0 ? cmp : Integer.compare(j1, j2);
+            });
+            int k = Math.min(count, indexSize);
+            s.result = Arrays.copyOf(s.candidates, k);
+            s.resultSims = new double[k];
+            for (int r = 0; r < k; r++) {
+                s.resultSims[r] = sims[s.result[r]];
+            }
+        }
+    }
+
+    /**
+     * Per-thread scratch space for the index builder.
+     */
+    private static class Scratch {
+        final int[] candidates;
+        final double[] sims;
+        final boolean[] marked;
+        int ncands;
+        int[] result;
+        double[] resultSims;
+
+        Scratch(int n) {
+            candidates = new int[n];
+            sims = new double[n];
+            marked = new boolean[n];
+        }
+
+        void mark(int j) {
+            if (!marked[j]) {
+                marked[j] = true;
+                candidates[ncands++] = j;
+            }
+        }
+    }
+}
@@ -33,6 +33,8 @@ import org.lenskit.inject.Shareable;
 import org.lenskit.inject.Transient;
 import org.lenskit.knn.ScoreNormalizer;
 import org.lenskit.knn.SimilarityNormalizer;
+import org.lenskit.similarity.PackedVector;
+import org.lenskit.similarity.PackedVectorSimilarity;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.collections.LongUtils;
@@ -59,6 +61,11 @@ public class UserSnapshot implements Serializable {
     private final List<Long2DoubleMap> vectors;
     private final List<Long2DoubleMap> normedVectors;
     private final Long2ObjectMap<LongSortedSet> itemUserSets;
+    /**
+     * Packed copies of the normalized vectors, created on first use.  Racy initialization is benign, as packed
+     * vectors are immutable.
+     */
+    private transient PackedVector[] packedVectors;
 
     /**
      * Construct a user snapshot.
@@ -78,6 +85,14 @@ public class UserSnapshot implements Serializable {
         itemUserSets = iuSets;
     }
 
+    /**
+     * Get the IDs of the users in this snapshot.
+     * @return The set of user IDs.
+     */
+    public LongSortedSet getUserIds() {
+        return users.keySet();
+    }
+
     /**
      * Get a user vector normalized for score computations.
      * @param user The user ID.
@@ -100,6 +115,29 @@ public class UserSnapshot implements Serializable {
         return normedVectors.get(idx);
     }
 
+    /**
+     * Get a packed user vector normalized for similarity computations, for use with
+     * {@link PackedVectorSimilarity}.  Packed vectors (with their norms and means) are cached.
+     *
+     * @param user The user ID.
+     * @return The packed form of {@link #getNormalizedUserVector(long)}.
+     */
+    public PackedVector getPackedUserVector(long user) {
+        int idx = users.tryGetIndex(user);
+        Preconditions.checkArgument(idx >= 0, "invalid user " + user);
+        PackedVector[] cache = packedVectors;
+        if (cache == null) {
+            cache = new PackedVector[normedVectors.size()];
+            packedVectors = cache;
+        }
+        PackedVector vec = cache[idx];
+        if (vec == null) {
+            vec = PackedVector.pack(normedVectors.get(idx));
+            cache[idx] = vec;
+        }
+        return vec;
+    }
+
     public LongSet getItemUsers(long item) {
         return itemUserSets.get(item);
     }
@@ -29,6 +29,8 @@ import it.unimi.dsi.fastutil.longs.*;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.ScoreConsumer;
+import org.lenskit.basic.StreamingItemScorer;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.NeighborhoodSize;
 import org.lenskit.results.Results;
@@ -36,6 +38,7 @@ import org.lenskit.transform.normalize.UserVectorNormalizer;
 import org.lenskit.util.InvertibleFunction;
 import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.collections.SortedListAccumulator;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.lenskit.util.math.Vectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,16 +46,18 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Score items with user-user collaborative filtering.
  *
  * The detailed results returned by this scorer are of type {@link UserUserResult}.
  */
-public class UserUserItemScorer extends AbstractItemScorer {
+public class UserUserItemScorer extends AbstractItemScorer implements StreamingItemScorer {
     private static final Logger logger = LoggerFactory.getLogger(UserUserItemScorer.class);
 
     private final RatingVectorPDAO dao;
@@ -60,6 +65,7 @@ public class UserUserItemScorer extends AbstractItemScorer {
     protected final UserVectorNormalizer normalizer;
     private final UserNeighborhoodScorer neighborhoodScorer;
     private final int neighborhoodSize;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
 
     @Inject
     public UserUserItemScorer(RatingVectorPDAO rvd, NeighborFinder nf,
@@ -81,21 +87,89 @@ public class UserUserItemScorer extends AbstractItemScorer {
         logger.debug("Predicting for {} items for user {} with {} events",
                      items.size(), user, history.size());
 
-        LongSortedSet itemSet = LongUtils.packedSet(items);
-        Long2ObjectMap<List<Neighbor>> neighborhoods =
-                findNeighbors(user, itemSet);
-
         // Make the normalizing transform to reverse
         InvertibleFunction<Long2DoubleMap, Long2DoubleMap> xform = normalizer.makeTransformation(user, history);
 
-        // And prepare results
+        List<UserUserResult> rawResults = scoreRaw(user, LongUtils.packedSet(items));
+        Long2DoubleMap itemScores = denormalize(xform, rawResults);
+
+        // and finish up
+        List<Result> results = new ArrayList<>(rawResults.size());
+        for (UserUserResult r: rawResults) {
+            results.add(r.copyBuilder()
+                         .setScore(itemScores.get(r.getId()))
+                         .build());
+        }
+
+        return Results.newResultMap(results);
+    }
+
+    @Nonnull
+    @Override
+    public Map<Long, Double> score(long user, @Nonnull Collection<Long> items) {
+        Long2DoubleMap results = new Long2DoubleOpenHashMap(items.size());
+        score(user, items, results::put);
+        return results;
+    }
+
+    @Override
+    public void score(long user, @Nonnull Collection<Long> items, @Nonnull ScoreConsumer consumer) {
+        Long2DoubleMap history = dao.userRatingVector(user);
+
+        logger.debug("Streaming scores for {} items for user {} with {} events",
+                     items.size(), user, history.size());
+
+        InvertibleFunction<Long2DoubleMap, Long2DoubleMap> xform = normalizer.makeTransformation(user, history);
+
+        List<UserUserResult> rawResults = scoreRaw(user, LongUtils.packedSet(items));
+        Long2DoubleMap itemScores = denormalize(xform, rawResults);
+        for (Long2DoubleMap.Entry e: Vectors.fastEntries(itemScores)) {
+            consumer.accept(e.getLongKey(), e.getDoubleValue());
+        }
+    }
+
+    /**
+     * Compute the normalized results for a set of items.
+     *
+     * @param user The user ID.
+     * @param itemSet The items to score.
+     * @return The (normalized) results.
+     */
+    private List<UserUserResult> scoreRaw(long user, LongSortedSet itemSet) {
+        if (neighborhoodScorer instanceof AggregatingUserNeighborhoodScorer) {
+            return scoreAggregated(user, itemSet, (AggregatingUserNeighborhoodScorer) neighborhoodScorer);
+        } else {
+            return scoreNeighborhoods(user, itemSet);
+        }
+    }
+
+    /**
+     * De-normalize raw results into a map of item scores.
+     */
+    private static Long2DoubleMap denormalize(InvertibleFunction<Long2DoubleMap, Long2DoubleMap> xform,
+                                              List<UserUserResult> rawResults) {
+        Long2DoubleMap itemScores = new Long2DoubleOpenHashMap(rawResults.size());
+        for (UserUserResult r: rawResults) {
+            itemScores.put(r.getId(), r.getScore());
+        }
+        return xform.unapply(itemScores);
+    }
+
+    /**
+     * Score items by building each item's neighborhood and passing it to the neighborhood scorer.
+     *
+     * @param user The user ID.
+     * @param itemSet The items to score.
+     * @return The (normalized) results.
+     */
+    private List<UserUserResult> scoreNeighborhoods(long user, LongSortedSet itemSet) {
+        Long2ObjectMap<List<Neighbor>> neighborhoods =
+                findNeighbors(user, itemSet);
+
         List<UserUserResult> rawResults = new ArrayList<>();
         LongIterator iter = itemSet.iterator();
         while (iter.hasNext()) {
             final long item = iter.nextLong();
-            double sum = 0;
-            double weight = 0;
-            int count = 0;
             List<Neighbor> nbrs = neighborhoods.get(item);
             UserUserResult score = neighborhoodScorer.score(item, nbrs);
 
@@ -106,23 +180,74 @@ public class UserUserItemScorer extends AbstractItemScorer {
                 rawResults.add(score);
             }
         }
+        return rawResults;
+    }
 
-        // de-normalize the results
-        Long2DoubleMap itemScores = new Long2DoubleOpenHashMap(rawResults.size());
-        for (UserUserResult r: rawResults) {
-            itemScores.put(r.getId(), r.getScore());
+    /**
+     * Score items in a single pass over the neighbors, accumulating each item's neighborhood statistics in
+     * dense arrays indexed by the item's position in the item set.  Neighbors are visited in decreasing order
+     * of similarity, so each item's neighborhood is the first <var>neighborhoodSize</var> neighbors who rated it,
+     * just as in {@link #findNeighbors(long, LongSet)}.
+     *
+     * @param user The user ID.
+     * @param itemSet The items to score.
+     * @param scorer The neighborhood scorer.
+     * @return The (normalized) results.
+     */
+    private List<UserUserResult> scoreAggregated(long user, LongSortedSet itemSet,
+                                                 AggregatingUserNeighborhoodScorer scorer) {
+        SortedKeyIndex index = SortedKeyIndex.fromCollection(itemSet);
+        final int n = index.size();
+        final int lb = index.getLowerBound();
+
+        List<Neighbor> nbrs = new ArrayList<>();
+        for (Neighbor nbr: neighborFinder.getCandidateNeighbors(user, itemSet)) {
+            nbrs.add(nbr);
         }
-        itemScores = xform.unapply(itemScores);
+        // stable sort, so neighbors with tied similarities stay in the finder's order
+        nbrs.sort(Neighbor.SIMILARITY_COMPARATOR.reversed());
 
-        // and finish up
-        List<Result> results = new ArrayList<>(rawResults.size());
-        for (UserUserResult r: rawResults) {
-            results.add(r.copyBuilder()
-                         .setScore(itemScores.get(r.getId()))
-                         .build());
+        Scratch scratch = this.scratch.get();
+        scratch.reset(n);
+        double[] sums = scratch.sums;
+        double[] weights = scratch.weights;
+        int[] counts = scratch.counts;
+        // a negative neighborhood size means unlimited neighborhoods
+        final int limit = neighborhoodSize < 0 ? Integer.MAX_VALUE : neighborhoodSize;
+        int full = 0;
+        for (Neighbor nbr: nbrs) {
+            if (full == n) {
+                break;
+            }
+            double sim = nbr.similarity;
+            double weight = Math.abs(sim);
+            for (Long2DoubleMap.Entry e: Vectors.fastEntries(nbr.vector)) {
+                int i = index.tryGetIndex(e.getLongKey());
+                if (i >= 0) {
+                    i -= lb;
+                    if (counts[i] < limit) {
+                        sums[i] += sim * e.getDoubleValue();
+                        weights[i] += weight;
+                        counts[i] += 1;
+                        if (counts[i] == limit) {
+                            full += 1;
+                        }
+                    }
+                }
+            }
         }
 
-        return Results.newResultMap(results);
+        List<UserUserResult> rawResults = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            UserUserResult score = scorer.score(index.getKey(lb + i), sums[i], weights[i], counts[i]);
+            if (score != null) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("result {}", score);
+                }
+                rawResults.add(score);
+            }
+        }
+        return rawResults;
     }
 
     /**
@@ -165,4 +290,30 @@ public class UserUserItemScorer extends AbstractItemScorer {
         }
         return neighbors;
     }
+
+    /**
+     * Reusable per-thread accumulation buffers.
+     */
+    private static class Scratch {
+        double[] sums = new double[0];
+        double[] weights = new double[0];
+        int[] counts = new int[0];
+
+        /**
+         * Prepare the buffers for scoring a set of items.
+         * @param n The number of items.
+         */
+        void reset(int n) {
+            if (sums.length < n) {
+                int size = Math.max(n, sums.length * 2);
+                sums = new double[size];
+                weights = new double[size];
+                counts = new int[size];
+            } else {
+                Arrays.fill(sums, 0, n, 0);
+                Arrays.fill(weights, 0, n, 0);
+                Arrays.fill(counts, 0, n, 0);
+            }
+        }
+    }
 }
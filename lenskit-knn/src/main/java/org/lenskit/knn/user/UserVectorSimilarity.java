@@ -26,10 +26,13 @@ package org.lenskit.knn.user;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.lenskit.inject.Shareable;
+import org.lenskit.similarity.PackedVectorSimilarity;
 import org.lenskit.similarity.VectorSimilarity;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * Implementation of {@link UserSimilarity} that delegates to a vector similarity.
@@ -48,6 +51,36 @@ public class UserVectorSimilarity implements UserSimilarity, Serializable {
         delegate = sim;
     }
 
+    /**
+     * Get the vector similarity used to compare user vectors.
+     * @return The underlying vector similarity.
+     */
+    public VectorSimilarity getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Get the packed-vector kernel of a user similarity, if it has one.  Only plain vector similarities are
+     * considered, as other user similarities may use the user IDs as well as the vectors.  Subclasses may
+     * override the map-based similarity, so the wrapper must be exactly this class and the delegate's own
+     * class must declare {@link PackedVectorSimilarity}.
+     *
+     * @param sim The user similarity.
+     * @return The packed-vector similarity to use in place of {@code sim}, or {@code null} if there is none.
+     */
+    @Nullable
+    static PackedVectorSimilarity packedDelegate(UserSimilarity sim) {
+        if (!sim.getClass().equals(UserVectorSimilarity.class)) {
+            return null;
+        }
+        VectorSimilarity vsim = ((UserVectorSimilarity) sim).getDelegate();
+        if (Arrays.asList(vsim.getClass().getInterfaces()).contains(PackedVectorSimilarity.class)) {
+            return (PackedVectorSimilarity) vsim;
+        } else {
+            return null;
+        }
+    }
+
     @Override
     public double similarity(long u1, Long2DoubleMap v1, long u2, Long2DoubleMap v2) {
         return delegate.similarity(v1, v2);
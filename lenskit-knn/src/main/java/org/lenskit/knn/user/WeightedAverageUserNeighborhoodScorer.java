@@ -38,7 +38,7 @@ import java.util.List;
  */
 @Immutable
 @Shareable
-public class WeightedAverageUserNeighborhoodScorer implements UserNeighborhoodScorer, Serializable {
+public class WeightedAverageUserNeighborhoodScorer implements AggregatingUserNeighborhoodScorer, Serializable {
     private static final long serialVersionUID = 1L;
 
     private final int minimumNeighbors;
@@ -65,12 +65,21 @@ public class WeightedAverageUserNeighborhoodScorer implements UserNeighborhoodSc
             weight += Math.abs(n.similarity);
             sum += n.similarity * n.vector.get(item);
         }
-        if (weight > 0) {
+        return score(item, sum, weight, neighbors.size());
+    }
+
+    @Override
+    @Nullable
+    public UserUserResult score(long item, double weightedSum, double totalWeight, int count) {
+        if (count < minimumNeighbors) {
+            return null;
+        }
+        if (totalWeight > 0) {
             return UserUserResult.newBuilder()
                                  .setItemId(item)
-                                 .setScore(sum / weight)
-                                 .setTotalWeight(weight)
-                                 .setNeighborhoodSize(neighbors.size())
+                                 .setScore(weightedSum / totalWeight)
+                                 .setTotalWeight(totalWeight)
+                                 .setNeighborhoodSize(count)
                                  .build();
         } else {
             return null;
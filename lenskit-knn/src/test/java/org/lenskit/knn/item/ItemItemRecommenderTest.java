@@ -45,6 +45,7 @@ import org.lenskit.transform.normalize.VectorNormalizer;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -115,6 +116,25 @@ public class ItemItemRecommenderTest {
 
 
 
+    /**
+     * Check that streaming scores tolerate duplicate items and report each item once.
+     */
+    @Test
+    public void testStreamingScoresDuplicateItems() {
+        long[] items = {7, 9, 7, 9};
+        ItemItemScorer scorer = session.get(ItemItemScorer.class);
+        assertThat(scorer, notNullValue());
+        Map<Long, Double> expected = scorer.score(5, LongArrayList.wrap(new long[]{7, 9}));
+        List<Long> seen = new ArrayList<>();
+        Map<Long, Double> streamed = new HashMap<>();
+        scorer.score(5, LongArrayList.wrap(items), (item, score) -> {
+            seen.add(item);
+            streamed.put(item, score);
+        });
+        assertThat(seen, hasSize(expected.size()));
+        assertThat(streamed, equalTo(expected));
+    }
+
     /**
      * Check that we score items but do not provide scores for items
      * the user has previously rated.  User 5 has rated only item 8
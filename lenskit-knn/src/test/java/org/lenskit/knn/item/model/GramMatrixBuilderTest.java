@@ -0,0 +1,100 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.lenskit.transform.threshold.AbsoluteThreshold;
+import org.junit.Test;
+import org.lenskit.similarity.CosineVectorSimilarity;
+import org.lenskit.util.ProgressLogger;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class GramMatrixBuilderTest {
+    /**
+     * Build a random context, with some items rated by no-one in common.
+     */
+    private ItemItemBuildContext randomContext(Random rng, int nitems, int nusers) {
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(LongUtils.packedSet(makeIds(nitems, 100)));
+        Long2DoubleSortedMap[] vectors = new Long2DoubleSortedMap[nitems];
+        Long2ObjectMap<LongSortedSet> userItems = new Long2ObjectOpenHashMap<>();
+        for (int i = 0; i < nitems; i++) {
+            Long2DoubleMap vec = new Long2DoubleOpenHashMap();
+            for (int u = 0; u < nusers; u++) {
+                if (rng.nextDouble() < 0.3) {
+                    vec.put(1000 + u, rng.nextGaussian());
+                }
+            }
+            vectors[i] = LongUtils.frozenMap(vec);
+        }
+        return new ItemItemBuildContext(items, vectors, userItems);
+    }
+
+    private static long[] makeIds(int n, long base) {
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = base + 3 * i;
+        }
+        return ids;
+    }
+
+    @Test
+    public void testMatchesPairwiseCosine() {
+        Random rng = new Random(42);
+        ItemItemBuildContext context = randomContext(rng, 50, 40);
+        CosineVectorSimilarity cosine = new CosineVectorSimilarity(0.5);
+        int minCommon = 2;
+
+        GramMatrixBuilder builder = new GramMatrixBuilder(context);
+        Long2ObjectMap<Long2DoubleMap> rows =
+                builder.computeCosine(0.5, new AbsoluteThreshold(0), minCommon,
+                                      UnlimitedLong2DoubleAccumulator::new,
+                                      ProgressLogger.create(LoggerFactory.getLogger(getClass())));
+
+        for (long i: context.getItems()) {
+            Long2DoubleMap row = rows.get(i);
+            for (long j: context.getItems()) {
+                Long2DoubleSortedMap vi = context.itemVector(i);
+                Long2DoubleSortedMap vj = context.itemVector(j);
+                if (i == j || !LongUtils.hasNCommonItems(vi.keySet(), vj.keySet(), minCommon)) {
+                    assertThat(row == null || !row.containsKey(j), equalTo(true));
+                } else {
+                    double sim = cosine.similarity(vi, vj);
+                    if (sim != 0) {
+                        assertThat(row, notNullValue());
+                        assertThat(row.get(j), closeTo(sim, 1.0e-8));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.lenskit.transform.threshold.AbsoluteThreshold;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.knn.item.ItemSimilarity;
+import org.lenskit.knn.item.ItemVectorSimilarity;
+import org.lenskit.similarity.CosineVectorSimilarity;
+import org.lenskit.similarity.PearsonCorrelation;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ItemItemModelProviderTest {
+    private ItemItemBuildContext context;
+
+    @Before
+    public void createContext() {
+        Random rng = new Random(20);
+        int nitems = 40;
+        int nusers = 30;
+        long[] ids = new long[nitems];
+        for (int i = 0; i < nitems; i++) {
+            ids[i] = 10 + 2 * i;
+        }
+        SortedKeyIndex items = SortedKeyIndex.create(ids);
+        Long2DoubleSortedMap[] vectors = new Long2DoubleSortedMap[nitems];
+        Long2ObjectMap<LongSet> userItemSets = new Long2ObjectOpenHashMap<>();
+        for (int i = 0; i < nitems; i++) {
+            Long2DoubleMap vec = new Long2DoubleOpenHashMap();
+            for (int u = 0; u < nusers; u++) {
+                if (rng.nextDouble() < 0.4) {
+                    vec.put(500 + u, 1 + rng.nextInt(5));
+                    userItemSets.computeIfAbsent(500 + u, k -> new LongOpenHashSet()).add(ids[i]);
+                }
+            }
+            vectors[i] = LongUtils.frozenMap(vec);
+        }
+        Long2ObjectMap<LongSortedSet> userItems = new Long2ObjectOpenHashMap<>();
+        for (Long2ObjectMap.Entry<LongSet> e: userItemSets.long2ObjectEntrySet()) {
+            userItems.put(e.getLongKey(), LongUtils.packedSet(e.getValue()));
+        }
+        context = new ItemItemBuildContext(items, vectors, userItems);
+    }
+
+    private SimilarityMatrixModel build(ItemSimilarity sim, int size) {
+        ItemItemModelProvider provider =
+                new ItemItemModelProvider(sim, context, new AbsoluteThreshold(0),
+                                          new SparseNeighborIterationStrategy(), 2, size);
+        return provider.get();
+    }
+
+    @Test
+    public void testSymmetricTruncation() {
+        ItemSimilarity sim = new ItemVectorSimilarity(new PearsonCorrelation());
+        SimilarityMatrixModel model = build(sim, 3);
+        SimilarityMatrixModel full = build(sim, 0);
+
+        for (long item: model.getItemUniverse()) {
+            Long2DoubleMap nbrs = model.getNeighbors(item);
+            Long2DoubleMap all = full.getNeighbors(item);
+            assertThat(nbrs.size(), lessThanOrEqualTo(3));
+            assertThat(nbrs.size(), equalTo(Math.min(3, all.size())));
+            double min = Double.POSITIVE_INFINITY;
+            for (Long2DoubleMap.Entry e: nbrs.long2DoubleEntrySet()) {
+                assertThat(all.get(e.getLongKey()), closeTo(e.getDoubleValue(), 1.0e-10));
+                min = Math.min(min, e.getDoubleValue());
+            }
+            // nothing we dropped should beat what we kept
+            for (Long2DoubleMap.Entry e: all.long2DoubleEntrySet()) {
+                if (!nbrs.containsKey(e.getLongKey())) {
+                    assertThat(e.getDoubleValue(), lessThanOrEqualTo(min));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGramBuildMatchesPairwise() {
+        SimilarityMatrixModel gram = build(new ItemVectorSimilarity(new CosineVectorSimilarity()), 0);
+        // a subclass of cosine disables the Gram matrix build
+        SimilarityMatrixModel pairwise = build(new ItemVectorSimilarity(new CosineVectorSimilarity() {}), 0);
+
+        assertThat(gram.getItemUniverse(), equalTo(pairwise.getItemUniverse()));
+        for (long item: gram.getItemUniverse()) {
+            Long2DoubleMap gn = gram.getNeighbors(item);
+            Long2DoubleMap pn = pairwise.getNeighbors(item);
+            assertThat(gn.keySet(), equalTo(pn.keySet()));
+            for (Long2DoubleMap.Entry e: gn.long2DoubleEntrySet()) {
+                assertThat(e.getDoubleValue(), closeTo(pn.get(e.getLongKey()), 1.0e-8));
+            }
+        }
+    }
+
+    @Test
+    public void testOverridingSimilarityIsUsed() {
+        // subclasses of packed similarities must not be replaced by the parent's packed kernel
+        ItemSimilarity vsim = new ItemVectorSimilarity(new CosineVectorSimilarity() {
+            @Override
+            public double similarity(Long2DoubleMap vec1, Long2DoubleMap vec2) {
+                return 0.5;
+            }
+        });
+        // nor may subclasses of the item vector similarity wrapper
+        ItemSimilarity isim = new ItemVectorSimilarity(new CosineVectorSimilarity()) {
+            @Override
+            public double similarity(long i1, Long2DoubleMap v1, long i2, Long2DoubleMap v2) {
+                return 0.25;
+            }
+        };
+
+        for (ItemSimilarity sim: new ItemSimilarity[]{vsim, isim}) {
+            double expected = sim == vsim ? 0.5 : 0.25;
+            SimilarityMatrixModel model = build(sim, 0);
+            assertThat(model.getItemUniverse(), not(empty()));
+            for (long item: model.getItemUniverse()) {
+                for (double v: model.getNeighbors(item).values()) {
+                    assertThat(v, equalTo(expected));
+                }
+            }
+        }
+    }
+}
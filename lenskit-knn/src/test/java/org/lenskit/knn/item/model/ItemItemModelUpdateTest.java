@@ -0,0 +1,139 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.transform.threshold.AbsoluteThreshold;
+import org.junit.Test;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.knn.item.ItemSimilarity;
+import org.lenskit.knn.item.ItemVectorSimilarity;
+import org.lenskit.similarity.CosineVectorSimilarity;
+import org.lenskit.similarity.PearsonCorrelation;
+import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
+import org.lenskit.transform.normalize.MeanCenteringVectorNormalizer;
+import org.lenskit.transform.normalize.UserVectorNormalizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ItemItemModelUpdateTest {
+    private final UserVectorNormalizer normalizer =
+            new DefaultUserVectorNormalizer(new MeanCenteringVectorNormalizer());
+
+    private static RatingVectorPDAO makeDAO(List<Rating> ratings) {
+        return new StandardRatingVectorPDAO(StaticDataSource.fromList(ratings).get());
+    }
+
+    private static List<Rating> randomRatings(Random rng) {
+        List<Rating> ratings = new ArrayList<>();
+        for (long u = 1; u <= 40; u++) {
+            for (long i = 100; i < 160; i++) {
+                if (rng.nextDouble() < 0.25) {
+                    ratings.add(Rating.create(u, i, 1 + 4 * rng.nextDouble()));
+                }
+            }
+        }
+        return ratings;
+    }
+
+    private void checkUpdate(ItemSimilarity sim, int modelSize) {
+        Random rng = new Random(1234);
+        List<Rating> ratings = randomRatings(rng);
+        ItemItemBuildContext ctx1 = new ItemItemBuildContextProvider(makeDAO(ratings), normalizer, 2).get();
+        SimilarityMatrixModel model1 =
+                new ItemItemModelProvider(sim, ctx1, new AbsoluteThreshold(0),
+                                          new SparseNeighborIterationStrategy(), 2, modelSize).get();
+
+        // a few users rate more items, including brand-new items; a new user rates one item too few times to keep
+        List<Rating> updated = new ArrayList<>(ratings);
+        LongSet users = new LongOpenHashSet();
+        for (long u = 3; u <= 5; u++) {
+            users.add(u);
+            updated.add(Rating.create(u, 500, 1 + 4 * rng.nextDouble()));
+            updated.add(Rating.create(u, 160, 1 + 4 * rng.nextDouble()));
+            updated.add(Rating.create(u, 100 + rng.nextInt(60), 1 + 4 * rng.nextDouble()));
+        }
+        updated.add(Rating.create(41, 161, 3.5));
+        updated.add(Rating.create(41, 101, 2.5));
+        users.add(41);
+        RatingVectorPDAO dao2 = makeDAO(updated);
+
+        ItemItemBuildContext ctx2 = new ItemItemBuildContextProvider(dao2, normalizer, 2).update(ctx1, users);
+        ItemItemBuildContext full = new ItemItemBuildContextProvider(dao2, normalizer, 2).get();
+        assertThat(ctx2.getItems(), equalTo(full.getItems()));
+        assertThat(ctx2.getItems(), hasItems(160L, 500L));
+        assertThat(ctx2.getItems(), not(hasItem(161L)));
+        for (long item: full.getItems()) {
+            Long2DoubleMap v1 = ctx2.itemVector(item);
+            Long2DoubleMap v2 = full.itemVector(item);
+            assertThat(v1.keySet(), equalTo(v2.keySet()));
+            for (Long2DoubleMap.Entry e: v2.long2DoubleEntrySet()) {
+                assertThat(v1.get(e.getLongKey()), closeTo(e.getDoubleValue(), 1.0e-10));
+            }
+        }
+
+        SimilarityMatrixModel model2 =
+                new ItemItemModelProvider(sim, ctx2, new AbsoluteThreshold(0),
+                                          new SparseNeighborIterationStrategy(), 2, modelSize).update(model1, ctx1);
+        SimilarityMatrixModel rebuilt =
+                new ItemItemModelProvider(sim, full, new AbsoluteThreshold(0),
+                                          new SparseNeighborIterationStrategy(), 2, modelSize).get();
+
+        assertThat(model2.getItemUniverse(), equalTo(rebuilt.getItemUniverse()));
+        for (long item: rebuilt.getItemUniverse()) {
+            Long2DoubleMap n1 = model2.getNeighbors(item);
+            Long2DoubleMap n2 = rebuilt.getNeighbors(item);
+            assertThat("neighbors of " + item, n1.keySet(), equalTo(n2.keySet()));
+            for (Long2DoubleMap.Entry e: n2.long2DoubleEntrySet()) {
+                assertThat(n1.get(e.getLongKey()), closeTo(e.getDoubleValue(), 1.0e-8));
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateUntruncated() {
+        checkUpdate(new ItemVectorSimilarity(new CosineVectorSimilarity()), 0);
+    }
+
+    @Test
+    public void testUpdateTruncated() {
+        checkUpdate(new ItemVectorSimilarity(new CosineVectorSimilarity()), 5);
+    }
+
+    @Test
+    public void testUpdateTruncatedPearson() {
+        checkUpdate(new ItemVectorSimilarity(new PearsonCorrelation()), 5);
+    }
+}
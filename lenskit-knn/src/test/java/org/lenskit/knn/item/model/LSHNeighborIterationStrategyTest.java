@@ -0,0 +1,129 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.junit.Test;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class LSHNeighborIterationStrategyTest {
+    /**
+     * Build a random context in which items 100 and 101 have identical vectors, as do 200 and 201.
+     */
+    private ItemItemBuildContext randomContext(Random rng, int nusers) {
+        long[] ids = new long[40];
+        for (int i = 0; i < 38; i++) {
+            ids[i] = 1000 + i;
+        }
+        ids[38] = 100;
+        ids[39] = 101;
+        ids[0] = 200;
+        ids[1] = 201;
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(LongUtils.packedSet(ids));
+        Long2DoubleSortedMap[] vectors = new Long2DoubleSortedMap[items.size()];
+        for (int i = 0; i < vectors.length; i++) {
+            long item = items.getKey(items.getLowerBound() + i);
+            if (item == 101 || item == 201) {
+                vectors[i] = vectors[i - 1];
+                continue;
+            }
+            Long2DoubleMap vec = new Long2DoubleOpenHashMap();
+            for (int u = 0; u < nusers; u++) {
+                if (rng.nextDouble() < 0.3) {
+                    vec.put(u, rng.nextGaussian());
+                }
+            }
+            vectors[i] = LongUtils.frozenMap(vec);
+        }
+        return new ItemItemBuildContext(items, vectors, new Long2ObjectOpenHashMap<>());
+    }
+
+    private static LongList candidates(NeighborIterationStrategy strat, ItemItemBuildContext ctx,
+                                       long item, boolean onlyAfter) {
+        return new LongArrayList(strat.neighborIterator(ctx, item, onlyAfter));
+    }
+
+    private void checkStrategy(NeighborIterationStrategy strat, ItemItemBuildContext ctx) {
+        assertThat(candidates(strat, ctx, 100, false), hasItem(101L));
+        assertThat(candidates(strat, ctx, 101, false), hasItem(100L));
+        assertThat(candidates(strat, ctx, 100, true), hasItem(101L));
+        assertThat(candidates(strat, ctx, 101, true), not(hasItem(100L)));
+        assertThat(candidates(strat, ctx, 200, false), hasItem(201L));
+
+        for (long item: ctx.getItems()) {
+            LongList all = candidates(strat, ctx, item, false);
+            assertThat(all, not(hasItem(item)));
+            for (int i = 1; i < all.size(); i++) {
+                assertThat(all.getLong(i), greaterThan(all.getLong(i - 1)));
+            }
+            for (long c: candidates(strat, ctx, item, true)) {
+                assertThat(c, greaterThan(item));
+                assertThat(all, hasItem(c));
+            }
+        }
+    }
+
+    @Test
+    public void testMinHash() {
+        ItemItemBuildContext ctx = randomContext(new Random(42), 60);
+        checkStrategy(new MinHashNeighborIterationStrategy(8, 2, 42L), ctx);
+    }
+
+    @Test
+    public void testSimHash() {
+        ItemItemBuildContext ctx = randomContext(new Random(42), 60);
+        checkStrategy(new SimHashNeighborIterationStrategy(8, 4, 42L), ctx);
+    }
+
+    @Test
+    public void testMoreRowsFewerCandidates() {
+        ItemItemBuildContext ctx = randomContext(new Random(42), 60);
+        NeighborIterationStrategy loose = new SimHashNeighborIterationStrategy(4, 1, 7L);
+        NeighborIterationStrategy tight = new SimHashNeighborIterationStrategy(4, 16, 7L);
+        int nloose = 0, ntight = 0;
+        for (long item: ctx.getItems()) {
+            nloose += candidates(loose, ctx, item, true).size();
+            ntight += candidates(tight, ctx, item, true).size();
+        }
+        assertThat(ntight, lessThan(nloose));
+    }
+
+    @Test
+    public void testSameSeedSameCandidates() {
+        ItemItemBuildContext ctx = randomContext(new Random(42), 60);
+        NeighborIterationStrategy s1 = new MinHashNeighborIterationStrategy(8, 2, 99L);
+        NeighborIterationStrategy s2 = new MinHashNeighborIterationStrategy(8, 2, 99L);
+        for (long item: ctx.getItems()) {
+            assertThat(candidates(s1, ctx, item, false),
+                       equalTo(candidates(s2, ctx, item, false)));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MappedItemItemModelTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Long2DoubleMap row(long... entries) {
+        Long2DoubleMap map = new Long2DoubleOpenHashMap();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put(entries[i], entries[i+1] / 10.0);
+        }
+        return map;
+    }
+
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        Map<Long, Long2DoubleMap> rows = new HashMap<>();
+        rows.put(1L, row(2, 5, 3, 2));
+        rows.put(2L, row(1, 5));
+        rows.put(3L, row(1, 2, 42, 1));
+        rows.put(5L, row());
+        SimilarityMatrixModel model = new SimilarityMatrixModel(rows);
+
+        Path file = folder.getRoot().toPath().resolve("model.bin");
+        MappedItemItemModel.write(model, file);
+        MappedItemItemModel mapped = MappedItemItemModel.open(file);
+
+        assertThat(mapped.getItemUniverse(), equalTo(model.getItemUniverse()));
+        for (long item: model.getItemUniverse()) {
+            assertThat(mapped.getNeighbors(item), equalTo(model.getNeighbors(item)));
+        }
+        assertThat(mapped.getNeighbors(3).get(42L), closeTo(0.1, 1.0e-6));
+        assertThat(mapped.getNeighbors(7).size(), equalTo(0));
+    }
+
+    @Test
+    public void testEmptyModel() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("empty.bin");
+        MappedItemItemModel.write(new SimilarityMatrixModel(new HashMap<>()), file);
+        MappedItemItemModel mapped = MappedItemItemModel.open(file);
+        assertThat(mapped.getItemUniverse(), hasSize(0));
+        assertThat(mapped.getNeighbors(1).size(), equalTo(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectBadFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("bad.bin");
+        Files.write(file, new byte[64]);
+        MappedItemItemModel.open(file);
+    }
+}
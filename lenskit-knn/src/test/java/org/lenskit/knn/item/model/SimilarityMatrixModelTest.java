@@ -0,0 +1,140 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SimilarityMatrixModelTest {
+    private static Long2DoubleMap row(long... entries) {
+        Long2DoubleMap map = new Long2DoubleOpenHashMap();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put(entries[i], entries[i+1] / 10.0);
+        }
+        return map;
+    }
+
+    private SimilarityMatrixModel buildModel() {
+        Map<Long, Long2DoubleMap> rows = new HashMap<>();
+        rows.put(1L, row(2, 5, 3, 2));
+        rows.put(2L, row(1, 5));
+        rows.put(3L, row(1, 2, 7, 1));
+        rows.put(5L, row());
+        return new SimilarityMatrixModel(rows);
+    }
+
+    @Test
+    public void testEmptyModel() {
+        SimilarityMatrixModel model = new SimilarityMatrixModel(new HashMap<>());
+        assertThat(model.getItemUniverse(), hasSize(0));
+        assertThat(model.getNeighbors(42).size(), equalTo(0));
+        assertThat(model.getSimilarityCount(), equalTo(0));
+    }
+
+    @Test
+    public void testNeighbors() {
+        SimilarityMatrixModel model = buildModel();
+        assertThat(model.getItemUniverse(), contains(1L, 2L, 3L, 5L));
+        assertThat(model.getSimilarityCount(), equalTo(5));
+
+        Long2DoubleMap n1 = model.getNeighbors(1);
+        assertThat(n1.keySet(), contains(2L, 3L));
+        assertThat(n1.get(2L), closeTo(0.5, 1.0e-6));
+        assertThat(n1.get(3L), closeTo(0.2, 1.0e-6));
+        assertThat(n1.containsKey(1L), equalTo(false));
+        assertThat(model.getNeighbors(2).keySet(), contains(1L));
+        assertThat(model.getNeighbors(5).size(), equalTo(0));
+        assertThat(model.getNeighbors(4).size(), equalTo(0));
+    }
+
+    @Test
+    public void testNeighborsOutsideUniverse() {
+        SimilarityMatrixModel model = buildModel();
+        Long2DoubleMap n3 = model.getNeighbors(3);
+        assertThat(n3.keySet(), contains(1L, 7L));
+        assertThat(n3.get(7L), closeTo(0.1, 1.0e-6));
+        assertThat(n3.containsKey(5L), equalTo(false));
+        assertThat(model.getItemUniverse(), not(hasItem(7L)));
+    }
+
+    @Test
+    public void testSerialize() {
+        SimilarityMatrixModel model = buildModel();
+        SimilarityMatrixModel copy = SerializationUtils.clone(model);
+        assertThat(copy.getItemUniverse(), equalTo(model.getItemUniverse()));
+        for (long item: model.getItemUniverse()) {
+            assertThat(copy.getNeighbors(item), equalTo(model.getNeighbors(item)));
+        }
+    }
+
+    @Test
+    public void testDeserializeLegacyForm() throws IOException, ClassNotFoundException {
+        SimilarityMatrixModel model = buildModel();
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(model.getItemUniverse());
+        List<Long2DoubleMap> nbrs = new ArrayList<>();
+        for (long item: items.keySet()) {
+            nbrs.add(new Long2DoubleOpenHashMap(model.getNeighbors(item)));
+        }
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+            out.writeObject(new org.lenskit.knn.item.model.legacy.SimilarityMatrixModel(items, nbrs));
+        }
+        Object obj;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray())) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                // read the stand-in's stream as if it had been written by the old model class
+                if (desc.getName().equals(org.lenskit.knn.item.model.legacy.SimilarityMatrixModel.class.getName())) {
+                    return SimilarityMatrixModel.class;
+                } else {
+                    return super.resolveClass(desc);
+                }
+            }
+        }) {
+            obj = in.readObject();
+        }
+
+        assertThat(obj, instanceOf(SimilarityMatrixModel.class));
+        SimilarityMatrixModel copy = (SimilarityMatrixModel) obj;
+        assertThat(copy.getItemUniverse(), equalTo(model.getItemUniverse()));
+        assertThat(copy.getSimilarityCount(), equalTo(model.getSimilarityCount()));
+        for (long item: model.getItemUniverse()) {
+            assertThat(copy.getNeighbors(item), equalTo(model.getNeighbors(item)));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model.legacy;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Stand-in with the serialized form of the item-item similarity matrix model before it was compressed,
+ * for testing that old model files can still be read.
+ */
+public class SimilarityMatrixModel implements Serializable {
+    private static final long serialVersionUID = 3L;
+
+    private final SortedKeyIndex itemDomain;
+    private final ImmutableList<Long2DoubleMap> neighborhoods;
+
+    public SimilarityMatrixModel(SortedKeyIndex items, List<Long2DoubleMap> nbrs) {
+        itemDomain = items;
+        ImmutableList.Builder<Long2DoubleMap> neighbors = ImmutableList.builder();
+        for (Long2DoubleMap nbr: nbrs) {
+            neighbors.add(LongUtils.frozenMap(nbr));
+        }
+        neighborhoods = neighbors.build();
+    }
+}
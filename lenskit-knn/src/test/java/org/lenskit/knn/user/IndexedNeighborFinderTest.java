@@ -0,0 +1,130 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.user;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.knn.NeighborhoodSize;
+import org.lenskit.similarity.PearsonCorrelation;
+import org.lenskit.similarity.VectorSimilarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class IndexedNeighborFinderTest {
+    private DataAccessObject dao;
+    private LenskitRecommender live;
+    private LenskitRecommender indexed;
+
+    @Before
+    public void setup() throws RecommenderBuildException {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (long u = 1; u <= 30; u++) {
+            for (long i = 100; i < 120; i++) {
+                if (rng.nextDouble() < 0.4) {
+                    rs.add(Rating.create(u, i, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+        dao = StaticDataSource.fromList(rs).get();
+
+        live = LenskitRecommender.build(config(LiveNeighborFinder.class), dao);
+        indexed = LenskitRecommender.build(config(IndexedNeighborFinder.class), dao);
+    }
+
+    private LenskitConfiguration config(Class<? extends NeighborFinder> finder) {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(UserUserItemScorer.class);
+        config.bind(NeighborFinder.class).to(finder);
+        config.within(UserSimilarity.class)
+              .bind(VectorSimilarity.class)
+              .to(PearsonCorrelation.class);
+        config.set(UserNeighborIndexSize.class).to(100);
+        // use every neighbor so tie-breaking cannot change the neighborhoods
+        config.set(NeighborhoodSize.class).to(100);
+        return config;
+    }
+
+    @After
+    public void teardown() {
+        live.close();
+        indexed.close();
+    }
+
+    @Test
+    public void testIndexHasNeighbors() {
+        UserNeighborIndex index = indexed.get(UserNeighborIndex.class);
+        assertThat(index, notNullValue());
+        assertThat(index.containsUser(1), equalTo(true));
+        assertThat(index.containsUser(1000), equalTo(false));
+        assertThat(index.getNeighborCount(1000), equalTo(0));
+        int n = index.getNeighborCount(1);
+        assertThat(n, greaterThan(0));
+        for (int i = 1; i < n; i++) {
+            assertThat(index.getSimilarity(1, i), lessThanOrEqualTo(index.getSimilarity(1, i - 1)));
+            assertThat(index.getNeighbor(1, i), not(equalTo(1L)));
+        }
+    }
+
+    @Test
+    public void testMatchesLiveScores() {
+        ItemScorer liveScorer = live.getItemScorer();
+        ItemScorer indexedScorer = indexed.getItemScorer();
+        List<Long> items = new ArrayList<>();
+        for (long i = 100; i < 120; i++) {
+            items.add(i);
+        }
+        for (long u = 1; u <= 30; u++) {
+            ResultMap expected = liveScorer.scoreWithDetails(u, items);
+            ResultMap actual = indexedScorer.scoreWithDetails(u, items);
+            assertThat(actual.keySet(), equalTo(expected.keySet()));
+            for (long i: expected.keySet()) {
+                assertThat(actual.getScore(i), closeTo(expected.getScore(i), 1.0e-6));
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownUserFallsBack() {
+        ItemScorer scorer = indexed.getItemScorer();
+        ResultMap results = scorer.scoreWithDetails(1000, Arrays.asList(100L, 101L));
+        assertThat(results.size(), equalTo(0));
+    }
+}
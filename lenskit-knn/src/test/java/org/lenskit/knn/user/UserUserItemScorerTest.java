@@ -0,0 +1,126 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.user;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.transform.normalize.UserVectorNormalizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Check that the single-pass aggregated scoring path matches scoring from per-item neighborhoods.
+ */
+public class UserUserItemScorerTest {
+    private LenskitRecommender rec;
+
+    @Before
+    public void setup() throws RecommenderBuildException {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (long u = 1; u <= 40; u++) {
+            for (long i = 100; i < 130; i++) {
+                if (rng.nextDouble() < 0.35) {
+                    rs.add(Rating.create(u, i, 0.5 * (1 + rng.nextInt(10))));
+                }
+            }
+        }
+        DataAccessObject dao = StaticDataSource.fromList(rs).get();
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(UserUserItemScorer.class);
+        rec = LenskitRecommender.build(config, dao);
+    }
+
+    @After
+    public void teardown() {
+        rec.close();
+    }
+
+    private UserUserItemScorer makeScorer(UserNeighborhoodScorer nscorer, int nnbrs) {
+        return new UserUserItemScorer(rec.get(RatingVectorPDAO.class),
+                                      rec.get(NeighborFinder.class),
+                                      rec.get(UserVectorNormalizer.class),
+                                      nscorer, nnbrs);
+    }
+
+    private void checkPathsAgree(AggregatingUserNeighborhoodScorer nscorer, int nnbrs) {
+        UserUserItemScorer aggregated = makeScorer(nscorer, nnbrs);
+        // a lambda hides the aggregating interface, forcing per-item neighborhoods
+        UserUserItemScorer listed = makeScorer(nscorer::score, nnbrs);
+        List<Long> items = new ArrayList<>();
+        for (long i = 100; i < 130; i++) {
+            items.add(i);
+        }
+
+        for (long u = 1; u <= 40; u++) {
+            ResultMap expected = listed.scoreWithDetails(u, items);
+            ResultMap actual = aggregated.scoreWithDetails(u, items);
+            assertThat(actual.keySet(), equalTo(expected.keySet()));
+            for (Result r: expected) {
+                UserUserResult er = (UserUserResult) r;
+                UserUserResult ar = (UserUserResult) actual.get(r.getId());
+                assertThat(ar.getScore(), closeTo(er.getScore(), 1.0e-6));
+                assertThat(ar.getNeighborhoodSize(), equalTo(er.getNeighborhoodSize()));
+                assertThat(ar.getTotalNeighborWeight(), closeTo(er.getTotalNeighborWeight(), 1.0e-6));
+            }
+        }
+    }
+
+    @Test
+    public void testWeightedAverageSmallNeighborhoods() {
+        checkPathsAgree(new WeightedAverageUserNeighborhoodScorer(1), 3);
+    }
+
+    @Test
+    public void testWeightedAverageMinNeighbors() {
+        checkPathsAgree(new WeightedAverageUserNeighborhoodScorer(3), 10);
+    }
+
+    @Test
+    public void testWeightedAverageUnlimited() {
+        checkPathsAgree(new WeightedAverageUserNeighborhoodScorer(1), -1);
+    }
+
+    @Test
+    public void testSimilaritySum() {
+        checkPathsAgree(new SimilaritySumUserNeighborhoodScorer(1), 5);
+    }
+}
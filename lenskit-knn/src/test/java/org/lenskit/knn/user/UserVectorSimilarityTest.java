@@ -0,0 +1,66 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.user;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.junit.Test;
+import org.lenskit.similarity.CosineVectorSimilarity;
+import org.lenskit.similarity.PearsonCorrelation;
+import org.lenskit.similarity.PackedVectorSimilarity;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class UserVectorSimilarityTest {
+    @Test
+    public void testPackedDelegate() {
+        PearsonCorrelation pc = new PearsonCorrelation();
+        PackedVectorSimilarity packed = UserVectorSimilarity.packedDelegate(new UserVectorSimilarity(pc));
+        assertThat(packed, sameInstance((PackedVectorSimilarity) pc));
+    }
+
+    @Test
+    public void testNoPackedDelegateForOverridingSimilarity() {
+        CosineVectorSimilarity cos = new CosineVectorSimilarity() {
+            @Override
+            public double similarity(Long2DoubleMap vec1, Long2DoubleMap vec2) {
+                return 0.5;
+            }
+        };
+        assertThat(UserVectorSimilarity.packedDelegate(new UserVectorSimilarity(cos)),
+                   nullValue());
+    }
+
+    @Test
+    public void testNoPackedDelegateForOverridingWrapper() {
+        UserSimilarity sim = new UserVectorSimilarity(new CosineVectorSimilarity()) {
+            @Override
+            public double similarity(long u1, Long2DoubleMap v1, long u2, Long2DoubleMap v2) {
+                return 0.5;
+            }
+        };
+        assertThat(UserVectorSimilarity.packedDelegate(sim), nullValue());
+    }
+}
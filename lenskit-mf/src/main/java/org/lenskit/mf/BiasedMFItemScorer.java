@@ -25,16 +25,19 @@
 package org.lenskit.mf;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.ScoreConsumer;
+import org.lenskit.basic.StreamingItemScorer;
 import org.lenskit.bias.BiasModel;
 import org.lenskit.results.Results;
-import org.lenskit.util.collections.LongUtils;
-import org.lenskit.util.math.Vectors;
+import org.lenskit.util.keys.KeyIndex;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -42,6 +45,7 @@ import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Item scorer using biased matrix factorization.  This implements SVD-style item scorers.
@@ -49,9 +53,18 @@ import java.util.List;
  * @since 2.1
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
-public class BiasedMFItemScorer extends AbstractItemScorer {
+public class BiasedMFItemScorer extends AbstractItemScorer implements StreamingItemScorer {
     private final MFModel model;
     private final BiasModel biasModel;
+    /**
+     * Whether a subclass overrides the deprecated vector scoring hook.
+     */
+    private final boolean vectorHookOverridden;
+    /**
+     * Row-major item data for a subclass that overrides the deprecated array scoring hook, or {@code null}.
+     */
+    @Nullable
+    private final double[] legacyItemData;
 
     /**
      * Create a new biased MF item scorer.
@@ -62,6 +75,29 @@ public class BiasedMFItemScorer extends AbstractItemScorer {
     public BiasedMFItemScorer(MFModel mod, BiasModel bias) {
         model = mod;
         biasModel = bias;
+        vectorHookOverridden = overridesScoreHook(double.class, RealVector.class, RealVector.class);
+        if (overridesScoreHook(double.class, double[].class, double[].class, int.class)) {
+            legacyItemData = mod.getItemData();
+        } else {
+            legacyItemData = null;
+        }
+    }
+
+    /**
+     * Check whether a subclass overrides a variant of {@code computeScore}.
+     * @param params The parameter types of the variant.
+     * @return {@code true} if a class below this one declares the method.
+     */
+    private boolean overridesScoreHook(Class<?>... params) {
+        for (Class<?> cls = getClass(); !cls.equals(BiasedMFItemScorer.class); cls = cls.getSuperclass()) {
+            try {
+                cls.getDeclaredMethod("computeScore", params);
+                return true;
+            } catch (NoSuchMethodException e) {
+                /* not declared here, keep looking */
+            }
+        }
+        return false;
     }
 
     /**
@@ -85,37 +121,99 @@ public class BiasedMFItemScorer extends AbstractItemScorer {
      * @param item The item-factor vector.
      * @return The kernel function value (combined score).
      * @throws IllegalArgumentException if the user and item vectors have different lengths.
+     * @deprecated Override {@link #computeScore(double, double[], FactorMatrix, int)} instead.  Overrides of
+     * this method are still used for scoring.
      */
+    @Deprecated
     protected double computeScore(double bias, @Nonnull RealVector user, @Nonnull RealVector item) {
         return bias + user.dotProduct(item);
     }
 
+    /**
+     * Compute the score for a user and item from their feature rows.
+     *
+     * @param bias The combined user-item bias term (the baseline score, usually).
+     * @param user The user-factor vector.
+     * @param itemData The model's row-major item data.
+     * @param offset The offset of the item's row in {@code itemData}.
+     * @return The kernel function value (combined score).
+     * @deprecated Override {@link #computeScore(double, double[], FactorMatrix, int)}, which also works with
+     * compacted factors, instead.  Overrides of this method are still used for scoring, against a full-precision
+     * copy of the item factors.
+     */
+    @Deprecated
+    protected double computeScore(double bias, @Nonnull double[] user, @Nonnull double[] itemData, int offset) {
+        double score = bias;
+        for (int f = 0; f < user.length; f++) {
+            score += user[f] * itemData[offset + f];
+        }
+        return score;
+    }
+
+    /**
+     * Compute the score for a user and item from the user's features and the item's row.  If a subclass
+     * overrides one of the deprecated {@code computeScore} variants, the default implementation calls it
+     * so that existing kernels keep working.
+     *
+     * @param bias The combined user-item bias term (the baseline score, usually).
+     * @param user The user-factor vector.
+     * @param items The model's item factors.
+     * @param row The item's row in {@code items}.
+     * @return The kernel function value (combined score).
+     */
+    @SuppressWarnings("deprecation")
+    protected double computeScore(double bias, @Nonnull double[] user, @Nonnull FactorMatrix items, int row) {
+        if (legacyItemData != null) {
+            return computeScore(bias, user, legacyItemData, row * items.getColumnCount());
+        } else if (vectorHookOverridden) {
+            double[] irow = new double[items.getColumnCount()];
+            items.getRow(row, irow);
+            return computeScore(bias, new ArrayRealVector(user, false), new ArrayRealVector(irow, false));
+        } else {
+            return bias + items.dot(row, user);
+        }
+    }
+
     public MFModel getModel() {
         return model;
     }
 
+    @Nonnull
+    @Override
+    public Map<Long, Double> score(long user, @Nonnull Collection<Long> items) {
+        Long2DoubleMap results = new Long2DoubleOpenHashMap(items.size());
+        score(user, items, results::put);
+        return results;
+    }
+
     @Nonnull
     @Override
     public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
-        Long2DoubleMap baselines = biasModel.getItemBiases(LongUtils.packedSet(items));
-        baselines = Vectors.addScalar(baselines, biasModel.getIntercept() + biasModel.getUserBias(user));
+        List<Result> results = new ArrayList<>(items.size());
+        score(user, items, (item, score) -> results.add(Results.create(item, score)));
+        return Results.newResultMap(results);
+    }
 
+    @Override
+    public void score(long user, @Nonnull Collection<Long> items, @Nonnull ScoreConsumer consumer) {
         RealVector uvec = getUserPreferenceVector(user);
         if (uvec == null) {
-            return Results.newResultMap();
+            return;
         }
 
-        List<Result> results = new ArrayList<>(items.size());
+        double[] udata = uvec.toArray();
+        double base = biasModel.getIntercept() + biasModel.getUserBias(user);
+        FactorMatrix ifac = model.getItemFactors();
+        KeyIndex itemIndex = model.getItemIndex();
+
         LongIterator iter = LongIterators.asLongIterator(items.iterator());
         while (iter.hasNext()) {
             long item = iter.nextLong();
-            RealVector ivec = model.getItemVector(item);
-            if (ivec != null) {
-                double score = computeScore(baselines.get(item), uvec, ivec);
-                results.add(Results.create(item, score));
+            int iidx = itemIndex.tryGetIndex(item);
+            if (iidx >= 0) {
+                double bias = base + biasModel.getItemBias(item);
+                consumer.accept(item, computeScore(bias, udata, ifac, iidx));
             }
         }
-
-        return Results.newResultMap(results);
     }
 }
@@ -0,0 +1,322 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf;
+
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.inject.Shareable;
+import org.lenskit.inject.Transient;
+import org.lenskit.util.collections.ScoredIdHeap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Approximate inner-product search using an inverted-file (IVF) index.
+ *
+ * <p>Item vectors are reduced from inner-product to Euclidean search by scaling them into the unit
+ * ball and appending the coordinate that brings each to unit norm; k-means clusters the
+ * transformed vectors.  A query probes the {@link SearchProbeCount} clusters whose centroids are
+ * closest to the normalized query and scores only their members, which are listed contiguously in
+ * cluster order.  If the probed clusters hold fewer than the requested number of items, further
+ * clusters are probed in order of distance.  Like {@link ExactInnerProductSearch}, the index scores
+ * members against the model's own item factors and keeps only the item biases beside them.
+ *
+ * @since 3.0
+ */
+@Shareable
+@DefaultProvider(ClusteredInnerProductSearch.Builder.class)
+public class ClusteredInnerProductSearch implements InnerProductSearch, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int dimension;
+    private final int clusterCount;
+    private final int probeCount;
+    /* centroids of the transformed vectors, dimension + 1 wide */
+    private final double[] centroids;
+    private final double[] centroidNorms;
+    /* cluster c holds members[offsets[c]] through members[offsets[c+1] - 1] */
+    private final int[] offsets;
+    private final int[] members;
+    /* the model's item factors, shared rather than copied */
+    private final FactorMatrix items;
+    /* item biases (the augmented coordinate) in member order */
+    private final double[] memberBiases;
+
+    ClusteredInnerProductSearch(int dim, int nprobe, double[] cents, int[] offs, int[] mems,
+                                FactorMatrix items, double[] biases) {
+        dimension = dim;
+        clusterCount = offs.length - 1;
+        probeCount = nprobe;
+        centroids = cents;
+        offsets = offs;
+        members = mems;
+        this.items = items;
+        memberBiases = biases;
+        int width = dim + 1;
+        centroidNorms = new double[clusterCount];
+        for (int c = 0; c < clusterCount; c++) {
+            double ss = 0;
+            for (int f = 0; f < width; f++) {
+                double x = cents[c * width + f];
+                ss += x * x;
+            }
+            centroidNorms[c] = ss;
+        }
+    }
+
+    @Override
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Get the number of clusters in this index.
+     * @return The cluster count.
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    @Override
+    public int[] search(double[] query, int n) {
+        int width = dimension + 1;
+        double qn = 0;
+        for (int f = 0; f < dimension; f++) {
+            qn += query[f] * query[f];
+        }
+        qn = qn > 0 ? Math.sqrt(qn) : 1;
+
+        // rank clusters by -||q - c||^2 for the unit query (q, 0), dropping the constant ||q||^2
+        double[] closeness = new double[clusterCount];
+        for (int c = 0; c < clusterCount; c++) {
+            int off = c * width;
+            double dot = 0;
+            for (int f = 0; f < dimension; f++) {
+                dot += query[f] * centroids[off + f];
+            }
+            closeness[c] = 2 * dot / qn - centroidNorms[c];
+        }
+
+        int[] probes = rankClusters(closeness, Math.min(probeCount, clusterCount));
+        int reached = 0;
+        for (int c: probes) {
+            reached += offsets[c + 1] - offsets[c];
+        }
+        if (reached < n && probes.length < clusterCount) {
+            probes = rankClusters(closeness, clusterCount);
+        }
+
+        ScoredIdHeap<Void> heap = new ScoredIdHeap<>(Math.min(n, members.length));
+        double ib = query[dimension - 1];
+        reached = 0;
+        for (int p = 0; p < probes.length; p++) {
+            if (p >= probeCount && reached >= n) {
+                break;
+            }
+            int c = probes[p];
+            double min = heap.threshold();
+            for (int m = offsets[c]; m < offsets[c + 1]; m++) {
+                double s = items.dot(members[m], query) + ib * memberBiases[m];
+                if (s > min) {
+                    heap.offer(m, s);
+                    min = heap.threshold();
+                }
+            }
+            reached += offsets[c + 1] - offsets[c];
+        }
+
+        int[] hits = ExactInnerProductSearch.finishIndexes(heap);
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = members[hits[i]];
+        }
+        return hits;
+    }
+
+    private static int[] rankClusters(double[] closeness, int n) {
+        ScoredIdHeap<Void> heap = new ScoredIdHeap<>(n);
+        for (int c = 0; c < closeness.length; c++) {
+            heap.offer(c, closeness[c]);
+        }
+        return ExactInnerProductSearch.finishIndexes(heap);
+    }
+
+    /**
+     * Build a clustered inner-product index with k-means.
+     */
+    public static class Builder implements Provider<ClusteredInnerProductSearch> {
+        private static final Logger logger = LoggerFactory.getLogger(Builder.class);
+        static final int MAX_ITERATIONS = 10;
+
+        private final MFModel model;
+        private final BiasModel biasModel;
+        private final int clusterCount;
+        private final int probeCount;
+        private final Random random;
+
+        @Inject
+        public Builder(@Transient MFModel model, @Transient BiasModel bias,
+                       @SearchClusterCount int nclusters, @SearchProbeCount int nprobe,
+                       Random rng) {
+            this.model = model;
+            biasModel = bias;
+            clusterCount = nclusters;
+            probeCount = nprobe;
+            random = rng;
+        }
+
+        @Override
+        public ClusteredInnerProductSearch get() {
+            int dim = model.getFeatureCount() + 1;
+            int width = dim + 1;
+            int nitems = model.getItemCount();
+            if (nitems == 0) {
+                logger.info("model has no items, building empty index");
+                return new ClusteredInnerProductSearch(dim, probeCount, new double[0], new int[1], new int[0],
+                                                       model.getItemFactors(), new double[0]);
+            }
+            double[] items = ExactInnerProductSearch.augmentedItems(model, biasModel);
+            int nc = clusterCount > 0 ? clusterCount : (int) Math.ceil(Math.sqrt(nitems));
+            nc = Math.min(Math.max(1, nc), nitems);
+            logger.info("clustering {} items into {} clusters", nitems, nc);
+
+            // transform into unit vectors of width dim + 1
+            double maxNorm = 0;
+            for (int i = 0; i < nitems; i++) {
+                maxNorm = Math.max(maxNorm, squaredNorm(items, i * dim, dim));
+            }
+            maxNorm = maxNorm > 0 ? Math.sqrt(maxNorm) : 1;
+            double[] points = new double[nitems * width];
+            for (int i = 0; i < nitems; i++) {
+                double ss = 0;
+                for (int f = 0; f < dim; f++) {
+                    double x = items[i * dim + f] / maxNorm;
+                    points[i * width + f] = x;
+                    ss += x * x;
+                }
+                points[i * width + dim] = Math.sqrt(Math.max(0, 1 - ss));
+            }
+
+            double[] centroids = new double[nc * width];
+            int[] order = new int[nitems];
+            for (int i = 0; i < nitems; i++) {
+                order[i] = i;
+            }
+            for (int c = 0; c < nc; c++) {
+                int j = c + random.nextInt(nitems - c);
+                int tmp = order[c];
+                order[c] = order[j];
+                order[j] = tmp;
+                System.arraycopy(points, order[c] * width, centroids, c * width, width);
+            }
+
+            int[] assign = new int[nitems];
+            int[] counts = new int[nc];
+            final int k = nc;
+            for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
+                int changed = IntStream.range(0, nitems).parallel().map(i -> {
+                    int best = nearest(points, i * width, centroids, k, width);
+                    int moved = best != assign[i] ? 1 : 0;
+                    assign[i] = best;
+                    return moved;
+                }).sum();
+                logger.debug("k-means iteration {}: {} items moved", iter + 1, changed);
+                if (iter > 0 && changed == 0) {
+                    break;
+                }
+
+                double[] sums = new double[nc * width];
+                Arrays.fill(counts, 0);
+                for (int i = 0; i < nitems; i++) {
+                    int c = assign[i];
+                    counts[c] += 1;
+                    for (int f = 0; f < width; f++) {
+                        sums[c * width + f] += points[i * width + f];
+                    }
+                }
+                for (int c = 0; c < nc; c++) {
+                    if (counts[c] > 0) {
+                        for (int f = 0; f < width; f++) {
+                            centroids[c * width + f] = sums[c * width + f] / counts[c];
+                        }
+                    }
+                }
+            }
+
+            // lay out members contiguously by cluster
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < nitems; i++) {
+                counts[assign[i]] += 1;
+            }
+            int[] offsets = new int[nc + 1];
+            for (int c = 0; c < nc; c++) {
+                offsets[c + 1] = offsets[c] + counts[c];
+            }
+            int[] fill = Arrays.copyOf(offsets, nc);
+            int[] members = new int[nitems];
+            double[] biases = new double[nitems];
+            for (int i = 0; i < nitems; i++) {
+                int m = fill[assign[i]]++;
+                members[m] = i;
+                biases[m] = items[i * dim + dim - 1];
+            }
+
+            return new ClusteredInnerProductSearch(dim, probeCount, centroids, offsets, members,
+                                                   model.getItemFactors(), biases);
+        }
+
+        private static double squaredNorm(double[] data, int off, int len) {
+            double ss = 0;
+            for (int f = 0; f < len; f++) {
+                ss += data[off + f] * data[off + f];
+            }
+            return ss;
+        }
+
+        private static int nearest(double[] points, int off, double[] centroids, int nc, int width) {
+            int best = 0;
+            double bestDist = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < nc; c++) {
+                int coff = c * width;
+                double d = 0;
+                for (int f = 0; f < width && d < bestDist; f++) {
+                    double x = points[off + f] - centroids[coff + f];
+                    d += x * x;
+                }
+                if (d < bestDist) {
+                    bestDist = d;
+                    best = c;
+                }
+            }
+            return best;
+        }
+    }
+}
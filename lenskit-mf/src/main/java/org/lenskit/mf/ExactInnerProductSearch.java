@@ -0,0 +1,164 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf;
+
+import org.lenskit.bias.BiasModel;
+import org.lenskit.inject.Shareable;
+import org.lenskit.util.collections.ScoredIdHeap;
+import org.lenskit.util.keys.KeyIndex;
+
+import javax.inject.Inject;
+import java.io.Serializable;
+
+/**
+ * Exact inner-product search that scans the model's item factors in cache-sized tiles, feeding
+ * each tile's scores into a primitive top-N heap.  The factors are shared with the model rather
+ * than copied, so the search works at whatever precision the model is stored in.
+ *
+ * @since 3.0
+ */
+@Shareable
+public class ExactInnerProductSearch implements InnerProductSearch, Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int TILE_SIZE = 512;
+
+    private final int dimension;
+    private final int itemCount;
+    private final FactorMatrix items;
+    private final double[] itemBiases;
+
+    /**
+     * Construct a new exact search.
+     * @param model The MF model.
+     * @param bias The bias model supplying item biases.
+     */
+    @Inject
+    public ExactInnerProductSearch(MFModel model, BiasModel bias) {
+        dimension = model.getFeatureCount() + 1;
+        itemCount = model.getItemCount();
+        items = model.getItemFactors();
+        KeyIndex index = model.getItemIndex();
+        itemBiases = new double[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            itemBiases[i] = bias.getItemBias(index.getKey(i));
+        }
+    }
+
+    /**
+     * Pack a model's item vectors, each followed by the item's bias, into a row-major array.
+     */
+    static double[] augmentedItems(MFModel model, BiasModel bias) {
+        KeyIndex index = model.getItemIndex();
+        int nf = model.getFeatureCount();
+        int dim = nf + 1;
+        double[] data = new double[model.getItemCount() * dim];
+        double[] row = new double[nf];
+        for (int i = 0; i < model.getItemCount(); i++) {
+            model.getItemRow(i, row);
+            System.arraycopy(row, 0, data, i * dim, nf);
+            data[i * dim + nf] = bias.getItemBias(index.getKey(i));
+        }
+        return data;
+    }
+
+    /**
+     * Drain a heap of model indexes into an array in decreasing order of score.
+     */
+    static int[] finishIndexes(ScoredIdHeap<?> heap) {
+        heap.sortDescending();
+        int[] result = new int[heap.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (int) heap.getId(i);
+        }
+        heap.clear();
+        return result;
+    }
+
+    @Override
+    public int getDimension() {
+        return dimension;
+    }
+
+    @Override
+    public int[] search(double[] query, int n) {
+        ScoredIdHeap<Void> heap = new ScoredIdHeap<>(Math.min(n, itemCount));
+        double[] tile = new double[TILE_SIZE];
+        for (int start = 0; start < itemCount; start += TILE_SIZE) {
+            int len = Math.min(TILE_SIZE, itemCount - start);
+            double ib = query[dimension - 1];
+            for (int j = 0; j < len; j++) {
+                tile[j] = items.dot(start + j, query) + ib * itemBiases[start + j];
+            }
+            double min = heap.threshold();
+            for (int j = 0; j < len; j++) {
+                if (tile[j] > min) {
+                    heap.offer(start + j, tile[j]);
+                    min = heap.threshold();
+                }
+            }
+        }
+        return finishIndexes(heap);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation makes one pass over the item factors, scoring each tile against every
+     * query while the tile is still in cache.
+     */
+    @Override
+    public int[][] search(double[][] queries, int[] counts) {
+        @SuppressWarnings("unchecked")
+        ScoredIdHeap<Void>[] heaps = new ScoredIdHeap[queries.length];
+        for (int q = 0; q < queries.length; q++) {
+            heaps[q] = new ScoredIdHeap<>(Math.min(counts[q], itemCount));
+        }
+        double[] tile = new double[TILE_SIZE];
+        for (int start = 0; start < itemCount; start += TILE_SIZE) {
+            int len = Math.min(TILE_SIZE, itemCount - start);
+            for (int q = 0; q < queries.length; q++) {
+                double[] query = queries[q];
+                ScoredIdHeap<Void> heap = heaps[q];
+                double ib = query[dimension - 1];
+                for (int j = 0; j < len; j++) {
+                    tile[j] = items.dot(start + j, query) + ib * itemBiases[start + j];
+                }
+                double min = heap.threshold();
+                for (int j = 0; j < len; j++) {
+                    if (tile[j] > min) {
+                        heap.offer(start + j, tile[j]);
+                        min = heap.threshold();
+                    }
+                }
+            }
+        }
+
+        int[][] results = new int[queries.length][];
+        for (int q = 0; q < queries.length; q++) {
+            results[q] = finishIndexes(heaps[q]);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.io.Serializable;
+
+/**
+ * Dense row-major matrix of latent factors, stored in double, single, or quantized 8-bit
+ * precision.  Rows are read through allocation-free accessors that always compute in double
+ * precision.
+ *
+ * @since 3.0
+ */
+public abstract class FactorMatrix implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final int rows;
+    final int columns;
+
+    private FactorMatrix(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * Wrap a row-major array as a double-precision factor matrix.  The array is not copied.
+     *
+     * @param data The data.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @return The factor matrix.
+     */
+    public static FactorMatrix wrap(double[] data, int rows, int columns) {
+        Preconditions.checkArgument(data.length == rows * columns,
+                                    "data has %s entries, expected %s", data.length, rows * columns);
+        return new DoubleFactors(data, rows, columns);
+    }
+
+    /**
+     * Copy a real matrix into a double-precision factor matrix.
+     * @param mat The matrix.
+     * @return The factor matrix.
+     */
+    public static FactorMatrix copyOf(RealMatrix mat) {
+        int nr = mat.getRowDimension();
+        int nc = mat.getColumnDimension();
+        double[] result = new double[nr * nc];
+        if (mat instanceof Array2DRowRealMatrix) {
+            double[][] data = ((Array2DRowRealMatrix) mat).getDataRef();
+            for (int i = 0; i < nr; i++) {
+                System.arraycopy(data[i], 0, result, i * nc, nc);
+            }
+        } else {
+            for (int i = 0; i < nr; i++) {
+                for (int j = 0; j < nc; j++) {
+                    result[i * nc + j] = mat.getEntry(i, j);
+                }
+            }
+        }
+        return new DoubleFactors(result, nr, nc);
+    }
+
+    /**
+     * Get the number of rows.
+     * @return The row count.
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Get the number of columns (features).
+     * @return The column count.
+     */
+    public int getColumnCount() {
+        return columns;
+    }
+
+    /**
+     * Get the precision of this matrix's storage.
+     * @return The storage precision.
+     */
+    public abstract FactorPrecision getPrecision();
+
+    /**
+     * Get the approximate size of this matrix's storage.
+     * @return The number of bytes used by the matrix data.
+     */
+    public abstract long getDataSize();
+
+    /**
+     * Get an entry.
+     * @param row The row.
+     * @param col The column.
+     * @return The value at the entry.
+     */
+    public abstract double get(int row, int col);
+
+    /**
+     * Set an entry.  Only double-precision matrices support modification.
+     * @param row The row.
+     * @param col The column.
+     * @param value The new value.
+     * @throws UnsupportedOperationException if the matrix is compacted.
+     */
+    public void set(int row, int col, double value) {
+        throw new UnsupportedOperationException("compacted factor matrices are read-only");
+    }
+
+    /**
+     * Compute the dot product of a row with a vector.
+     * @param row The row.
+     * @param vec The vector, of length at least {@link #getColumnCount()}.
+     * @return The dot product.
+     */
+    public abstract double dot(int row, double[] vec);
+
+    /**
+     * Compute the dot product of a row with a row of another matrix.
+     * @param row The row in this matrix.
+     * @param other The other matrix, with the same number of columns.
+     * @param orow The row in the other matrix.
+     * @return The dot product.
+     */
+    public double dot(int row, FactorMatrix other, int orow) {
+        double sum = 0;
+        for (int f = 0; f < columns; f++) {
+            sum += get(row, f) * other.get(orow, f);
+        }
+        return sum;
+    }
+
+    /**
+     * Copy a row into a buffer.
+     * @param row The row.
+     * @param dest The buffer, of length at least {@link #getColumnCount()}.
+     */
+    public abstract void getRow(int row, double[] dest);
+
+    /**
+     * Get the matrix data as a row-major double array.
+     * @return The backing array for double-precision matrices, and a decoded copy otherwise.
+     */
+    public double[] toDoubleArray() {
+        double[] data = new double[rows * columns];
+        double[] buf = new double[columns];
+        for (int r = 0; r < rows; r++) {
+            getRow(r, buf);
+            System.arraycopy(buf, 0, data, r * columns, columns);
+        }
+        return data;
+    }
+
+    /**
+     * Convert this matrix to another precision.
+     * @param precision The target precision.
+     * @return A matrix with the requested precision ({@code this} if it already has it).
+     */
+    public FactorMatrix compact(FactorPrecision precision) {
+        if (precision == getPrecision()) {
+            return this;
+        }
+        double[] data = toDoubleArray();
+        switch (precision) {
+        case DOUBLE:
+            return new DoubleFactors(data, rows, columns);
+        case FLOAT:
+            return FloatFactors.encode(data, rows, columns);
+        case INT8:
+            return ByteFactors.encode(data, rows, columns);
+        default:
+            throw new IllegalArgumentException("unknown precision " + precision);
+        }
+    }
+
+    private static final class DoubleFactors extends FactorMatrix {
+        private static final long serialVersionUID = 1L;
+        private final double[] data;
+
+        DoubleFactors(double[] data, int rows, int columns) {
+            super(rows, columns);
+            this.data = data;
+        }
+
+        @Override
+        public FactorPrecision getPrecision() {
+            return FactorPrecision.DOUBLE;
+        }
+
+        @Override
+        public long getDataSize() {
+            return 8L * data.length;
+        }
+
+        @Override
+        public double get(int row, int col) {
+            return data[row * columns + col];
+        }
+
+        @Override
+        public void set(int row, int col, double value) {
+            data[row * columns + col] = value;
+        }
+
+        @Override
+        public double dot(int row, double[] vec) {
+            int off = row * columns;
+            double sum = 0;
+            for (int f = 0; f < columns; f++) {
+                sum += data[off + f] * vec[f];
+            }
+            return sum;
+        }
+
+        @Override
+        public double dot(int row, FactorMatrix other, int orow) {
+            if (other instanceof DoubleFactors) {
+                double[] odata = ((DoubleFactors) other).data;
+                int off = row * columns;
+                int ooff = orow * columns;
+                double sum = 0;
+                for (int f = 0; f < columns; f++) {
+                    sum += data[off + f] * odata[ooff + f];
+                }
+                return sum;
+            } else {
+                return other.dot(orow, this, row);
+            }
+        }
+
+        @Override
+        public void getRow(int row, double[] dest) {
+            System.arraycopy(data, row * columns, dest, 0, columns);
+        }
+
+        @Override
+        public double[] toDoubleArray() {
+            return data;
+        }
+    }
+
+    private static final class FloatFactors extends FactorMatrix {
+        private static final long serialVersionUID = 1L;
+        private final float[] data;
+
+        FloatFactors(float[] data, int rows, int columns) {
+            super(rows, columns);
+            this.data = data;
+        }
+
+        static FloatFactors encode(double[] values, int rows, int columns) {
+            float[] data = new float[values.length];
+            for (int i = 0; i < values.length; i++) {
+                data[i] = (float) values[i];
+            }
+            return new FloatFactors(data, rows, columns);
+        }
+
+        @Override
+        public FactorPrecision getPrecision() {
+            return FactorPrecision.FLOAT;
+        }
+
+        @Override
+        public long getDataSize() {
+            return 4L * data.length;
+        }
+
+        @Override
+        public double get(int row, int col) {
+            return data[row * columns + col];
+        }
+
+        @Override
+        public double dot(int row, double[] vec) {
+            int off = row * columns;
+            double sum = 0;
+            for (int f = 0; f < columns; f++) {
+                sum += data[off + f] * vec[f];
+            }
+            return sum;
+        }
+
+        @Override
+        public void getRow(int row, double[] dest) {
+            int off = row * columns;
+            for (int f = 0; f < columns; f++) {
+                dest[f] = data[off + f];
+            }
+        }
+    }
+
+    /**
+     * Symmetric 8-bit quantization with one scale per row, so each row's largest entry maps
+     * to +/-127.
+     */
+    private static final class ByteFactors extends FactorMatrix {
+        private static final long serialVersionUID = 1L;
+        private final byte[] data;
+        private final float[] scales;
+
+        ByteFactors(byte[] data, float[] scales, int rows, int columns) {
+            super(rows, columns);
+            this.data = data;
+            this.scales = scales;
+        }
+
+        static ByteFactors encode(double[] values, int rows, int columns) {
+            byte[] data = new byte[values.length];
+            float[] scales = new float[rows];
+            for (int r = 0; r < rows; r++) {
+                int off = r * columns;
+                double max = 0;
+                for (int f = 0; f < columns; f++) {
+                    max = Math.max(max, Math.abs(values[off + f]));
+                }
+                float scale = (float) (max / 127);
+                scales[r] = scale;
+                if (scale > 0) {
+                    for (int f = 0; f < columns; f++) {
+                        long q = Math.round(values[off + f] / scale);
+                        data[off + f] = (byte) Math.max(-127, Math.min(127, q));
+                    }
+                }
+            }
+            return new ByteFactors(data, scales, rows, columns);
+        }
+
+        @Override
+        public FactorPrecision getPrecision() {
+            return FactorPrecision.INT8;
+        }
+
+        @Override
+        public long getDataSize() {
+            return data.length + 4L * scales.length;
+        }
+
+        @Override
+        public double get(int row, int col) {
+            return data[row * columns + col] * (double) scales[row];
+        }
+
+        @Override
+        public double dot(int row, double[] vec) {
+            int off = row * columns;
+            double sum = 0;
+            for (int f = 0; f < columns; f++) {
+                sum += data[off + f] * vec[f];
+            }
+            return sum * scales[row];
+        }
+
+        @Override
+        public void getRow(int row, double[] dest) {
+            int off = row * columns;
+            double scale = scales[row];
+            for (int f = 0; f < columns; f++) {
+                dest[f] = data[off + f] * scale;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf;
+
+import org.apache.commons.math3.linear.AbstractRealMatrix;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.util.Arrays;
+
+/**
+ * Real matrix view of a factor matrix.  Writes go through to the factors, if they support it.
+ */
+final class FactorMatrixView extends AbstractRealMatrix {
+    private final FactorMatrix factors;
+
+    FactorMatrixView(FactorMatrix factors) {
+        this.factors = factors;
+    }
+
+    @Override
+    public int getRowDimension() {
+        return factors.getRowCount();
+    }
+
+    @Override
+    public int getColumnDimension() {
+        return factors.getColumnCount();
+    }
+
+    @Override
+    public double getEntry(int row, int column) {
+        checkIndex(row, column);
+        return factors.get(row, column);
+    }
+
+    @Override
+    public void setEntry(int row, int column, double value) {
+        checkIndex(row, column);
+        factors.set(row, column, value);
+    }
+
+    @Override
+    public double[] getRow(int row) {
+        if (row < 0 || row >= factors.getRowCount()) {
+            throw new IndexOutOfBoundsException("invalid row " + row);
+        }
+        double[] result = new double[factors.getColumnCount()];
+        factors.getRow(row, result);
+        return result;
+    }
+
+    @Override
+    public RealMatrix createMatrix(int rowDimension, int columnDimension) {
+        return new Array2DRowRealMatrix(rowDimension, columnDimension);
+    }
+
+    @Override
+    public RealMatrix copy() {
+        double[] data = factors.toDoubleArray();
+        return new FactorMatrixView(FactorMatrix.wrap(Arrays.copyOf(data, data.length),
+                                                      factors.getRowCount(), factors.getColumnCount()));
+    }
+
+    private void checkIndex(int row, int column) {
+        if (row < 0 || row >= factors.getRowCount() || column < 0 || column >= factors.getColumnCount()) {
+            throw new IndexOutOfBoundsException("invalid entry (" + row + ", " + column + ")");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf;
+
+import org.grouplens.grapht.annotation.DefaultImplementation;
+
+/**
+ * Maximum-inner-product search over the item vectors of a matrix factorization model.  Item vectors
+ * are augmented with the item's bias as a final coordinate, so a query consisting of the user's
+ * feature vector followed by 1 ranks items by their biased MF score (less the user's constant
+ * offset).
+ *
+ * <p>Searches are built from shareable models and must be safe to use from multiple threads.</p>
+ *
+ * @see MFItemRecommender
+ * @since 3.0
+ */
+@DefaultImplementation(ExactInnerProductSearch.class)
+public interface InnerProductSearch {
+    /**
+     * Get the dimension of query vectors (the feature count plus one).
+     * @return The query dimension.
+     */
+    int getDimension();
+
+    /**
+     * Find the items with the largest inner products with a query vector.
+     *
+     * @param query The query vector, of length {@link #getDimension()}.
+     * @param n The number of items to find.
+     * @return The model indexes of the (up to) {@code n} best items, in decreasing order of inner
+     *         product.  Approximate implementations may miss some of the true top-{@code n} items.
+     */
+    int[] search(double[] query, int n);
+
+    /**
+     * Search for several queries at once.  Implementations may share passes over the item vectors
+     * between queries; the default implementation searches each query in turn.
+     *
+     * @param queries The query vectors, each of length {@link #getDimension()}.
+     * @param counts The number of items to find for each query.
+     * @return The results of each query, as returned by {@link #search(double[], int)}.
+     */
+    default int[][] search(double[][] queries, int[] counts) {
+        int[][] results = new int[queries.length][];
+        for (int i = 0; i < queries.length; i++) {
+            results[i] = search(queries[i], counts[i]);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.basic.TopNItemRecommender;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.results.ResultAccumulator;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.KeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Top-N recommender that retrieves items directly from a matrix factorization model with an
+ * {@link InnerProductSearch} instead of scoring the whole catalogue through the item scorer.  The
+ * search only proposes candidates; they are rescored with the configured item scorer, so results
+ * carry the scorer's scores (including any clamping to the preference domain).
+ *
+ * <p>The search is used when recommending from the full set of model items; requests with an
+ * explicit candidate set, unlimited length, or users absent from the model fall back to
+ * {@link TopNItemRecommender}'s scorer-based implementation.  The default exclude set is all items
+ * rated by the user.
+ *
+ * @since 3.0
+ */
+public class MFItemRecommender extends TopNItemRecommender {
+    private static final Logger logger = LoggerFactory.getLogger(MFItemRecommender.class);
+    /**
+     * The number of users whose queries are searched together in batch recommendation.
+     */
+    static final int BATCH_BLOCK_SIZE = 64;
+
+    private final MFModel model;
+    private final InnerProductSearch search;
+
+    /**
+     * Construct a new MF item recommender.
+     * @param dao The data access object.
+     * @param scorer The item scorer, used for requests the search cannot answer.
+     * @param model The MF model.
+     * @param bias The bias model, whose item biases the search uses.
+     * @param search The inner-product search over the model's item vectors.
+     */
+    @Inject
+    public MFItemRecommender(DataAccessObject dao, ItemScorer scorer,
+                             MFModel model, BiasModel bias, InnerProductSearch search) {
+        super(dao, scorer);
+        this.model = model;
+        this.search = search;
+    }
+
+    @Override
+    protected List<Long> recommend(long user, int n, LongSet candidates, LongSet exclude) {
+        ResultList results = candidates == null ? searchTopN(user, n, exclude) : null;
+        if (results == null) {
+            return super.recommend(user, n, candidates, exclude);
+        }
+        return results.idList();
+    }
+
+    @Override
+    protected ResultList recommendWithDetails(long user, int n, LongSet candidates, LongSet exclude) {
+        ResultList results = candidates == null ? searchTopN(user, n, exclude) : null;
+        if (results == null) {
+            return super.recommendWithDetails(user, n, candidates, exclude);
+        }
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation groups the users into blocks and searches each block's queries together,
+     * so exact search makes a single pass over the item factors per block.  Queries are prepared and
+     * results assembled on the calling thread, as they use the DAO and item scorer; only the searches, which use the
+     * shareable model and search index, run in parallel.
+     */
+    @Override
+    public Long2ObjectMap<ResultList> recommendWithDetails(Collection<Long> users, int n) {
+        long[] ids = LongUtils.asLongCollection(users).toLongArray();
+        ResultList[] results = new ResultList[ids.length];
+        List<Query> queries = new ArrayList<>(ids.length);
+        IntList positions = new IntArrayList(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            Query q = prepare(ids[i], n, null);
+            if (q == null) {
+                results[i] = recommendWithDetails(ids[i], n, null, null);
+            } else {
+                queries.add(q);
+                positions.add(i);
+            }
+        }
+
+        int[][] hits = new int[queries.size()][];
+        int nblocks = (queries.size() + BATCH_BLOCK_SIZE - 1) / BATCH_BLOCK_SIZE;
+        IntStream.range(0, nblocks).parallel().forEach(b -> {
+            int start = b * BATCH_BLOCK_SIZE;
+            int end = Math.min(queries.size(), start + BATCH_BLOCK_SIZE);
+            double[][] vectors = new double[end - start][];
+            int[] counts = new int[end - start];
+            for (int j = start; j < end; j++) {
+                vectors[j - start] = queries.get(j).vector;
+                counts[j - start] = queries.get(j).count;
+            }
+            int[][] blockHits = search.search(vectors, counts);
+            System.arraycopy(blockHits, 0, hits, start, blockHits.length);
+        });
+
+        for (int j = 0; j < hits.length; j++) {
+            results[positions.getInt(j)] = finish(queries.get(j), n, hits[j]);
+        }
+        return collectBatch(ids, results);
+    }
+
+    /**
+     * Search the model for a user's top-N items.
+     * @return The results, or {@code null} if the search cannot answer this request.
+     */
+    @Nullable
+    private ResultList searchTopN(long user, int n, LongSet exclude) {
+        Query q = prepare(user, n, exclude);
+        if (q == null) {
+            return null;
+        }
+        logger.debug("searching {} items for user {} ({} excluded)", n, user, q.count - n);
+        return finish(q, n, search.search(q.vector, q.count));
+    }
+
+    /**
+     * Set up the search for a user.
+     * @return The query, or {@code null} if the search cannot answer this request.
+     */
+    @Nullable
+    private Query prepare(long user, int n, @Nullable LongSet exclude) {
+        if (n < 0) {
+            return null;
+        }
+        int uidx = model.getUserIndex().tryGetIndex(user);
+        if (uidx < 0) {
+            return null;
+        }
+        if (exclude == null) {
+            exclude = getDefaultExcludes(user);
+        }
+
+        KeyIndex items = model.getItemIndex();
+        int nf = model.getFeatureCount();
+        double[] query = new double[nf + 1];
+        model.getUserRow(uidx, query);
+        query[nf] = 1;
+
+        // ask for enough extra items to cover those we will discard
+        int extra = 0;
+        LongIterator iter = exclude.iterator();
+        while (iter.hasNext()) {
+            if (items.tryGetIndex(iter.nextLong()) >= 0) {
+                extra += 1;
+            }
+        }
+        return new Query(user, exclude, query, n + extra);
+    }
+
+    /**
+     * Rescore a query's search hits with the item scorer and select the top {@code n}.
+     */
+    private ResultList finish(Query q, int n, int[] hits) {
+        KeyIndex items = model.getItemIndex();
+        LongList candidates = new LongArrayList(hits.length);
+        for (int hit: hits) {
+            long item = items.getKey(hit);
+            if (!q.exclude.contains(item)) {
+                candidates.add(item);
+            }
+        }
+        ResultAccumulator accum = ResultAccumulator.create(n);
+        for (Result r: scorer.scoreWithDetails(q.user, candidates)) {
+            accum.add(r);
+        }
+        return accum.finish();
+    }
+
+    private static class Query {
+        final long user;
+        final LongSet exclude;
+        final double[] vector;
+        final int count;
+
+        Query(long user, LongSet exclude, double[] vector, int count) {
+            this.user = user;
+            this.exclude = exclude;
+            this.vector = vector;
+            this.count = count;
+        }
+    }
+}
@@ -25,12 +25,11 @@
 package org.lenskit.mf;
 
 import com.google.common.base.Preconditions;
-import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.lenskit.inject.Shareable;
 import org.lenskit.util.keys.KeyIndex;
-import org.lenskit.util.math.Vectors;
 
 import javax.annotation.Nullable;
 import java.io.*;
@@ -50,14 +49,17 @@ public class MFModel implements Serializable {
     protected int userCount;
     protected int itemCount;
 
+    /* user and item features, with views for the RealMatrix API */
+    protected FactorMatrix userFactors;
+    protected FactorMatrix itemFactors;
     protected RealMatrix userMatrix;
     protected RealMatrix itemMatrix;
     protected KeyIndex userIndex;
     protected KeyIndex itemIndex;
 
     /**
-     * Construct a matrix factorization model.  The matrices are not copied, so the caller should
-     * make sure they won't be modified by anyone else.
+     * Construct a matrix factorization model.  The matrices are copied into the model's
+     * contiguous storage.
      *
      * @param umat The user feature matrix (users x features).
      * @param imat The item feature matrix (items x features).
@@ -66,42 +68,85 @@ public class MFModel implements Serializable {
      */
     public MFModel(RealMatrix umat, RealMatrix imat,
                    KeyIndex uidx, KeyIndex iidx) {
-        Preconditions.checkArgument(umat.getColumnDimension() == imat.getColumnDimension(),
+        this(FactorMatrix.copyOf(umat), FactorMatrix.copyOf(imat), uidx, iidx);
+    }
+
+    /**
+     * Construct a matrix factorization model from row-major feature arrays.  The arrays are not
+     * copied, so the caller should make sure they won't be modified by anyone else.
+     *
+     * @param nfeatures The number of features.
+     * @param udata The user features (users x features, row-major).
+     * @param idata The item features (items x features, row-major).
+     * @param uidx The user index mapping.
+     * @param iidx The item index mapping.
+     */
+    public MFModel(int nfeatures, double[] udata, double[] idata,
+                   KeyIndex uidx, KeyIndex iidx) {
+        this(FactorMatrix.wrap(udata, uidx.size(), nfeatures),
+             FactorMatrix.wrap(idata, iidx.size(), nfeatures),
+             uidx, iidx);
+    }
+
+    /**
+     * Construct a matrix factorization model from factor matrices.
+     *
+     * @param ufac The user factors (users x features).
+     * @param ifac The item factors (items x features).
+     * @param uidx The user index mapping.
+     * @param iidx The item index mapping.
+     */
+    public MFModel(FactorMatrix ufac, FactorMatrix ifac,
+                   KeyIndex uidx, KeyIndex iidx) {
+        Preconditions.checkArgument(ufac.getColumnCount() == ifac.getColumnCount(),
                                     "mismatched matrix sizes");
-        featureCount = umat.getColumnDimension();
+        featureCount = ufac.getColumnCount();
         userCount = uidx.size();
         itemCount = iidx.size();
-        Preconditions.checkArgument(umat.getRowDimension() == userCount,
+        Preconditions.checkArgument(ufac.getRowCount() == userCount,
                                     "user matrix has %s rows, expected %s",
-                                    umat.getRowDimension(), userCount);
-        Preconditions.checkArgument(imat.getRowDimension() == itemCount,
+                                    ufac.getRowCount(), userCount);
+        Preconditions.checkArgument(ifac.getRowCount() == itemCount,
                                     "item matrix has %s rows, expected %s",
-                                    imat.getRowDimension(), itemCount);
-        userMatrix = umat;
-        itemMatrix = imat;
+                                    ifac.getRowCount(), itemCount);
+        setFactors(ufac, ifac);
         userIndex = uidx;
         itemIndex = iidx;
     }
 
+    private void setFactors(FactorMatrix ufac, FactorMatrix ifac) {
+        userFactors = ufac;
+        itemFactors = ifac;
+        userMatrix = new FactorMatrixView(ufac);
+        itemMatrix = new FactorMatrixView(ifac);
+    }
+
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.writeInt(featureCount);
         out.writeInt(userCount);
         out.writeInt(itemCount);
 
+        /* factors are written at full precision, so models keep the same stream layout as before
+         * compaction was possible; the precision trails the data, where older readers skip it. */
+        double[] row = new double[featureCount];
         for (int i = 0; i < userCount; i++) {
+            userFactors.getRow(i, row);
             for (int j = 0; j < featureCount; j++) {
-                out.writeDouble(userMatrix.getEntry(i, j));
+                out.writeDouble(row[j]);
             }
         }
 
         for (int i = 0; i < itemCount; i++) {
+            itemFactors.getRow(i, row);
             for (int j = 0; j < featureCount; j++) {
-                out.writeDouble(itemMatrix.getEntry(i, j));
+                out.writeDouble(row[j]);
             }
         }
 
         out.writeObject(userIndex);
         out.writeObject(itemIndex);
+
+        out.writeUTF(getPrecision().name());
     }
 
     private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
@@ -109,31 +154,61 @@ public class MFModel implements Serializable {
         userCount = input.readInt();
         itemCount = input.readInt();
 
-        RealMatrix umat = MatrixUtils.createRealMatrix(userCount, featureCount);
-        for (int i = 0; i < userCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                umat.setEntry(i, j, input.readDouble());
-            }
+        double[] udata = new double[userCount * featureCount];
+        for (int i = 0; i < udata.length; i++) {
+            udata[i] = input.readDouble();
         }
-        userMatrix = umat;
 
-        RealMatrix imat = MatrixUtils.createRealMatrix(itemCount, featureCount);
-        for (int i = 0; i < itemCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                imat.setEntry(i, j, input.readDouble());
-            }
+        double[] idata = new double[itemCount * featureCount];
+        for (int i = 0; i < idata.length; i++) {
+            idata[i] = input.readDouble();
         }
-        itemMatrix = imat;
 
         userIndex = (KeyIndex) input.readObject();
         itemIndex = (KeyIndex) input.readObject();
 
-        if (userIndex.size() != userMatrix.getRowDimension()) {
+        if (userIndex.size() != userCount) {
             throw new InvalidObjectException("user matrix and index have different row counts");
         }
-        if (itemIndex.size() != itemMatrix.getRowDimension()) {
+        if (itemIndex.size() != itemCount) {
             throw new InvalidObjectException("item matrix and index have different row counts");
         }
+
+        FactorPrecision precision;
+        try {
+            precision = FactorPrecision.valueOf(input.readUTF());
+        } catch (EOFException e) {
+            // models written before compaction have no precision, and are double-precision
+            precision = FactorPrecision.DOUBLE;
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException("unknown factor precision");
+        }
+        setFactors(FactorMatrix.wrap(udata, userCount, featureCount).compact(precision),
+                   FactorMatrix.wrap(idata, itemCount, featureCount).compact(precision));
+    }
+
+    /**
+     * Create a copy of this model with its factors stored at a different precision.  Subclasses
+     * override this to preserve their type and additional data.
+     *
+     * @param precision The storage precision.
+     * @return A model with the same users, items and (approximately) the same factors.  If the
+     * model already has the requested precision, it is returned unchanged.
+     */
+    public MFModel compact(FactorPrecision precision) {
+        if (getPrecision() == precision) {
+            return this;
+        }
+        return new MFModel(userFactors.compact(precision), itemFactors.compact(precision),
+                           userIndex, itemIndex);
+    }
+
+    /**
+     * Get the storage precision of this model's item factors.
+     * @return The precision of the model's factors.
+     */
+    public FactorPrecision getPrecision() {
+        return itemFactors.getPrecision();
     }
 
     /**
@@ -174,7 +249,7 @@ public class MFModel implements Serializable {
     }
 
     /**
-     * Get the user matrix.
+     * Get the user matrix.  This is a view of the model's user factors.
      * @return The user matrix (users x features).
      */
     public RealMatrix getUserMatrix() {
@@ -182,30 +257,128 @@ public class MFModel implements Serializable {
     }
 
     /**
-     * Get the item matrix.
+     * Get the item matrix.  This is a view of the model's item factors.
      * @return The item matrix (items x features).
      */
     public RealMatrix getItemMatrix() {
         return itemMatrix;
     }
 
+    /**
+     * Get the user factors.
+     * @return The user factor matrix (users x features).
+     */
+    public FactorMatrix getUserFactors() {
+        return userFactors;
+    }
+
+    /**
+     * Get the item factors.
+     * @return The item factor matrix (items x features).
+     */
+    public FactorMatrix getItemFactors() {
+        return itemFactors;
+    }
+
+    /**
+     * Get the user features in row-major order.  The user with index {@code i} occupies
+     * {@code featureCount} entries starting at {@code i * featureCount}.
+     *
+     * @return The user feature data.  For double-precision models this is the backing array, so callers
+     * must not modify it; otherwise it is a decoded copy.
+     * @deprecated Use {@link #getUserFactors()}, which does not decode compacted factors.
+     */
+    @Deprecated
+    public double[] getUserData() {
+        return userFactors.toDoubleArray();
+    }
+
+    /**
+     * Get the item features in row-major order.  The item with index {@code i} occupies
+     * {@code featureCount} entries starting at {@code i * featureCount}.
+     *
+     * @return The item feature data.  For double-precision models this is the backing array, so callers
+     * must not modify it; otherwise it is a decoded copy.
+     * @deprecated Use {@link #getItemFactors()}, which does not decode compacted factors.
+     */
+    @Deprecated
+    public double[] getItemData() {
+        return itemFactors.toDoubleArray();
+    }
+
+    /**
+     * Compute the dot product of a user row and an item row.
+     * @param uidx The user's index in {@link #getUserIndex()}.
+     * @param iidx The item's index in {@link #getItemIndex()}.
+     * @return The inner product of the user and item feature vectors.
+     */
+    public double dotProduct(int uidx, int iidx) {
+        return userFactors.dot(uidx, itemFactors, iidx);
+    }
+
+    /**
+     * Compute the dot product of a vector with an item row.
+     * @param user The user feature vector.
+     * @param iidx The item's index in {@link #getItemIndex()}.
+     * @return The inner product of the vector and the item's feature vector.
+     */
+    public double dotProduct(double[] user, int iidx) {
+        return itemFactors.dot(iidx, user);
+    }
+
+    /**
+     * Copy a user's feature row into a buffer.
+     * @param uidx The user's index in {@link #getUserIndex()}.
+     * @param dest The buffer, of length at least {@link #getFeatureCount()}.
+     */
+    public void getUserRow(int uidx, double[] dest) {
+        userFactors.getRow(uidx, dest);
+    }
+
+    /**
+     * Copy an item's feature row into a buffer.
+     * @param iidx The item's index in {@link #getItemIndex()}.
+     * @param dest The buffer, of length at least {@link #getFeatureCount()}.
+     */
+    public void getItemRow(int iidx, double[] dest) {
+        itemFactors.getRow(iidx, dest);
+    }
+
+    /**
+     * Get a user's feature vector.  This copies the user's row; use {@link #getUserRow(int, double[])}
+     * or {@link #dotProduct(int, int)} to avoid allocation.
+     *
+     * @param user The user ID.
+     * @return The user's feature vector, or {@code null} if the user is not in the model.
+     */
     @Nullable
     public RealVector getUserVector(long user) {
         int uidx = userIndex.tryGetIndex(user);
         if (uidx < 0) {
             return null;
         } else {
-            return Vectors.matrixRow(userMatrix, uidx);
+            double[] row = new double[featureCount];
+            userFactors.getRow(uidx, row);
+            return new ArrayRealVector(row, false);
         }
     }
 
+    /**
+     * Get an item's feature vector.  This copies the item's row; use {@link #getItemRow(int, double[])}
+     * or {@link #dotProduct(double[], int)} to avoid allocation.
+     *
+     * @param item The item ID.
+     * @return The item's feature vector, or {@code null} if the item is not in the model.
+     */
     @Nullable
     public RealVector getItemVector(long item) {
         int iidx = itemIndex.tryGetIndex(item);
         if (iidx < 0) {
             return null;
         } else {
-            return Vectors.matrixRow(itemMatrix, iidx);
+            double[] row = new double[featureCount];
+            itemFactors.getRow(iidx, row);
+            return new ArrayRealVector(row, false);
         }
     }
 
@@ -220,7 +393,7 @@ public class MFModel implements Serializable {
         if (uidx < 0) {
             return 0;
         } else {
-            return userMatrix.getEntry(uidx, feature);
+            return userFactors.get(uidx, feature);
         }
     }
 
@@ -235,7 +408,7 @@ public class MFModel implements Serializable {
         if (iidx < 0) {
             return 0;
         } else {
-            return itemMatrix.getEntry(iidx, feature);
+            return itemFactors.get(iidx, feature);
         }
     }
 
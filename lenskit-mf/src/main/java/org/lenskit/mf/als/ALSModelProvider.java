@@ -0,0 +1,350 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.als;
+
+import com.google.common.base.Preconditions;
+import org.grouplens.lenskit.iterative.IterationCount;
+import org.grouplens.lenskit.iterative.RegularizationTerm;
+import org.grouplens.lenskit.iterative.StoppingThreshold;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.data.ratings.RatingMatrix;
+import org.lenskit.data.ratings.RatingMatrixEntry;
+import org.lenskit.inject.Transient;
+import org.lenskit.mf.FactorPrecision;
+import org.lenskit.mf.MFModel;
+import org.lenskit.mf.ServingPrecision;
+import org.lenskit.mf.funksvd.FeatureCount;
+import org.lenskit.util.ProgressLogger;
+import org.lenskit.util.keys.KeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Matrix factorization model builder using alternating least squares (ALS).
+ *
+ * <p>Each sweep holds the item factors fixed and solves a <em>k</em>&times;<em>k</em> regularized least-squares
+ * system for every user, then does the same for every item with the user factors fixed.  The per-user and per-item
+ * solves are independent, so each half-sweep runs in parallel on the fork/join common pool.  ALS usually
+ * converges in 10&ndash;20 sweeps, so the {@link IterationCount} should normally be set well below its default.
+ *
+ * <p>With explicit feedback (the default), the model fits the residuals of the ratings after subtracting the
+ * {@link BiasModel} baseline, with weighted-&lambda; regularization (the regularization term is scaled by each
+ * user's or item's rating count).  With {@linkplain ImplicitFeedback implicit feedback}, it uses the confidence-weighted
+ * formulation of Hu, Koren and Volinsky: every observed value is a preference of 1 with confidence
+ * 1 + &alpha;<em>r</em>, and every unobserved pair is a preference of 0 with confidence 1.  Implicit models
+ * ignore the baseline during training, so they should usually be used with a {@link org.lenskit.bias.ZeroBiasModel}.
+ *
+ * <p>The resulting model is a plain {@link MFModel} for use with {@link org.lenskit.mf.BiasedMFItemScorer},
+ * compacted to the {@linkplain ServingPrecision serving precision} if one is set.  To use it, bind this class
+ * as the provider of {@link MFModel}.
+ */
+public class ALSModelProvider implements Provider<MFModel> {
+    private static final Logger logger = LoggerFactory.getLogger(ALSModelProvider.class);
+
+    private final RatingMatrix snapshot;
+    private final BiasModel baseline;
+    private final int featureCount;
+    private final double regularization;
+    private final int iterationCount;
+    private final double stoppingThreshold;
+    private final boolean implicit;
+    private final double confidenceWeight;
+    private final Random random;
+    @Nullable
+    private final FactorPrecision servingPrecision;
+
+    public ALSModelProvider(@Transient @Nonnull RatingMatrix snapshot,
+                            @Transient @Nonnull BiasModel bias,
+                            @FeatureCount int features,
+                            @RegularizationTerm double reg,
+                            @IterationCount int iters,
+                            @StoppingThreshold double threshold,
+                            @ImplicitFeedback boolean implicit,
+                            @ConfidenceWeight double alpha,
+                            Random rng) {
+        this(snapshot, bias, features, reg, iters, threshold, implicit, alpha, rng, null);
+    }
+
+    @Inject
+    public ALSModelProvider(@Transient @Nonnull RatingMatrix snapshot,
+                            @Transient @Nonnull BiasModel bias,
+                            @FeatureCount int features,
+                            @RegularizationTerm double reg,
+                            @IterationCount int iters,
+                            @StoppingThreshold double threshold,
+                            @ImplicitFeedback boolean implicit,
+                            @ConfidenceWeight double alpha,
+                            Random rng,
+                            @ServingPrecision @Nullable FactorPrecision precision) {
+        Preconditions.checkArgument(features > 0, "feature count must be positive");
+        Preconditions.checkArgument(reg > 0, "regularization term must be positive");
+        this.snapshot = snapshot;
+        baseline = bias;
+        featureCount = features;
+        regularization = reg;
+        iterationCount = iters;
+        stoppingThreshold = threshold;
+        this.implicit = implicit;
+        confidenceWeight = alpha;
+        random = rng;
+        servingPrecision = precision;
+    }
+
+    @Override
+    public MFModel get() {
+        KeyIndex userIndex = snapshot.userIndex();
+        KeyIndex itemIndex = snapshot.itemIndex();
+        final int nusers = userIndex.size();
+        final int nitems = itemIndex.size();
+        final int k = featureCount;
+
+        List<RatingMatrixEntry> ratings = snapshot.getRatings();
+        int n = ratings.size();
+        int[] users = new int[n];
+        int[] items = new int[n];
+        double[] values = new double[n];
+        for (int r = 0; r < n; r++) {
+            RatingMatrixEntry e = ratings.get(r);
+            users[r] = e.getUserIndex();
+            items[r] = e.getItemIndex();
+            if (implicit) {
+                values[r] = e.getValue();
+            } else {
+                values[r] = e.getValue() - baseline.getIntercept()
+                        - baseline.getUserBias(e.getUserId()) - baseline.getItemBias(e.getItemId());
+            }
+        }
+        SparseRows byUser = SparseRows.build(nusers, users, items, values);
+        SparseRows byItem = SparseRows.build(nitems, items, users, values);
+
+        logger.info("training {} ALS model with {} features for {} users, {} items and {} ratings",
+                    implicit ? "implicit" : "explicit", k, nusers, nitems, n);
+
+        double[] userFeatures = new double[nusers * k];
+        double[] itemFeatures = new double[nitems * k];
+        double scale = 1.0 / Math.sqrt(k);
+        for (int i = 0; i < itemFeatures.length; i++) {
+            itemFeatures[i] = random.nextDouble() * scale;
+        }
+
+        ProgressLogger progress = ProgressLogger.create(logger)
+                                                .setCount(iterationCount)
+                                                .setLabel("ALS sweeps")
+                                                .start();
+        double rmse = Double.POSITIVE_INFINITY;
+        for (int sweep = 1; sweep <= iterationCount; sweep++) {
+            solveRows(byUser, userFeatures, itemFeatures, nitems);
+            solveRows(byItem, itemFeatures, userFeatures, nusers);
+            double next = trainingRMSE(byUser, userFeatures, itemFeatures);
+            progress.advance();
+            logger.debug("sweep {} finished with RMSE {}", sweep, next);
+            boolean done = Math.abs(rmse - next) <= stoppingThreshold;
+            rmse = next;
+            if (done) {
+                break;
+            }
+        }
+        progress.finish();
+        logger.info("trained ALS model in {} (RMSE={})", progress.elapsedTime(), rmse);
+
+        MFModel model = new MFModel(k, userFeatures, itemFeatures, userIndex, itemIndex);
+        if (servingPrecision != null) {
+            logger.info("compacting model to {} precision", servingPrecision);
+            model = model.compact(servingPrecision);
+        }
+        return model;
+    }
+
+    /**
+     * Solve for one side of the factorization with the other side fixed.
+     *
+     * @param rows The ratings, with rows for the side being solved.
+     * @param target The factors to solve for (row-major).
+     * @param fixed The fixed factors (row-major).
+     * @param nfixed The number of rows in {@code fixed}.
+     */
+    private void solveRows(SparseRows rows, double[] target, double[] fixed, int nfixed) {
+        final int k = featureCount;
+        final double[] gram = implicit ? gramMatrix(fixed, nfixed) : null;
+        final ThreadLocal<double[][]> scratch = ThreadLocal.withInitial(() -> new double[][]{
+                new double[k * k], new double[k]
+        });
+
+        IntStream.range(0, rows.size()).parallel().forEach(r -> {
+            final int start = rows.offsets[r];
+            final int end = rows.offsets[r + 1];
+            final int base = r * k;
+            if (start == end) {
+                // no observations; both formulations give the zero vector
+                Arrays.fill(target, base, base + k, 0);
+                return;
+            }
+
+            double[][] s = scratch.get();
+            double[] a = s[0];
+            double[] b = s[1];
+            if (gram != null) {
+                System.arraycopy(gram, 0, a, 0, k * k);
+            } else {
+                Arrays.fill(a, 0);
+            }
+            Arrays.fill(b, 0);
+
+            for (int p = start; p < end; p++) {
+                final int off = rows.columns[p] * k;
+                final double v = rows.values[p];
+                final double weight, rhs;
+                if (implicit) {
+                    // A += (c - 1) y y^T, b += c y, with c = 1 + alpha v
+                    weight = confidenceWeight * v;
+                    rhs = 1 + weight;
+                } else {
+                    weight = 1;
+                    rhs = v;
+                }
+                for (int i = 0; i < k; i++) {
+                    final double fi = fixed[off + i];
+                    b[i] += rhs * fi;
+                    final double wfi = weight * fi;
+                    final int ri = i * k;
+                    for (int j = 0; j <= i; j++) {
+                        a[ri + j] += wfi * fixed[off + j];
+                    }
+                }
+            }
+
+            final double lambda = implicit ? regularization : regularization * (end - start);
+            for (int i = 0; i < k; i++) {
+                a[i * k + i] += lambda;
+            }
+            CholeskySolver.solve(a, b, k);
+            System.arraycopy(b, 0, target, base, k);
+        });
+    }
+
+    /**
+     * Compute the Gram matrix <em>Y<sup>T</sup>Y</em> of a factor matrix (lower triangle only).
+     */
+    private double[] gramMatrix(double[] factors, int nrows) {
+        final int k = featureCount;
+        final int blockSize = 1024;
+        final int nblocks = (nrows + blockSize - 1) / blockSize;
+        return IntStream.range(0, nblocks).parallel().mapToObj(blk -> {
+            double[] g = new double[k * k];
+            int end = Math.min(nrows, (blk + 1) * blockSize);
+            for (int r = blk * blockSize; r < end; r++) {
+                final int off = r * k;
+                for (int i = 0; i < k; i++) {
+                    final double fi = factors[off + i];
+                    final int ri = i * k;
+                    for (int j = 0; j <= i; j++) {
+                        g[ri + j] += fi * factors[off + j];
+                    }
+                }
+            }
+            return g;
+        }).reduce(new double[k * k], (g1, g2) -> {
+            double[] sum = new double[k * k];
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] = g1[i] + g2[i];
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Compute the RMSE of the model on the observed training data.  For implicit feedback, this is the error
+     * on the (unit) preferences of the observed pairs.
+     */
+    private double trainingRMSE(SparseRows byUser, double[] userFeatures, double[] itemFeatures) {
+        final int k = featureCount;
+        int n = byUser.offsets[byUser.size()];
+        if (n == 0) {
+            return 0;
+        }
+        double sse = IntStream.range(0, byUser.size()).parallel().mapToDouble(u -> {
+            double sum = 0;
+            final int uoff = u * k;
+            for (int p = byUser.offsets[u]; p < byUser.offsets[u + 1]; p++) {
+                final int ioff = byUser.columns[p] * k;
+                double pred = 0;
+                for (int f = 0; f < k; f++) {
+                    pred += userFeatures[uoff + f] * itemFeatures[ioff + f];
+                }
+                double err = (implicit ? 1 : byUser.values[p]) - pred;
+                sum += err * err;
+            }
+            return sum;
+        }).sum();
+        return Math.sqrt(sse / n);
+    }
+
+    /**
+     * Ratings in compressed sparse row form.
+     */
+    private static final class SparseRows {
+        final int[] offsets;
+        final int[] columns;
+        final double[] values;
+
+        private SparseRows(int[] offsets, int[] columns, double[] values) {
+            this.offsets = offsets;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        int size() {
+            return offsets.length - 1;
+        }
+
+        static SparseRows build(int nrows, int[] rows, int[] cols, double[] vals) {
+            int[] offsets = new int[nrows + 1];
+            for (int r: rows) {
+                offsets[r + 1] += 1;
+            }
+            for (int r = 0; r < nrows; r++) {
+                offsets[r + 1] += offsets[r];
+            }
+            int[] fill = Arrays.copyOf(offsets, nrows);
+            int[] columns = new int[rows.length];
+            double[] values = new double[rows.length];
+            for (int p = 0; p < rows.length; p++) {
+                int pos = fill[rows[p]]++;
+                columns[pos] = cols[p];
+                values[pos] = vals[p];
+            }
+            return new SparseRows(offsets, columns, values);
+        }
+    }
+}
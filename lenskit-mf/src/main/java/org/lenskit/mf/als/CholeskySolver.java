@@ -0,0 +1,85 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.als;
+
+/**
+ * Solver for small dense symmetric positive definite systems, used for the per-row ALS solves.
+ */
+final class CholeskySolver {
+    private CholeskySolver() {
+    }
+
+    /**
+     * Solve the system <em>Ax = b</em> in place.
+     *
+     * @param a The matrix <em>A</em>, in row-major order.  Only the lower triangle is read; it is overwritten
+     *          with the Cholesky factor.
+     * @param b The vector <em>b</em>; it is overwritten with the solution <em>x</em>.
+     * @param k The dimension of the system.
+     * @throws IllegalStateException if the matrix is not positive definite.
+     */
+    static void solve(double[] a, double[] b, int k) {
+        // decompose A = LL^T, storing L in the lower triangle of A
+        for (int j = 0; j < k; j++) {
+            final int rj = j * k;
+            double d = a[rj + j];
+            for (int p = 0; p < j; p++) {
+                d -= a[rj + p] * a[rj + p];
+            }
+            if (d <= 0) {
+                throw new IllegalStateException("matrix is not positive definite");
+            }
+            d = Math.sqrt(d);
+            a[rj + j] = d;
+            for (int i = j + 1; i < k; i++) {
+                final int ri = i * k;
+                double s = a[ri + j];
+                for (int p = 0; p < j; p++) {
+                    s -= a[ri + p] * a[rj + p];
+                }
+                a[ri + j] = s / d;
+            }
+        }
+
+        // forward substitution: Lz = b
+        for (int i = 0; i < k; i++) {
+            final int ri = i * k;
+            double s = b[i];
+            for (int p = 0; p < i; p++) {
+                s -= a[ri + p] * b[p];
+            }
+            b[i] = s / a[ri + i];
+        }
+
+        // back substitution: L^T x = z
+        for (int i = k - 1; i >= 0; i--) {
+            double s = b[i];
+            for (int p = i + 1; p < k; p++) {
+                s -= a[p * k + i] * b[p];
+            }
+            b[i] = s / a[i * k + i];
+        }
+    }
+}
@@ -24,11 +24,11 @@
  */
 package org.lenskit.mf.funksvd;
 
-import org.apache.commons.math3.linear.RealVector;
 import org.grouplens.grapht.annotation.DefaultImplementation;
 import org.lenskit.bias.BiasModel;
 import org.lenskit.data.ratings.PreferenceDomain;
 import org.lenskit.mf.BiasedMFItemScorer;
+import org.lenskit.mf.FactorMatrix;
 import org.lenskit.mf.MFModel;
 
 import javax.annotation.Nonnull;
@@ -61,14 +61,13 @@ public class FunkSVDItemScorer extends BiasedMFItemScorer {
     }
 
     @Override
-    protected double computeScore(double bias, @Nonnull RealVector user, @Nonnull RealVector item) {
+    protected double computeScore(double bias, @Nonnull double[] user, @Nonnull FactorMatrix items, int row) {
         if (domain == null) {
-            return super.computeScore(bias, user, item);
+            return super.computeScore(bias, user, items, row);
         } else {
             double result = bias;
-            int n = user.getDimension();
-            for (int i = 0; i < n; i++) {
-                result = domain.clampValue(result + user.getEntry(i) * item.getEntry(i));
+            for (int i = 0; i < user.length; i++) {
+                result = domain.clampValue(result + user[i] * items.get(row, i));
             }
             return result;
         }
@@ -30,6 +30,8 @@ import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
+import org.lenskit.mf.FactorMatrix;
+import org.lenskit.mf.FactorPrecision;
 import org.lenskit.mf.MFModel;
 import org.lenskit.util.keys.KeyIndex;
 
@@ -52,7 +54,13 @@ public final class FunkSVDModel extends MFModel {
     public FunkSVDModel(RealMatrix umat, RealMatrix imat,
                         KeyIndex uidx, KeyIndex iidx,
                         List<FeatureInfo> features) {
-        super(umat, imat, uidx, iidx);
+        this(FactorMatrix.copyOf(umat), FactorMatrix.copyOf(imat), uidx, iidx, features);
+    }
+
+    public FunkSVDModel(FactorMatrix ufac, FactorMatrix ifac,
+                        KeyIndex uidx, KeyIndex iidx,
+                        List<FeatureInfo> features) {
+        super(ufac, ifac, uidx, iidx);
 
         featureInfo = ImmutableList.copyOf(features);
 
@@ -63,6 +71,15 @@ public final class FunkSVDModel extends MFModel {
         averageUser = MatrixUtils.createRealVector(means);
     }
 
+    @Override
+    public FunkSVDModel compact(FactorPrecision precision) {
+        if (getPrecision() == precision) {
+            return this;
+        }
+        return new FunkSVDModel(userFactors.compact(precision), itemFactors.compact(precision),
+                                userIndex, itemIndex, featureInfo);
+    }
+
     /**
      * Get the {@link FeatureInfo} for a particular feature.
      * @param f The feature number.
@@ -31,10 +31,13 @@ import org.apache.commons.math3.linear.RealVector;
 import org.lenskit.data.ratings.RatingMatrix;
 import org.lenskit.data.ratings.RatingMatrixEntry;
 import org.lenskit.inject.Transient;
+import org.lenskit.mf.FactorPrecision;
+import org.lenskit.mf.ServingPrecision;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import java.util.ArrayList;
@@ -55,23 +58,34 @@ import java.util.List;
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class FunkSVDModelProvider implements Provider<FunkSVDModel> {
-    private static Logger logger = LoggerFactory.getLogger(FunkSVDModelProvider.class);
+    private static final Logger logger = LoggerFactory.getLogger(FunkSVDModelProvider.class);
 
     protected final int featureCount;
     protected final RatingMatrix snapshot;
     protected final double initialValue;
 
     protected final FunkSVDUpdateRule rule;
+    @Nullable
+    protected final FactorPrecision servingPrecision;
 
-    @Inject
     public FunkSVDModelProvider(@Transient @Nonnull RatingMatrix snapshot,
                                 @Transient @Nonnull FunkSVDUpdateRule rule,
                                 @FeatureCount int featureCount,
                                 @InitialFeatureValue double initVal) {
+        this(snapshot, rule, featureCount, initVal, null);
+    }
+
+    @Inject
+    public FunkSVDModelProvider(@Transient @Nonnull RatingMatrix snapshot,
+                                @Transient @Nonnull FunkSVDUpdateRule rule,
+                                @FeatureCount int featureCount,
+                                @InitialFeatureValue double initVal,
+                                @ServingPrecision @Nullable FactorPrecision precision) {
         this.featureCount = featureCount;
         this.initialValue = initVal;
         this.snapshot = snapshot;
         this.rule = rule;
+        servingPrecision = precision;
     }
 
 
@@ -125,10 +139,15 @@ public class FunkSVDModelProvider implements Provider<FunkSVDModel> {
         }
 
         // Wrap the user/item matrices because we won't use or modify them again
-        return new FunkSVDModel(userFeatures,
-                                itemFeatures,
-                                snapshot.userIndex(), snapshot.itemIndex(),
-                                featureInfo);
+        FunkSVDModel model = new FunkSVDModel(userFeatures,
+                                              itemFeatures,
+                                              snapshot.userIndex(), snapshot.itemIndex(),
+                                              featureInfo);
+        if (servingPrecision != null) {
+            logger.info("compacting model to {} precision", servingPrecision);
+            model = model.compact(servingPrecision);
+        }
+        return model;
     }
 
     /**
@@ -0,0 +1,249 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.funksvd;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import org.lenskit.data.ratings.PreferenceDomain;
+import org.lenskit.data.ratings.RatingMatrix;
+import org.lenskit.data.ratings.RatingMatrixEntry;
+import org.lenskit.inject.Transient;
+import org.lenskit.mf.FactorPrecision;
+import org.lenskit.mf.ServingPrecision;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * FunkSVD model builder that trains each feature with lock-free parallel (Hogwild) stochastic gradient descent.
+ *
+ * <p>Features are still trained one at a time, as in {@link FunkSVDModelProvider}.  Within each epoch, the
+ * ratings are visited in a random order that is split into one contiguous chunk per thread, and the threads
+ * update shared primitive feature arrays without locking.  Since ratings are sparse, concurrent updates to the
+ * same user or item value are rare and the occasional lost update does not harm convergence.
+ *
+ * <p>The visiting order is drawn from the injected {@link Random}; with a seeded random number generator and
+ * a {@linkplain TrainingThreadCount thread count} of 1, training is deterministic.  With more threads, the
+ * result depends on thread scheduling.
+ *
+ * <p>To use this trainer, bind it as the provider of {@link FunkSVDModel}.
+ */
+public class ParallelFunkSVDModelProvider extends FunkSVDModelProvider {
+    private static Logger logger = LoggerFactory.getLogger(ParallelFunkSVDModelProvider.class);
+
+    private final int threadCount;
+    private final Random random;
+
+    private int[] users;
+    private int[] items;
+    private double[] values;
+    private ForkJoinPool pool;
+
+    public ParallelFunkSVDModelProvider(@Transient @Nonnull RatingMatrix snapshot,
+                                        @Transient @Nonnull FunkSVDUpdateRule rule,
+                                        @FeatureCount int featureCount,
+                                        @InitialFeatureValue double initVal,
+                                        @TrainingThreadCount int threads,
+                                        Random rng) {
+        this(snapshot, rule, featureCount, initVal, threads, rng, null);
+    }
+
+    @Inject
+    public ParallelFunkSVDModelProvider(@Transient @Nonnull RatingMatrix snapshot,
+                                        @Transient @Nonnull FunkSVDUpdateRule rule,
+                                        @FeatureCount int featureCount,
+                                        @InitialFeatureValue double initVal,
+                                        @TrainingThreadCount int threads,
+                                        Random rng,
+                                        @ServingPrecision @Nullable FactorPrecision precision) {
+        super(snapshot, rule, featureCount, initVal, precision);
+        threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        random = rng;
+    }
+
+    @Override
+    public FunkSVDModel get() {
+        List<RatingMatrixEntry> ratings = snapshot.getRatings();
+        int n = ratings.size();
+        users = new int[n];
+        items = new int[n];
+        values = new double[n];
+        for (int i = 0; i < n; i++) {
+            RatingMatrixEntry r = ratings.get(i);
+            users[i] = r.getUserIndex();
+            items[i] = r.getItemIndex();
+            values[i] = r.getValue();
+        }
+
+        logger.info("training with {} threads", threadCount);
+        pool = threadCount > 1 ? new ForkJoinPool(threadCount) : null;
+        try {
+            return super.get();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+            users = null;
+            items = null;
+            values = null;
+        }
+    }
+
+    @Override
+    protected double trainFeature(int feature, TrainingEstimator estimates,
+                                  RealVector userFeatureVector, RealVector itemFeatureVector,
+                                  FeatureInfo.Builder fib) {
+        List<RatingMatrixEntry> ratings = snapshot.getRatings();
+        final int n = ratings.size();
+        double[] est = new double[n];
+        for (int i = 0; i < n; i++) {
+            est[i] = estimates.get(ratings.get(i));
+        }
+
+        double[] ufvs = arrayOf(userFeatureVector);
+        double[] ifvs = arrayOf(itemFeatureVector);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+
+        double oldRMSE = Double.POSITIVE_INFINITY;
+        double rmse = Double.MAX_VALUE * 0.5;
+        double trail = initialValue * initialValue * (featureCount - feature - 1);
+        int epoch = 0;
+        while (rule.keepGoing(epoch, rmse, oldRMSE)) {
+            epoch += 1;
+            oldRMSE = rmse;
+            IntArrays.shuffle(order, random);
+            rmse = doParallelIteration(order, est, ufvs, ifvs, trail);
+            fib.addTrainingRound(rmse);
+            logger.trace("iteration {} finished with RMSE {}", epoch, rmse);
+        }
+
+        if (ufvs != getDataRef(userFeatureVector)) {
+            userFeatureVector.setSubVector(0, ufvs);
+        }
+        if (ifvs != getDataRef(itemFeatureVector)) {
+            itemFeatureVector.setSubVector(0, ifvs);
+        }
+        return rmse;
+    }
+
+    /**
+     * Do a single feature iteration over all ratings, splitting the work among the threads.
+     *
+     * @param order The order in which to visit ratings.
+     * @param est The estimates through the previous feature, by rating position.
+     * @param ufvs The user feature values.
+     * @param ifvs The item feature values.
+     * @param trail The sum of the remaining user-item-feature values.
+     * @return The RMSE of the iteration.
+     */
+    private double doParallelIteration(int[] order, double[] est, double[] ufvs, double[] ifvs, double trail) {
+        final int n = order.length;
+        if (pool == null) {
+            return Math.sqrt(trainChunk(order, 0, n, est, ufvs, ifvs, trail) / n);
+        }
+
+        List<Callable<Double>> tasks = new ArrayList<>(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            final int start = (int) ((long) n * t / threadCount);
+            final int end = (int) ((long) n * (t + 1) / threadCount);
+            tasks.add(() -> trainChunk(order, start, end, est, ufvs, ifvs, trail));
+        }
+        double sse = 0;
+        for (Future<Double> result: pool.invokeAll(tasks)) {
+            try {
+                sse += result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("training interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("error training feature", e.getCause());
+            }
+        }
+        return Math.sqrt(sse / n);
+    }
+
+    /**
+     * Train on a range of the rating order.  This applies the same update as {@link FunkSVDTrainingUpdater}.
+     *
+     * @return The sum of squared errors over the chunk.
+     */
+    private double trainChunk(int[] order, int start, int end, double[] est,
+                              double[] ufvs, double[] ifvs, double trail) {
+        final double lrate = rule.getLearningRate();
+        final double reg = rule.getTrainingRegularization();
+        final PreferenceDomain dom = rule.getDomain();
+        double sse = 0;
+        for (int k = start; k < end; k++) {
+            final int r = order[k];
+            final int uidx = users[r];
+            final int iidx = items[r];
+            final double uv = ufvs[uidx];
+            final double iv = ifvs[iidx];
+
+            double pred = est[r] + uv * iv;
+            if (dom != null) {
+                pred = dom.clampValue(pred);
+            }
+            pred += trail;
+            final double err = values[r] - pred;
+            sse += err * err;
+
+            ufvs[uidx] = uv + lrate * (err * iv - reg * uv);
+            ifvs[iidx] = iv + lrate * (err * uv - reg * iv);
+        }
+        return sse;
+    }
+
+    /**
+     * Get a primitive array for a vector, sharing its storage if possible.
+     */
+    private static double[] arrayOf(RealVector vec) {
+        double[] data = getDataRef(vec);
+        return data != null ? data : vec.toArray();
+    }
+
+    private static double[] getDataRef(RealVector vec) {
+        if (vec instanceof ArrayRealVector) {
+            return ((ArrayRealVector) vec).getDataRef();
+        } else {
+            return null;
+        }
+    }
+}
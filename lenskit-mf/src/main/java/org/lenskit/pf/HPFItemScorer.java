@@ -26,11 +26,12 @@ package org.lenskit.pf;
 
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
-import org.apache.commons.math3.linear.RealVector;
+
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
 import org.lenskit.results.Results;
+import org.lenskit.util.keys.KeyIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,18 +58,21 @@ public class HPFItemScorer extends AbstractItemScorer {
     @Nonnull
     @Override
     public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
-        RealVector uvec = model.getUserVector(user);
-        if (uvec == null) {
+        int uidx = model.getUserIndex().tryGetIndex(user);
+        if (uidx < 0) {
             return Results.newResultMap();
         }
+        double[] uvec = new double[model.getFeatureCount()];
+        model.getUserRow(uidx, uvec);
+        KeyIndex itemIndex = model.getItemIndex();
 
         List<Result> results = new ArrayList<>(items.size());
         LongIterator iter = LongIterators.asLongIterator(items.iterator());
         while (iter.hasNext()) {
             long item = iter.nextLong();
-            RealVector ivec = model.getItemVector(item);
-            if (ivec != null) {
-                double score = uvec.dotProduct(ivec);
+            int iidx = itemIndex.tryGetIndex(item);
+            if (iidx >= 0) {
+                double score = model.dotProduct(uvec, iidx);
                 if (isProbPrediction) {
                     score = 1 - Math.exp(-score);
                 }
@@ -27,6 +27,8 @@ package org.lenskit.pf;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
+import org.lenskit.mf.FactorMatrix;
+import org.lenskit.mf.FactorPrecision;
 import org.lenskit.mf.MFModel;
 import org.lenskit.util.keys.KeyIndex;
 
@@ -55,4 +57,25 @@ public final class HPFModel extends MFModel {
                     KeyIndex uidx, KeyIndex iidx) {
         super(umat, imat, uidx, iidx);
     }
+
+    /**
+     * Construct a Poisson Factorization Model from factor matrices.
+     * @param ufac The user factors (users x features).
+     * @param ifac The item factors (items x features).
+     * @param uidx The user index mapping
+     * @param iidx The item index mapping
+     */
+    public HPFModel(FactorMatrix ufac, FactorMatrix ifac,
+                    KeyIndex uidx, KeyIndex iidx) {
+        super(ufac, ifac, uidx, iidx);
+    }
+
+    @Override
+    public HPFModel compact(FactorPrecision precision) {
+        if (getPrecision() == precision) {
+            return this;
+        }
+        return new HPFModel(userFactors.compact(precision), itemFactors.compact(precision),
+                            userIndex, itemIndex);
+    }
 }
@@ -26,21 +26,25 @@ package org.lenskit.pf;
 
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.special.Gamma;
 import org.grouplens.lenskit.iterative.IterationCount;
 import org.grouplens.lenskit.iterative.StoppingThreshold;
 import org.lenskit.data.ratings.RatingMatrixEntry;
 import org.lenskit.inject.Transient;
+import org.lenskit.mf.FactorPrecision;
+import org.lenskit.mf.ServingPrecision;
 import org.lenskit.util.keys.KeyIndex;
+import org.lenskit.util.math.Scalars;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.*;
-
-import static java.util.stream.Collectors.groupingBy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 /**
  * Parallel Implementation of HPF recommender builder.
@@ -49,11 +53,22 @@ import static java.util.stream.Collectors.groupingBy;
  * using a mean-field variational inference algorithm. These are documented in
  * <a href="https://arxiv.org/abs/1311.1704">Original paper: Scalable Recommendation with Poisson Factorization</a>.</p>
  *
+ * <p>The variational parameters are kept in flat row-major arrays, double-buffered between iterations, and the
+ * user and item updates run in parallel over fixed blocks of rows.  Each block draws its initial values from its
+ * own random stream split from the {@link RandomSeed}, and per-block sums are combined in block order, so the
+ * model is reproducible for a given seed regardless of thread scheduling.</p>
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class HPFModelParallelProvider implements Provider<HPFModel> {
     private static Logger logger = LoggerFactory.getLogger(HPFModelParallelProvider.class);
 
+    /**
+     * The number of rows in each parallel work block.  This is part of the definition of the random streams,
+     * so changing it changes the model produced for a given seed.
+     */
+    private static final int BLOCK_SIZE = 256;
+
     private final DataSplitStrategy ratings;
     private final PFHyperParameters hyperParameters;
     private final int iterationFrequency;
@@ -63,9 +78,10 @@ public class HPFModelParallelProvider implements Provider<HPFModel> {
     private final boolean isProbPrediction;
     private final double threshold;
     private final int maxIterCount;
+    @Nullable
+    private final FactorPrecision servingPrecision;
 
 
-    @Inject
     public HPFModelParallelProvider(@Transient DataSplitStrategy rndRatings,
                                     PFHyperParameters hyperParams,
                                     @ConvergenceCheckFrequency int iterFreq,
@@ -75,6 +91,20 @@ public class HPFModelParallelProvider implements Provider<HPFModel> {
                                     @IsProbabilityPrediction boolean probPred,
                                     @StoppingThreshold double threshld,
                                     @IterationCount int maxIter) {
+        this(rndRatings, hyperParams, iterFreq, seed, maxOffS, maxOffR, probPred, threshld, maxIter, null);
+    }
+
+    @Inject
+    public HPFModelParallelProvider(@Transient DataSplitStrategy rndRatings,
+                                    PFHyperParameters hyperParams,
+                                    @ConvergenceCheckFrequency int iterFreq,
+                                    @RandomSeed int seed,
+                                    @MaxRandomOffsetForShape double maxOffS,
+                                    @MaxRandomOffsetForRate double maxOffR,
+                                    @IsProbabilityPrediction boolean probPred,
+                                    @StoppingThreshold double threshld,
+                                    @IterationCount int maxIter,
+                                    @ServingPrecision @Nullable FactorPrecision precision) {
 
         ratings = rndRatings;
         hyperParameters = hyperParams;
@@ -85,6 +115,7 @@ public class HPFModelParallelProvider implements Provider<HPFModel> {
         isProbPrediction = probPred;
         threshold = threshld;
         maxIterCount = maxIter;
+        servingPrecision = precision;
     }
 
     @Override
@@ -93,89 +124,63 @@ public class HPFModelParallelProvider implements Provider<HPFModel> {
         final int userNum = ratings.getUserIndex().size();
         final int itemNum = ratings.getItemIndex().size();
         final int featureCount = hyperParameters.getFeatureCount();
-        final double userWeightShpPrior = hyperParameters.getUserWeightShpPrior();
-        final double userActivityShpPrior = hyperParameters.getUserActivityShpPrior();
-        final double userActivityPriorMean = hyperParameters.getUserActivityPriorMean();
-        final double itemWeightShpPrior = hyperParameters.getItemWeightShpPrior();
-        final double itemActivityShpPrior = hyperParameters.getItemActivityShpPrior();
-        final double itemActivityPriorMean = hyperParameters.getItemActivityPriorMean();
-
-        PMFModel preUserModel = new PMFModel();
-        PMFModel preItemModel = new PMFModel();
-        Random random = new Random(rndSeed);
-        preUserModel.initialize(userWeightShpPrior, userActivityShpPrior, userActivityPriorMean, userNum, featureCount, maxOffsetShp, maxOffsetRte, random);
-        preItemModel.initialize(itemWeightShpPrior, itemActivityShpPrior, itemActivityPriorMean, itemNum, featureCount, maxOffsetShp, maxOffsetRte, random);
+
+        List<RatingMatrixEntry> train = ratings.getTrainRatings();
+        SparseRows userRatings = SparseRows.build(userNum, train, true);
+        SparseRows itemRatings = SparseRows.build(itemNum, train, false);
+
+        SplittableRandom random = new SplittableRandom(rndSeed);
+        FactorState preUser = new FactorState(userNum, featureCount);
+        FactorState preItem = new FactorState(itemNum, featureCount);
+        preUser.initialize(hyperParameters.getUserWeightShpPrior(), hyperParameters.getUserActivityShpPrior(),
+                           maxOffsetShp, maxOffsetRte, random);
+        preItem.initialize(hyperParameters.getItemWeightShpPrior(), hyperParameters.getItemActivityShpPrior(),
+                           maxOffsetShp, maxOffsetRte, random);
+        FactorState currUser = new FactorState(userNum, featureCount);
+        FactorState currItem = new FactorState(itemNum, featureCount);
         logger.info("initialization finished");
 
         final List<RatingMatrixEntry> validation = ratings.getValidationRatings();
 
-        Map<Integer, List<RatingMatrixEntry>> groupRatingsByUser = ratings.getTrainRatings()
-                .parallelStream()
-                .collect(groupingBy(RatingMatrixEntry::getUserIndex));
-        Map<Integer, List<RatingMatrixEntry>> groupRatingsByItem = ratings.getTrainRatings()
-                .parallelStream()
-                .collect(groupingBy(RatingMatrixEntry::getItemIndex));
-
-        //fill out dummy entry in order to allow parallel update to cover all indices
-        for (int u = 0; u < userNum; u++) {
-            if (!groupRatingsByUser.containsKey(u)) {
-                List<RatingMatrixEntry> ratings = new ArrayList<>();
-
-                RatingMatrixEntry entry = new DummyEntry(u);
-                ratings.add(entry);
-                groupRatingsByUser.put(u, ratings);
-            }
-        }
-
-        for (int i = 0; i < itemNum; i++) {
-            if (!groupRatingsByItem.containsKey(i)) {
-                List<RatingMatrixEntry> ratings = new ArrayList<>();
-
-                RatingMatrixEntry entry = new DummyEntry(i);
-                ratings.add(entry);
-                groupRatingsByItem.put(i, ratings);
-            }
-        }
-
         double avgPLLPre = Double.MAX_VALUE;
         double avgPLLCurr = 0.0;
         double diffPLL = 1.0;
         int iterCount = 1;
 
         while (iterCount < maxIterCount && diffPLL > threshold) {
-
-            final PMFModel finalPreUserModel = preUserModel;
-            final PMFModel finalPreItemModel = preItemModel;
-
-            PMFModel currUserModel = groupRatingsByUser.values()
-                    .parallelStream()
-                    .map(e -> PMFModel.computeUserUpdate(e, finalPreUserModel, finalPreItemModel, hyperParameters))
-                    .collect(new PMFModelCollector());
+            // both halves compute phi from the previous iteration's parameters
+            preUser.computeExpectedLogs();
+            preItem.computeExpectedLogs();
+
+            update(currUser, preUser, preItem, preItem.sumOfMeanWeight, userRatings,
+                   hyperParameters.getUserWeightShpPrior(),
+                   hyperParameters.getUserActivityShpPrior(),
+                   hyperParameters.getUserActivityPriorMean());
             logger.info("iteration {} user update finished", iterCount);
 
-            PMFModel currItemModel = groupRatingsByItem.values()
-                    .parallelStream()
-                    .map(e -> PMFModel.computeItemUpdate(e, finalPreUserModel, finalPreItemModel, currUserModel, hyperParameters))
-                    .collect(new PMFModelCollector());
+            update(currItem, preItem, preUser, currUser.sumOfMeanWeight, itemRatings,
+                   hyperParameters.getItemWeightShpPrior(),
+                   hyperParameters.getItemActivityShpPrior(),
+                   hyperParameters.getItemActivityPriorMean());
             logger.info("iteration {} item update finished", iterCount);
 
-            preUserModel = currUserModel;
-            preItemModel = currItemModel;
+            FactorState tmp = preUser;
+            preUser = currUser;
+            currUser = tmp;
+            tmp = preItem;
+            preItem = currItem;
+            currItem = tmp;
 
             if ((iterCount % iterationFrequency) == 0) {
-                Iterator<RatingMatrixEntry> valIter = validation.iterator();
                 avgPLLCurr = 0.0;
 
-                while (valIter.hasNext()) {
-                    RatingMatrixEntry ratingEntry = valIter.next();
+                for (RatingMatrixEntry ratingEntry: validation) {
                     int user = ratingEntry.getUserIndex();
                     int item = ratingEntry.getItemIndex();
                     double rating = ratingEntry.getValue();
                     double eThetaBeta = 0.0;
                     for (int k = 0; k < featureCount; k++) {
-                        double eThetaUK = currUserModel.getWeightShpEntry(user, k) / currUserModel.getWeightRteEntry(user, k);
-                        double eBetaIK = currItemModel.getWeightShpEntry(item, k) / currItemModel.getWeightRteEntry(item, k);
-                        eThetaBeta += eThetaUK * eBetaIK;
+                        eThetaBeta += preUser.mean(user, k) * preItem.mean(item, k);
                     }
                     double pLL = 0.0;
                     if (isProbPrediction) {
@@ -194,74 +199,245 @@ public class HPFModelParallelProvider implements Provider<HPFModel> {
         }
 
         // construct feature matrix used by HPFModel
-        RealMatrix eTheta = MatrixUtils.createRealMatrix(userNum, featureCount);
-        RealMatrix eBeta = MatrixUtils.createRealMatrix(itemNum, featureCount);
-        for (int user = 0; user < userNum; user++) {
-            RealVector eThetaU = MatrixUtils.createRealVector(new double[featureCount]);
-            for (int k = 0; k < featureCount; k++) {
-                double gammaShpUK = preUserModel.getWeightShpEntry(user, k);
-                double gammaRteUK = preUserModel.getWeightRteEntry(user, k);
-                double value = gammaShpUK / gammaRteUK;
-                eThetaU.setEntry(k, value);
-            }
+        RealMatrix eTheta = preUser.meanMatrix();
+        RealMatrix eBeta = preItem.meanMatrix();
+
+        KeyIndex uidx = ratings.getUserIndex();
+        KeyIndex iidx = ratings.getItemIndex();
 
-            eTheta.setRowVector(user, eThetaU);
-            logger.info("Training user {} features finished",user);
+        HPFModel model = new HPFModel(eTheta, eBeta, uidx, iidx);
+        if (servingPrecision != null) {
+            logger.info("compacting model to {} precision", servingPrecision);
+            model = model.compact(servingPrecision);
         }
+        return model;
+    }
 
-        for (int item = 0; item < itemNum; item++) {
-            RealVector eBetaI = MatrixUtils.createRealVector(new double[featureCount]);
-            for (int k = 0; k < featureCount; k++) {
-                double lambdaShpIK = preItemModel.getWeightShpEntry(item, k);
-                double lambdaRteIK = preItemModel.getWeightRteEntry(item, k);
-                double value = lambdaShpIK / lambdaRteIK;
-                eBetaI.setEntry(k, value);
+    /**
+     * Update the parameters of one side (users or items) of the model.
+     *
+     * @param next The state to write.
+     * @param self The previous state of this side.
+     * @param other The previous state of the other side.
+     * @param otherMeanSums The sum of the other side's expected weights, by feature.  For the user update, this is
+     *                      from the previous item state; for the item update, it is from the updated user state.
+     * @param rows The ratings by row of this side.
+     * @param weightShpPrior The weight shape prior.
+     * @param activityShpPrior The activity shape prior.
+     * @param activityPriorMean The activity prior mean.
+     */
+    private static void update(FactorState next, FactorState self, FactorState other, double[] otherMeanSums,
+                               SparseRows rows, double weightShpPrior, double activityShpPrior,
+                               double activityPriorMean) {
+        final int k = next.featureCount;
+        final int nblocks = next.blockCount();
+        final double[][] blockSums = new double[nblocks][k];
+        final double initActivityShp = activityShpPrior + k * weightShpPrior;
+        final double initActivityRte = activityShpPrior / activityPriorMean;
+
+        IntStream.range(0, nblocks).parallel().forEach(b -> {
+            double[] phi = new double[k];
+            double[] sums = blockSums[b];
+            int end = Math.min(next.rowCount, (b + 1) * BLOCK_SIZE);
+            for (int row = b * BLOCK_SIZE; row < end; row++) {
+                final int base = row * k;
+                Arrays.fill(next.weightShp, base, base + k, weightShpPrior);
+
+                for (int p = rows.offsets[row]; p < rows.offsets[row + 1]; p++) {
+                    double rating = rows.values[p];
+                    if (rating <= 0) {
+                        continue;
+                    }
+                    final int obase = rows.columns[p] * k;
+                    for (int f = 0; f < k; f++) {
+                        phi[f] = self.expectedLog[base + f] + other.expectedLog[obase + f];
+                    }
+                    logNormalize(phi);
+                    if (rating > 1) {
+                        for (int f = 0; f < k; f++) {
+                            phi[f] *= rating;
+                        }
+                    }
+                    for (int f = 0; f < k; f++) {
+                        next.weightShp[base + f] += phi[f];
+                    }
+                }
+
+                double meanActivity = self.activityShp[row] / self.activityRte[row];
+                double activityRte = initActivityRte;
+                for (int f = 0; f < k; f++) {
+                    double rte = meanActivity + otherMeanSums[f];
+                    next.weightRte[base + f] = rte;
+                    double mean = next.weightShp[base + f] / rte;
+                    activityRte += mean;
+                    sums[f] += mean;
+                }
+                next.activityShp[row] = initActivityShp;
+                next.activityRte[row] = activityRte;
+            }
+        });
+
+        Arrays.fill(next.sumOfMeanWeight, 0);
+        for (double[] sums: blockSums) {
+            for (int f = 0; f < k; f++) {
+                next.sumOfMeanWeight[f] += sums[f];
             }
-            eBeta.setRowVector(item, eBetaI);
-            logger.info("Training item {} features finished", item);
         }
+    }
 
-        KeyIndex uidx = ratings.getUserIndex();
-        KeyIndex iidx = ratings.getItemIndex();
+    private static void logNormalize(double[] phi) {
+        final int size = phi.length;
+        if (size == 1) {
+            phi[0] = 1.0;
+        }
 
-        return new HPFModel(eTheta, eBeta, uidx, iidx);
-    }
+        if (size > 1) {
+            double logsum = phi[0];
+            for (int k = 1; k < size; k++) {
+                double phiK = phi[k];
+                if (phiK < logsum) {
+                    logsum = logsum + Math.log(1 + Math.exp(phiK - logsum));
+                } else {
+                    logsum = phiK + Math.log(1 + Math.exp(logsum - phiK));
+                }
+            }
 
-    private class DummyEntry extends RatingMatrixEntry {
-        final int index;
-        public DummyEntry(int i) {
-            index = i;
+            for (int k = 0; k < size; k++) {
+                phi[k] = Math.exp(phi[k] - logsum);
+            }
         }
+    }
 
-        @Override
-        public long getUserId() {
-            return 0;
+    /**
+     * Variational parameters for one side (users or items) of the model, stored row-major.
+     */
+    private static final class FactorState {
+        final int rowCount;
+        final int featureCount;
+        final double[] weightShp;
+        final double[] weightRte;
+        final double[] activityShp;
+        final double[] activityRte;
+        final double[] sumOfMeanWeight;
+        /**
+         * Cache of E[log weight] = digamma(shape) - log(rate), computed once per iteration.
+         */
+        final double[] expectedLog;
+
+        FactorState(int rows, int features) {
+            rowCount = rows;
+            featureCount = features;
+            weightShp = new double[rows * features];
+            weightRte = new double[rows * features];
+            activityShp = new double[rows];
+            activityRte = new double[rows];
+            sumOfMeanWeight = new double[features];
+            expectedLog = new double[rows * features];
         }
 
-        @Override
-        public int getUserIndex() {
-            return index;
+        int blockCount() {
+            return (rowCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
         }
 
-        @Override
-        public long getItemId() {
-            return 0;
+        double mean(int row, int feature) {
+            int idx = row * featureCount + feature;
+            return weightShp[idx] / weightRte[idx];
         }
 
-        @Override
-        public int getItemIndex() {
-            return index;
+        /**
+         * Randomly initialize the parameters, offsetting the priors by uniform random amounts.  Each block of rows gets its own random stream, split from the
+         * parent stream in block order.
+         */
+        void initialize(double weightShpPrior, double activityShpPrior,
+                        double offsetShp, double offsetRte, SplittableRandom random) {
+            final int k = featureCount;
+            final int nblocks = blockCount();
+            final double activityRteInit = activityShpPrior + k;
+            final SplittableRandom[] streams = new SplittableRandom[nblocks];
+            for (int b = 0; b < nblocks; b++) {
+                streams[b] = random.split();
+            }
+            final double[][] blockSums = new double[nblocks][k];
+
+            IntStream.range(0, nblocks).parallel().forEach(b -> {
+                SplittableRandom rng = streams[b];
+                double[] sums = blockSums[b];
+                int end = Math.min(rowCount, (b + 1) * BLOCK_SIZE);
+                for (int row = b * BLOCK_SIZE; row < end; row++) {
+                    final int base = row * k;
+                    for (int f = 0; f < k; f++) {
+                        weightShp[base + f] = weightShpPrior + offsetShp * rng.nextDouble();
+                        weightRte[base + f] = activityShpPrior + offsetRte * rng.nextDouble();
+                        sums[f] += weightShp[base + f] / weightRte[base + f];
+                    }
+                    activityShp[row] = activityShpPrior + offsetShp * rng.nextDouble();
+                    activityRte[row] = activityRteInit;
+                }
+            });
+
+            for (double[] sums: blockSums) {
+                for (int f = 0; f < k; f++) {
+                    sumOfMeanWeight[f] += sums[f];
+                }
+            }
         }
 
-        @Override
-        public int getIndex() {
-            return 0;
+        /**
+         * Compute the expected log weights from the current shapes and rates.
+         */
+        void computeExpectedLogs() {
+            IntStream.range(0, weightShp.length).parallel().forEach(i -> {
+                expectedLog[i] = Scalars.digamma(weightShp[i]) - Math.log(weightRte[i]);
+            });
         }
 
-        @Override
-        public double getValue() {
-            return 0;
+        /**
+         * Get the matrix of expected weights.
+         */
+        RealMatrix meanMatrix() {
+            double[][] data = new double[rowCount][featureCount];
+            for (int row = 0; row < rowCount; row++) {
+                for (int f = 0; f < featureCount; f++) {
+                    data[row][f] = mean(row, f);
+                }
+            }
+            return MatrixUtils.createRealMatrix(data);
         }
     }
 
+    /**
+     * Ratings grouped by user or by item in compressed sparse row form.
+     */
+    private static final class SparseRows {
+        final int[] offsets;
+        final int[] columns;
+        final double[] values;
+
+        private SparseRows(int[] offsets, int[] columns, double[] values) {
+            this.offsets = offsets;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        static SparseRows build(int nrows, List<RatingMatrixEntry> entries, boolean byUser) {
+            int n = entries.size();
+            int[] offsets = new int[nrows + 1];
+            for (RatingMatrixEntry e: entries) {
+                offsets[(byUser ? e.getUserIndex() : e.getItemIndex()) + 1] += 1;
+            }
+            for (int r = 0; r < nrows; r++) {
+                offsets[r + 1] += offsets[r];
+            }
+            int[] fill = Arrays.copyOf(offsets, nrows);
+            int[] columns = new int[n];
+            double[] values = new double[n];
+            for (RatingMatrixEntry e: entries) {
+                int row = byUser ? e.getUserIndex() : e.getItemIndex();
+                int pos = fill[row]++;
+                columns[pos] = byUser ? e.getItemIndex() : e.getUserIndex();
+                values[pos] = e.getValue();
+            }
+            return new SparseRows(offsets, columns, values);
+        }
+    }
 }
@@ -0,0 +1,99 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.bias.GlobalBiasModel;
+import org.lenskit.util.keys.HashKeyIndex;
+
+import javax.annotation.Nonnull;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Test that subclasses overriding the deprecated scoring hooks are still honored.
+ */
+public class BiasedMFScoreHookTest {
+    private MFModel model;
+
+    @Before
+    public void createModel() {
+        RealMatrix umat = MatrixUtils.createRealMatrix(1, 2);
+        umat.setRow(0, new double[]{0.1, 0.3});
+        HashKeyIndex uidx = new HashKeyIndex();
+        uidx.internId(1);
+
+        RealMatrix imat = MatrixUtils.createRealMatrix(2, 2);
+        imat.setRow(0, new double[]{0.52, 0.29});
+        imat.setRow(1, new double[]{0.3, -1.2});
+        HashKeyIndex iidx = new HashKeyIndex();
+        iidx.internId(42);
+        iidx.internId(39);
+
+        model = new MFModel(umat, imat, uidx, iidx);
+    }
+
+    @Test
+    public void testDefaultKernel() {
+        BiasedMFItemScorer scorer = new BiasedMFItemScorer(model, new GlobalBiasModel(3.0));
+        Result score = scorer.score(1, 39);
+        assertThat(score, notNullValue());
+        assertThat(score.getScore(), closeTo(3.0 + 0.1 * 0.3 - 0.3 * 1.2, 1.0e-6));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testOverriddenVectorHook() {
+        BiasedMFItemScorer scorer = new BiasedMFItemScorer(model, new GlobalBiasModel(3.0)) {
+            @Override
+            protected double computeScore(double bias, @Nonnull RealVector user, @Nonnull RealVector item) {
+                return bias + 2 * user.dotProduct(item);
+            }
+        };
+        Result score = scorer.score(1, 42);
+        assertThat(score, notNullValue());
+        assertThat(score.getScore(), closeTo(3.0 + 2 * (0.1 * 0.52 + 0.3 * 0.29), 1.0e-6));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testOverriddenArrayHook() {
+        BiasedMFItemScorer scorer = new BiasedMFItemScorer(model, new GlobalBiasModel(3.0)) {
+            @Override
+            protected double computeScore(double bias, @Nonnull double[] user, @Nonnull double[] itemData, int offset) {
+                return bias - user[0] * itemData[offset] - user[1] * itemData[offset + 1];
+            }
+        };
+        Result score = scorer.score(1, 39);
+        assertThat(score, notNullValue());
+        assertThat(score.getScore(), closeTo(3.0 - 0.1 * 0.3 + 0.3 * 1.2, 1.0e-6));
+    }
+}
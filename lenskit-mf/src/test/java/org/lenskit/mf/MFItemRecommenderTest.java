@@ -0,0 +1,246 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.api.ResultMap;
+import org.lenskit.basic.TopNItemRecommender;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.bias.UserItemBiasModel;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.keys.HashKeyIndex;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MFItemRecommenderTest {
+    private static final int USERS = 20;
+    private static final int ITEMS = 500;
+    private static final int FEATURES = 6;
+
+    private DataAccessObject dao;
+    private MFModel model;
+    private BiasModel bias;
+    private LongSet allItems;
+
+    @Before
+    public void createModel() {
+        Random rng = new Random(42);
+        RealMatrix umat = MatrixUtils.createRealMatrix(USERS, FEATURES);
+        RealMatrix imat = MatrixUtils.createRealMatrix(ITEMS, FEATURES);
+        HashKeyIndex uidx = new HashKeyIndex();
+        HashKeyIndex iidx = new HashKeyIndex();
+        Long2DoubleOpenHashMap ubias = new Long2DoubleOpenHashMap();
+        Long2DoubleOpenHashMap ibias = new Long2DoubleOpenHashMap();
+        allItems = new LongOpenHashSet();
+        for (int u = 0; u < USERS; u++) {
+            uidx.internId(u + 1);
+            ubias.put(u + 1, rng.nextGaussian() * 0.2);
+            for (int f = 0; f < FEATURES; f++) {
+                umat.setEntry(u, f, rng.nextGaussian());
+            }
+        }
+        for (int i = 0; i < ITEMS; i++) {
+            iidx.internId(i + 1000);
+            allItems.add(i + 1000);
+            ibias.put(i + 1000, rng.nextGaussian() * 0.5);
+            for (int f = 0; f < FEATURES; f++) {
+                imat.setEntry(i, f, rng.nextGaussian() * (1 + i % 3));
+            }
+        }
+        model = new MFModel(umat, imat, uidx, iidx);
+        bias = new UserItemBiasModel(3.5, ubias, ibias);
+
+        List<Rating> ratings = new ArrayList<>();
+        for (int u = 0; u < USERS; u++) {
+            for (int j = 0; j < 10; j++) {
+                ratings.add(Rating.create(u + 1, 1000 + rng.nextInt(ITEMS), 1 + rng.nextInt(5)));
+            }
+        }
+        dao = StaticDataSource.fromList(ratings).get();
+    }
+
+    private List<Long> expected(long user, int n) {
+        TopNItemRecommender rec = new TopNItemRecommender(dao, new BiasedMFItemScorer(model, bias));
+        return rec.recommend(user, n, allItems, null);
+    }
+
+    @Test
+    public void testExactMatchesScorer() {
+        InnerProductSearch search = new ExactInnerProductSearch(model, bias);
+        MFItemRecommender rec = new MFItemRecommender(dao, new BiasedMFItemScorer(model, bias),
+                                                      model, bias, search);
+        for (long u = 1; u <= USERS; u++) {
+            assertThat(rec.recommend(u, 10), contains(expected(u, 10).toArray()));
+        }
+    }
+
+    @Test
+    public void testDetailsScoresMatchScorer() {
+        BiasedMFItemScorer scorer = new BiasedMFItemScorer(model, bias);
+        MFItemRecommender rec = new MFItemRecommender(dao, scorer, model, bias,
+                                                      new ExactInnerProductSearch(model, bias));
+        ResultList results = rec.recommendWithDetails(3, 5, null, null);
+        assertThat(results, hasSize(5));
+        for (Result r: results) {
+            assertThat(r.getScore(), closeTo(scorer.score(3, r.getId()).getScore(), 1.0e-8));
+        }
+    }
+
+    @Test
+    public void testResultsUseScorerScores() {
+        // a scorer that clamps, as scorers with a preference domain do
+        BiasedMFItemScorer scorer = new BiasedMFItemScorer(model, bias) {
+            @Override
+            protected double computeScore(double bias, @Nonnull double[] user, @Nonnull FactorMatrix items, int row) {
+                return Math.min(4.0, super.computeScore(bias, user, items, row));
+            }
+        };
+        MFItemRecommender rec = new MFItemRecommender(dao, scorer, model, bias,
+                                                      new ExactInnerProductSearch(model, bias));
+        for (long u = 1; u <= USERS; u++) {
+            ResultList results = rec.recommendWithDetails(u, 10, null, null);
+            assertThat(results, hasSize(10));
+            for (Result r: results) {
+                assertThat(r.getScore(), lessThanOrEqualTo(4.0));
+                assertThat(r.getScore(), equalTo(scorer.score(u, r.getId()).getScore()));
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownUserFallsBack() {
+        MFItemRecommender rec = new MFItemRecommender(dao, new BiasedMFItemScorer(model, bias),
+                                                      model, bias, new ExactInnerProductSearch(model, bias));
+        assertThat(rec.recommend(42, 10), hasSize(0));
+    }
+
+    @Test
+    public void testClusteredProbingAllIsExact() {
+        InnerProductSearch search = new ClusteredInnerProductSearch.Builder(model, bias, 10, 10, new Random(1)).get();
+        MFItemRecommender rec = new MFItemRecommender(dao, new BiasedMFItemScorer(model, bias),
+                                                      model, bias, search);
+        for (long u = 1; u <= USERS; u++) {
+            assertThat(rec.recommend(u, 10), contains(expected(u, 10).toArray()));
+        }
+    }
+
+    @Test
+    public void testClusteredEmptyModel() {
+        MFModel empty = new MFModel(FEATURES, new double[0], new double[0], new HashKeyIndex(), new HashKeyIndex());
+        ClusteredInnerProductSearch search =
+                new ClusteredInnerProductSearch.Builder(empty, bias, 0, 5, new Random(1)).get();
+        assertThat(search.getClusterCount(), equalTo(0));
+        assertThat(search.search(new double[FEATURES + 1], 10).length, equalTo(0));
+    }
+
+    @Test
+    public void testClusteredRecall() {
+        ClusteredInnerProductSearch search =
+                new ClusteredInnerProductSearch.Builder(model, bias, 20, 5, new Random(1)).get();
+        assertThat(search.getClusterCount(), equalTo(20));
+        MFItemRecommender rec = new MFItemRecommender(dao, new BiasedMFItemScorer(model, bias),
+                                                      model, bias, search);
+        int found = 0;
+        for (long u = 1; u <= USERS; u++) {
+            List<Long> recs = rec.recommend(u, 10);
+            assertThat(recs, hasSize(10));
+            List<Long> exact = expected(u, 10);
+            for (Long item: recs) {
+                if (exact.contains(item)) {
+                    found += 1;
+                }
+            }
+        }
+        assertThat(found, greaterThan(USERS * 10 / 2));
+    }
+
+    @Test
+    public void testBatchMatchesSingleUser() {
+        BiasedMFItemScorer scorer = new BiasedMFItemScorer(model, bias);
+        MFItemRecommender rec = new MFItemRecommender(dao, scorer, model, bias,
+                                                      new ExactInnerProductSearch(model, bias));
+        List<Long> users = new ArrayList<>();
+        for (long u = 1; u <= USERS; u++) {
+            users.add(u);
+        }
+        users.add(42L);
+        Map<Long, ResultList> batch = rec.recommendWithDetails(users, 10);
+        assertThat(batch.keySet(), hasSize(USERS + 1));
+        for (long u = 1; u <= USERS; u++) {
+            ResultList single = rec.recommendWithDetails(u, 10, null, null);
+            ResultList fromBatch = batch.get(u);
+            assertThat(fromBatch.idList(), contains(expected(u, 10).toArray()));
+            assertThat(fromBatch.idList(), equalTo(single.idList()));
+            for (int i = 0; i < single.size(); i++) {
+                assertThat(fromBatch.get(i).getScore(), closeTo(single.get(i).getScore(), 1.0e-8));
+            }
+        }
+        assertThat(batch.get(42L), hasSize(0));
+    }
+
+    @Test
+    public void testBatchClustered() {
+        InnerProductSearch search = new ClusteredInnerProductSearch.Builder(model, bias, 20, 5, new Random(1)).get();
+        MFItemRecommender rec = new MFItemRecommender(dao, new BiasedMFItemScorer(model, bias),
+                                                      model, bias, search);
+        List<Long> users = new ArrayList<>();
+        for (long u = 1; u <= USERS; u++) {
+            users.add(u);
+        }
+        Map<Long, ResultList> batch = rec.recommendWithDetails(users, 10);
+        for (long u = 1; u <= USERS; u++) {
+            assertThat(batch.get(u).idList(), equalTo(rec.recommend(u, 10)));
+        }
+    }
+
+    @Test
+    public void testStreamingScoresMatchDetails() {
+        BiasedMFItemScorer scorer = new BiasedMFItemScorer(model, bias);
+        ResultMap details = scorer.scoreWithDetails(5, allItems);
+        Long2DoubleOpenHashMap streamed = new Long2DoubleOpenHashMap();
+        scorer.score(5, allItems, streamed::put);
+        assertThat(streamed.size(), equalTo(details.size()));
+        for (Result r: details) {
+            assertThat(streamed.get(r.getId()), closeTo(r.getScore(), 1.0e-10));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.util.keys.HashKeyIndex;
+
+import java.io.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MFModelTest {
+    private RealMatrix umat;
+    private RealMatrix imat;
+    private MFModel model;
+
+    @Before
+    public void createModel() {
+        umat = MatrixUtils.createRealMatrix(new double[][]{{0.1, 0.3}, {-0.2, 0.2}, {0.0, 0.15}});
+        imat = MatrixUtils.createRealMatrix(new double[][]{{0.52, 0.29}, {0.3, -1.2}});
+        HashKeyIndex uidx = new HashKeyIndex();
+        uidx.internId(1);
+        uidx.internId(5);
+        uidx.internId(3);
+        HashKeyIndex iidx = new HashKeyIndex();
+        iidx.internId(42);
+        iidx.internId(39);
+        model = new MFModel(umat, imat, uidx, iidx);
+    }
+
+    @Test
+    public void testRowMajorData() {
+        assertThat(model.getPrecision(), equalTo(FactorPrecision.DOUBLE));
+        assertThat(model.getUserFactors().toDoubleArray().length, equalTo(6));
+        assertThat(model.getUserFactors().toDoubleArray()[2], equalTo(-0.2));
+        assertThat(model.getItemFactors().toDoubleArray()[3], equalTo(-1.2));
+        assertThat(model.getUserMatrix(), equalTo(umat));
+        assertThat(model.getItemMatrix(), equalTo(imat));
+    }
+
+    @Test
+    public void testDotProduct() {
+        for (int u = 0; u < 3; u++) {
+            for (int i = 0; i < 2; i++) {
+                assertThat(model.dotProduct(u, i),
+                           closeTo(umat.getRowVector(u).dotProduct(imat.getRowVector(i)), 1.0e-10));
+            }
+        }
+    }
+
+    @Test
+    public void testRowsAndVectors() {
+        double[] row = new double[2];
+        model.getItemRow(1, row);
+        assertThat(row[0], equalTo(0.3));
+        assertThat(row[1], equalTo(-1.2));
+        assertThat(model.getUserVector(5).toArray(), equalTo(new double[]{-0.2, 0.2}));
+        assertThat(model.getItemVector(17), nullValue());
+        assertThat(model.getUserFeature(3, 1), equalTo(0.15));
+        assertThat(model.getItemFeature(17, 1), equalTo(0.0));
+    }
+
+    @Test
+    public void testMatrixIsView() {
+        model.getItemMatrix().setEntry(0, 1, 0.5);
+        assertThat(model.getItemFactors().get(0, 1), equalTo(0.5));
+        assertThat(model.getItemFeature(42, 1), equalTo(0.5));
+    }
+
+    @Test
+    public void testArrayConstructor() {
+        MFModel m2 = new MFModel(2, model.getUserFactors().toDoubleArray(),
+                                 model.getItemFactors().toDoubleArray(),
+                                 model.getUserIndex(), model.getItemIndex());
+        assertThat(m2.getUserMatrix(), equalTo(umat));
+        assertThat(m2.dotProduct(1, 1), equalTo(model.dotProduct(1, 1)));
+    }
+
+    @Test
+    public void testSerialize() {
+        MFModel copy = SerializationUtils.clone(model);
+        assertThat(copy.getFeatureCount(), equalTo(2));
+        assertThat(copy.getUserFactors().toDoubleArray(), equalTo(model.getUserFactors().toDoubleArray()));
+        assertThat(copy.getItemFactors().toDoubleArray(), equalTo(model.getItemFactors().toDoubleArray()));
+        assertThat(copy.getItemIndex().getKey(1), equalTo(39L));
+    }
+
+    @Test
+    public void testCompactFloat() {
+        MFModel small = model.compact(FactorPrecision.FLOAT);
+        assertThat(small.getPrecision(), equalTo(FactorPrecision.FLOAT));
+        assertThat(small.getItemFactors().getDataSize(), equalTo(16L));
+        for (int u = 0; u < 3; u++) {
+            for (int i = 0; i < 2; i++) {
+                assertThat(small.dotProduct(u, i), closeTo(model.dotProduct(u, i), 1.0e-6));
+            }
+        }
+        assertThat(small.compact(FactorPrecision.FLOAT), sameInstance(small));
+    }
+
+    @Test
+    public void testCompactInt8() {
+        MFModel small = model.compact(FactorPrecision.INT8);
+        assertThat(small.getPrecision(), equalTo(FactorPrecision.INT8));
+        assertThat(small.getItemFactors().getDataSize(), equalTo(4L + 8L));
+        // each entry is within half a quantization step of its row's maximum
+        assertThat(small.getItemFeature(39, 1), closeTo(-1.2, 1.0e-6));
+        assertThat(small.getItemFeature(39, 0), closeTo(0.3, 1.2 / 254));
+        double[] user = {0.1, 0.3};
+        for (int i = 0; i < 2; i++) {
+            assertThat(small.dotProduct(user, i), closeTo(model.dotProduct(user, i), 0.01));
+        }
+    }
+
+    @Test
+    public void testSerializeCompact() {
+        MFModel small = model.compact(FactorPrecision.INT8);
+        MFModel copy = SerializationUtils.clone(small);
+        assertThat(copy.getPrecision(), equalTo(FactorPrecision.INT8));
+        assertThat(copy.dotProduct(1, 0), equalTo(small.dotProduct(1, 0)));
+    }
+
+    @Test
+    public void testDeserializeLegacyForm() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+            out.writeObject(new org.lenskit.mf.legacy.MFModel(umat, imat, model.getUserIndex(), model.getItemIndex()));
+        }
+        Object obj;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray())) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                // read the stand-in's stream as if it had been written by the old model class
+                if (desc.getName().equals(org.lenskit.mf.legacy.MFModel.class.getName())) {
+                    return MFModel.class;
+                } else {
+                    return super.resolveClass(desc);
+                }
+            }
+        }) {
+            obj = in.readObject();
+        }
+
+        assertThat(obj, instanceOf(MFModel.class));
+        MFModel copy = (MFModel) obj;
+        assertThat(copy.getPrecision(), equalTo(FactorPrecision.DOUBLE));
+        assertThat(copy.getUserMatrix(), equalTo(umat));
+        assertThat(copy.getItemMatrix(), equalTo(imat));
+        assertThat(copy.getItemIndex().getKey(1), equalTo(39L));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCompactIsReadOnly() {
+        model.compact(FactorPrecision.FLOAT).getItemMatrix().setEntry(0, 0, 1.0);
+    }
+}
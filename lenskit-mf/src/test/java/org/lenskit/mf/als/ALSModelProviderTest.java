@@ -0,0 +1,154 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.als;
+
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Test;
+import org.lenskit.bias.ZeroBiasModel;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.PackedRatingMatrixProvider;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingMatrix;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.mf.FactorPrecision;
+import org.lenskit.mf.MFModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ALSModelProviderTest {
+    private static RatingMatrix matrix(List<Rating> rs) {
+        DataAccessObject dao = StaticDataSource.fromList(rs).get();
+        return new PackedRatingMatrixProvider(new StandardRatingVectorPDAO(dao), new Random(1)).get();
+    }
+
+    private static double score(MFModel model, long user, long item) {
+        RealVector uv = model.getUserVector(user);
+        RealVector iv = model.getItemVector(item);
+        return uv.dotProduct(iv);
+    }
+
+    @Test
+    public void testCholeskySolve() {
+        // A = [[4, 2], [2, 3]], b = [2, 1] => x = [0.5, 0]
+        double[] a = {4, 0, 2, 3};
+        double[] b = {2, 1};
+        CholeskySolver.solve(a, b, 2);
+        assertThat(b[0], closeTo(0.5, 1.0e-10));
+        assertThat(b[1], closeTo(0.0, 1.0e-10));
+    }
+
+    @Test
+    public void testExplicitFitsLowRankData() {
+        Random rng = new Random(42);
+        double[][] uf = new double[30][2];
+        double[][] itf = new double[25][2];
+        for (double[] row: uf) {
+            row[0] = 1 + rng.nextDouble();
+            row[1] = rng.nextDouble();
+        }
+        for (double[] row: itf) {
+            row[0] = 1 + rng.nextDouble();
+            row[1] = rng.nextDouble();
+        }
+        List<Rating> rs = new ArrayList<>();
+        for (int u = 0; u < uf.length; u++) {
+            for (int i = 0; i < itf.length; i++) {
+                if (rng.nextDouble() < 0.6) {
+                    rs.add(Rating.create(u + 1, i + 100, uf[u][0] * itf[i][0] + uf[u][1] * itf[i][1]));
+                }
+            }
+        }
+
+        MFModel model = new ALSModelProvider(matrix(rs), new ZeroBiasModel(), 4, 0.001, 20, 0.0,
+                                             false, 40, new Random(42)).get();
+        assertThat(model.getFeatureCount(), equalTo(4));
+        assertThat(model.getUserCount(), equalTo(30));
+        assertThat(model.getItemCount(), equalTo(25));
+        double sse = 0;
+        for (Rating r: rs) {
+            double err = r.getValue() - score(model, r.getUserId(), r.getItemId());
+            sse += err * err;
+        }
+        assertThat(Math.sqrt(sse / rs.size()), lessThan(0.1));
+    }
+
+    @Test
+    public void testImplicitSeparatesClusters() {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (int u = 0; u < 30; u++) {
+            int base = u < 15 ? 100 : 200;
+            for (int i = 0; i < 10; i++) {
+                if (i == 0 || rng.nextDouble() < 0.5) {
+                    rs.add(Rating.create(u + 1, base + i, 1 + rng.nextInt(3)));
+                }
+            }
+        }
+
+        MFModel model = new ALSModelProvider(matrix(rs), new ZeroBiasModel(), 4, 0.1, 15, 0.0,
+                                             true, 10, new Random(42)).get();
+        for (int u = 0; u < 30; u++) {
+            long own = u < 15 ? 100 : 200;
+            long other = u < 15 ? 200 : 100;
+            double ownScore = 0;
+            double otherScore = 0;
+            for (int i = 0; i < 10; i++) {
+                ownScore += score(model, u + 1, own + i);
+                otherScore += score(model, u + 1, other + i);
+            }
+            assertThat(ownScore, greaterThan(otherScore));
+        }
+    }
+
+    @Test
+    public void testCompactToServingPrecision() {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (int u = 0; u < 20; u++) {
+            for (int i = 0; i < 15; i++) {
+                if (rng.nextDouble() < 0.6) {
+                    rs.add(Rating.create(u + 1, i + 100, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+
+        MFModel full = new ALSModelProvider(matrix(rs), new ZeroBiasModel(), 4, 0.1, 10, 0.0,
+                                            false, 40, new Random(42)).get();
+        MFModel small = new ALSModelProvider(matrix(rs), new ZeroBiasModel(), 4, 0.1, 10, 0.0,
+                                             false, 40, new Random(42), FactorPrecision.FLOAT).get();
+        assertThat(full.getPrecision(), equalTo(FactorPrecision.DOUBLE));
+        assertThat(small.getPrecision(), equalTo(FactorPrecision.FLOAT));
+        for (Rating r: rs) {
+            assertThat(score(small, r.getUserId(), r.getItemId()),
+                       closeTo(score(full, r.getUserId(), r.getItemId()), 1.0e-4));
+        }
+    }
+}
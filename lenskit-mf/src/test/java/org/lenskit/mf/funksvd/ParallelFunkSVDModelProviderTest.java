@@ -0,0 +1,116 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.funksvd;
+
+import org.grouplens.lenskit.iterative.IterationCount;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.bias.UserItemBiasModel;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.PackedRatingMatrix;
+import org.lenskit.data.ratings.PackedRatingMatrixProvider;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingMatrix;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ParallelFunkSVDModelProviderTest {
+    private LenskitRecommender rec;
+    private RatingMatrix matrix;
+    private FunkSVDUpdateRule rule;
+
+    @Before
+    public void setup() throws RecommenderBuildException {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (long u = 1; u <= 50; u++) {
+            for (long i = 100; i < 140; i++) {
+                if (rng.nextDouble() < 0.3) {
+                    rs.add(Rating.create(u, i, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+        DataAccessObject dao = StaticDataSource.fromList(rs).get();
+
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(RatingMatrix.class)
+              .to(PackedRatingMatrix.class);
+        config.bind(ItemScorer.class)
+              .to(FunkSVDItemScorer.class);
+        config.bind(BiasModel.class).to(UserItemBiasModel.class);
+        config.set(IterationCount.class)
+              .to(10);
+        config.set(FeatureCount.class)
+              .to(5);
+        rec = LenskitRecommender.build(config, dao);
+        matrix = new PackedRatingMatrixProvider(new StandardRatingVectorPDAO(dao), new Random()).get();
+        rule = new FunkSVDUpdateRule(0.001, 0.015, rec.get(BiasModel.class), null, 10, 1.0e-5, 10);
+    }
+
+    @After
+    public void teardown() {
+        rec.close();
+    }
+
+    private FunkSVDModel train(int threads, long seed) {
+        return new ParallelFunkSVDModelProvider(matrix, rule, 5, 0.1, threads, new Random(seed)).get();
+    }
+
+    @Test
+    public void testSingleThreadDeterministic() {
+        FunkSVDModel m1 = train(1, 42);
+        FunkSVDModel m2 = train(1, 42);
+        assertThat(m1.getUserMatrix(), equalTo(m2.getUserMatrix()));
+        assertThat(m1.getItemMatrix(), equalTo(m2.getItemMatrix()));
+    }
+
+    @Test
+    public void testParallelTrains() {
+        FunkSVDModel serial = rec.get(FunkSVDModel.class);
+        FunkSVDModel model = train(4, 42);
+        assertThat(model.getFeatureCount(), equalTo(5));
+        assertThat(model.getUserCount(), equalTo(serial.getUserCount()));
+        assertThat(model.getItemCount(), equalTo(serial.getItemCount()));
+        for (int f = 0; f < 5; f++) {
+            FeatureInfo info = model.getFeatureInfo(f);
+            assertThat(info.getIterCount(), equalTo(10));
+            assertThat(info.getLastRMSE(),
+                       closeTo(serial.getFeatureInfo(f).getLastRMSE(), 0.1));
+        }
+    }
+}
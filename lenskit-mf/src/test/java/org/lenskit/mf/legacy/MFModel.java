@@ -0,0 +1,73 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.legacy;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.lenskit.util.keys.KeyIndex;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Stand-in with the serialized form of the MF model before factors could be compacted,
+ * for testing that old model files can still be read.
+ */
+public class MFModel implements Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private final RealMatrix userMatrix;
+    private final RealMatrix itemMatrix;
+    private final KeyIndex userIndex;
+    private final KeyIndex itemIndex;
+
+    public MFModel(RealMatrix umat, RealMatrix imat, KeyIndex uidx, KeyIndex iidx) {
+        userMatrix = umat;
+        itemMatrix = imat;
+        userIndex = uidx;
+        itemIndex = iidx;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(userMatrix.getColumnDimension());
+        out.writeInt(userMatrix.getRowDimension());
+        out.writeInt(itemMatrix.getRowDimension());
+
+        for (int i = 0; i < userMatrix.getRowDimension(); i++) {
+            for (int j = 0; j < userMatrix.getColumnDimension(); j++) {
+                out.writeDouble(userMatrix.getEntry(i, j));
+            }
+        }
+
+        for (int i = 0; i < itemMatrix.getRowDimension(); i++) {
+            for (int j = 0; j < itemMatrix.getColumnDimension(); j++) {
+                out.writeDouble(itemMatrix.getEntry(i, j));
+            }
+        }
+
+        out.writeObject(userIndex);
+        out.writeObject(itemIndex);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.pf;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.PackedRatingMatrixProvider;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingMatrix;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class HPFModelParallelProviderTest {
+    private DataSplitStrategy split;
+    private PFHyperParameters hyper;
+
+    @Before
+    public void setup() {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (long u = 1; u <= 600; u++) {
+            for (long i = 1; i <= 40; i++) {
+                if (rng.nextDouble() < 0.2) {
+                    rs.add(Rating.create(u, i, rng.nextInt(4)));
+                }
+            }
+        }
+        DataAccessObject dao = StaticDataSource.fromList(rs).get();
+        RatingMatrix matrix = new PackedRatingMatrixProvider(new StandardRatingVectorPDAO(dao), new Random(1)).get();
+        split = new RandomDataSplitStrategyProvider(matrix, new Random(), 7, 0.1).get();
+        hyper = new PFHyperParameters(0.3, 0.3, 1.0, 0.3, 0.3, 1.0, 5);
+    }
+
+    private HPFModel build(int seed) {
+        return new HPFModelParallelProvider(split, hyper, 2, seed, 0.01, 0.1, true, 0.0, 20).get();
+    }
+
+    @Test
+    public void testReproducible() {
+        // more users than one parallel block, so the blocks run concurrently
+        HPFModel m1 = build(42);
+        HPFModel m2 = build(42);
+        assertThat(m1.getUserMatrix(), equalTo(m2.getUserMatrix()));
+        assertThat(m1.getItemMatrix(), equalTo(m2.getItemMatrix()));
+    }
+
+    @Test
+    public void testSeedMatters() {
+        HPFModel m1 = build(42);
+        HPFModel m2 = build(43);
+        assertThat(m1.getUserMatrix(), not(equalTo(m2.getUserMatrix())));
+    }
+
+    @Test
+    public void testExpectedWeightsPositive() {
+        HPFModel model = build(42);
+        assertThat(model.getFeatureCount(), equalTo(5));
+        for (double[] row: model.getUserMatrix().getData()) {
+            for (double v: row) {
+                assertThat(v, greaterThan(0.0));
+            }
+        }
+        for (double[] row: model.getItemMatrix().getData()) {
+            for (double v: row) {
+                assertThat(v, greaterThan(0.0));
+            }
+        }
+    }
+}
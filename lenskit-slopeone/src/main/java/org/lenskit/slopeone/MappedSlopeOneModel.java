@@ -0,0 +1,467 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.slopeone;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.util.io.StagedWrite;
+import org.lenskit.util.keys.KeyedObjectMap;
+import org.lenskit.util.keys.KeyedObjectMapBuilder;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Slope One model backed by a memory-mapped binary file.  Deviations and co-rating counts are read
+ * directly from the file via the operating system's page cache, so scorers can use the model without
+ * deserializing it into the heap.
+ *
+ * <p>Files are written with {@link #write(SlopeOneModel, Path)}, and opened with {@link #open(Path)}.
+ * The resulting model can be used in a configuration by binding it as an instance:</p>
+ *
+ * ```java
+ * config.bind(SlopeOneModel.class).toInstance(MappedSlopeOneModel.open(modelFile));
+ * ```
+ *
+ * <p>The file is in compressed sparse row layout, with one row per item holding the pairs in which
+ * it is the lesser item.  All values are in little-endian byte order:</p>
+ *
+ * 1. A 32-byte header: the magic number (4 bytes), format version (4 bytes), item count <var>n</var>
+ *    (4 bytes), co-rating count width <var>w</var> (4 bytes), pair count <var>s</var> (8 bytes), and
+ *    8 reserved bytes.
+ * 2. The <var>n</var> item IDs, in ascending order (8 bytes each).
+ * 3. The <var>n+1</var> row offsets (8 bytes each).
+ * 4. The <var>s</var> neighbor positions in the item list (4 bytes each), ascending within each row,
+ *    padded to a multiple of 8 bytes.
+ * 5. The <var>s</var> deviations, as single-precision floats (4 bytes each), padded to a multiple
+ *    of 8 bytes.
+ * 6. The <var>s</var> co-rating counts, as unsigned integers of <var>w</var> bytes each (1, 2, or 4,
+ *    the smallest width that holds the largest count), padded to a multiple of 8 bytes.
+ *
+ * Item IDs and row offsets are loaded into the heap when the file is opened; the pair data remains
+ * mapped.  If a mapped model is serialized, it is written as an in-heap {@link SlopeOneModel}.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public final class MappedSlopeOneModel extends SlopeOneModel {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(MappedSlopeOneModel.class);
+
+    /**
+     * The magic number identifying Slope One model files ('LKSO').
+     */
+    static final int MAGIC = 0x4C4B534F;
+    /**
+     * The current format version.
+     */
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * Log2 of the maximum number of bytes in a single mapped chunk.  Java buffers cannot exceed 2GB,
+     * so large sections of the file are mapped as several chunks.
+     */
+    private static final int CHUNK_SHIFT = 30;
+
+    private final transient SortedKeyIndex itemDomain;
+    private final transient long[] rowOffsets;
+    private final transient int countWidth;
+    private final transient ByteBuffer[] neighborChunks;
+    private final transient ByteBuffer[] deviationChunks;
+    private final transient ByteBuffer[] countChunks;
+    private final transient String description;
+
+    private MappedSlopeOneModel(SortedKeyIndex items, long[] offsets, int width,
+                                ByteBuffer[] nbrChunks, ByteBuffer[] devChunks, ByteBuffer[] cntChunks,
+                                String desc) {
+        itemDomain = items;
+        rowOffsets = offsets;
+        countWidth = width;
+        neighborChunks = nbrChunks;
+        deviationChunks = devChunks;
+        countChunks = cntChunks;
+        description = desc;
+    }
+
+    /**
+     * Open a model file.
+     * @param file The file to open.
+     * @return The model, backed by a memory map of the file.
+     * @throws IOException if there is an error opening or mapping the file, or if the file is not a
+     *                     valid model file.
+     */
+    public static MappedSlopeOneModel open(Path file) throws IOException {
+        logger.info("opening slope one model file {}", file);
+        try (FileChannel chan = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = chan.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(file + ": file too short for slope one model");
+            }
+            ByteBuffer header = chan.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+            int magic = header.getInt();
+            if (magic != MAGIC) {
+                throw new IOException(file + ": not a slope one model file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported model file version " + version);
+            }
+            int nitems = header.getInt();
+            int width = header.getInt();
+            long npairs = header.getLong();
+            if (nitems < 0 || npairs < 0 || (width != 1 && width != 2 && width != 4)) {
+                throw new IOException(file + ": corrupt model file header");
+            }
+
+            long itemStart = HEADER_SIZE;
+            long offsetStart = itemStart + 8L * nitems;
+            long nbrStart = offsetStart + 8L * (nitems + 1);
+            long devStart = nbrStart + align8(4L * npairs);
+            long countStart = devStart + align8(4L * npairs);
+            long end = countStart + align8((long) width * npairs);
+            if (size < end) {
+                throw new IOException(file + ": model file truncated (expected " + end + " bytes, found " + size + ")");
+            }
+
+            long[] items = new long[nitems];
+            readArray(chan, itemStart, 8L * nitems).asLongBuffer().get(items);
+            long[] offsets = new long[nitems + 1];
+            readArray(chan, offsetStart, 8L * (nitems + 1)).asLongBuffer().get(offsets);
+            if (offsets[0] != 0 || offsets[nitems] != npairs) {
+                throw new IOException(file + ": corrupt row offsets");
+            }
+
+            ByteBuffer[] nbrChunks = mapChunks(chan, nbrStart, 4L * npairs);
+            ByteBuffer[] devChunks = mapChunks(chan, devStart, 4L * npairs);
+            ByteBuffer[] cntChunks = mapChunks(chan, countStart, (long) width * npairs);
+
+            String desc = String.format("mapped slope one model of %d pairs for %d items from %s",
+                                        npairs, nitems, file);
+            logger.debug("opened {}", desc);
+            return new MappedSlopeOneModel(SortedKeyIndex.wrap(items, nitems), offsets, width,
+                                           nbrChunks, devChunks, cntChunks, desc);
+        }
+    }
+
+    /**
+     * Write a Slope One model to a file in the format read by {@link #open(Path)}.  The file is
+     * written with a {@link StagedWrite}, so an existing file is replaced atomically.
+     *
+     * @param model The model to write.
+     * @param file The output file.
+     * @throws IOException if there is an error writing the file.
+     */
+    public static void write(SlopeOneModel model, Path file) throws IOException {
+        // first pass: compute the item domain, pair count, and largest co-rating count
+        LongSortedSet rowItems = model.getRowItems();
+        LongSet ids = new LongOpenHashSet(rowItems);
+        long npairs = 0;
+        int maxCount = 0;
+        for (LongIterator iter = rowItems.iterator(); iter.hasNext();) {
+            SlopeOneModel.ModelRow row = model.getRow(iter.nextLong());
+            SortedKeyIndex nbrs = row.getItems();
+            npairs += nbrs.size();
+            // row values are stored by position in the row's key index
+            for (int j = nbrs.getLowerBound(); j < nbrs.getUpperBound(); j++) {
+                ids.add(nbrs.getKey(j));
+                maxCount = Math.max(maxCount, row.getCoratingsByIndex(j));
+            }
+        }
+        long[] idArray = ids.toLongArray();
+        Arrays.sort(idArray);
+        SortedKeyIndex domain = SortedKeyIndex.wrap(idArray, idArray.length);
+        int nitems = domain.size();
+        int width = maxCount <= 0xFF ? 1 : maxCount <= 0xFFFF ? 2 : 4;
+
+        logger.info("writing {} pairs for {} items to {}", npairs, nitems, file);
+        try (StagedWrite stage = StagedWrite.begin(file)) {
+            try (OutputStream stream = stage.openOutputStream();
+                 WritableByteChannel chan = Channels.newChannel(stream)) {
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+                buf.putInt(MAGIC)
+                   .putInt(VERSION)
+                   .putInt(nitems)
+                   .putInt(width)
+                   .putLong(npairs)
+                   .putLong(0);
+
+                for (int i = 0; i < nitems; i++) {
+                    ensureSpace(chan, buf, 8);
+                    buf.putLong(domain.getKey(i));
+                }
+
+                SlopeOneModel.ModelRow[] rows = new SlopeOneModel.ModelRow[nitems];
+                long offset = 0;
+                for (int i = 0; i < nitems; i++) {
+                    rows[i] = model.getRow(domain.getKey(i));
+                    ensureSpace(chan, buf, 8);
+                    buf.putLong(offset);
+                    if (rows[i] != null) {
+                        offset += rows[i].getItems().size();
+                    }
+                }
+                ensureSpace(chan, buf, 8);
+                buf.putLong(offset);
+
+                for (SlopeOneModel.ModelRow row: rows) {
+                    if (row != null) {
+                        SortedKeyIndex nbrs = row.getItems();
+                        for (int j = nbrs.getLowerBound(); j < nbrs.getUpperBound(); j++) {
+                            ensureSpace(chan, buf, 4);
+                            buf.putInt(domain.getIndex(nbrs.getKey(j)));
+                        }
+                    }
+                }
+                pad8(chan, buf, 4L * npairs);
+
+                for (SlopeOneModel.ModelRow row: rows) {
+                    if (row != null) {
+                        SortedKeyIndex nbrs = row.getItems();
+                        for (int j = nbrs.getLowerBound(); j < nbrs.getUpperBound(); j++) {
+                            ensureSpace(chan, buf, 4);
+                            buf.putFloat((float) row.getDeviationByIndex(j));
+                        }
+                    }
+                }
+                pad8(chan, buf, 4L * npairs);
+
+                for (SlopeOneModel.ModelRow row: rows) {
+                    if (row != null) {
+                        SortedKeyIndex nbrs = row.getItems();
+                        for (int j = nbrs.getLowerBound(); j < nbrs.getUpperBound(); j++) {
+                            int count = row.getCoratingsByIndex(j);
+                            ensureSpace(chan, buf, 4);
+                            if (width == 1) {
+                                buf.put((byte) count);
+                            } else if (width == 2) {
+                                buf.putShort((short) count);
+                            } else {
+                                buf.putInt(count);
+                            }
+                        }
+                    }
+                }
+                pad8(chan, buf, (long) width * npairs);
+
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    chan.write(buf);
+                }
+            }
+            stage.commit();
+        }
+    }
+
+    @Override
+    public double getDeviation(long item1, long item2) {
+        if (item1 == item2) {
+            return 0;
+        } else if (item1 < item2) {
+            long pos = findPair(item1, item2);
+            return pos >= 0 ? getFloat(deviationChunks, pos) : Double.NaN;
+        } else {
+            long pos = findPair(item2, item1);
+            return pos >= 0 ? -getFloat(deviationChunks, pos) : Double.NaN;
+        }
+    }
+
+    @Override
+    public int getCoratings(long item1, long item2) {
+        if (item1 == item2) {
+            return 0;
+        }
+        long pos = item1 < item2 ? findPair(item1, item2) : findPair(item2, item1);
+        return pos >= 0 ? getCount(pos) : 0;
+    }
+
+    /**
+     * Find the position of a pair in the mapped arrays.
+     * @param lesser The lesser item, whose row holds the pair.
+     * @param greater The greater item.
+     * @return The position of the pair, or -1 if the model has no entry for it.
+     */
+    private long findPair(long lesser, long greater) {
+        int row = itemDomain.tryGetIndex(lesser);
+        if (row < 0) {
+            return -1;
+        }
+        int target = itemDomain.tryGetIndex(greater);
+        if (target < 0) {
+            return -1;
+        }
+        long lo = rowOffsets[row];
+        long hi = rowOffsets[row + 1] - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            int nbr = getInt(neighborChunks, mid);
+            if (nbr < target) {
+                lo = mid + 1;
+            } else if (nbr > target) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    LongSortedSet getRowItems() {
+        LongArrayList items = new LongArrayList();
+        for (int i = 0; i < itemDomain.size(); i++) {
+            if (rowOffsets[i + 1] > rowOffsets[i]) {
+                items.add(itemDomain.getKey(i));
+            }
+        }
+        return SortedKeyIndex.fromCollection(items).keySet();
+    }
+
+    @Nullable
+    @Override
+    ModelRow getRow(long item) {
+        int row = itemDomain.tryGetIndex(item);
+        if (row < 0 || rowOffsets[row + 1] == rowOffsets[row]) {
+            return null;
+        }
+        long start = rowOffsets[row];
+        int n = (int) (rowOffsets[row + 1] - start);
+        long[] keys = new long[n];
+        double[] deviations = new double[n];
+        int[] counts = new int[n];
+        for (int j = 0; j < n; j++) {
+            keys[j] = itemDomain.getKey(getInt(neighborChunks, start + j));
+            deviations[j] = getFloat(deviationChunks, start + j);
+            counts[j] = getCount(start + j);
+        }
+        return new ModelRow(item, SortedKeyIndex.wrap(keys, n), deviations, counts);
+    }
+
+    /**
+     * Replace this model with an in-heap copy when it is serialized.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        KeyedObjectMapBuilder<ModelRow> builder = KeyedObjectMap.newBuilder();
+        for (LongIterator iter = getRowItems().iterator(); iter.hasNext();) {
+            builder.add(getRow(iter.nextLong()));
+        }
+        return new SlopeOneModel(builder.build());
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    private int getCount(long idx) {
+        long off = idx * countWidth;
+        ByteBuffer chunk = countChunks[(int) (off >>> CHUNK_SHIFT)];
+        int coff = (int) (off & ((1L << CHUNK_SHIFT) - 1));
+        switch (countWidth) {
+        case 1:
+            return chunk.get(coff) & 0xFF;
+        case 2:
+            return chunk.getShort(coff) & 0xFFFF;
+        default:
+            return chunk.getInt(coff);
+        }
+    }
+
+    private static int getInt(ByteBuffer[] chunks, long idx) {
+        long off = idx * 4;
+        return chunks[(int) (off >>> CHUNK_SHIFT)].getInt((int) (off & ((1L << CHUNK_SHIFT) - 1)));
+    }
+
+    private static float getFloat(ByteBuffer[] chunks, long idx) {
+        long off = idx * 4;
+        return chunks[(int) (off >>> CHUNK_SHIFT)].getFloat((int) (off & ((1L << CHUNK_SHIFT) - 1)));
+    }
+
+    private static long align8(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    private static ByteBuffer readArray(FileChannel chan, long start, long len) throws IOException {
+        if (len > Integer.MAX_VALUE) {
+            throw new IOException("array section too large to load");
+        }
+        return chan.map(FileChannel.MapMode.READ_ONLY, start, len)
+                   .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Map a section of the file as a sequence of chunks.  Each chunk but the last is exactly
+     * 2^{@link #CHUNK_SHIFT} bytes long; since all element sizes divide the chunk size, no element
+     * spans two chunks.
+     */
+    private static ByteBuffer[] mapChunks(FileChannel chan, long start, long len) throws IOException {
+        long chunkSize = 1L << CHUNK_SHIFT;
+        int nchunks = (int) ((len + chunkSize - 1) >>> CHUNK_SHIFT);
+        ByteBuffer[] chunks = new ByteBuffer[nchunks];
+        for (int i = 0; i < nchunks; i++) {
+            long cstart = start + i * chunkSize;
+            long clen = Math.min(chunkSize, len - i * chunkSize);
+            chunks[i] = chan.map(FileChannel.MapMode.READ_ONLY, cstart, clen)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    private static void ensureSpace(WritableByteChannel chan, ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() < n) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                chan.write(buf);
+            }
+            buf.clear();
+        }
+    }
+
+    private static void pad8(WritableByteChannel chan, ByteBuffer buf, long written) throws IOException {
+        long padding = align8(written) - written;
+        for (long i = 0; i < padding; i++) {
+            ensureSpace(chan, buf, 1);
+            buf.put((byte) 0);
+        }
+    }
+}
@@ -25,12 +25,15 @@
 package org.lenskit.slopeone;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.ScoreConsumer;
+import org.lenskit.basic.StreamingItemScorer;
 import org.lenskit.data.ratings.PreferenceDomain;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.results.Results;
@@ -42,11 +45,12 @@ import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An {@link ItemScorer} that implements the Slope One algorithm.
  */
-public class SlopeOneItemScorer extends AbstractItemScorer {
+public class SlopeOneItemScorer extends AbstractItemScorer implements StreamingItemScorer {
     protected final RatingVectorPDAO dao;
     protected SlopeOneModel model;
     protected final PreferenceDomain domain;
@@ -60,37 +64,61 @@ public class SlopeOneItemScorer extends AbstractItemScorer {
         domain = dom;
     }
 
+    @Nonnull
+    @Override
+    public Map<Long, Double> score(long user, @Nonnull Collection<Long> items) {
+        Long2DoubleMap results = new Long2DoubleOpenHashMap(items.size());
+        score(user, items, results::put);
+        return results;
+    }
+
     @Nonnull
     @Override
     public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
+        List<Result> results = new ArrayList<>();
+        score(user, items, (item, score) -> results.add(Results.create(item, score)));
+        return Results.newResultMap(results);
+    }
+
+    @Override
+    public void score(long user, @Nonnull Collection<Long> items, @Nonnull ScoreConsumer consumer) {
         Long2DoubleMap ratings = dao.userRatingVector(user);
 
-        List<Result> results = new ArrayList<>();
         LongIterator iter = LongIterators.asLongIterator(items.iterator());
         while (iter.hasNext()) {
             final long predicteeItem = iter.nextLong();
             if (!ratings.containsKey(predicteeItem)) {
-                double total = 0;
-                int nitems = 0;
-                for (Long2DoubleMap.Entry e: Vectors.fastEntries(ratings)) {
-                    long currentItem = e.getLongKey();
-                    int nusers = model.getCoratings(predicteeItem, currentItem);
-                    if (nusers != 0) {
-                        double currentDev = model.getDeviation(predicteeItem, currentItem);
-                        total += currentDev + e.getDoubleValue();
-                        nitems++;
-                    }
-                }
-                if (nitems != 0) {
-                    double predValue = total / nitems;
+                double predValue = predict(ratings, predicteeItem);
+                if (!Double.isNaN(predValue)) {
                     if (domain != null) {
                         predValue = domain.clampValue(predValue);
                     }
-                    results.add(Results.create(predicteeItem, predValue));
+                    consumer.accept(predicteeItem, predValue);
                 }
             }
         }
-        return Results.newResultMap(results);
+    }
+
+    /**
+     * Predict a user's rating for an item they have not rated.
+     *
+     * @param ratings The user's ratings.
+     * @param predicteeItem The item to predict.
+     * @return The (unclamped) prediction, or {@link Double#NaN} if the item cannot be predicted.
+     */
+    protected double predict(Long2DoubleMap ratings, long predicteeItem) {
+        double total = 0;
+        int nitems = 0;
+        for (Long2DoubleMap.Entry e: Vectors.fastEntries(ratings)) {
+            long currentItem = e.getLongKey();
+            int nusers = model.getCoratings(predicteeItem, currentItem);
+            if (nusers != 0) {
+                double currentDev = model.getDeviation(predicteeItem, currentItem);
+                total += currentDev + e.getDoubleValue();
+                nitems++;
+            }
+        }
+        return nitems != 0 ? total / nitems : Double.NaN;
     }
 
     public SlopeOneModel getModel() {
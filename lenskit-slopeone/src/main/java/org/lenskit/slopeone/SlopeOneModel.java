@@ -24,17 +24,22 @@
  */
 package org.lenskit.slopeone;
 
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
 import org.lenskit.util.keys.KeyedObject;
 import org.lenskit.util.keys.KeyedObjectMap;
 import org.lenskit.util.keys.SortedKeyIndex;
 
+import javax.annotation.Nullable;
 import java.io.Serializable;
 
 /**
  * A model for a {@link SlopeOneItemScorer} or {@link WeightedSlopeOneItemScorer}.
  * Stores calculated deviation values and number of co-rating users for each item pair.
+ *
+ * <p>Each pair is stored in the row of its lesser item.  This class keeps the rows in the heap;
+ * {@link MappedSlopeOneModel} reads them from a memory-mapped file.
  */
 @DefaultProvider(SlopeOneModelProvider.class)
 @Shareable
@@ -47,18 +52,44 @@ public class SlopeOneModel implements Serializable {
         this.matrix = matrix;
     }
 
+    /**
+     * Construct a model whose rows are stored by the subclass, which must override
+     * {@link #getRowItems()} and {@link #getRow(long)}.
+     */
+    SlopeOneModel() {
+        matrix = null;
+    }
+
+    /**
+     * Get the items that have model rows.
+     * @return The IDs of items with at least one pair stored in their row.
+     */
+    LongSortedSet getRowItems() {
+        return matrix.keySet();
+    }
+
+    /**
+     * Get the row of an item.
+     * @param item The item ID.
+     * @return The item's row, or {@code null} if the item has no row.
+     */
+    @Nullable
+    ModelRow getRow(long item) {
+        return matrix.get(item);
+    }
+
     public double getDeviation(long item1, long item2) {
         if (item1 == item2) {
             return 0;
         } else if (item1 < item2) {
-            ModelRow row = matrix.get(item1);
+            ModelRow row = getRow(item1);
             if (row == null) {
                 return Double.NaN;
             } else {
                 return row.getDeviation(item2);
             }
         } else {
-            ModelRow row = matrix.get(item2);
+            ModelRow row = getRow(item2);
             if (row == null) {
                 return Double.NaN;
             } else {
@@ -71,14 +102,14 @@ public class SlopeOneModel implements Serializable {
         if (item1 == item2) {
             return 0;
         } else if (item1 < item2) {
-            ModelRow row = matrix.get(item1);
+            ModelRow row = getRow(item1);
             if (row == null) {
                 return 0;
             } else {
                 return row.getCoratings(item2);
             }
         } else {
-            ModelRow row = matrix.get(item2);
+            ModelRow row = getRow(item2);
             if (row == null) {
                 return 0;
             } else {
@@ -109,6 +140,18 @@ public class SlopeOneModel implements Serializable {
             return item;
         }
 
+        SortedKeyIndex getItems() {
+            return items;
+        }
+
+        double getDeviationByIndex(int idx) {
+            return deviations[idx];
+        }
+
+        int getCoratingsByIndex(int idx) {
+            return coratings[idx];
+        }
+
         double getDeviation(long item) {
             int idx = items.tryGetIndex(item);
             if (idx >= 0) {
@@ -32,6 +32,12 @@ import org.lenskit.util.keys.SortedKeyIndex;
 
 import java.util.Map;
 
+/**
+ * Accumulator for Slope One model data over explicit item pairs.
+ *
+ * @deprecated {@link SlopeOneModelProvider} now builds models from co-rated pairs directly.
+ */
+@Deprecated
 public class SlopeOneModelDataAccumulator {
 
     private Long2ObjectMap<Pair<Long2DoubleMap, Long2IntMap>> workMatrix;
@@ -24,32 +24,47 @@
  */
 package org.lenskit.slopeone;
 
-import it.unimi.dsi.fastutil.longs.Long2DoubleSortedMap;
-import it.unimi.dsi.fastutil.longs.LongIterator;
-import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import org.lenskit.inject.Transient;
 import org.lenskit.knn.item.model.ItemItemBuildContext;
+import org.lenskit.util.keys.KeyedObjectMap;
+import org.lenskit.util.keys.KeyedObjectMapBuilder;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.Vectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * Pre-computes the deviations and number of mutual rating users for every pair
- * of items and stores the results in a {@code DeviationMatrix} and
- * {@code CoratingMatrix}. These matrices are later used by a
- * {@code SlopeOneItemScorer}.
+ * of co-rated items and stores the results in a {@link SlopeOneModel}.
+ *
+ * <p>The provider transposes the item rating vectors into per-user rows, and then builds each
+ * item's model row in parallel by walking the rows of the users who rated it.  Only pairs with at
+ * least one co-rating user are visited, so the build time scales with the number of co-ratings
+ * rather than the square of the number of items.
  */
 public class SlopeOneModelProvider implements Provider<SlopeOneModel> {
-    private final SlopeOneModelDataAccumulator accumulator;
+    private static final Logger logger = LoggerFactory.getLogger(SlopeOneModelProvider.class);
 
     private final ItemItemBuildContext buildContext;
+    private final double damping;
 
     @Inject
     public SlopeOneModelProvider(@Transient ItemItemBuildContext context,
                                  @DeviationDamping double damping) {
-
         buildContext = context;
-        accumulator = new SlopeOneModelDataAccumulator(damping, context.getItems());
+        this.damping = damping;
     }
 
     /**
@@ -57,20 +72,120 @@ public class SlopeOneModelProvider implements Provider<SlopeOneModel> {
      */
     @Override
     public SlopeOneModel get() {
-        LongSet items = buildContext.getItems();
-        LongIterator outer = items.iterator();
-        while (outer.hasNext()) {
-            final long item1 = outer.nextLong();
-            final Long2DoubleSortedMap vec1 = buildContext.itemVector(item1);
-            LongIterator inner = items.iterator();
-            while (inner.hasNext()) {
-                final long item2 = inner.nextLong();
-                if (item1 != item2) {
-                    Long2DoubleSortedMap vec2 = buildContext.itemVector(item2);
-                    accumulator.putItemPair(item1, vec1, item2, vec2);
+        SortedKeyIndex items = SortedKeyIndex.fromCollection(buildContext.getItems());
+        final int n = items.size();
+
+        // transpose item vectors into user rows of (item index, rating), sorted by item index
+        Long2IntMap userIndex = new Long2IntOpenHashMap();
+        userIndex.defaultReturnValue(-1);
+        List<IntArrayList> userItemLists = new ArrayList<>();
+        List<DoubleArrayList> userRatingLists = new ArrayList<>();
+        int[][] raters = new int[n][];
+        int[][] positions = new int[n][];
+        for (int i = 0; i < n; i++) {
+            Long2DoubleMap vec = buildContext.itemVector(items.getKey(i));
+            raters[i] = new int[vec.size()];
+            positions[i] = new int[vec.size()];
+            int k = 0;
+            for (Long2DoubleMap.Entry e: Vectors.fastEntries(vec)) {
+                int u = userIndex.get(e.getLongKey());
+                if (u < 0) {
+                    u = userItemLists.size();
+                    userIndex.put(e.getLongKey(), u);
+                    userItemLists.add(new IntArrayList());
+                    userRatingLists.add(new DoubleArrayList());
+                }
+                raters[i][k] = u;
+                positions[i][k] = userItemLists.get(u).size();
+                userItemLists.get(u).add(i);
+                userRatingLists.get(u).add(e.getDoubleValue());
+                k += 1;
+            }
+        }
+
+        int nusers = userItemLists.size();
+        int[][] userItems = new int[nusers][];
+        double[][] userRatings = new double[nusers][];
+        for (int u = 0; u < nusers; u++) {
+            userItems[u] = userItemLists.get(u).toIntArray();
+            userRatings[u] = userRatingLists.get(u).toDoubleArray();
+        }
+        userItemLists = null;
+        userRatingLists = null;
+        logger.debug("building slope one model for {} items from {} users", n, nusers);
+
+        ThreadLocal<RowScratch> scratch = ThreadLocal.withInitial(() -> new RowScratch(n));
+        SlopeOneModel.ModelRow[] rows = new SlopeOneModel.ModelRow[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            RowScratch rs = scratch.get();
+            for (int k = 0; k < raters[i].length; k++) {
+                int u = raters[i][k];
+                int[] uitems = userItems[u];
+                double[] uratings = userRatings[u];
+                double rating = uratings[positions[i][k]];
+                // rows are stored by the lesser item, so only pair with later items
+                for (int q = positions[i][k] + 1; q < uitems.length; q++) {
+                    rs.add(uitems[q], rating - uratings[q]);
                 }
             }
+            rows[i] = rs.finish(items, i, damping);
+        });
+
+        KeyedObjectMapBuilder<SlopeOneModel.ModelRow> builder = KeyedObjectMap.newBuilder();
+        for (SlopeOneModel.ModelRow row: rows) {
+            if (row != null) {
+                builder.add(row);
+            }
+        }
+        return new SlopeOneModel(builder.build());
+    }
+
+    /**
+     * Dense per-thread accumulation buffers for building one model row.
+     */
+    private static class RowScratch {
+        final double[] sums;
+        final int[] counts;
+        final int[] touched;
+        int ntouched;
+
+        RowScratch(int n) {
+            sums = new double[n];
+            counts = new int[n];
+            touched = new int[n];
+        }
+
+        void add(int item, double deviation) {
+            if (counts[item] == 0) {
+                touched[ntouched++] = item;
+            }
+            counts[item] += 1;
+            sums[item] += deviation;
+        }
+
+        /**
+         * Build the accumulated row and reset the buffers.
+         * @return The row, or {@code null} if the item has no co-rated items.
+         */
+        SlopeOneModel.ModelRow finish(SortedKeyIndex items, int item, double damping) {
+            if (ntouched == 0) {
+                return null;
+            }
+            Arrays.sort(touched, 0, ntouched);
+            long[] keys = new long[ntouched];
+            double[] deviations = new double[ntouched];
+            int[] coratings = new int[ntouched];
+            for (int j = 0; j < ntouched; j++) {
+                int other = touched[j];
+                keys[j] = items.getKey(other);
+                deviations[j] = sums[other] / (counts[other] + damping);
+                coratings[j] = counts[other];
+                sums[other] = 0;
+                counts[other] = 0;
+            }
+            ntouched = 0;
+            return new SlopeOneModel.ModelRow(items.getKey(item), SortedKeyIndex.wrap(keys, keys.length),
+                                              deviations, coratings);
         }
-        return new SlopeOneModel(accumulator.buildMatrix());
     }
 }
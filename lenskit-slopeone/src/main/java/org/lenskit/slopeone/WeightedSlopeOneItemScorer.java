@@ -25,22 +25,13 @@
 package org.lenskit.slopeone;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
-import it.unimi.dsi.fastutil.longs.LongIterator;
-import it.unimi.dsi.fastutil.longs.LongIterators;
 import org.lenskit.api.ItemScorer;
-import org.lenskit.api.Result;
-import org.lenskit.api.ResultMap;
 import org.lenskit.data.ratings.PreferenceDomain;
 import org.lenskit.data.ratings.RatingVectorPDAO;
-import org.lenskit.results.Results;
 import org.lenskit.util.math.Vectors;
 
-import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
 
 /**
  * An {@link ItemScorer} that implements a weighted Slope One algorithm.
@@ -52,36 +43,19 @@ public class WeightedSlopeOneItemScorer extends SlopeOneItemScorer {
         super(dao, model, dom);
     }
 
-    @Nonnull
     @Override
-    public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
-        Long2DoubleMap ratings = dao.userRatingVector(user);
-
-        List<Result> results = new ArrayList<>();
-        LongIterator iter = LongIterators.asLongIterator(items.iterator());
-        while (iter.hasNext()) {
-            final long predicteeItem = iter.nextLong();
-            if (!ratings.containsKey(predicteeItem)) {
-                double total = 0;
-                int nitems = 0;
-                for (Long2DoubleMap.Entry e: Vectors.fastEntries(ratings)) {
-                    long currentItem = e.getLongKey();
-                    double currentDev = model.getDeviation(predicteeItem, currentItem);
-                    if (!Double.isNaN(currentDev)) {
-                        int weight = model.getCoratings(predicteeItem, currentItem);
-                        total += (currentDev + e.getDoubleValue()) * weight;
-                        nitems += weight;
-                    }
-                }
-                if (nitems != 0) {
-                    double predValue = total / nitems;
-                    if (domain != null) {
-                        predValue = domain.clampValue(predValue);
-                    }
-                    results.add(Results.create(predicteeItem, predValue));
-                }
+    protected double predict(Long2DoubleMap ratings, long predicteeItem) {
+        double total = 0;
+        int nitems = 0;
+        for (Long2DoubleMap.Entry e: Vectors.fastEntries(ratings)) {
+            long currentItem = e.getLongKey();
+            double currentDev = model.getDeviation(predicteeItem, currentItem);
+            if (!Double.isNaN(currentDev)) {
+                int weight = model.getCoratings(predicteeItem, currentItem);
+                total += (currentDev + e.getDoubleValue()) * weight;
+                nitems += weight;
             }
         }
-        return Results.newResultMap(results);
+        return nitems != 0 ? total / nitems : Double.NaN;
     }
 }
@@ -0,0 +1,146 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.slopeone;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.api.Result;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.knn.item.model.ItemItemBuildContextProvider;
+import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
+import org.lenskit.util.keys.KeyedObjectMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MappedSlopeOneModelTest {
+    private static final int USERS = 40;
+    private static final int ITEMS = 25;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DataAccessObject createData() {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (int u = 1; u <= USERS; u++) {
+            for (int i = 1; i <= ITEMS; i++) {
+                if (rng.nextDouble() < 0.3) {
+                    rs.add(Rating.create(u, i * 10, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+        return StaticDataSource.fromList(rs).get();
+    }
+
+    private SlopeOneModel buildModel(DataAccessObject dao) {
+        ItemItemBuildContextProvider contextFactory = new ItemItemBuildContextProvider(
+                new StandardRatingVectorPDAO(dao), new DefaultUserVectorNormalizer());
+        return new SlopeOneModelProvider(contextFactory.get(), 1).get();
+    }
+
+    private void assertSameModel(SlopeOneModel actual, SlopeOneModel expected) {
+        for (long i = 0; i <= ITEMS + 1; i++) {
+            for (long j = 0; j <= ITEMS + 1; j++) {
+                assertThat(actual.getCoratings(i * 10, j * 10),
+                           equalTo(expected.getCoratings(i * 10, j * 10)));
+                double dev = expected.getDeviation(i * 10, j * 10);
+                if (Double.isNaN(dev)) {
+                    assertThat(Double.isNaN(actual.getDeviation(i * 10, j * 10)), equalTo(true));
+                } else {
+                    assertThat(actual.getDeviation(i * 10, j * 10), closeTo(dev, 1.0e-6));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        DataAccessObject dao = createData();
+        SlopeOneModel model = buildModel(dao);
+
+        Path file = folder.getRoot().toPath().resolve("slope1.bin");
+        MappedSlopeOneModel.write(model, file);
+        MappedSlopeOneModel mapped = MappedSlopeOneModel.open(file);
+
+        assertThat(mapped.getRowItems(), equalTo(model.getRowItems()));
+        assertSameModel(mapped, model);
+
+        SlopeOneItemScorer mappedScorer = new WeightedSlopeOneItemScorer(new StandardRatingVectorPDAO(dao), mapped, null);
+        SlopeOneItemScorer weightedScorer = new WeightedSlopeOneItemScorer(new StandardRatingVectorPDAO(dao), model, null);
+        for (long u = 1; u <= 5; u++) {
+            for (long i = 1; i <= ITEMS; i++) {
+                Result expected = weightedScorer.score(u, i * 10);
+                Result actual = mappedScorer.score(u, i * 10);
+                if (expected == null) {
+                    assertThat(actual, nullValue());
+                } else {
+                    assertThat(actual.getScore(), closeTo(expected.getScore(), 1.0e-5));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSerializeAsHeapModel() throws IOException {
+        SlopeOneModel model = buildModel(createData());
+        Path file = folder.getRoot().toPath().resolve("slope1.bin");
+        MappedSlopeOneModel.write(model, file);
+        MappedSlopeOneModel mapped = MappedSlopeOneModel.open(file);
+
+        SlopeOneModel copy = SerializationUtils.clone(mapped);
+        assertThat(copy, not(instanceOf(MappedSlopeOneModel.class)));
+        assertSameModel(copy, mapped);
+    }
+
+    @Test
+    public void testEmptyModel() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("empty.bin");
+        MappedSlopeOneModel.write(new SlopeOneModel(KeyedObjectMap.<SlopeOneModel.ModelRow>newBuilder().build()), file);
+        MappedSlopeOneModel mapped = MappedSlopeOneModel.open(file);
+        assertThat(mapped.getRowItems(), hasSize(0));
+        assertThat(mapped.getCoratings(1, 2), equalTo(0));
+        assertThat(Double.isNaN(mapped.getDeviation(1, 2)), equalTo(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectBadFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("bad.bin");
+        Files.write(file, new byte[64]);
+        MappedSlopeOneModel.open(file);
+    }
+}
@@ -35,6 +35,7 @@ import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -43,12 +44,16 @@ public class SlopeOneModelProviderTest {
     public static final double EPSILON = 1.0e-6;
 
     private SlopeOneModel getModel(List<Rating> ratings) {
+        return getModel(ratings, 0);
+    }
+
+    private SlopeOneModel getModel(List<Rating> ratings, double damping) {
         StaticDataSource source = StaticDataSource.fromList(ratings);
         DataAccessObject dao = source.get();
         RatingVectorPDAO rvDAO = new StandardRatingVectorPDAO(dao);
         ItemItemBuildContextProvider contextFactory = new ItemItemBuildContextProvider(
                 rvDAO, new DefaultUserVectorNormalizer());
-        SlopeOneModelProvider provider = new SlopeOneModelProvider(contextFactory.get(), 0);
+        SlopeOneModelProvider provider = new SlopeOneModelProvider(contextFactory.get(), damping);
         return provider.get();
     }
 
@@ -184,4 +189,45 @@ public class SlopeOneModelProviderTest {
         assertEquals(-1, model4.getDeviation(6, 7), EPSILON);
         assertEquals(1, model4.getDeviation(7, 6), EPSILON);
     }
+
+    @Test
+    public void testRandomMatchesPairwise() {
+        Random rng = new Random(42);
+        int nusers = 50;
+        int nitems = 30;
+        double[][] ratings = new double[nusers][nitems];
+        List<Rating> rs = new ArrayList<>();
+        for (int u = 0; u < nusers; u++) {
+            for (int i = 0; i < nitems; i++) {
+                if (rng.nextDouble() < 0.2) {
+                    ratings[u][i] = 1 + rng.nextInt(5);
+                    rs.add(Rating.create(u + 1, i + 100, ratings[u][i]));
+                }
+            }
+        }
+
+        SlopeOneModel model = getModel(rs, 2);
+
+        for (int i = 0; i < nitems; i++) {
+            for (int j = 0; j < nitems; j++) {
+                if (i == j) {
+                    continue;
+                }
+                int count = 0;
+                double sum = 0;
+                for (int u = 0; u < nusers; u++) {
+                    if (ratings[u][i] > 0 && ratings[u][j] > 0) {
+                        count += 1;
+                        sum += ratings[u][i] - ratings[u][j];
+                    }
+                }
+                assertEquals(count, model.getCoratings(i + 100, j + 100));
+                if (count > 0) {
+                    assertEquals(sum / (count + 2), model.getDeviation(i + 100, j + 100), EPSILON);
+                } else {
+                    assertEquals(Double.NaN, model.getDeviation(i + 100, j + 100), 0);
+                }
+            }
+        }
+    }
 }